@@ -0,0 +1,207 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package net.componio.opencms.junit.base.benchmarks;
+
+import org.opencms.db.CmsResourceState;
+import org.opencms.file.CmsFile;
+import org.opencms.file.CmsObject;
+import org.opencms.file.CmsProperty;
+import org.opencms.file.CmsResource;
+import org.opencms.lock.CmsLock;
+import org.opencms.security.CmsAccessControlEntry;
+import org.opencms.security.CmsAccessControlList;
+import org.opencms.util.CmsUUID;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * A CmsObject answering the calls of the resource storage from memory, without OpenCms running.<p>
+ *
+ * The benchmarks capture resources created with {@link #createResources(int, int, long)}.
+ * Every file has the same content and properties, so the benchmarks measure the harness and
+ * not the stub.<p>
+ */
+public class BenchmarkCmsObject extends CmsObject {
+
+    /** The site root of the created resources. */
+    public static final String SITE_ROOT = "/sites/default/";
+
+    /** The resource type id of folders. */
+    public static final int TYPE_FOLDER = 0;
+
+    /** The resource type id of plain files. */
+    public static final int TYPE_PLAIN = 1;
+
+    /** The access control entries of all resources. */
+    private List<CmsAccessControlEntry> m_accessControlEntries;
+
+    /** The access control list of all resources. */
+    private CmsAccessControlList m_accessControlList;
+
+    /** The content of all files. */
+    private byte[] m_content;
+
+    /** The properties of all resources. */
+    private List<CmsProperty> m_properties;
+
+    /**
+     * Creates a new stubbed CmsObject.<p>
+     *
+     * @param contentSize the size of the file content in bytes
+     */
+    public BenchmarkCmsObject(int contentSize) {
+
+        super(null, null);
+        m_content = new byte[contentSize];
+        new Random(contentSize).nextBytes(m_content);
+        m_properties = new ArrayList<CmsProperty>();
+        m_properties.add(new CmsProperty("Title", "Benchmark resource", null));
+        m_properties.add(new CmsProperty("Description", null, "A resource of the benchmarks"));
+        m_accessControlList = new CmsAccessControlList();
+        m_accessControlEntries = Collections.emptyList();
+    }
+
+    /**
+     * Creates the resources of a folder tree.<p>
+     *
+     * @param folders the number of folders below the {@link #SITE_ROOT}
+     * @param filesPerFolder the number of files per folder
+     * @param seed the seed of the generated ids and dates
+     * @return the folders and files, each folder before its files
+     */
+    public static List<CmsResource> createResources(int folders, int filesPerFolder, long seed) {
+
+        Random random = new Random(seed);
+        List<CmsResource> result = new ArrayList<CmsResource>();
+        for (int i = 0; i < folders; i++) {
+            String folder = SITE_ROOT + "folder" + i + "/";
+            result.add(createResource(random, folder, TYPE_FOLDER, true, 0));
+            for (int j = 0; j < filesPerFolder; j++) {
+                result.add(createResource(random, folder + "file" + j + ".txt", TYPE_PLAIN, false, 1024));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#getAccessControlEntries(java.lang.String)
+     */
+    @Override
+    public List<CmsAccessControlEntry> getAccessControlEntries(String resourceName) {
+
+        return m_accessControlEntries;
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#getAccessControlList(java.lang.String)
+     */
+    @Override
+    public CmsAccessControlList getAccessControlList(String resourceName) {
+
+        return m_accessControlList;
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#getLock(org.opencms.file.CmsResource)
+     */
+    @Override
+    public CmsLock getLock(CmsResource resource) {
+
+        return CmsLock.getNullLock();
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#readFile(org.opencms.file.CmsResource)
+     */
+    @Override
+    public CmsFile readFile(CmsResource resource) {
+
+        CmsFile file = new CmsFile(resource);
+        file.setContents(m_content);
+        return file;
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#readPropertyObjects(org.opencms.file.CmsResource, boolean)
+     */
+    @Override
+    public List<CmsProperty> readPropertyObjects(CmsResource resource, boolean search) {
+
+        return m_properties;
+    }
+
+    /**
+     * Creates a resource.<p>
+     *
+     * @param random the source of the ids and dates
+     * @param rootPath the root path
+     * @param type the resource type id
+     * @param isFolder <code>true</code> for a folder
+     * @param size the content size
+     * @return the resource
+     */
+    private static CmsResource createResource(Random random, String rootPath, int type, boolean isFolder, int size) {
+
+        long date = 1400000000000L + random.nextInt(Integer.MAX_VALUE);
+        CmsUUID user = createUuid(random);
+        CmsResourceState state = random.nextBoolean() ? CmsResource.STATE_UNCHANGED : CmsResource.STATE_CHANGED;
+        return new CmsResource(
+            createUuid(random),
+            createUuid(random),
+            rootPath,
+            type,
+            isFolder,
+            0,
+            CmsUUID.getNullUUID(),
+            state,
+            date,
+            user,
+            date,
+            user,
+            CmsResource.DATE_RELEASED_DEFAULT,
+            CmsResource.DATE_EXPIRED_DEFAULT,
+            1,
+            size,
+            date,
+            0);
+    }
+
+    /**
+     * Creates a UUID.<p>
+     *
+     * @param random the source of the UUID
+     * @return the UUID
+     */
+    private static CmsUUID createUuid(Random random) {
+
+        return new CmsUUID(new UUID(random.nextLong(), random.nextLong()).toString());
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package net.componio.opencms.junit.base.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks and saves the results for the comparison between builds.<p>
+ *
+ * Accepts the usual JMH command line options, e.g. a regular expression selecting the
+ * benchmarks. The results are written as JSON to
+ * <code>&lt;results&gt;/jmh-&lt;label&gt;-&lt;timestamp&gt;.json</code> and copied to
+ * <code>&lt;results&gt;/latest.json</code>. The folder is set with the system property
+ * {@link #PROP_RESULTS}, by default <code>results</code>, the label with {@link #PROP_LABEL},
+ * by default <code>local</code>. Two result files can be compared with any JMH result
+ * viewer.<p>
+ */
+public final class BenchmarkRunner {
+
+    /** Name of the system property to set the label of the results, e.g. the build number. */
+    public static final String PROP_LABEL = "benchmark.label";
+
+    /** Name of the system property to set the folder of the results. */
+    public static final String PROP_RESULTS = "benchmark.results";
+
+    /**
+     * Hides the public constructor.<p>
+     */
+    private BenchmarkRunner() {
+
+        // noop
+    }
+
+    /**
+     * Runs the benchmarks.<p>
+     *
+     * @param args the JMH command line options
+     * @throws CommandLineOptionException if the options are invalid
+     * @throws IOException if copying the results fails
+     * @throws RunnerException if running the benchmarks fails
+     */
+    public static void main(String[] args) throws CommandLineOptionException, IOException, RunnerException {
+
+        File folder = new File(System.getProperty(PROP_RESULTS, "results"));
+        folder.mkdirs();
+        String label = System.getProperty(PROP_LABEL, "local");
+        File result = new File(folder, "jmh-"
+            + label
+            + "-"
+            + new SimpleDateFormat("yyyyMMdd-HHmmss").format(new Date())
+            + ".json");
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine);
+        if (!commandLine.getResult().hasValue()) {
+            options.resultFormat(ResultFormatType.JSON).result(result.getAbsolutePath());
+        }
+        new Runner(options.build()).run();
+        if (result.exists()) {
+            FileUtils.copyFile(result, new File(folder, "latest.json"));
+            System.out.println("Benchmark results written to " + result.getAbsolutePath());
+        }
+    }
+}
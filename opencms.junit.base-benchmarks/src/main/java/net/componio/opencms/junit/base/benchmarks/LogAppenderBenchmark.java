@@ -0,0 +1,192 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package net.componio.opencms.junit.base.benchmarks;
+
+import net.componio.opencms.junit.base.OpenCmsTestLogAppender;
+
+import java.io.Writer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.spi.LoggingEvent;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of the throughput of the test log appender.<p>
+ *
+ * The appender formats the events into a writer discarding its output, so the benchmark
+ * measures the appender and the layout, not the console. It runs with 4 logging threads,
+ * in the direct and the asynchronous mode. In the asynchronous mode events not fitting into
+ * the buffer are dropped. The writer thread can not keep up with 4 logging threads for a whole
+ * iteration, so the number of dropped events is reported as the secondary result "m_dropped"
+ * of each iteration. Subtract it from the operations to get the events actually written.<p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Threads(4)
+@Fork(1)
+public class LogAppenderBenchmark {
+
+    /**
+     * The events dropped while a thread appended, reported as secondary result of each iteration.<p>
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class DroppedEvents {
+
+        /** The number of dropped events. */
+        public long m_dropped;
+
+        /**
+         * Resets the counter before each iteration.<p>
+         */
+        @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+        public void reset() {
+
+            m_dropped = 0;
+        }
+    }
+
+    /**
+     * A writer discarding its output.<p>
+     */
+    private static class NullWriter extends Writer {
+
+        /**
+         * @see java.io.Writer#close()
+         */
+        @Override
+        public void close() {
+
+            // noop
+        }
+
+        /**
+         * @see java.io.Writer#flush()
+         */
+        @Override
+        public void flush() {
+
+            // noop
+        }
+
+        /**
+         * @see java.io.Writer#write(char[], int, int)
+         */
+        @Override
+        public void write(char[] cbuf, int off, int len) {
+
+            // noop
+        }
+    }
+
+    /** Indicates if the appender runs in asynchronous mode. */
+    @Param({"false", "true"})
+    public boolean m_async;
+
+    /** The appender. */
+    private OpenCmsTestLogAppender m_appender;
+
+    /** The appended event. */
+    private LoggingEvent m_event;
+
+    /** The number of dropped events already added to the counters of the threads. */
+    private AtomicLong m_reportedDrops;
+
+    /**
+     * Appends an event.<p>
+     * 
+     * @param dropped the counter of the dropped events of the current thread
+     */
+    @Benchmark
+    public void append(DroppedEvents dropped) {
+
+        m_appender.doAppend(m_event);
+        if (m_async) {
+            long count = OpenCmsTestLogAppender.getDroppedEventCount();
+            if (count != m_reportedDrops.get()) {
+                // the drops are counted for all threads, the differences add up to the total
+                dropped.m_dropped += count - m_reportedDrops.getAndSet(count);
+            }
+        }
+    }
+
+    /**
+     * Closes the appender, writing the queued events.<p>
+     */
+    @TearDown
+    public void close() {
+
+        // closing the appender resets the count
+        long dropped = OpenCmsTestLogAppender.getDroppedEventCount();
+        m_appender.close();
+        if (m_async) {
+            System.out.println("Dropped events: " + dropped);
+        }
+    }
+
+    /**
+     * Creates the appender.<p>
+     */
+    @Setup
+    public void setup() {
+
+        OpenCmsTestLogAppender.setBreakOnError(false);
+        OpenCmsTestLogAppender.setConsoleOutput(true);
+        m_appender = new OpenCmsTestLogAppender();
+        m_appender.setLayout(new PatternLayout("%d{ISO8601} %-5p [%t] %c - %m%n"));
+        m_appender.setAsync(m_async);
+        m_appender.activateOptions();
+        m_appender.setWriter(new NullWriter());
+        m_reportedDrops = new AtomicLong();
+        m_event = new LoggingEvent(
+            Logger.class.getName(),
+            Logger.getLogger("org.opencms.benchmark"),
+            Level.INFO,
+            "Benchmark message of a typical length for the OpenCms log",
+            null);
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package net.componio.opencms.junit.base.benchmarks;
+
+import net.componio.opencms.junit.base.OpenCmsTestResourceStorage;
+import net.componio.opencms.junit.base.OpenCmsTestResourceStorageEntry;
+
+import org.opencms.file.CmsResource;
+import org.opencms.main.CmsException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of adding, reading and mapping the entries of a resource storage.<p>
+ *
+ * The storage holds the resources of <code>m_folders</code> folders with 20 files each. The
+ * add benchmark fills a new storage with captured entries, so it measures interning, indexing
+ * and the state precalculation, but not the capture. The lookups run against the filled
+ * storage, with a name mapping of a moved folder.<p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceStorageBenchmark {
+
+    /** The root of the moved names, mapped to the site root. */
+    private static final String MOVED_ROOT = BenchmarkCmsObject.SITE_ROOT + "moved/";
+
+    /** The number of files per folder. */
+    private static final int FILES_PER_FOLDER = 20;
+
+    /** The number of folders. */
+    @Param({"50", "500"})
+    public int m_folders;
+
+    /** The captured entries, in the order of the names. */
+    private List<OpenCmsTestResourceStorageEntry> m_entries;
+
+    /** The index of the next looked up name. */
+    private int m_next;
+
+    /** The names of the captured entries. */
+    private List<String> m_names;
+
+    /** The storage filled by the add benchmark. */
+    private OpenCmsTestResourceStorage m_newStorage;
+
+    /** The filled storage. */
+    private OpenCmsTestResourceStorage m_storage;
+
+    /**
+     * Adds all captured entries to a new storage.<p>
+     *
+     * @return the filled storage
+     */
+    @Benchmark
+    public OpenCmsTestResourceStorage add() {
+
+        for (int i = 0; i < m_names.size(); i++) {
+            m_newStorage.add(m_names.get(i), m_entries.get(i));
+        }
+        return m_newStorage;
+    }
+
+    /**
+     * Clears the storage filled by the add benchmark.<p>
+     */
+    @TearDown(Level.Invocation)
+    public void clearNewStorage() {
+
+        m_newStorage.clear();
+    }
+
+    /**
+     * Reads an entry through the name mapping.<p>
+     *
+     * @return the entry
+     * @throws Exception if the entry is not found
+     */
+    @Benchmark
+    public OpenCmsTestResourceStorageEntry get() throws Exception {
+
+        return m_storage.get(nextName());
+    }
+
+    /**
+     * Maps a resource name, alternating between mapped and unmapped names.<p>
+     *
+     * @param blackhole consumes the mapped names
+     */
+    @Benchmark
+    public void mapResourcename(Blackhole blackhole) {
+
+        String name = nextName();
+        blackhole.consume(m_storage.mapResourcename(name));
+        blackhole.consume(m_storage.mapResourcename(MOVED_ROOT + name.substring(BenchmarkCmsObject.SITE_ROOT.length())));
+    }
+
+    /**
+     * Creates a new storage for the add benchmark.<p>
+     */
+    @Setup(Level.Invocation)
+    public void newStorage() {
+
+        m_newStorage = new OpenCmsTestResourceStorage("add");
+        m_newStorage.setContentMode(OpenCmsTestResourceStorageEntry.ContentMode.HASH);
+    }
+
+    /**
+     * Captures the entries and fills the storage.<p>
+     *
+     * @throws CmsException if capturing an entry fails
+     */
+    @Setup(Level.Trial)
+    public void setup() throws CmsException {
+
+        BenchmarkCmsObject cms = new BenchmarkCmsObject(1024);
+        m_names = new ArrayList<String>();
+        m_entries = new ArrayList<OpenCmsTestResourceStorageEntry>();
+        for (CmsResource resource : BenchmarkCmsObject.createResources(m_folders, FILES_PER_FOLDER, 42)) {
+            m_names.add(resource.getRootPath());
+            m_entries.add(new OpenCmsTestResourceStorageEntry(
+                cms,
+                resource.getRootPath(),
+                resource,
+                OpenCmsTestResourceStorageEntry.ContentMode.HASH,
+                null));
+        }
+        m_storage = new OpenCmsTestResourceStorage("lookup");
+        m_storage.setContentMode(OpenCmsTestResourceStorageEntry.ContentMode.HASH);
+        for (int i = 0; i < m_names.size(); i++) {
+            m_storage.add(m_names.get(i), m_entries.get(i));
+        }
+        m_storage.setMapping(MOVED_ROOT, BenchmarkCmsObject.SITE_ROOT);
+    }
+
+    /**
+     * Returns the next name to look up, cycling through all names.<p>
+     *
+     * @return the next name
+     */
+    private String nextName() {
+
+        m_next = (m_next + 1) % m_names.size();
+        return m_names.get(m_next);
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package net.componio.opencms.junit.base.benchmarks;
+
+import net.componio.opencms.junit.base.OpenCmsTestResourceStorageEntry;
+
+import org.opencms.file.CmsResource;
+import org.opencms.main.CmsException;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks of capturing a storage entry from a file against a stubbed CmsObject.<p>
+ *
+ * The capture copies the resource attributes and properties and hashes the content, so the
+ * content size and the content mode decide the cost.<p>
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResourceStorageEntryBenchmark {
+
+    /** The size of the file content in bytes. */
+    @Param({"1024", "65536"})
+    public int m_contentSize;
+
+    /** The content mode of the capture. */
+    @Param({"FULL", "HASH"})
+    public OpenCmsTestResourceStorageEntry.ContentMode m_contentMode;
+
+    /** The stubbed CmsObject. */
+    private BenchmarkCmsObject m_cms;
+
+    /** The index of the next captured resource. */
+    private int m_next;
+
+    /** The captured files. */
+    private List<CmsResource> m_resources;
+
+    /**
+     * Captures the next file.<p>
+     *
+     * @return the captured entry
+     * @throws CmsException if the capture fails
+     */
+    @Benchmark
+    public OpenCmsTestResourceStorageEntry capture() throws CmsException {
+
+        m_next = (m_next + 1) % m_resources.size();
+        CmsResource resource = m_resources.get(m_next);
+        return new OpenCmsTestResourceStorageEntry(m_cms, resource.getRootPath(), resource, m_contentMode, null);
+    }
+
+    /**
+     * Creates the stubbed CmsObject and the files.<p>
+     */
+    @Setup
+    public void setup() {
+
+        m_cms = new BenchmarkCmsObject(m_contentSize);
+        // a single folder with its files, the folder is skipped
+        m_resources = BenchmarkCmsObject.createResources(1, 100, 42);
+        m_resources.remove(0);
+    }
+}
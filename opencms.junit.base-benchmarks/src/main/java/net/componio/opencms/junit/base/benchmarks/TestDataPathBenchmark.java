@@ -0,0 +1,175 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package net.componio.opencms.junit.base.benchmarks;
+
+import net.componio.opencms.junit.base.OpenCmsTestBase;
+import net.componio.opencms.junit.base.OpenCmsTestProperties;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Benchmarks of the test data path lookups and of copying and purging the temporary data path.<p>
+ *
+ * The setup writes a generated data folder and a <code>test.properties</code> pointing to it
+ * into a temporary folder and initializes the test properties from there, so no OpenCms
+ * installation is required. Each fork starts with fresh test properties.<p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TestDataPathBenchmark {
+
+    /** The number of files in the generated data folder. */
+    @Param({"100", "1000"})
+    public int m_files;
+
+    /** The temporary base folder. */
+    private File m_base;
+
+    /**
+     * Copies the data path to the temporary data path and deletes the copy.<p>
+     *
+     * @throws IOException if copying or deleting fails
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public void copyAndPurge() throws IOException {
+
+        OpenCmsTestBase.copyDataPath();
+        OpenCmsTestBase.deleteDataPathTmp();
+    }
+
+    /**
+     * Looks up an existing and a missing file in the test data paths.<p>
+     *
+     * @param blackhole consumes the found paths
+     */
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.NANOSECONDS)
+    public void getTestDataPathTmp(Blackhole blackhole) {
+
+        blackhole.consume(OpenCmsTestBase.getTestDataPathTmp("WEB-INF/config/opencms.properties"));
+        blackhole.consume(OpenCmsTestBase.getTestDataPathTmp("WEB-INF/config/missing.properties"));
+    }
+
+    /**
+     * Clears the timings recorded by the copies.<p>
+     */
+    @TearDown(Level.Iteration)
+    public void clearTimings() {
+
+        OpenCmsTestBase.m_lifecycleTimer.clear();
+    }
+
+    /**
+     * Deletes the temporary base folder.<p>
+     *
+     * @throws IOException if deleting fails
+     */
+    @TearDown(Level.Trial)
+    public void delete() throws IOException {
+
+        FileUtils.deleteDirectory(m_base);
+    }
+
+    /**
+     * Writes the data folder and the test properties and initializes the test data paths.<p>
+     *
+     * @throws IOException if writing the files fails
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+
+        m_base = File.createTempFile("junitDriva-benchmark", "");
+        m_base.delete();
+        File data = new File(m_base, "data");
+        File config = new File(data, "WEB-INF" + File.separator + "config");
+        config.mkdirs();
+        writeFile(new File(config, "opencms.properties"), 512, 0);
+        Random random = new Random(42);
+        for (int i = 0; i < m_files; i++) {
+            File folder = new File(data, "WEB-INF" + File.separator + "packages" + File.separator + "folder" + (i / 50));
+            folder.mkdirs();
+            writeFile(new File(folder, "file" + i + ".txt"), 1024 + random.nextInt(8192), i);
+        }
+        File properties = new File(m_base, "test.properties");
+        FileUtils.writeStringToFile(properties, "db.product=mysql\n"
+            + OpenCmsTestProperties.PROP_TEST_DATA_PATH
+            + "="
+            + data.getAbsolutePath().replace('\\', '/')
+            + "\n"
+            + OpenCmsTestProperties.PROP_TEST_WEBAPP_PATH
+            + "="
+            + data.getAbsolutePath().replace('\\', '/')
+            + "\n", "UTF-8");
+        OpenCmsTestProperties.initialize(m_base.getAbsolutePath());
+        OpenCmsTestBase.initTestDataPathTmp();
+    }
+
+    /**
+     * Writes a file with generated content.<p>
+     *
+     * @param file the file
+     * @param size the size in bytes
+     * @param seed the seed of the content
+     * @throws IOException if writing fails
+     */
+    private void writeFile(File file, int size, long seed) throws IOException {
+
+        byte[] content = new byte[size];
+        new Random(seed).nextBytes(content);
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(content);
+        } finally {
+            out.close();
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (C) Alkacon Software (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ * 
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+package net.componio.opencms.junit.base;
+
+/**
+* An interface for classes which should be notified about the steps of the test harness lifecycle.<p>
+*/
+public interface I_CmsLifecycleListener {
+
+    /**
+     * This method is called when a step starts.<p>
+     * 
+     * @param timing the running timing of the step 
+     */
+    void stepStarted(OpenCmsTestLifecycleTimer.Timing timing);
+
+    /**
+     * This method is called when a step stops, after its duration was recorded.<p>
+     * 
+     * @param timing the finished timing of the step 
+     */
+    void stepStopped(OpenCmsTestLifecycleTimer.Timing timing);
+
+}
@@ -31,6 +31,10 @@ import org.apache.log4j.spi.LoggingEvent;
 
 /**
 * An interface for classes which should handle log events.<p>
+*
+* The handler set with {@link OpenCmsTestLogAppender#setHandler(I_CmsLogHandler)} is called by one
+* logging thread at a time. Handlers registered with the {@link OpenCmsTestLogHandlerRegistry} are
+* called concurrently by all logging threads and must be thread safe.<p>
 */
 public interface I_CmsLogHandler {
 
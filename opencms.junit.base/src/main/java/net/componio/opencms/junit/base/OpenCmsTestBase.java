@@ -51,6 +51,7 @@ import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.TimeoutException;
 import junit.framework.TestCase;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.logging.LogFactory;
@@ -121,7 +122,41 @@ public class OpenCmsTestBase {
     /**
      * The internal storages.
      */
-    public static HashMap<String, OpenCmsTestResourceStorage> m_resourceStorages;
+    public static final OpenCmsTestResourceStorageRegistry m_storageRegistry = new OpenCmsTestResourceStorageRegistry();
+    /**
+     * The internal storages of the scope of the calling thread, a view of the registry.
+     * 
+     * The field is final, as a replaced map would no longer be connected to the registry. 
+     * Storages put into or removed from the view are added to or removed from the registry.
+     * 
+     * @deprecated use {@link #m_storageRegistry}
+     */
+    @Deprecated
+    public static final Map<String, OpenCmsTestResourceStorage> m_resourceStorages = m_storageRegistry.asMap();
+    /**
+     * The profiler of the OpenCms startup phases.
+     */
+    public static final OpenCmsTestStartupProfiler m_startupProfiler = new OpenCmsTestStartupProfiler();
+    /**
+     * The governor of the log levels during setup, import, publish and teardown.
+     */
+    public static final OpenCmsTestLogLevelGovernor m_logLevelGovernor = new OpenCmsTestLogLevelGovernor();
+    /**
+     * The timer of the lifecycle steps.
+     */
+    public static final OpenCmsTestLifecycleTimer m_lifecycleTimer = new OpenCmsTestLifecycleTimer();
+    /**
+     * The emitter of the flight recorder events of the lifecycle steps.
+     */
+    public static final OpenCmsTestFlightRecorder m_flightRecorder = new OpenCmsTestFlightRecorder(m_lifecycleTimer);
+    /**
+     * The cache of the search indexes built during setup.
+     */
+    public static final OpenCmsTestSearchIndexCache m_searchIndexCache = new OpenCmsTestSearchIndexCache();
+    /**
+     * The event driven waiter for the publish queue.
+     */
+    public static final OpenCmsTestPublishWaiter m_publishWaiter = new OpenCmsTestPublishWaiter();
     /**
      * Name of the temporary tablespace (oracle only).
      */
@@ -150,6 +185,10 @@ public class OpenCmsTestBase {
      * The path to the default setup data files.
      */
     private static String m_setupDataPath;
+    /**
+     * Indicates if the log level governor was configured from the test properties.
+     */
+    private static boolean m_logLevelGovernorConfigured;
     /**
      * The initialized OpenCms shell instance.
      */
@@ -159,9 +198,9 @@ public class OpenCmsTestBase {
      */
     private static List<String> m_testDataPath;
     /**
-     * The current resource storage.
+     * The resource storage this test instance last switched to.
      */
-    public OpenCmsTestResourceStorage m_currentResourceStrorage;
+    public volatile OpenCmsTestResourceStorage m_currentResourceStrorage;
 
     /**
      * JUnit constructor.<p>
@@ -173,13 +212,18 @@ public class OpenCmsTestBase {
         CmsLog.INIT = LogFactory.getLog("org.opencms.init");
         if (initialize) {
             OpenCmsTestLogAppender.setBreakOnError(false);
-            if (m_resourceStorages == null) {
-                m_resourceStorages = new HashMap<String, OpenCmsTestResourceStorage>();
-            }
 
-            
             // initialize configuration
-            initConfiguration();
+            OpenCmsTestLifecycleTimer.Timing timing = m_configuration == null ? m_lifecycleTimer.start(
+                    OpenCmsTestLifecycleTimer.STEP_INIT_CONFIGURATION,
+                    null) : null;
+            try {
+                initConfiguration();
+            } finally {
+                if (timing != null) {
+                    m_lifecycleTimer.stop(timing);
+                }
+            }
 
             // set "OpenCmsLog" system property to enable the logger
             OpenCmsTestLogAppender.setBreakOnError(true);
@@ -237,6 +281,7 @@ public class OpenCmsTestBase {
         OpenCmsTestLogAppender.setBreakOnError(false);
         // output a message 
         System.out.println("\n\n\n----- Starting test case: Importing OpenCms VFS data -----");
+        enterLogPhase(OpenCmsTestLogLevelGovernor.Phase.SETUP);
 
         // kill any old shell that might have remained from a previous test 
         if (m_shell != null) {
@@ -249,18 +294,16 @@ public class OpenCmsTestBase {
         }
 
         // create a shell instance
-        m_shell = new CmsShell(getTestDataPathTmp("WEB-INF" + File.separator), null, null, "${user}@${project}>", null);
+        m_shell = createShell("import");
 
         // open the test script 
         File script;
-        FileInputStream stream = null;
         CmsObject cms = null;
 
         try {
             // start the shell with the base script
             script = new File(OpenCmsTestProperties.getInstance().getTestCmsShellScriptsPath() + "/" + "script_import.txt");
-            stream = new FileInputStream(script);
-            m_shell.start(stream);
+            runScript(script);
 
             // log in the Admin user and switch to the setup project
             cms = OpenCms.initCmsObject(OpenCms.getDefaultUsers().getUserGuest());
@@ -272,9 +315,13 @@ public class OpenCmsTestBase {
 
             // publish the current project by script
             script = new File(OpenCmsTestProperties.getInstance().getTestCmsShellScriptsPath() + "/" + "script_import_publish.txt");
-            stream = new FileInputStream(script);
-            m_shell.start(stream);
-            OpenCms.getPublishManager().waitWhileRunning();
+            OpenCmsTestLogLevelGovernor.Phase previousPhase = enterLogPhase(OpenCmsTestLogLevelGovernor.Phase.PUBLISH);
+            try {
+                runScript(script);
+                waitForPublishQueue();
+            } finally {
+                enterLogPhase(previousPhase);
+            }
 
             // switch to the "Offline" project
             cms.getRequestContext().setCurrentProject(cms.readProject("Offline"));
@@ -285,6 +332,9 @@ public class OpenCmsTestBase {
         } catch (Throwable t) {
             t.printStackTrace(System.err);
             TestCase.fail("Unable to setup OpenCms\n" + CmsException.getStackTraceAsString(t));
+        } finally {
+            // restore the log levels of the tests, also if the setup failed
+            enterLogPhase(null);
         }
         // turn on exceptions after error logging
         OpenCmsTestLogAppender.setBreakOnError(true);
@@ -319,58 +369,86 @@ public class OpenCmsTestBase {
 
         // ensure logging does not throw exceptions
         OpenCmsTestLogAppender.setBreakOnError(false);
+        enterLogPhase(OpenCmsTestLogLevelGovernor.Phase.TEARDOWN);
+        try {
+            // output a message
+            m_shell.printPrompt();
+            System.out.println("----- Test cases finished -----");
 
-        // output a message
-        m_shell.printPrompt();
-        System.out.println("----- Test cases finished -----");
-
-        // exit the shell
-        m_shell.exit();
+            // exit the shell
+            OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(
+                    OpenCmsTestLifecycleTimer.STEP_REMOVE,
+                    "exitShell");
+            try {
+                m_shell.exit();
 
-        try {
-            // sleep 0.5 seconds - sometimes other Threads need to finish before the next test case can start
-            Thread.sleep(500);
-        } catch (InterruptedException e) {
-            // ignore
-        }
+                try {
+                    // sleep 0.5 seconds - sometimes other Threads need to finish before the next test case can start
+                    Thread.sleep(500);
+                } catch (InterruptedException e) {
+                    // ignore
+                }
+            } finally {
+                m_lifecycleTimer.stop(timing);
+            }
 
-        // remove the database
-        removeDatabase();
-        deleteDataPathTmp();
+            // remove the database
+            timing = m_lifecycleTimer.start(OpenCmsTestLifecycleTimer.STEP_REMOVE, "removeDatabase");
+            try {
+                timing.setAttribute(OpenCmsTestLifecycleTimer.ATTR_SCHEMA, getSchemaNames());
+                removeDatabase();
+            } finally {
+                m_lifecycleTimer.stop(timing);
+            }
+            timing = m_lifecycleTimer.start(OpenCmsTestLifecycleTimer.STEP_REMOVE, "deleteDataPathTmp");
+            try {
+                deleteDataPathTmp();
+            } finally {
+                m_lifecycleTimer.stop(timing);
+            }
 
-        String path;
+            timing = m_lifecycleTimer.start(OpenCmsTestLifecycleTimer.STEP_REMOVE, "purgeFolders");
+            try {
+                String path;
 
-        // remove potentially created "classes, "lib", "backup" etc. folder
-        path = getTestDataPathTmp("WEB-INF/classes/");
-        if (path != null) {
-            CmsFileUtil.purgeDirectory(new File(path));
-        }
-        path = getTestDataPathTmp("WEB-INF/logs/publish");
-        if (path != null) {
-            CmsFileUtil.purgeDirectory(new File(path));
-        }
-        path = getTestDataPathTmp("WEB-INF/lib/");
-        if (path != null) {
-            CmsFileUtil.purgeDirectory(new File(path));
-        }
-        path = getTestDataPathTmp("WEB-INF/" + CmsSystemInfo.FOLDER_CONFIG_DEFAULT + "backup/");
-        if (path != null) {
-            CmsFileUtil.purgeDirectory(new File(path));
-        }
-        path = getTestDataPathTmp("WEB-INF/index/");
-        if ((path != null) && !m_configuration.containsKey("test.keep.searchIndex")) {
-            CmsFileUtil.purgeDirectory(new File(path));
-        }
-        path = getTestDataPathTmp("export/");
-        if (path != null) {
-            CmsFileUtil.purgeDirectory(new File(path));
-        }
-        //delete the rest of the files that could be generated or created during the tests
-        File[] deleteRest = new File(OpenCmsTestProperties.getInstance().getTestDataPath()).listFiles();
-        for (File rest : deleteRest) {
-            if (!CmsFileUtil.normalizePath(rest.getAbsolutePath() + File.separator).equals(getTestDataPathTmp("WEB-INF"))) {
-                rest.delete();
+                // remove potentially created "classes, "lib", "backup" etc. folder
+                path = getTestDataPathTmp("WEB-INF/classes/");
+                if (path != null) {
+                    CmsFileUtil.purgeDirectory(new File(path));
+                }
+                path = getTestDataPathTmp("WEB-INF/logs/publish");
+                if (path != null) {
+                    CmsFileUtil.purgeDirectory(new File(path));
+                }
+                path = getTestDataPathTmp("WEB-INF/lib/");
+                if (path != null) {
+                    CmsFileUtil.purgeDirectory(new File(path));
+                }
+                path = getTestDataPathTmp("WEB-INF/" + CmsSystemInfo.FOLDER_CONFIG_DEFAULT + "backup/");
+                if (path != null) {
+                    CmsFileUtil.purgeDirectory(new File(path));
+                }
+                path = getTestDataPathTmp("WEB-INF/index/");
+                if ((path != null) && !m_configuration.containsKey("test.keep.searchIndex")) {
+                    CmsFileUtil.purgeDirectory(new File(path));
+                }
+                path = getTestDataPathTmp("export/");
+                if (path != null) {
+                    CmsFileUtil.purgeDirectory(new File(path));
+                }
+                //delete the rest of the files that could be generated or created during the tests
+                File[] deleteRest = new File(OpenCmsTestProperties.getInstance().getTestDataPath()).listFiles();
+                for (File rest : deleteRest) {
+                    if (!CmsFileUtil.normalizePath(rest.getAbsolutePath() + File.separator).equals(getTestDataPathTmp("WEB-INF"))) {
+                        rest.delete();
+                    }
+                }
+            } finally {
+                m_lifecycleTimer.stop(timing);
             }
+        } finally {
+            enterLogPhase(null);
+            writeLifecycleReport();
         }
     }
 
@@ -383,6 +461,7 @@ public class OpenCmsTestBase {
         OpenCmsTestLogAppender.setBreakOnError(false);
         // output a message 
         System.out.println("\n\n\n----- Restarting OpenCms -----");
+        enterLogPhase(OpenCmsTestLogLevelGovernor.Phase.SETUP);
 
         // kill any old shell that might have remained from a previous test 
         if (m_shell != null) {
@@ -395,8 +474,10 @@ public class OpenCmsTestBase {
         }
 
         // create a shell instance
-        m_shell = new CmsShell(getTestDataPathTmp("WEB-INF" + File.separator), null, null, "${user}@${project}>", null);
+        m_shell = createShell("restart");
 
+        // restore the log levels of the tests
+        enterLogPhase(null);
         // turn on exceptions after error logging
         OpenCmsTestLogAppender.setBreakOnError(true);
     }
@@ -474,12 +555,15 @@ public class OpenCmsTestBase {
             boolean publish) throws IOException {
 
         // intialize a new resource storage
-        m_resourceStorages = new HashMap<String, OpenCmsTestResourceStorage>();
+        m_storageRegistry.clear();
+        // forget the publish jobs of a previous instance
+        m_publishWaiter.clear();
 
         // turn off exceptions after error logging during setup (won't work otherwise)
         OpenCmsTestLogAppender.setBreakOnError(false);
         // output a message 
         System.out.println("\n\n\n----- Starting test case: Importing OpenCms VFS data -----");
+        enterLogPhase(OpenCmsTestLogLevelGovernor.Phase.SETUP);
 
         // kill any old shell that might have remained from a previous test 
         if (m_shell != null) {
@@ -493,25 +577,26 @@ public class OpenCmsTestBase {
         // create a new database first
         setupDatabase();
 
+        // restore the search indexes of an identical setup before OpenCms starts
+        restoreSearchIndex(targetFolder, publish);
 
         // create a shell instance
-        m_shell = new CmsShell(getTestDataPathTmp("WEB-INF" + File.separator), null, null, "${user}@${project}>", null);
+        m_shell = createShell("setup");
+        // restored search indexes are not updated by the setup scripts, the import and the publish
+        m_searchIndexCache.suspendIndexing();
 
         // open the test script 
         File script;
-        FileInputStream stream = null;
         CmsObject cms = null;
 
         try {
             // start the shell with the base script
             script = new File(OpenCmsTestProperties.getInstance().getTestCmsShellScriptsPath() + "/" + "script_base.txt");
-            stream = new FileInputStream(script);
-            m_shell.start(stream);
+            runScript(script);
 
             // add the default folders by script
             script = new File(OpenCmsTestProperties.getInstance().getTestCmsShellScriptsPath() + "/" + "script_default_folders.txt");
-            stream = new FileInputStream(script);
-            m_shell.start(stream);
+            runScript(script);
 
             // log in the Admin user and switch to the setup project
             cms = OpenCms.initCmsObject(OpenCms.getDefaultUsers().getUserGuest());
@@ -523,18 +608,22 @@ public class OpenCmsTestBase {
 
             // create the default projects by script
             script = new File(OpenCmsTestProperties.getInstance().getTestCmsShellScriptsPath() + "/" + "script_default_projects.txt");
-            stream = new FileInputStream(script);
-            m_shell.start(stream);
+            runScript(script);
 
             if (publish) {
                 // publish the current project by script
                 script = new File(OpenCmsTestProperties.getInstance().getTestCmsShellScriptsPath() + "/" + "script_publish.txt");
-                stream = new FileInputStream(script);
-                m_shell.start(stream);
-                OpenCms.getPublishManager().waitWhileRunning();
+                OpenCmsTestLogLevelGovernor.Phase previousPhase = enterLogPhase(OpenCmsTestLogLevelGovernor.Phase.PUBLISH);
+                try {
+                    runScript(script);
+                    waitForPublishQueue();
+                } finally {
+                    enterLogPhase(previousPhase);
+                }
             } else {
                 cms.unlockProject(cms.readProject("_setupProject").getUuid());
             }
+            archiveSearchIndex(cms);
 
             // switch to the "Offline" project
             cms.getRequestContext().setCurrentProject(cms.readProject("Offline"));
@@ -545,6 +634,9 @@ public class OpenCmsTestBase {
         } catch (Throwable t) {
             t.printStackTrace(System.err);
             TestCase.fail("Unable to setup OpenCms\n" + CmsException.getStackTraceAsString(t));
+        } finally {
+            // restore the log levels of the tests, also if the setup failed
+            enterLogPhase(null);
         }
         // turn on exceptions after error logging
         OpenCmsTestLogAppender.setBreakOnError(true);
@@ -608,6 +700,23 @@ public class OpenCmsTestBase {
         return replacer;
     }
 
+    /**
+     * Returns the names of the database schemas of the test instance.<p>
+     *
+     * @return the names of the schemas, separated by commas
+     */
+    protected static String getSchemaNames() {
+
+        StringBuffer result = new StringBuffer();
+        if (m_defaultConnection != null) {
+            result.append(m_defaultConnection.m_dbName);
+        }
+        if (m_additionalConnection != null) {
+            result.append(result.length() > 0 ? "," : "").append(m_additionalConnection.m_dbName);
+        }
+        return result.toString();
+    }
+
     /**
      * Returns the path to the data files used by the setup wizard.<p>
      *
@@ -669,6 +778,27 @@ public class OpenCmsTestBase {
      */
     protected static void importResources(CmsObject cms, String targetPath) throws CmsException, IOException {
 
+        OpenCmsTestLogLevelGovernor.Phase previousPhase = enterLogPhase(OpenCmsTestLogLevelGovernor.Phase.IMPORT);
+        try {
+            for (File file : getImportFiles()) {
+                importFile(cms, file, targetPath);
+            }
+        } finally {
+            enterLogPhase(previousPhase);
+        }
+    }
+
+    /**
+     * Returns the modules and import files configured in the test properties, in import order.<p>
+     *
+     * The modules of <code>test.import.modules.in.order</code> are used if set, otherwise
+     * the files in the folders of <code>test.import.folders</code>.<p>
+     *
+     * @return the files to import
+     */
+    protected static List<File> getImportFiles() {
+
+        List<File> result = new ArrayList<File>();
         String impFoldersProp = OpenCmsTestProperties.getInstance().getTestImportFolders();
         String impModulesProp = OpenCmsTestProperties.getInstance().getTestImportModulesInOrder();
 
@@ -679,13 +809,7 @@ public class OpenCmsTestBase {
             for (String module : importModules) {
                 File file = new File(module);
                 if (file.isFile()) {
-                    OpenCms.getImportExportManager().importData(
-                            cms,
-                            new CmsShellReport(cms.getRequestContext().getLocale()),
-                            new CmsImportParameters(
-                            file.getAbsolutePath(),
-                            targetPath,
-                            true));
+                    result.add(file);
                 }
             }
         } else if (importFolders != null) {
@@ -694,18 +818,38 @@ public class OpenCmsTestBase {
                     File[] files = new File(folder.trim()).listFiles();
                     for (File file : files) {
                         if (file.isFile()) {
-                            OpenCms.getImportExportManager().importData(
-                                    cms,
-                                    new CmsShellReport(cms.getRequestContext().getLocale()),
-                                    new CmsImportParameters(
-                                    file.getAbsolutePath(),
-                                    targetPath,
-                                    true));
+                            result.add(file);
                         }
                     }
                 }
             }
         }
+        return result;
+    }
+
+    /**
+     * Imports a module or import file into the VFS and records the import in the lifecycle timer.<p>
+     *
+     * @param cms an initialized CmsObject
+     * @param file the module or import file
+     * @param targetPath the target folder in the VFS
+     * @throws CmsException if something goes wrong
+     */
+    protected static void importFile(CmsObject cms, File file, String targetPath) throws CmsException {
+
+        OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(
+                OpenCmsTestLifecycleTimer.STEP_MODULE_IMPORT,
+                file.getName());
+        timing.setAttribute(OpenCmsTestLifecycleTimer.ATTR_MODULE, file.getName());
+        timing.setAttribute(OpenCmsTestLifecycleTimer.ATTR_TARGET_PATH, targetPath);
+        try {
+            OpenCms.getImportExportManager().importData(
+                    cms,
+                    new CmsShellReport(cms.getRequestContext().getLocale()),
+                    new CmsImportParameters(file.getAbsolutePath(), targetPath, true));
+        } finally {
+            m_lifecycleTimer.stop(timing);
+        }
     }
 
     /**
@@ -802,12 +946,17 @@ public class OpenCmsTestBase {
      */
     public static void copyDataPath() throws IOException {
 
-        File testDataPathOri = new File(OpenCmsTestProperties.getInstance().getTestDataPath());
-        File testDataPathTmp = new File(OpenCmsTestProperties.getInstance().getTestDataPathTmp());
-        if (!testDataPathTmp.exists()) {
-            testDataPathTmp.mkdir();
+        OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(OpenCmsTestLifecycleTimer.STEP_COPY_DATA_PATH, null);
+        try {
+            File testDataPathOri = new File(OpenCmsTestProperties.getInstance().getTestDataPath());
+            File testDataPathTmp = new File(OpenCmsTestProperties.getInstance().getTestDataPathTmp());
+            if (!testDataPathTmp.exists()) {
+                testDataPathTmp.mkdir();
+            }
+            FileUtils.copyDirectory(testDataPathOri, testDataPathTmp);
+        } finally {
+            m_lifecycleTimer.stop(timing);
         }
-        FileUtils.copyDirectory(testDataPathOri, testDataPathTmp);
     }
 
     /**
@@ -828,11 +977,17 @@ public class OpenCmsTestBase {
      */
     protected static void setupDatabase() {
 
-        if (m_defaultConnection != null) {
-            setupDatabase(m_setupConnection, m_defaultConnection, true);
-        }
-        if (m_additionalConnection != null) {
-            setupDatabase(m_setupConnection, m_additionalConnection, true);
+        OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(OpenCmsTestLifecycleTimer.STEP_SETUP_DATABASE, null);
+        timing.setAttribute(OpenCmsTestLifecycleTimer.ATTR_SCHEMA, getSchemaNames());
+        try {
+            if (m_defaultConnection != null) {
+                setupDatabase(m_setupConnection, m_defaultConnection, true);
+            }
+            if (m_additionalConnection != null) {
+                setupDatabase(m_setupConnection, m_additionalConnection, true);
+            }
+        } finally {
+            m_lifecycleTimer.stop(timing);
         }
     }
 
@@ -893,12 +1048,54 @@ public class OpenCmsTestBase {
     /**
      * Creates a new storage object.<p>
      *
+     * The captures of the storage are recorded by the {@link #m_lifecycleTimer}.<p>
+     *
      * @param name the name of the storage
      */
     public static void createStorage(String name) {
 
-        OpenCmsTestResourceStorage storage = new OpenCmsTestResourceStorage(name);
-        m_resourceStorages.put(name, storage);
+        m_storageRegistry.create(name).setLifecycleTimer(m_lifecycleTimer);
+    }
+
+    /**
+     * Sets the storage scope of the current thread.<p>
+     *
+     * Tests running in parallel should use different scopes, e.g. the test name,
+     * so their storages with the same name do not replace each other.<p>
+     *
+     * @param scope the scope, or <code>null</code> to use the shared scope
+     *
+     * @see OpenCmsTestResourceStorageRegistry#setScope(String)
+     */
+    public static void setStorageScope(String scope) {
+
+        m_storageRegistry.setScope(scope);
+    }
+
+    /**
+     * Sets the log scope of the current thread.<p>
+     *
+     * Tests running in parallel should use different scopes, e.g. the test name,
+     * so the "break on error" status set during their setup and their log handlers
+     * do not affect each other.<p>
+     *
+     * @param scope the scope, or <code>null</code> to use the global scope
+     *
+     * @see OpenCmsTestLogHandlerRegistry#setScope(String)
+     */
+    public static void setLogScope(String scope) {
+
+        OpenCmsTestLogAppender.getHandlerRegistry().setScope(scope);
+    }
+
+    /**
+     * Returns the current resource storage of the storage scope of the current thread.<p>
+     *
+     * @return the current resource storage
+     */
+    public OpenCmsTestResourceStorage getCurrentStorage() {
+
+        return m_storageRegistry.getCurrent();
     }
 
     /**
@@ -919,7 +1116,7 @@ public class OpenCmsTestBase {
      */
     public void switchStorage(String name) throws CmsException {
 
-        OpenCmsTestResourceStorage storage = m_resourceStorages.get(name);
+        OpenCmsTestResourceStorage storage = m_storageRegistry.switchTo(name);
         if (storage != null) {
             m_currentResourceStrorage = storage;
         } else {
@@ -927,6 +1124,25 @@ public class OpenCmsTestBase {
         }
     }
 
+    /**
+     * Warms up and measures an operation and fails with a report if it exceeds the budget.<p>
+     *
+     * @param name the name of the operation in the report
+     * @param budget the iterations and limits of wall time, allocated bytes and statements
+     * @param operation the operation
+     * @return the measured values
+     * @throws Exception if the operation fails
+     *
+     * @see OpenCmsTestPerformance
+     */
+    public static OpenCmsTestPerformance.Result assertPerformance(
+            String name,
+            OpenCmsTestPerformance.Budget budget,
+            OpenCmsTestJdbcMonitor.Operation operation) throws Exception {
+
+        return OpenCmsTestPerformance.assertWithinBudget(name, budget, operation);
+    }
+
     /**
      * Writes a message to the current output stream.<p>
      *
@@ -952,19 +1168,24 @@ public class OpenCmsTestBase {
      */
     public CmsObject getCmsObject() throws CmsException {
 
-        // log in the Admin user and switch to the setup project
-        CmsObject cms = OpenCms.initCmsObject(OpenCms.getDefaultUsers().getUserGuest());
-        cms.loginUser("Admin", "admin");
-        // switch to the "Offline" project
-        cms.getRequestContext().setCurrentProject(cms.readProject("Offline"));
-        cms.getRequestContext().setSiteRoot("/sites/default/");
+        OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(OpenCmsTestLifecycleTimer.STEP_GET_CMS_OBJECT, null);
+        try {
+            // log in the Admin user and switch to the setup project
+            CmsObject cms = OpenCms.initCmsObject(OpenCms.getDefaultUsers().getUserGuest());
+            cms.loginUser("Admin", "admin");
+            // switch to the "Offline" project
+            cms.getRequestContext().setCurrentProject(cms.readProject("Offline"));
+            cms.getRequestContext().setSiteRoot("/sites/default/");
 
-        // init the storage
-        createStorage(OpenCmsTestResourceStorage.DEFAULT_STORAGE);
-        switchStorage(OpenCmsTestResourceStorage.DEFAULT_STORAGE);
+            // init the storage
+            createStorage(OpenCmsTestResourceStorage.DEFAULT_STORAGE);
+            switchStorage(OpenCmsTestResourceStorage.DEFAULT_STORAGE);
 
-        // return the initialized cms context Object
-        return cms;
+            // return the initialized cms context Object
+            return cms;
+        } finally {
+            m_lifecycleTimer.stop(timing);
+        }
     }
 
     /**
@@ -994,6 +1215,227 @@ public class OpenCmsTestBase {
                 params);
     }
 
+    /**
+     * Creates a new shell instance, which starts OpenCms, and prints the startup phases.<p>
+     *
+     * If the {@link OpenCmsTestJdbcMonitor} is enabled, its driver is configured for the default
+     * pool before OpenCms starts. If the test data contains no <code>opencms.properties</code>
+     * the monitor is not installed and a warning is printed.<p>
+     *
+     * @param label the label of the startup in the profile
+     * @return the new shell instance
+     */
+    protected static CmsShell createShell(String label) {
+
+        if (OpenCmsTestJdbcMonitor.isEnabled(OpenCmsTestProperties.getInstance().getConfiguration())) {
+            String filename = "WEB-INF/" + CmsSystemInfo.FOLDER_CONFIG_DEFAULT + "opencms.properties";
+            String path = getTestDataPathTmp(filename);
+            if (path == null) {
+                System.err.println("Not installing the JDBC monitor, '" + filename + "' was not found in the test data");
+            } else {
+                try {
+                    OpenCmsTestJdbcMonitor.configure(new File(path));
+                } catch (IOException e) {
+                    TestCase.fail("Unable to configure the JDBC monitor in '" + path + "'\n" + e.toString());
+                }
+            }
+        }
+        OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(OpenCmsTestLifecycleTimer.STEP_SHELL_BOOT, label);
+        m_startupProfiler.startBoot(label);
+        try {
+            CmsShell shell = new CmsShell(getTestDataPathTmp("WEB-INF" + File.separator), null, null, "${user}@${project}>", null);
+            // register for the publish events of the new OpenCms instance
+            m_publishWaiter.install();
+            return shell;
+        } finally {
+            System.out.println(m_startupProfiler.endBoot());
+            m_lifecycleTimer.stop(timing);
+        }
+    }
+
+    /**
+     * Restores the search indexes from the cache if an identical setup archived them.<p>
+     *
+     * Does nothing unless the {@link OpenCmsTestSearchIndexCache} is enabled. The fingerprint
+     * includes the configuration folder and the module packages copied to the temporary test data
+     * path, which OpenCms starts with. If the configuration contains no <code>opencms-search.xml</code>
+     * the cache is not used.
+     * Failures of the cache are printed, the indexes are then built as usual.<p>
+     *
+     * @param targetFolder the VFS target folder of the import
+     * @param publish <code>true</code> if the imported content is published
+     */
+    protected static void restoreSearchIndex(String targetFolder, boolean publish) {
+
+        m_searchIndexCache.clear();
+        Map<String, String> configuration = OpenCmsTestProperties.getInstance().getConfiguration();
+        if (!OpenCmsTestSearchIndexCache.isEnabled(configuration)) {
+            return;
+        }
+        String searchConfig = getTestDataPathTmp(
+                "WEB-INF/" + CmsSystemInfo.FOLDER_CONFIG_DEFAULT + OpenCmsTestSearchIndexCache.SEARCH_CONFIGURATION);
+        if (searchConfig == null) {
+            System.err.println("Not using the search index cache, the test data contains no "
+                + OpenCmsTestSearchIndexCache.SEARCH_CONFIGURATION);
+            return;
+        }
+        OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(
+                OpenCmsTestLifecycleTimer.STEP_SEARCH_INDEX_CACHE,
+                "restore");
+        try {
+            m_searchIndexCache.configure(configuration);
+            String scriptsPath = OpenCmsTestProperties.getInstance().getTestCmsShellScriptsPath() + "/";
+            List<File> scripts = new ArrayList<File>();
+            scripts.add(new File(scriptsPath + "script_base.txt"));
+            scripts.add(new File(scriptsPath + "script_default_folders.txt"));
+            scripts.add(new File(scriptsPath + "script_default_projects.txt"));
+            if (publish) {
+                scripts.add(new File(scriptsPath + "script_publish.txt"));
+            }
+            String moduleFolder = getTestDataPathTmp("WEB-INF/packages/" + CmsSystemInfo.FOLDER_MODULES);
+            String fingerprint = m_searchIndexCache.fingerprint(
+                    getImportFiles(),
+                    scripts,
+                    new File(searchConfig).getParentFile(),
+                    moduleFolder == null ? null : new File(moduleFolder),
+                    targetFolder,
+                    publish);
+            boolean restored = m_searchIndexCache.restore(new File(getTestDataPathTmp("WEB-INF"), "index"));
+            timing.setAttribute(OpenCmsTestLifecycleTimer.ATTR_FINGERPRINT, fingerprint);
+            timing.setAttribute(OpenCmsTestLifecycleTimer.ATTR_RESTORED, Boolean.valueOf(restored));
+            System.out.println("Search index cache " + fingerprint + (restored ? " restored" : " not found"));
+        } catch (IOException e) {
+            System.err.println("Restoring the search index cache failed: " + e);
+        } finally {
+            m_lifecycleTimer.stop(timing);
+        }
+    }
+
+    /**
+     * Verifies the restored search indexes against the VFS, or archives the search indexes built by the setup.<p>
+     *
+     * Restored indexes that do not match the resources of the setup are rebuilt. The indexing
+     * suspended for restored indexes is resumed in any case.<p>
+     *
+     * @param cms the OpenCms context of the setup
+     */
+    protected static void archiveSearchIndex(CmsObject cms) {
+
+        if (m_searchIndexCache.getFingerprint() == null) {
+            return;
+        }
+        OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(
+                OpenCmsTestLifecycleTimer.STEP_SEARCH_INDEX_CACHE,
+                "archive");
+        try {
+            boolean stale = m_searchIndexCache.isRestored() && !m_searchIndexCache.verify(cms);
+            m_searchIndexCache.resumeIndexing();
+            if (stale) {
+                System.out.println("Search index cache " + m_searchIndexCache.getFingerprint()
+                    + " does not match the VFS, rebuilding the search indexes");
+                OpenCms.getSearchManager().rebuildAllIndexes(
+                    new CmsShellReport(cms.getRequestContext().getLocale()));
+            }
+            if (!m_searchIndexCache.isRestored()
+                && m_searchIndexCache.archive(new File(getTestDataPathTmp("WEB-INF"), "index"), cms)) {
+                System.out.println("Search index cache " + m_searchIndexCache.getFingerprint() + " archived");
+            }
+        } catch (IOException e) {
+            System.err.println("Archiving the search index cache failed: " + e);
+        } catch (CmsException e) {
+            System.err.println("Archiving the search index cache failed: " + e);
+        } finally {
+            m_searchIndexCache.resumeIndexing();
+            m_lifecycleTimer.stop(timing);
+        }
+    }
+
+    /**
+     * Runs a script in the OpenCms shell and records it in the lifecycle timer.<p>
+     *
+     * @param script the script file
+     * @throws IOException if reading the script fails
+     */
+    protected static void runScript(File script) throws IOException {
+
+        OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(
+                OpenCmsTestLifecycleTimer.STEP_SCRIPT,
+                script.getName());
+        FileInputStream stream = new FileInputStream(script);
+        try {
+            m_shell.start(stream);
+        } finally {
+            stream.close();
+            m_lifecycleTimer.stop(timing);
+        }
+    }
+
+    /**
+     * Waits until the publish queue is empty and records the wait in the lifecycle timer.<p>
+     *
+     * The wait ends with the publish events of the {@link OpenCmsTestPublishWaiter} and fails
+     * with a dump of the queue after the timeout set with <code>test.publish.timeout</code>.
+     * The jobs finished since the previous wait are printed, including the jobs the publish script
+     * waited for itself.<p>
+     */
+    protected static void waitForPublishQueue() {
+
+        OpenCmsTestLifecycleTimer.Timing timing = m_lifecycleTimer.start(OpenCmsTestLifecycleTimer.STEP_PUBLISH_WAIT, null);
+        try {
+            m_publishWaiter.configure(OpenCmsTestProperties.getInstance().getConfiguration());
+            int resources = 0;
+            for (OpenCmsTestPublishWaiter.Job job : m_publishWaiter.waitWhileRunning()) {
+                System.out.println(job);
+                resources += job.getResourceCount();
+            }
+            timing.setAttribute(OpenCmsTestLifecycleTimer.ATTR_RESOURCE_COUNT, Integer.valueOf(resources));
+        } catch (TimeoutException e) {
+            TestCase.fail(e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            TestCase.fail("Interrupted while waiting for the publish queue");
+        } finally {
+            m_lifecycleTimer.stop(timing);
+        }
+    }
+
+    /**
+     * Prints the lifecycle timings of the run, writes the report and starts a new run.<p>
+     */
+    protected static void writeLifecycleReport() {
+
+        System.out.println(m_lifecycleTimer);
+        try {
+            File report = m_lifecycleTimer.writeReport();
+            if (report != null) {
+                System.out.println("Lifecycle timings written to " + report.getAbsolutePath());
+            }
+        } catch (IOException e) {
+            System.err.println("Writing the lifecycle timings to " + m_lifecycleTimer.getFolder().getAbsolutePath() + " failed");
+            e.printStackTrace(System.err);
+        }
+        m_lifecycleTimer.clear();
+    }
+
+    /**
+     * Enters a phase of the log level governor, configuring it from the test properties first.<p>
+     *
+     * @param phase the phase, or <code>null</code> to restore the log levels of the tests
+     * @return the previous phase
+     */
+    protected static synchronized OpenCmsTestLogLevelGovernor.Phase enterLogPhase(OpenCmsTestLogLevelGovernor.Phase phase) {
+
+        if (!m_logLevelGovernorConfigured) {
+            try {
+                m_logLevelGovernor.configure(OpenCmsTestProperties.getInstance().getConfiguration());
+                m_logLevelGovernorConfigured = true;
+            } catch (RuntimeException e) {
+                // properties not initialized yet, use the defaults
+            }
+        }
+        return m_logLevelGovernor.enter(phase);
+    }
+
     /**
      * Restarts the cms.<p>
      */
@@ -1003,11 +1445,13 @@ public class OpenCmsTestBase {
 
         // output a message 
         System.out.println("\n\n\n----- Restarting shell -----");
+        enterLogPhase(OpenCmsTestLogLevelGovernor.Phase.SETUP);
 
         m_shell.exit();
 
-        m_shell = new CmsShell(getTestDataPathTmp("WEB-INF" + File.separator), null, null, "${user}@${project}>", null);
+        m_shell = createShell("restart shell");
 
+        enterLogPhase(null);
         OpenCmsTestLogAppender.setBreakOnError(true);
     }
 
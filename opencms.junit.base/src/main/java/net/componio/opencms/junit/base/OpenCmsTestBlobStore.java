@@ -0,0 +1,415 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.util.CmsFileUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+/**
+ * Content-addressed store for the content of resource storage entries, shared by the storages of a registry.<p>
+ *
+ * Content is keyed by its hash, so the same content captured into several storages is held only
+ * once. Each entry holding a content acquires a reference, which it gives back when it is removed
+ * from its last storage. Content is evicted to a file, least recently used first, when the heap
+ * is still filled above {@link #PRESSURE_THRESHOLD} after a garbage collection, or when the
+ * content held in memory exceeds the memory limit. Evicted content is read back from its file
+ * when it is needed.<p>
+ *
+ * The content returned by {@link #get(byte[])} is a read-only view of the stored content, it is
+ * not copied.<p>
+ */
+public final class OpenCmsTestBlobStore {
+
+    /**
+     * A single stored content.<p>
+     */
+    private static class Blob {
+
+        /** The content, or <code>null</code> if it was evicted. */
+        byte[] m_data;
+
+        /** The file the content was evicted to. */
+        File m_file;
+
+        /** The number of references. */
+        int m_references;
+
+        /** The size of the content. */
+        int m_size;
+    }
+
+    /** The fraction of a heap pool filled after a garbage collection that evicts all content to files. */
+    public static final double PRESSURE_THRESHOLD = 0.75;
+
+    /** Name of the system property to set the memory limit in bytes. */
+    public static final String PROP_MEMORY_LIMIT = "test.blobstore.memory";
+
+    /** The counter for the folders of the stores. */
+    private static final AtomicInteger m_folderCount = new AtomicInteger();
+
+    /** Indicates if the listener for memory pressure was installed. */
+    private static boolean m_pressureListenerInstalled;
+
+    /** The folder holding the folders of all stores of this JVM, deleted when the JVM shuts down. */
+    private static File m_rootFolder;
+
+    /** The stores to evict content from under memory pressure. */
+    private static final Set<OpenCmsTestBlobStore> m_stores = Collections.newSetFromMap(
+        new WeakHashMap<OpenCmsTestBlobStore, Boolean>());
+
+    /** The blobs by content hash. */
+    private Map<String, Blob> m_blobs;
+
+    /** The folder evicted content is written to. */
+    private File m_folder;
+
+    /** The blobs held in memory, in access order. */
+    private LinkedHashMap<String, Blob> m_inMemory;
+
+    /** The number of content bytes held in memory. */
+    private long m_memory;
+
+    /** The maximum number of content bytes held in memory. */
+    private long m_memoryLimit;
+
+    /**
+     * Creates a new blob store evicting content to a temporary folder.<p>
+     *
+     * The memory limit defaults to half of the maximum heap and can be set with the system
+     * property {@link #PROP_MEMORY_LIMIT}. The temporary folder is deleted when the JVM shuts
+     * down.<p>
+     */
+    public OpenCmsTestBlobStore() {
+
+        this(new File(getRootFolder(), String.valueOf(m_folderCount.incrementAndGet())), getDefaultMemoryLimit());
+    }
+
+    /**
+     * Creates a new blob store.<p>
+     *
+     * @param folder the folder evicted content is written to
+     * @param memoryLimit the maximum number of content bytes held in memory
+     */
+    public OpenCmsTestBlobStore(File folder, long memoryLimit) {
+
+        m_blobs = new HashMap<String, Blob>();
+        m_inMemory = new LinkedHashMap<String, Blob>(16, 0.75f, true);
+        m_folder = folder;
+        m_memoryLimit = memoryLimit;
+        synchronized (m_stores) {
+            if (!m_pressureListenerInstalled) {
+                installPressureListener();
+                m_pressureListenerInstalled = true;
+            }
+            m_stores.add(this);
+        }
+    }
+
+    /**
+     * Deletes a folder tree.<p>
+     *
+     * @param folder the folder
+     */
+    static void deleteFolder(File folder) {
+
+        File[] files = folder.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                if (file.isDirectory()) {
+                    deleteFolder(file);
+                } else {
+                    file.delete();
+                }
+            }
+        }
+        folder.delete();
+    }
+
+    /**
+     * Evicts the content held in memory by all stores to files.<p>
+     */
+    private static void evictAllStores() {
+
+        List<OpenCmsTestBlobStore> stores;
+        synchronized (m_stores) {
+            stores = new ArrayList<OpenCmsTestBlobStore>(m_stores);
+        }
+        for (OpenCmsTestBlobStore store : stores) {
+            store.evictAll();
+        }
+    }
+
+    /**
+     * Returns the default memory limit.<p>
+     *
+     * @return the memory limit set by {@link #PROP_MEMORY_LIMIT}, or half of the maximum heap
+     */
+    private static long getDefaultMemoryLimit() {
+
+        String value = System.getProperty(PROP_MEMORY_LIMIT);
+        return value != null ? Long.parseLong(value.trim()) : Runtime.getRuntime().maxMemory() / 2;
+    }
+
+    /**
+     * Returns the folder holding the folders of all stores of this JVM, registering its deletion at shutdown.<p>
+     *
+     * @return the folder
+     */
+    private static synchronized File getRootFolder() {
+
+        if (m_rootFolder == null) {
+            final File folder = new File(System.getProperty("java.io.tmpdir"), "opencms-test-blobs-"
+                + Long.toHexString(System.nanoTime()));
+            Runtime.getRuntime().addShutdownHook(new Thread("OpenCmsTestBlobStore cleanup") {
+
+                /**
+                 * @see java.lang.Thread#run()
+                 */
+                @Override
+                public void run() {
+
+                    deleteFolder(folder);
+                }
+            });
+            m_rootFolder = folder;
+        }
+        return m_rootFolder;
+    }
+
+    /**
+     * Sets the collection usage threshold of the heap pools and evicts all content when it is exceeded.<p>
+     *
+     * A threshold set by someone else is kept.<p>
+     */
+    private static void installPressureListener() {
+
+        ((NotificationEmitter)ManagementFactory.getMemoryMXBean()).addNotificationListener(
+            new NotificationListener() {
+
+                public void handleNotification(Notification notification, Object handback) {
+
+                    if (MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())) {
+                        evictAllStores();
+                    }
+                }
+            },
+            null,
+            null);
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            long max = pool.getUsage().getMax();
+            if ((pool.getType() == MemoryType.HEAP)
+                && pool.isCollectionUsageThresholdSupported()
+                && (max > 0)
+                && (pool.getCollectionUsageThreshold() == 0)) {
+                pool.setCollectionUsageThreshold((long)(max * PRESSURE_THRESHOLD));
+            }
+        }
+    }
+
+    /**
+     * Adds a reference to a content, storing the content if it is not stored yet.<p>
+     *
+     * The store keeps the given array, it must not be modified afterwards.<p>
+     *
+     * @param hash the hash of the content
+     * @param contents the content
+     */
+    public synchronized void acquire(byte[] hash, byte[] contents) {
+
+        String key = OpenCmsTestResourceStorageEntry.toHexString(hash);
+        Blob blob = m_blobs.get(key);
+        if (blob == null) {
+            blob = new Blob();
+            blob.m_data = contents;
+            blob.m_size = contents.length;
+            m_blobs.put(key, blob);
+            m_inMemory.put(key, blob);
+            m_memory += blob.m_size;
+            evict(m_memoryLimit);
+        }
+        blob.m_references++;
+    }
+
+    /**
+     * Evicts all content held in memory to files.<p>
+     */
+    public synchronized void evictAll() {
+
+        evict(0);
+    }
+
+    /**
+     * Returns a read-only view of a stored content.<p>
+     *
+     * The view of content held in memory shares the stored array, so it stays valid when the
+     * content is released afterwards. Evicted content is read from its file while holding the
+     * lock of the store, so a concurrent release can not delete the file while it is read.<p>
+     *
+     * @param hash the hash of the content
+     * @return the content, or <code>null</code> if no content with this hash is stored
+     */
+    public synchronized ByteBuffer get(byte[] hash) {
+
+        String key = OpenCmsTestResourceStorageEntry.toHexString(hash);
+        Blob blob = m_blobs.get(key);
+        if (blob == null) {
+            return null;
+        }
+        if (blob.m_data != null) {
+            // updates the access order
+            m_inMemory.get(key);
+            return ByteBuffer.wrap(blob.m_data).asReadOnlyBuffer();
+        }
+        try {
+            return ByteBuffer.wrap(CmsFileUtil.readFile(blob.m_file.getAbsolutePath())).asReadOnlyBuffer();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the number of content bytes held in memory.<p>
+     *
+     * @return the number of content bytes held in memory
+     */
+    public synchronized long getMemory() {
+
+        return m_memory;
+    }
+
+    /**
+     * Returns the maximum number of content bytes held in memory.<p>
+     *
+     * @return the maximum number of content bytes held in memory
+     */
+    public synchronized long getMemoryLimit() {
+
+        return m_memoryLimit;
+    }
+
+    /**
+     * Removes a reference to a content, deleting the content if it is not referenced any more.<p>
+     *
+     * @param hash the hash of the content
+     */
+    public synchronized void release(byte[] hash) {
+
+        String key = OpenCmsTestResourceStorageEntry.toHexString(hash);
+        Blob blob = m_blobs.get(key);
+        if ((blob == null) || (--blob.m_references > 0)) {
+            return;
+        }
+        m_blobs.remove(key);
+        if (m_inMemory.remove(key) != null) {
+            m_memory -= blob.m_size;
+        }
+        if (blob.m_file != null) {
+            blob.m_file.delete();
+        }
+    }
+
+    /**
+     * Sets the maximum number of content bytes held in memory, evicting content if required.<p>
+     *
+     * @param memoryLimit the maximum number of content bytes held in memory
+     */
+    public synchronized void setMemoryLimit(long memoryLimit) {
+
+        m_memoryLimit = memoryLimit;
+        evict(m_memoryLimit);
+    }
+
+    /**
+     * Returns the number of stored contents.<p>
+     *
+     * @return the number of stored contents
+     */
+    public synchronized int size() {
+
+        return m_blobs.size();
+    }
+
+    /**
+     * Evicts the least recently used content to files until the given limit is met.<p>
+     *
+     * @param limit the maximum number of content bytes to keep in memory
+     */
+    private void evict(long limit) {
+
+        Iterator<Map.Entry<String, Blob>> i = m_inMemory.entrySet().iterator();
+        while ((m_memory > limit) && i.hasNext()) {
+            Map.Entry<String, Blob> entry = i.next();
+            Blob blob = entry.getValue();
+            File file = new File(m_folder, entry.getKey());
+            OutputStream out = null;
+            try {
+                m_folder.mkdirs();
+                out = new FileOutputStream(file);
+                out.write(blob.m_data);
+            } catch (IOException e) {
+                // keep the content in memory if it can not be written
+                continue;
+            } finally {
+                if (out != null) {
+                    try {
+                        out.close();
+                    } catch (IOException e) {
+                        // ignore
+                    }
+                }
+            }
+            blob.m_file = file;
+            blob.m_data = null;
+            m_memory -= blob.m_size;
+            i.remove();
+        }
+    }
+}
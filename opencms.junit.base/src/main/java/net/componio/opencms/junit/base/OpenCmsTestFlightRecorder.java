@@ -0,0 +1,271 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Emits Java Flight Recorder events for the steps of the test harness lifecycle.<p>
+ *
+ * Each step recorded by the {@link OpenCmsTestLifecycleTimer} is emitted as event of the
+ * category "OpenCms Test Harness" while a flight recording runs, so the recording shows the GC,
+ * I/O and lock contention of each setup phase. The event types are
+ * <code>net.componio.opencms.junit.SetupPhase</code>, <code>ScriptRun</code>,
+ * <code>ModuleImport</code>, <code>PublishWait</code>, <code>StorageCapture</code> and
+ * <code>TeardownStep</code>. Besides the step and its detail the events carry the module
+ * name, the resource count or the schema name, taken from the attributes of the step.<p>
+ *
+ * The harness is compiled for Java 7, so the event types are created with the
+ * <code>jdk.jfr.EventFactory</code> by reflection. On runtimes without this API, i.e. before
+ * Java 11, or with the system property {@link #PROP_ENABLED} set to <code>false</code>, no
+ * events are emitted.<p>
+ */
+public class OpenCmsTestFlightRecorder implements I_CmsLifecycleListener {
+
+    /**
+     * A created event type.<p>
+     */
+    private static class EventType {
+
+        /** The factory of the events. */
+        Object m_factory;
+
+        /** The names of the fields, in the order of their indexes. */
+        List<String> m_fields;
+    }
+
+    /** The category of the events. */
+    public static final String CATEGORY = "OpenCms Test Harness";
+
+    /** The prefix of the event names. */
+    public static final String EVENT_PREFIX = "net.componio.opencms.junit.";
+
+    /** Field: the detail of the step. */
+    public static final String FIELD_DETAIL = "detail";
+
+    /** Field: the name of the step. */
+    public static final String FIELD_STEP = "step";
+
+    /** Name of the system property to disable the events. */
+    public static final String PROP_ENABLED = "test.jfr.events";
+
+    /** Field: the name of the script. */
+    private static final String FIELD_SCRIPT = "script";
+
+    /** The method to start the duration of an event. */
+    private Method m_begin;
+
+    /** The method to commit an event. */
+    private Method m_commit;
+
+    /** The method to end the duration of an event. */
+    private Method m_end;
+
+    /** The running events by timing. */
+    private Map<OpenCmsTestLifecycleTimer.Timing, Object> m_events;
+
+    /** The event types by step, <code>null</code> if no events are emitted. */
+    private Map<String, EventType> m_eventTypes;
+
+    /** The method to create an event. */
+    private Method m_newEvent;
+
+    /** The method to set a field of an event. */
+    private Method m_set;
+
+    /**
+     * Creates the event types and registers the emitter at a lifecycle timer.<p>
+     *
+     * Nothing is registered if flight recorder events are not available.<p>
+     *
+     * @param timer the lifecycle timer
+     */
+    public OpenCmsTestFlightRecorder(OpenCmsTestLifecycleTimer timer) {
+
+        m_events = new ConcurrentHashMap<OpenCmsTestLifecycleTimer.Timing, Object>();
+        if (!Boolean.valueOf(System.getProperty(PROP_ENABLED, "true")).booleanValue()) {
+            return;
+        }
+        try {
+            Map<String, EventType> eventTypes = new HashMap<String, EventType>();
+            EventType setup = createEventType(
+                "SetupPhase",
+                "Setup Phase",
+                FIELD_STEP,
+                FIELD_DETAIL,
+                OpenCmsTestLifecycleTimer.ATTR_SCHEMA);
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_INIT_CONFIGURATION, setup);
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_COPY_DATA_PATH, setup);
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_SETUP_DATABASE, setup);
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_SHELL_BOOT, setup);
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_GET_CMS_OBJECT, setup);
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_SEARCH_INDEX_CACHE, setup);
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_SCRIPT, createEventType(
+                "ScriptRun",
+                "Script Run",
+                FIELD_SCRIPT));
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_MODULE_IMPORT, createEventType(
+                "ModuleImport",
+                "Module Import",
+                OpenCmsTestLifecycleTimer.ATTR_MODULE,
+                OpenCmsTestLifecycleTimer.ATTR_TARGET_PATH));
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_PUBLISH_WAIT, createEventType(
+                "PublishWait",
+                "Publish Wait",
+                FIELD_DETAIL,
+                OpenCmsTestLifecycleTimer.ATTR_RESOURCE_COUNT));
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_STORAGE_CAPTURE, createEventType(
+                "StorageCapture",
+                "Storage Capture",
+                OpenCmsTestLifecycleTimer.ATTR_STORAGE,
+                OpenCmsTestLifecycleTimer.ATTR_RESOURCE_COUNT));
+            eventTypes.put(OpenCmsTestLifecycleTimer.STEP_REMOVE, createEventType(
+                "TeardownStep",
+                "Teardown Step",
+                FIELD_STEP,
+                FIELD_DETAIL,
+                OpenCmsTestLifecycleTimer.ATTR_SCHEMA));
+            Class<?> eventClass = Class.forName("jdk.jfr.Event");
+            m_begin = eventClass.getMethod("begin");
+            m_end = eventClass.getMethod("end");
+            m_commit = eventClass.getMethod("commit");
+            m_set = eventClass.getMethod("set", int.class, Object.class);
+            m_newEvent = Class.forName("jdk.jfr.EventFactory").getMethod("newEvent");
+            m_eventTypes = eventTypes;
+            timer.addListener(this);
+        } catch (ClassNotFoundException e) {
+            // no flight recorder events before Java 11
+        } catch (Exception e) {
+            System.err.println("Creating the flight recorder events failed: " + e);
+        }
+    }
+
+    /**
+     * Returns if flight recorder events are emitted.<p>
+     *
+     * @return <code>true</code> if flight recorder events are emitted
+     */
+    public boolean isEnabled() {
+
+        return m_eventTypes != null;
+    }
+
+    /**
+     * @see net.componio.opencms.junit.base.I_CmsLifecycleListener#stepStarted(net.componio.opencms.junit.base.OpenCmsTestLifecycleTimer.Timing)
+     */
+    public void stepStarted(OpenCmsTestLifecycleTimer.Timing timing) {
+
+        EventType type = m_eventTypes.get(timing.getStep());
+        if (type == null) {
+            return;
+        }
+        try {
+            Object event = m_newEvent.invoke(type.m_factory);
+            m_begin.invoke(event);
+            m_events.put(timing, event);
+        } catch (Exception e) {
+            // the event is lost, the step is not affected
+        }
+    }
+
+    /**
+     * @see net.componio.opencms.junit.base.I_CmsLifecycleListener#stepStopped(net.componio.opencms.junit.base.OpenCmsTestLifecycleTimer.Timing)
+     */
+    public void stepStopped(OpenCmsTestLifecycleTimer.Timing timing) {
+
+        Object event = m_events.remove(timing);
+        if (event == null) {
+            return;
+        }
+        EventType type = m_eventTypes.get(timing.getStep());
+        try {
+            m_end.invoke(event);
+            for (int i = 0; i < type.m_fields.size(); i++) {
+                String field = type.m_fields.get(i);
+                Object value;
+                if (FIELD_STEP.equals(field)) {
+                    value = timing.getStep();
+                } else if (FIELD_DETAIL.equals(field) || FIELD_SCRIPT.equals(field)) {
+                    value = timing.getDetail();
+                } else {
+                    value = timing.getAttribute(field);
+                }
+                if (OpenCmsTestLifecycleTimer.ATTR_RESOURCE_COUNT.equals(field)) {
+                    value = Long.valueOf(value instanceof Number ? ((Number)value).longValue() : 0);
+                } else if (value != null) {
+                    value = value.toString();
+                }
+                m_set.invoke(event, Integer.valueOf(i), value);
+            }
+            m_commit.invoke(event);
+        } catch (Exception e) {
+            // the event is lost, the step is not affected
+        }
+    }
+
+    /**
+     * Creates an event type with the JFR event factory.<p>
+     *
+     * @param name the name of the event type, without prefix
+     * @param label the label of the event type
+     * @param fields the names of the fields, {@link OpenCmsTestLifecycleTimer#ATTR_RESOURCE_COUNT} is a long, all others are strings
+     * @return the event type
+     * @throws Exception if the flight recorder API is not available
+     */
+    private EventType createEventType(String name, String label, String... fields) throws Exception {
+
+        Class<?> annotationClass = Class.forName("jdk.jfr.AnnotationElement");
+        Constructor<?> annotation = annotationClass.getConstructor(Class.class, Object.class);
+        Class<?> descriptorClass = Class.forName("jdk.jfr.ValueDescriptor");
+        Constructor<?> descriptor = descriptorClass.getConstructor(Class.class, String.class);
+        List<Object> annotations = new ArrayList<Object>();
+        annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), EVENT_PREFIX + name));
+        annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), label));
+        annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] {CATEGORY}));
+        List<Object> descriptors = new ArrayList<Object>();
+        for (String field : fields) {
+            descriptors.add(descriptor.newInstance(
+                OpenCmsTestLifecycleTimer.ATTR_RESOURCE_COUNT.equals(field) ? long.class : String.class,
+                field));
+        }
+        EventType result = new EventType();
+        result.m_factory = Class.forName("jdk.jfr.EventFactory").getMethod("create", List.class, List.class).invoke(
+            null,
+            annotations,
+            descriptors);
+        result.m_fields = Arrays.asList(fields);
+        return result;
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import java.sql.Connection;
+import java.sql.Driver;
+import java.sql.DriverManager;
+import java.sql.DriverPropertyInfo;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Properties;
+import java.util.logging.Logger;
+
+/**
+ * JDBC driver wrapping the connections of another driver to count their statements.<p>
+ *
+ * The driver accepts URLs of the form <code>jdbc:opencmstest:&lt;url&gt;</code>, opens the
+ * connection to <code>&lt;url&gt;</code> with the driver registered for it and wraps it with
+ * {@link OpenCmsTestJdbcMonitor#wrap(Connection)}. The harness configures it for the
+ * <code>db.pool.default</code> pool if the JDBC monitor is enabled.<p>
+ */
+public class OpenCmsTestJdbcDriver implements Driver {
+
+    /** The prefix of the URLs accepted by this driver. */
+    public static final String URL_PREFIX = "jdbc:opencmstest:";
+
+    static {
+        try {
+            DriverManager.registerDriver(new OpenCmsTestJdbcDriver());
+        } catch (SQLException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @see java.sql.Driver#acceptsURL(java.lang.String)
+     */
+    public boolean acceptsURL(String url) {
+
+        return (url != null) && url.startsWith(URL_PREFIX);
+    }
+
+    /**
+     * @see java.sql.Driver#connect(java.lang.String, java.util.Properties)
+     */
+    public Connection connect(String url, Properties info) throws SQLException {
+
+        if (!acceptsURL(url)) {
+            return null;
+        }
+        return OpenCmsTestJdbcMonitor.wrap(DriverManager.getConnection(url.substring(URL_PREFIX.length()), info));
+    }
+
+    /**
+     * @see java.sql.Driver#getMajorVersion()
+     */
+    public int getMajorVersion() {
+
+        return 1;
+    }
+
+    /**
+     * @see java.sql.Driver#getMinorVersion()
+     */
+    public int getMinorVersion() {
+
+        return 0;
+    }
+
+    /**
+     * @see java.sql.Driver#getParentLogger()
+     */
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    /**
+     * @see java.sql.Driver#getPropertyInfo(java.lang.String, java.util.Properties)
+     */
+    public DriverPropertyInfo[] getPropertyInfo(String url, Properties info) throws SQLException {
+
+        if (!acceptsURL(url)) {
+            return new DriverPropertyInfo[0];
+        }
+        String target = url.substring(URL_PREFIX.length());
+        return DriverManager.getDriver(target).getPropertyInfo(target, info);
+    }
+
+    /**
+     * @see java.sql.Driver#jdbcCompliant()
+     */
+    public boolean jdbcCompliant() {
+
+        return false;
+    }
+}
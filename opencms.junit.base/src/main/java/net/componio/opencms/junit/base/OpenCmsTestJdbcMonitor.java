@@ -0,0 +1,798 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.CallableStatement;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import junit.framework.TestCase;
+
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+/**
+ * Counts the JDBC statements, rows and statement time of the OpenCms test instance.<p>
+ *
+ * The monitor is enabled with <code>test.jdbc.monitor=true</code> in the test properties or as
+ * system property. The harness then configures the {@link OpenCmsTestJdbcDriver} for the
+ * <code>db.pool.default</code> pool of the test instance, which wraps all connections of the
+ * pool. The counts are global for all threads, including the publish thread. Statements taking
+ * longer than the threshold set with <code>test.jdbc.slowQuery</code> (default 100 ms) are
+ * captured with the stack of their call site.<p>
+ *
+ * Used as <code>@Rule</code>, the monitor resets the counts before each test and prints them
+ * after it. Assertions limit the statements of a test or of a single operation:
+ * <pre>
+ * OpenCmsTestJdbcMonitor.assertStatementsAtMost(10, new OpenCmsTestJdbcMonitor.Operation() {
+ *
+ *     public void run() throws Exception {
+ *
+ *         cms.readResources("/folder/", CmsResourceFilter.ALL, false);
+ *     }
+ * });
+ * </pre>
+ */
+public class OpenCmsTestJdbcMonitor extends TestWatcher {
+
+    /**
+     * An operation measured by the monitor.<p>
+     */
+    public interface Operation {
+
+        /**
+         * Runs the operation.<p>
+         *
+         * @throws Exception if the operation fails
+         */
+        void run() throws Exception;
+    }
+
+    /**
+     * A statement that took longer than the threshold.<p>
+     */
+    public static class SlowQuery {
+
+        /** The call site of the statement. */
+        private String m_callSite;
+
+        /** The duration in nanoseconds. */
+        private long m_duration;
+
+        /** The SQL of the statement. */
+        private String m_sql;
+
+        /** The name of the executing thread. */
+        private String m_thread;
+
+        /**
+         * Creates a new slow query.<p>
+         *
+         * @param sql the SQL of the statement
+         * @param duration the duration in nanoseconds
+         * @param callSite the call site of the statement
+         */
+        SlowQuery(String sql, long duration, String callSite) {
+
+            m_sql = sql;
+            m_duration = duration;
+            m_callSite = callSite;
+            m_thread = Thread.currentThread().getName();
+        }
+
+        /**
+         * Returns the call site of the statement.<p>
+         *
+         * @return the stack of the call site
+         */
+        public String getCallSite() {
+
+            return m_callSite;
+        }
+
+        /**
+         * Returns the duration of the statement.<p>
+         *
+         * @return the duration in milliseconds
+         */
+        public double getDuration() {
+
+            return m_duration / 1000000.0;
+        }
+
+        /**
+         * Returns the SQL of the statement.<p>
+         *
+         * @return the SQL of the statement
+         */
+        public String getSql() {
+
+            return m_sql;
+        }
+
+        /**
+         * Returns the name of the executing thread.<p>
+         *
+         * @return the name of the executing thread
+         */
+        public String getThread() {
+
+            return m_thread;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            return String.format(Locale.ENGLISH, "%.1f ms [%s] %s%n\tat %s", Double.valueOf(getDuration()), m_thread, m_sql, m_callSite);
+        }
+    }
+
+    /**
+     * The counts of the statements executed in a period.<p>
+     */
+    public static class Statistics {
+
+        /** The number of rows read or updated. */
+        long m_rows;
+
+        /** The number of executions by SQL. */
+        Map<String, Long> m_sqlCounts;
+
+        /** The number of statements. */
+        long m_statements;
+
+        /** The statement time in nanoseconds. */
+        long m_time;
+
+        /**
+         * Returns the number of rows read or updated.<p>
+         *
+         * @return the number of rows
+         */
+        public long getRowCount() {
+
+            return m_rows;
+        }
+
+        /**
+         * Returns the number of executed statements.<p>
+         *
+         * @return the number of statements
+         */
+        public long getStatementCount() {
+
+            return m_statements;
+        }
+
+        /**
+         * Returns the number of executions by SQL.<p>
+         *
+         * @return the number of executions by SQL
+         */
+        public Map<String, Long> getStatements() {
+
+            return Collections.unmodifiableMap(m_sqlCounts);
+        }
+
+        /**
+         * Returns the time spent executing statements.<p>
+         *
+         * @return the statement time in milliseconds
+         */
+        public double getTime() {
+
+            return m_time / 1000000.0;
+        }
+
+        /**
+         * Returns the counts and the most frequent statements.<p>
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            StringBuffer result = new StringBuffer();
+            result.append(String.format(
+                Locale.ENGLISH,
+                "%d statements, %d rows, %.1f ms",
+                Long.valueOf(m_statements),
+                Long.valueOf(m_rows),
+                Double.valueOf(getTime())));
+            List<Map.Entry<String, Long>> statements = new ArrayList<Map.Entry<String, Long>>(m_sqlCounts.entrySet());
+            Collections.sort(statements, new Comparator<Map.Entry<String, Long>>() {
+
+                public int compare(Map.Entry<String, Long> o1, Map.Entry<String, Long> o2) {
+
+                    return o2.getValue().compareTo(o1.getValue());
+                }
+            });
+            for (int i = 0; (i < statements.size()) && (i < MAX_REPORTED_STATEMENTS); i++) {
+                result.append(String.format("%n%6d x %s", statements.get(i).getValue(), statements.get(i).getKey()));
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * Counts the statements created by a connection.<p>
+     */
+    private static class ConnectionHandler implements InvocationHandler {
+
+        /** The wrapped connection. */
+        private Connection m_connection;
+
+        /**
+         * Creates a new handler.<p>
+         *
+         * @param connection the wrapped connection
+         */
+        ConnectionHandler(Connection connection) {
+
+            m_connection = connection;
+        }
+
+        /**
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            Object result = call(m_connection, method, args);
+            String name = method.getName();
+            if ("createStatement".equals(name)) {
+                return wrap(result, Statement.class, null);
+            } else if ("prepareStatement".equals(name)) {
+                return wrap(result, PreparedStatement.class, (String)args[0]);
+            } else if ("prepareCall".equals(name)) {
+                return wrap(result, CallableStatement.class, (String)args[0]);
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Counts the rows read from a result set.<p>
+     */
+    private static class ResultSetHandler implements InvocationHandler {
+
+        /** The wrapped result set. */
+        private ResultSet m_resultSet;
+
+        /**
+         * Creates a new handler.<p>
+         *
+         * @param resultSet the wrapped result set
+         */
+        ResultSetHandler(ResultSet resultSet) {
+
+            m_resultSet = resultSet;
+        }
+
+        /**
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            Object result = call(m_resultSet, method, args);
+            if ("next".equals(method.getName()) && Boolean.TRUE.equals(result)) {
+                m_rows.incrementAndGet();
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Counts and times the executions of a statement.<p>
+     */
+    private static class StatementHandler implements InvocationHandler {
+
+        /** The SQL of a prepared statement, <code>null</code> for plain statements. */
+        private String m_sql;
+
+        /** The wrapped statement. */
+        private Statement m_statement;
+
+        /**
+         * Creates a new handler.<p>
+         *
+         * @param statement the wrapped statement
+         * @param sql the SQL of a prepared statement, <code>null</code> for plain statements
+         */
+        StatementHandler(Statement statement, String sql) {
+
+            m_statement = statement;
+            m_sql = sql;
+        }
+
+        /**
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+         */
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+            String name = method.getName();
+            if (name.startsWith("execute")) {
+                String sql = ((args != null) && (args.length > 0) && (args[0] instanceof String))
+                ? (String)args[0]
+                : m_sql;
+                long start = System.nanoTime();
+                Object result = call(m_statement, method, args);
+                long duration = System.nanoTime() - start;
+                long rows = 0;
+                int executions = 1;
+                if (result instanceof Integer) {
+                    rows = Math.max(0, ((Integer)result).intValue());
+                } else if (result instanceof Long) {
+                    rows = Math.max(0, ((Long)result).longValue());
+                } else if (result instanceof int[]) {
+                    executions = Math.max(1, ((int[])result).length);
+                    for (int count : (int[])result) {
+                        rows += Math.max(0, count);
+                    }
+                }
+                record(sql == null ? "batch" : sql, executions, rows, duration);
+                if (result instanceof ResultSet) {
+                    return wrap(result, ResultSet.class, null);
+                }
+                return result;
+            }
+            Object result = call(m_statement, method, args);
+            if ("getResultSet".equals(name) && (result != null)) {
+                return wrap(result, ResultSet.class, null);
+            }
+            return result;
+        }
+    }
+
+    /** The default threshold of slow queries in milliseconds. */
+    public static final long DEFAULT_SLOW_QUERY = 100;
+
+    /** The maximum number of captured slow queries. */
+    public static final int MAX_SLOW_QUERIES = 100;
+
+    /** Name of the property to enable the monitor. */
+    public static final String PROP_ENABLED = "test.jdbc.monitor";
+
+    /** Name of the property to set the threshold of slow queries in milliseconds. */
+    public static final String PROP_SLOW_QUERY = "test.jdbc.slowQuery";
+
+    /** The pool wrapped by the monitor. */
+    public static final String WRAPPED_POOL = "db.pool.default";
+
+    /** The key of the original JDBC driver of the wrapped pool. */
+    private static final String KEY_ORIGINAL_DRIVER = WRAPPED_POOL + ".jdbcDriver.monitored";
+
+    /** The maximum number of statements listed in reports. */
+    private static final int MAX_REPORTED_STATEMENTS = 10;
+
+    /** Indicates if the monitor has wrapped a connection. */
+    private static volatile boolean m_active;
+
+    /** The number of rows read or updated. */
+    private static final AtomicLong m_rows = new AtomicLong();
+
+    /** The captured slow queries. */
+    private static final List<SlowQuery> m_slowQueries = Collections.synchronizedList(new ArrayList<SlowQuery>());
+
+    /** The threshold of slow queries in nanoseconds. */
+    private static volatile long m_slowQueryNanos = DEFAULT_SLOW_QUERY * 1000000L;
+
+    /** The number of executions by SQL. */
+    private static final ConcurrentHashMap<String, AtomicLong> m_sqlCounts = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** The number of statements. */
+    private static final AtomicLong m_statements = new AtomicLong();
+
+    /** The statement time in nanoseconds. */
+    private static final AtomicLong m_time = new AtomicLong();
+
+    /**
+     * Asserts that the statements since the last reset do not exceed a limit.<p>
+     *
+     * @param max the maximum number of statements
+     */
+    public static void assertStatementsAtMost(long max) {
+
+        Statistics statistics = getStatistics();
+        if (statistics.getStatementCount() > max) {
+            TestCase.fail("Expected at most " + max + " statements, but got " + statistics);
+        }
+    }
+
+    /**
+     * Asserts that an operation does not execute more statements than a limit.<p>
+     *
+     * @param max the maximum number of statements
+     * @param operation the operation
+     * @return the counts of the operation
+     * @throws Exception if the operation fails
+     */
+    public static Statistics assertStatementsAtMost(long max, Operation operation) throws Exception {
+
+        Statistics statistics = measure(operation);
+        if (statistics.getStatementCount() > max) {
+            TestCase.fail("Expected at most " + max + " statements, but got " + statistics);
+        }
+        return statistics;
+    }
+
+    /**
+     * Configures the JDBC driver of the monitor for the wrapped pool in an OpenCms properties file.<p>
+     *
+     * The original driver is loaded, so the monitor driver can open its connections. Configuring
+     * an already configured file again only loads the original driver.<p>
+     *
+     * @param propertiesFile the <code>opencms.properties</code> file of the test instance
+     * @throws IOException if reading or writing the file fails
+     */
+    public static void configure(File propertiesFile) throws IOException {
+
+        String driverKey = WRAPPED_POOL + ".jdbcDriver";
+        String urlKey = WRAPPED_POOL + ".jdbcUrl";
+        List<String> lines = new ArrayList<String>();
+        String originalDriver = null;
+        boolean configured = false;
+        BufferedReader in = new BufferedReader(new InputStreamReader(new FileInputStream(propertiesFile), "ISO-8859-1"));
+        try {
+            String line;
+            while ((line = in.readLine()) != null) {
+                lines.add(line);
+            }
+        } finally {
+            in.close();
+        }
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            String key = getKey(line);
+            if (KEY_ORIGINAL_DRIVER.equals(key)) {
+                originalDriver = getValue(line);
+                configured = true;
+            } else if (driverKey.equals(key) && (originalDriver == null)) {
+                originalDriver = getValue(line);
+            }
+        }
+        if (!configured) {
+            for (int i = 0; i < lines.size(); i++) {
+                String line = lines.get(i);
+                String key = getKey(line);
+                if (driverKey.equals(key)) {
+                    lines.set(i, driverKey + "=" + OpenCmsTestJdbcDriver.class.getName());
+                } else if (urlKey.equals(key)) {
+                    lines.set(i, urlKey + "=" + OpenCmsTestJdbcDriver.URL_PREFIX + getValue(line));
+                }
+            }
+            lines.add(KEY_ORIGINAL_DRIVER + "=" + originalDriver);
+            Writer out = new OutputStreamWriter(new FileOutputStream(propertiesFile), "ISO-8859-1");
+            try {
+                for (String line : lines) {
+                    out.write(line);
+                    out.write('\n');
+                }
+            } finally {
+                out.close();
+            }
+        }
+        try {
+            Class.forName(OpenCmsTestJdbcDriver.class.getName());
+            if (originalDriver != null) {
+                Class.forName(originalDriver);
+            }
+        } catch (ClassNotFoundException e) {
+            throw new IOException("JDBC driver not found: " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Returns the captured slow queries.<p>
+     *
+     * @return the captured slow queries since the last reset
+     */
+    public static List<SlowQuery> getSlowQueries() {
+
+        synchronized (m_slowQueries) {
+            return new ArrayList<SlowQuery>(m_slowQueries);
+        }
+    }
+
+    /**
+     * Returns the counts since the last reset.<p>
+     *
+     * @return the counts since the last reset
+     */
+    public static Statistics getStatistics() {
+
+        Statistics result = new Statistics();
+        result.m_statements = m_statements.get();
+        result.m_rows = m_rows.get();
+        result.m_time = m_time.get();
+        result.m_sqlCounts = new HashMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : m_sqlCounts.entrySet()) {
+            result.m_sqlCounts.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+        }
+        return result;
+    }
+
+    /**
+     * Returns if the monitor has wrapped a connection, so the statements are counted.<p>
+     *
+     * @return <code>true</code> if the statements are counted
+     */
+    public static boolean isActive() {
+
+        return m_active;
+    }
+
+    /**
+     * Returns if the monitor is enabled by a system property or a configuration.<p>
+     *
+     * @param configuration the configuration, e.g. the test properties, may be <code>null</code>
+     * @return <code>true</code> if the monitor is enabled
+     */
+    public static boolean isEnabled(Map<String, String> configuration) {
+
+        String value = System.getProperty(PROP_ENABLED);
+        if ((value == null) && (configuration != null)) {
+            value = configuration.get(PROP_ENABLED);
+        }
+        return (value != null) && Boolean.valueOf(value.trim()).booleanValue();
+    }
+
+    /**
+     * Measures the statements of an operation.<p>
+     *
+     * Statements of other threads running at the same time are counted as well.<p>
+     *
+     * @param operation the operation
+     * @return the counts of the operation
+     * @throws Exception if the operation fails
+     */
+    public static Statistics measure(Operation operation) throws Exception {
+
+        Statistics before = getStatistics();
+        operation.run();
+        Statistics result = getStatistics();
+        result.m_statements -= before.m_statements;
+        result.m_rows -= before.m_rows;
+        result.m_time -= before.m_time;
+        for (Map.Entry<String, Long> entry : before.m_sqlCounts.entrySet()) {
+            Long after = result.m_sqlCounts.get(entry.getKey());
+            long count = (after == null ? 0 : after.longValue()) - entry.getValue().longValue();
+            if (count > 0) {
+                result.m_sqlCounts.put(entry.getKey(), Long.valueOf(count));
+            } else {
+                result.m_sqlCounts.remove(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Resets the counts and the captured slow queries.<p>
+     */
+    public static void reset() {
+
+        m_statements.set(0);
+        m_rows.set(0);
+        m_time.set(0);
+        m_sqlCounts.clear();
+        m_slowQueries.clear();
+    }
+
+    /**
+     * Sets the threshold of slow queries.<p>
+     *
+     * @param threshold the threshold in milliseconds
+     */
+    public static void setSlowQueryThreshold(long threshold) {
+
+        m_slowQueryNanos = threshold * 1000000L;
+    }
+
+    /**
+     * Wraps a connection to count its statements.<p>
+     *
+     * @param connection the connection
+     * @return the wrapped connection
+     */
+    public static Connection wrap(Connection connection) {
+
+        m_active = true;
+        return (Connection)wrap(connection, Connection.class, null);
+    }
+
+    /**
+     * Calls a method of a wrapped object.<p>
+     *
+     * @param target the wrapped object
+     * @param method the method
+     * @param args the arguments
+     * @return the result
+     * @throws Throwable the exception thrown by the method
+     */
+    static Object call(Object target, Method method, Object[] args) throws Throwable {
+
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Records the executions of a statement.<p>
+     *
+     * @param sql the SQL of the statement
+     * @param executions the number of executions, more than 1 for batches
+     * @param rows the number of updated rows
+     * @param duration the duration in nanoseconds
+     */
+    static void record(String sql, int executions, long rows, long duration) {
+
+        m_statements.addAndGet(executions);
+        m_rows.addAndGet(rows);
+        m_time.addAndGet(duration);
+        AtomicLong count = m_sqlCounts.get(sql);
+        if (count == null) {
+            AtomicLong existing = m_sqlCounts.putIfAbsent(sql, count = new AtomicLong());
+            if (existing != null) {
+                count = existing;
+            }
+        }
+        count.addAndGet(executions);
+        if ((duration >= m_slowQueryNanos) && (m_slowQueries.size() < MAX_SLOW_QUERIES)) {
+            m_slowQueries.add(new SlowQuery(sql, duration, getCallSite()));
+        }
+    }
+
+    /**
+     * Wraps a JDBC object with a counting proxy.<p>
+     *
+     * @param target the JDBC object
+     * @param type the interface of the proxy
+     * @param sql the SQL of a prepared statement
+     * @return the proxy
+     */
+    static Object wrap(Object target, Class<?> type, String sql) {
+
+        if (target == null) {
+            return null;
+        }
+        InvocationHandler handler;
+        if (type == Connection.class) {
+            handler = new ConnectionHandler((Connection)target);
+        } else if (type == ResultSet.class) {
+            handler = new ResultSetHandler((ResultSet)target);
+        } else {
+            handler = new StatementHandler((Statement)target, sql);
+        }
+        return Proxy.newProxyInstance(OpenCmsTestJdbcMonitor.class.getClassLoader(), new Class<?>[] {type}, handler);
+    }
+
+    /**
+     * Returns the call site of a statement, without the frames of the proxies and the monitor.<p>
+     *
+     * @return the stack of the call site
+     */
+    private static String getCallSite() {
+
+        StringBuffer result = new StringBuffer();
+        int frames = 0;
+        for (StackTraceElement element : new Throwable().getStackTrace()) {
+            String className = element.getClassName();
+            if (className.startsWith(OpenCmsTestJdbcMonitor.class.getName())
+                || className.startsWith("java.lang.reflect.")
+                || className.startsWith("sun.reflect.")
+                || className.startsWith("jdk.internal.")
+                || className.startsWith("com.sun.proxy.")
+                || className.startsWith("jdk.proxy")) {
+                continue;
+            }
+            if (frames > 0) {
+                result.append("\n\tat ");
+            }
+            result.append(element);
+            if (++frames >= 20) {
+                break;
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the key of a property line.<p>
+     *
+     * @param line the line
+     * @return the key, or <code>null</code> for comments and lines without value
+     */
+    private static String getKey(String line) {
+
+        String trimmed = line.trim();
+        int pos = trimmed.indexOf('=');
+        if (trimmed.startsWith("#") || (pos < 0)) {
+            return null;
+        }
+        return trimmed.substring(0, pos).trim();
+    }
+
+    /**
+     * Returns the value of a property line.<p>
+     *
+     * @param line the line
+     * @return the value
+     */
+    private static String getValue(String line) {
+
+        return line.substring(line.indexOf('=') + 1).trim();
+    }
+
+    /**
+     * @see org.junit.rules.TestWatcher#finished(org.junit.runner.Description)
+     */
+    @Override
+    protected void finished(Description description) {
+
+        System.out.println("----- JDBC " + description.getDisplayName() + ": " + getStatistics() + " -----");
+        for (SlowQuery query : getSlowQueries()) {
+            System.out.println("Slow query: " + query);
+        }
+    }
+
+    /**
+     * @see org.junit.rules.TestWatcher#starting(org.junit.runner.Description)
+     */
+    @Override
+    protected void starting(Description description) {
+
+        reset();
+    }
+}
@@ -0,0 +1,323 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Thread safe histogram of latencies with a bounded relative error.<p>
+ *
+ * The histogram follows the layout of HdrHistogram without its dependency: values below 128
+ * nanoseconds are counted exactly, larger values in buckets of 64 sub-buckets per power of
+ * two, so a recorded value is reported with a relative error of at most 1/64. Values are
+ * recorded in nanoseconds and reported in milliseconds, as the highest value equivalent to
+ * the bucket.<p>
+ */
+public class OpenCmsTestLatencyHistogram {
+
+    /** The number of values counted exactly. */
+    private static final int EXACT_VALUES = 128;
+
+    /** The number of sub-buckets per power of two. */
+    private static final int SUB_BUCKETS = 64;
+
+    /** The number of buckets. */
+    private static final int BUCKETS = EXACT_VALUES + ((64 - 7) * SUB_BUCKETS);
+
+    /** The number of recorded values. */
+    private final AtomicLong m_count;
+
+    /** The number of values by bucket. */
+    private final AtomicLongArray m_counts;
+
+    /** The maximum recorded value. */
+    private final AtomicLong m_max;
+
+    /** The minimum recorded value. */
+    private final AtomicLong m_min;
+
+    /** The sum of the recorded values. */
+    private final AtomicLong m_sum;
+
+    /**
+     * Creates a new empty histogram.<p>
+     */
+    public OpenCmsTestLatencyHistogram() {
+
+        m_count = new AtomicLong();
+        m_counts = new AtomicLongArray(BUCKETS);
+        m_max = new AtomicLong(0);
+        m_min = new AtomicLong(Long.MAX_VALUE);
+        m_sum = new AtomicLong();
+    }
+
+    /**
+     * Adds the values of another histogram.<p>
+     *
+     * @param other the other histogram
+     */
+    public void add(OpenCmsTestLatencyHistogram other) {
+
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = other.m_counts.get(i);
+            if (count > 0) {
+                m_counts.addAndGet(i, count);
+            }
+        }
+        m_count.addAndGet(other.m_count.get());
+        m_sum.addAndGet(other.m_sum.get());
+        updateMin(other.m_min.get());
+        updateMax(other.m_max.get());
+    }
+
+    /**
+     * Returns the number of recorded values.<p>
+     *
+     * @return the number of recorded values
+     */
+    public long getCount() {
+
+        return m_count.get();
+    }
+
+    /**
+     * Returns the maximum recorded value.<p>
+     *
+     * @return the maximum in milliseconds, 0 if empty
+     */
+    public double getMax() {
+
+        return m_max.get() / 1000000.0;
+    }
+
+    /**
+     * Returns the mean of the recorded values.<p>
+     *
+     * @return the mean in milliseconds, 0 if empty
+     */
+    public double getMean() {
+
+        long count = m_count.get();
+        return count == 0 ? 0 : (m_sum.get() / (double)count) / 1000000.0;
+    }
+
+    /**
+     * Returns the minimum recorded value.<p>
+     *
+     * @return the minimum in milliseconds, 0 if empty
+     */
+    public double getMin() {
+
+        long min = m_min.get();
+        return min == Long.MAX_VALUE ? 0 : min / 1000000.0;
+    }
+
+    /**
+     * Returns a percentile of the recorded values.<p>
+     *
+     * @param percentile the percentile, e.g. 99.9
+     * @return the value in milliseconds, 0 if empty
+     */
+    public double getPercentile(double percentile) {
+
+        long count = m_count.get();
+        if (count == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long)Math.ceil((Math.min(100, percentile) / 100.0) * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += m_counts.get(i);
+            if (seen >= rank) {
+                return Math.min(getHighestValue(i), m_max.get()) / 1000000.0;
+            }
+        }
+        return getMax();
+    }
+
+    /**
+     * Returns the percentile distribution in the format of HdrHistogram.<p>
+     *
+     * The percentiles halve the remaining distance to 100 with each step, as in the
+     * output of HdrHistogram, which can be plotted with its tools.<p>
+     *
+     * @return the percentile distribution
+     */
+    public String getPercentileDistribution() {
+
+        StringBuffer result = new StringBuffer();
+        result.append(String.format("%12s %14s %10s %14s%n", "Value", "Percentile", "TotalCount", "1/(1-Percentile)"));
+        long count = m_count.get();
+        if (count == 0) {
+            return result.toString();
+        }
+        double remaining = 100;
+        double percentile = 0;
+        while (true) {
+            double value = getPercentile(percentile);
+            long total = Math.max(1, (long)Math.ceil((percentile / 100.0) * count));
+            if (percentile >= 100) {
+                result.append(String.format(Locale.ENGLISH, "%12.3f %14.12f %10d%n", Double.valueOf(value), Double.valueOf(1.0), Long.valueOf(count)));
+                break;
+            }
+            result.append(String.format(
+                Locale.ENGLISH,
+                "%12.3f %14.12f %10d %14.2f%n",
+                Double.valueOf(value),
+                Double.valueOf(percentile / 100.0),
+                Long.valueOf(total),
+                Double.valueOf(1.0 / (1.0 - (percentile / 100.0)))));
+            remaining /= 2;
+            percentile = 100 - remaining;
+            if ((remaining / 100.0) * count < 1) {
+                percentile = 100;
+            }
+        }
+        result.append(String.format(
+            Locale.ENGLISH,
+            "#[Mean    = %12.3f, Max     = %12.3f]%n#[Total count    = %12d]%n",
+            Double.valueOf(getMean()),
+            Double.valueOf(getMax()),
+            Long.valueOf(count)));
+        return result.toString();
+    }
+
+    /**
+     * Records a value.<p>
+     *
+     * @param nanos the value in nanoseconds, negative values are recorded as 0
+     */
+    public void record(long nanos) {
+
+        long value = Math.max(0, nanos);
+        m_counts.incrementAndGet(getBucket(value));
+        m_count.incrementAndGet();
+        m_sum.addAndGet(value);
+        updateMin(value);
+        updateMax(value);
+    }
+
+    /**
+     * Removes all recorded values.<p>
+     *
+     * Values recorded at the same time by other threads may be partially lost.<p>
+     */
+    public void reset() {
+
+        for (int i = 0; i < BUCKETS; i++) {
+            m_counts.set(i, 0);
+        }
+        m_count.set(0);
+        m_sum.set(0);
+        m_min.set(Long.MAX_VALUE);
+        m_max.set(0);
+    }
+
+    /**
+     * Returns the count, the mean and the main percentiles.<p>
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+
+        return String.format(
+            Locale.ENGLISH,
+            "count %d  mean %.2f  p50 %.2f  p90 %.2f  p99 %.2f  p99.9 %.2f  max %.2f ms",
+            Long.valueOf(getCount()),
+            Double.valueOf(getMean()),
+            Double.valueOf(getPercentile(50)),
+            Double.valueOf(getPercentile(90)),
+            Double.valueOf(getPercentile(99)),
+            Double.valueOf(getPercentile(99.9)),
+            Double.valueOf(getMax()));
+    }
+
+    /**
+     * Returns the bucket of a value.<p>
+     *
+     * @param value the value, not negative
+     * @return the index of the bucket
+     */
+    private int getBucket(long value) {
+
+        if (value < EXACT_VALUES) {
+            return (int)value;
+        }
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - 6;
+        return EXACT_VALUES + ((shift - 1) * SUB_BUCKETS) + (int)((value >> shift) - SUB_BUCKETS);
+    }
+
+    /**
+     * Returns the highest value of a bucket.<p>
+     *
+     * @param bucket the index of the bucket
+     * @return the highest value
+     */
+    private long getHighestValue(int bucket) {
+
+        if (bucket < EXACT_VALUES) {
+            return bucket;
+        }
+        int shift = ((bucket - EXACT_VALUES) / SUB_BUCKETS) + 1;
+        long sub = ((bucket - EXACT_VALUES) % SUB_BUCKETS) + SUB_BUCKETS;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    /**
+     * Raises the maximum to a value.<p>
+     *
+     * @param value the value
+     */
+    private void updateMax(long value) {
+
+        long max;
+        while (value > (max = m_max.get())) {
+            if (m_max.compareAndSet(max, value)) {
+                break;
+            }
+        }
+    }
+
+    /**
+     * Lowers the minimum to a value.<p>
+     *
+     * @param value the value
+     */
+    private void updateMin(long value) {
+
+        long min;
+        while (value < (min = m_min.get())) {
+            if (m_min.compareAndSet(min, value)) {
+                break;
+            }
+        }
+    }
+}
@@ -0,0 +1,667 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Records the durations of the steps of the test harness lifecycle.<p>
+ *
+ * The {@link OpenCmsTestBase} times its lifecycle steps, e.g. reading the configuration,
+ * creating the database, booting the shell, running the shell scripts, importing the modules,
+ * waiting for the publish queue and removing the instance. Resource storages time their
+ * captures if a timer was set with {@link OpenCmsTestResourceStorage#setLifecycleTimer(OpenCmsTestLifecycleTimer)}.
+ * Each step is recorded as a {@link Timing} with an optional detail, e.g. the name of the
+ * script, and the nesting depth of the step in the thread that runs it. A step must be stopped
+ * by the thread that started it. Steps may carry attributes, e.g. the name of the database
+ * schema or the number of captured resources. Tests can query the timings, e.g. with
+ * {@link #getTotal(String)}. Listeners registered with {@link #addListener(I_CmsLifecycleListener)}
+ * are notified when a step starts and stops. At most {@link #DEFAULT_MAX_TIMINGS} timings are
+ * recorded per run, further timings are only counted and passed to the listeners.<p>
+ *
+ * At the end of a run the timings are written with {@link #writeReport()} as
+ * <code>lifecycle-&lt;run&gt;.json</code> and appended to <code>lifecycle.csv</code>, so the
+ * CSV file tracks the setup cost over many runs. The folder defaults to
+ * <code>target/test-timings</code> and can be set with the system property
+ * {@link #PROP_FOLDER}.<p>
+ */
+public class OpenCmsTestLifecycleTimer {
+
+    /**
+     * The recorded duration of a single step.<p>
+     */
+    public static class Timing {
+
+        /** The attributes of the step. */
+        private Map<String, Object> m_attributes;
+
+        /** The nesting depth, 0 for top level steps. */
+        private int m_depth;
+
+        /** The detail of the step, e.g. a file name. */
+        private String m_detail;
+
+        /** The duration in nanoseconds, -1 while the step runs. */
+        private long m_duration;
+
+        /** The start time in nanoseconds of the system timer. */
+        private long m_nanoStart;
+
+        /** The start time. */
+        private long m_start;
+
+        /** The name of the step. */
+        private String m_step;
+
+        /**
+         * Creates a new running timing.<p>
+         *
+         * @param step the name of the step
+         * @param detail the detail of the step, may be <code>null</code>
+         * @param depth the nesting depth
+         */
+        Timing(String step, String detail, int depth) {
+
+            m_step = step;
+            m_detail = detail;
+            m_depth = depth;
+            m_start = System.currentTimeMillis();
+            m_nanoStart = System.nanoTime();
+            m_duration = -1;
+            m_attributes = new LinkedHashMap<String, Object>();
+        }
+
+        /**
+         * Returns an attribute of the step.<p>
+         *
+         * @param name the name of the attribute
+         * @return the value of the attribute, or <code>null</code> if not set
+         */
+        public synchronized Object getAttribute(String name) {
+
+            return m_attributes.get(name);
+        }
+
+        /**
+         * Returns the attributes of the step.<p>
+         *
+         * @return a copy of the attributes, in the order they were set
+         */
+        public synchronized Map<String, Object> getAttributes() {
+
+            return new LinkedHashMap<String, Object>(m_attributes);
+        }
+
+        /**
+         * Returns the nesting depth.<p>
+         *
+         * @return the nesting depth, 0 for top level steps
+         */
+        public int getDepth() {
+
+            return m_depth;
+        }
+
+        /**
+         * Returns the detail of the step.<p>
+         *
+         * @return the detail, or <code>null</code>
+         */
+        public String getDetail() {
+
+            return m_detail;
+        }
+
+        /**
+         * Returns the duration of the step.<p>
+         *
+         * @return the duration in milliseconds, or -1 if the step is still running
+         */
+        public double getDuration() {
+
+            return m_duration < 0 ? -1 : m_duration / 1000000.0;
+        }
+
+        /**
+         * Returns the start time of the step.<p>
+         *
+         * @return the start time
+         */
+        public long getStart() {
+
+            return m_start;
+        }
+
+        /**
+         * Returns the name of the step.<p>
+         *
+         * @return the name of the step
+         */
+        public String getStep() {
+
+            return m_step;
+        }
+
+        /**
+         * Sets an attribute of the step, e.g. the number of processed resources.<p>
+         *
+         * @param name the name of the attribute
+         * @param value the value of the attribute, a string or a number
+         * @return this timing
+         */
+        public synchronized Timing setAttribute(String name, Object value) {
+
+            m_attributes.put(name, value);
+            return this;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            StringBuffer result = new StringBuffer();
+            for (int i = 0; i < m_depth; i++) {
+                result.append("  ");
+            }
+            result.append(m_step);
+            if (m_detail != null) {
+                result.append(" [").append(m_detail).append("]");
+            }
+            Map<String, Object> attributes = getAttributes();
+            if (!attributes.isEmpty()) {
+                result.append(" ").append(attributes);
+            }
+            result.append(": ").append(String.format(Locale.ENGLISH, "%.1f", Double.valueOf(getDuration()))).append(
+                " ms");
+            return result.toString();
+        }
+    }
+
+    /** Attribute: the fingerprint of the cached search indexes. */
+    public static final String ATTR_FINGERPRINT = "fingerprint";
+
+    /** Attribute: the name of the imported module. */
+    public static final String ATTR_MODULE = "module";
+
+    /** Attribute: the number of processed resources. */
+    public static final String ATTR_RESOURCE_COUNT = "resourceCount";
+
+    /** Attribute: if the search indexes were restored from the cache. */
+    public static final String ATTR_RESTORED = "restored";
+
+    /** Attribute: the name of the database schema. */
+    public static final String ATTR_SCHEMA = "schema";
+
+    /** Attribute: the name of the resource storage. */
+    public static final String ATTR_STORAGE = "storage";
+
+    /** Attribute: the target path of an import. */
+    public static final String ATTR_TARGET_PATH = "targetPath";
+
+    /** The default maximum number of recorded timings per run. */
+    public static final int DEFAULT_MAX_TIMINGS = 10000;
+
+    /** Name of the system property to set the folder of the reports. */
+    public static final String PROP_FOLDER = "test.timing.folder";
+
+    /** Step: copy the test data path. */
+    public static final String STEP_COPY_DATA_PATH = "copyDataPath";
+
+    /** Step: create an initialized CmsObject. */
+    public static final String STEP_GET_CMS_OBJECT = "getCmsObject";
+
+    /** Step: read the configuration. */
+    public static final String STEP_INIT_CONFIGURATION = "initConfiguration";
+
+    /** Step: import a module or import file. */
+    public static final String STEP_MODULE_IMPORT = "moduleImport";
+
+    /** Step: wait for the publish queue. */
+    public static final String STEP_PUBLISH_WAIT = "publishWait";
+
+    /** Step: remove the instance, the details name the sub steps. */
+    public static final String STEP_REMOVE = "removeOpenCms";
+
+    /** Step: run a shell script. */
+    public static final String STEP_SCRIPT = "script";
+
+    /** Step: restore or archive the search indexes, the details name the action. */
+    public static final String STEP_SEARCH_INDEX_CACHE = "searchIndexCache";
+
+    /** Step: capture resources into a resource storage. */
+    public static final String STEP_STORAGE_CAPTURE = "storageCapture";
+
+    /** Step: create the test database. */
+    public static final String STEP_SETUP_DATABASE = "setupDatabase";
+
+    /** Step: boot OpenCms in a new shell. */
+    public static final String STEP_SHELL_BOOT = "shellBoot";
+
+    /** The format of the run identifiers. */
+    private static final String RUN_FORMAT = "yyyyMMdd-HHmmss-SSS";
+
+    /** The number of timings not recorded because the maximum was reached. */
+    private long m_dropped;
+
+    /** The folder of the reports. */
+    private File m_folder;
+
+    /** The listeners. */
+    private List<I_CmsLifecycleListener> m_listeners;
+
+    /** The maximum number of recorded timings per run. */
+    private int m_maxTimings;
+
+    /** The running steps of each thread, innermost first, replaced when the timer is cleared. */
+    private volatile ThreadLocal<Deque<Timing>> m_running;
+
+    /** The identifier of the current run, <code>null</code> before the first step. */
+    private String m_run;
+
+    /** The recorded timings in order of their start. */
+    private List<Timing> m_timings;
+
+    /**
+     * Creates a new lifecycle timer.<p>
+     */
+    public OpenCmsTestLifecycleTimer() {
+
+        m_folder = new File(System.getProperty(PROP_FOLDER, "target" + File.separator + "test-timings"));
+        m_listeners = new CopyOnWriteArrayList<I_CmsLifecycleListener>();
+        m_maxTimings = DEFAULT_MAX_TIMINGS;
+        m_running = new ThreadLocal<Deque<Timing>>();
+        m_timings = new ArrayList<Timing>();
+    }
+
+    /**
+     * Adds a listener notified when steps start and stop.<p>
+     *
+     * @param listener the listener
+     */
+    public void addListener(I_CmsLifecycleListener listener) {
+
+        m_listeners.add(listener);
+    }
+
+    /**
+     * Removes all timings and starts a new run.<p>
+     */
+    public synchronized void clear() {
+
+        m_timings.clear();
+        m_running = new ThreadLocal<Deque<Timing>>();
+        m_dropped = 0;
+        m_run = null;
+    }
+
+    /**
+     * Returns the number of timings of the current run that were not recorded because the maximum was reached.<p>
+     *
+     * @return the number of dropped timings
+     */
+    public synchronized long getDroppedCount() {
+
+        return m_dropped;
+    }
+
+    /**
+     * Returns the folder of the reports.<p>
+     *
+     * @return the folder of the reports
+     */
+    public File getFolder() {
+
+        return m_folder;
+    }
+
+    /**
+     * Returns the identifier of the current run.<p>
+     *
+     * @return the identifier of the current run, or <code>null</code> if nothing was timed yet
+     */
+    public synchronized String getRun() {
+
+        return m_run;
+    }
+
+    /**
+     * Returns the timings of the current run.<p>
+     *
+     * @return the timings in order of their start
+     */
+    public synchronized List<Timing> getTimings() {
+
+        return new ArrayList<Timing>(m_timings);
+    }
+
+    /**
+     * Returns the timings of a step.<p>
+     *
+     * @param step the name of the step
+     * @return the timings of the step in order of their start
+     */
+    public synchronized List<Timing> getTimings(String step) {
+
+        List<Timing> result = new ArrayList<Timing>();
+        for (Timing timing : m_timings) {
+            if (timing.m_step.equals(step)) {
+                result.add(timing);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total duration of the finished timings of a step.<p>
+     *
+     * @param step the name of the step
+     * @return the total duration in milliseconds
+     */
+    public synchronized double getTotal(String step) {
+
+        double result = 0;
+        for (Timing timing : getTimings(step)) {
+            if (timing.m_duration >= 0) {
+                result += timing.getDuration();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the total durations of the finished timings by step.<p>
+     *
+     * @return the total durations in milliseconds by step, in order of the first start
+     */
+    public synchronized Map<String, Double> getTotals() {
+
+        Map<String, Double> result = new LinkedHashMap<String, Double>();
+        for (Timing timing : m_timings) {
+            if (!result.containsKey(timing.m_step)) {
+                result.put(timing.m_step, Double.valueOf(getTotal(timing.m_step)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes a listener.<p>
+     *
+     * @param listener the listener
+     */
+    public void removeListener(I_CmsLifecycleListener listener) {
+
+        m_listeners.remove(listener);
+    }
+
+    /**
+     * Sets the folder of the reports.<p>
+     *
+     * @param folder the folder of the reports
+     */
+    public void setFolder(File folder) {
+
+        m_folder = folder;
+    }
+
+    /**
+     * Sets the maximum number of recorded timings per run.<p>
+     *
+     * @param maxTimings the maximum number of recorded timings
+     */
+    public synchronized void setMaxTimings(int maxTimings) {
+
+        m_maxTimings = maxTimings;
+    }
+
+    /**
+     * Starts timing a step.<p>
+     *
+     * @param step the name of the step
+     * @param detail the detail of the step, may be <code>null</code>
+     * @return the running timing, to be passed to {@link #stop(Timing)}
+     */
+    public Timing start(String step, String detail) {
+
+        Deque<Timing> running = getRunning();
+        Timing timing = new Timing(step, detail, running.size());
+        running.push(timing);
+        synchronized (this) {
+            if (m_run == null) {
+                m_run = new SimpleDateFormat(RUN_FORMAT).format(new Date());
+            }
+            if (m_timings.size() < m_maxTimings) {
+                m_timings.add(timing);
+            } else {
+                m_dropped++;
+            }
+        }
+        for (I_CmsLifecycleListener listener : m_listeners) {
+            listener.stepStarted(timing);
+        }
+        return timing;
+    }
+
+    /**
+     * Stops timing a step.<p>
+     *
+     * @param timing the running timing
+     */
+    public void stop(Timing timing) {
+
+        synchronized (this) {
+            timing.m_duration = System.nanoTime() - timing.m_nanoStart;
+        }
+        getRunning().remove(timing);
+        for (I_CmsLifecycleListener listener : m_listeners) {
+            listener.stepStopped(timing);
+        }
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public synchronized String toString() {
+
+        StringBuffer result = new StringBuffer();
+        result.append("----- Test lifecycle ").append(m_run).append(" -----\n");
+        for (Timing timing : m_timings) {
+            result.append(timing).append('\n');
+        }
+        if (m_dropped > 0) {
+            result.append("[").append(m_dropped).append(" further timings not recorded]\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes the timings of the current run as JSON file and appends them to the CSV file.<p>
+     *
+     * @return the written JSON file, or <code>null</code> if nothing was timed
+     * @throws IOException if writing the files fails
+     */
+    public File writeReport() throws IOException {
+
+        List<Timing> timings;
+        String run;
+        synchronized (this) {
+            timings = new ArrayList<Timing>(m_timings);
+            run = m_run;
+        }
+        if (run == null) {
+            return null;
+        }
+        m_folder.mkdirs();
+        File json = new File(m_folder, "lifecycle-" + run + ".json");
+        Writer out = new OutputStreamWriter(new FileOutputStream(json), "UTF-8");
+        try {
+            out.write("{\n  \"run\": " + quote(run) + ",\n  \"timings\": [");
+            for (int i = 0; i < timings.size(); i++) {
+                Timing timing = timings.get(i);
+                out.write(i == 0 ? "\n" : ",\n");
+                out.write("    {\"step\": " + quote(timing.m_step));
+                out.write(", \"detail\": " + quote(timing.m_detail));
+                out.write(", \"depth\": " + timing.m_depth);
+                out.write(", \"start\": " + timing.m_start);
+                out.write(", \"durationMs\": " + format(timing.getDuration()));
+                Map<String, Object> attributes = timing.getAttributes();
+                if (!attributes.isEmpty()) {
+                    out.write(", \"attributes\": {");
+                    String separator = "";
+                    for (Map.Entry<String, Object> attribute : attributes.entrySet()) {
+                        Object value = attribute.getValue();
+                        out.write(separator + quote(attribute.getKey()) + ": ");
+                        out.write(value instanceof Number ? value.toString() : quote(String.valueOf(value)));
+                        separator = ", ";
+                    }
+                    out.write("}");
+                }
+                out.write("}");
+            }
+            out.write("\n  ]\n}\n");
+        } finally {
+            out.close();
+        }
+        File csv = new File(m_folder, "lifecycle.csv");
+        boolean header = !csv.exists();
+        out = new OutputStreamWriter(new FileOutputStream(csv, true), "UTF-8");
+        try {
+            if (header) {
+                out.write("run,step,detail,depth,start,durationMs\n");
+            }
+            for (Timing timing : timings) {
+                out.write(run + "," + timing.m_step + "," + csv(timing.m_detail) + "," + timing.m_depth + ",");
+                out.write(timing.m_start + "," + format(timing.getDuration()) + "\n");
+            }
+        } finally {
+            out.close();
+        }
+        return json;
+    }
+
+    /**
+     * Quotes a value as CSV field if required.<p>
+     *
+     * @param value the value, may be <code>null</code>
+     * @return the CSV field
+     */
+    private String csv(String value) {
+
+        if (value == null) {
+            return "";
+        }
+        if ((value.indexOf(',') < 0) && (value.indexOf('"') < 0) && (value.indexOf('\n') < 0)) {
+            return value;
+        }
+        return "\"" + value.replace("\"", "\"\"") + "\"";
+    }
+
+    /**
+     * Formats a duration.<p>
+     *
+     * @param duration the duration in milliseconds
+     * @return the formatted duration
+     */
+    private String format(double duration) {
+
+        return String.format(Locale.ENGLISH, "%.3f", Double.valueOf(duration));
+    }
+
+    /**
+     * Returns the running steps of the current thread.<p>
+     *
+     * @return the running steps of the current thread, innermost first
+     */
+    private Deque<Timing> getRunning() {
+
+        ThreadLocal<Deque<Timing>> local = m_running;
+        Deque<Timing> running = local.get();
+        if (running == null) {
+            running = new ArrayDeque<Timing>();
+            local.set(running);
+        }
+        return running;
+    }
+
+    /**
+     * Quotes a value as JSON string.<p>
+     *
+     * @param value the value, may be <code>null</code>
+     * @return the JSON string, or <code>null</code>
+     */
+    private String quote(String value) {
+
+        if (value == null) {
+            return "null";
+        }
+        StringBuffer result = new StringBuffer("\"");
+        for (char c : value.toCharArray()) {
+            switch (c) {
+                case '"':
+                    result.append("\\\"");
+                    break;
+                case '\\':
+                    result.append("\\\\");
+                    break;
+                case '\n':
+                    result.append("\\n");
+                    break;
+                case '\r':
+                    result.append("\\r");
+                    break;
+                case '\t':
+                    result.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        result.append(String.format("\\u%04x", Integer.valueOf(c)));
+                    } else {
+                        result.append(c);
+                    }
+            }
+        }
+        return result.append('"').toString();
+    }
+}
@@ -0,0 +1,742 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.file.CmsObject;
+import org.opencms.file.CmsProperty;
+import org.opencms.file.CmsResourceFilter;
+import org.opencms.main.OpenCms;
+import org.opencms.util.CmsUUID;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Runs a weighted mix of operations from many threads against the OpenCms test instance.<p>
+ *
+ * Each thread logs in with its own <code>CmsObject</code> and then picks the operations at
+ * random by their weight. In the closed loop mode (the default) each thread starts the next
+ * operation when the previous one is done, after an optional think time. With a fixed rate,
+ * the operations are scheduled at fixed intervals and their latency is measured from the
+ * scheduled start, so a slow operation also counts for the operations it delayed. The
+ * latencies are recorded per operation in an {@link OpenCmsTestLatencyHistogram}, failed
+ * operations are counted separately. The throughput is computed from the time between the start
+ * of the first and the end of the last measured operation, which can run beyond the measured
+ * duration. For example:
+ * <pre>
+ * OpenCmsTestLoadDriver driver = new OpenCmsTestLoadDriver().setThreads(8);
+ * driver.addOperation("read", 70, OpenCmsTestLoadDriver.readResource(paths));
+ * driver.addOperation("properties", 20, OpenCmsTestLoadDriver.readProperties(paths));
+ * driver.addOperation("write", 8, OpenCmsTestLoadDriver.writeProperty(paths, "Description"));
+ * driver.addOperation("publish", 2, OpenCmsTestLoadDriver.publishResource(paths));
+ * System.out.println(driver.run(5000, 30000));
+ * </pre>
+ */
+public class OpenCmsTestLoadDriver {
+
+    /**
+     * An operation run by the load driver.<p>
+     */
+    public interface Action {
+
+        /**
+         * Runs the operation once.<p>
+         *
+         * @param cms the <code>CmsObject</code> of the running thread
+         * @param random the random generator of the running thread
+         * @throws Exception if the operation fails
+         */
+        void run(CmsObject cms, Random random) throws Exception;
+    }
+
+    /**
+     * The measured values of an operation.<p>
+     */
+    public static class Operation {
+
+        /** The action. */
+        Action m_action;
+
+        /** The number of failed executions. */
+        final AtomicLong m_errors = new AtomicLong();
+
+        /** The first error. */
+        final AtomicReference<Throwable> m_firstError = new AtomicReference<Throwable>();
+
+        /** The latencies of the successful executions. */
+        final OpenCmsTestLatencyHistogram m_latencies = new OpenCmsTestLatencyHistogram();
+
+        /** The name of the operation. */
+        String m_name;
+
+        /** The weight of the operation in the mix. */
+        int m_weight;
+
+        /**
+         * Creates a new operation.<p>
+         *
+         * @param name the name of the operation
+         * @param weight the weight of the operation in the mix
+         * @param action the action
+         */
+        Operation(String name, int weight, Action action) {
+
+            m_name = name;
+            m_weight = weight;
+            m_action = action;
+        }
+
+        /**
+         * Returns the number of failed executions.<p>
+         *
+         * @return the number of failed executions
+         */
+        public long getErrorCount() {
+
+            return m_errors.get();
+        }
+
+        /**
+         * Returns the first error.<p>
+         *
+         * @return the first error, or <code>null</code> if no execution failed
+         */
+        public Throwable getFirstError() {
+
+            return m_firstError.get();
+        }
+
+        /**
+         * Returns the latencies of the successful executions.<p>
+         *
+         * @return the latencies
+         */
+        public OpenCmsTestLatencyHistogram getLatencies() {
+
+            return m_latencies;
+        }
+
+        /**
+         * Returns the name of the operation.<p>
+         *
+         * @return the name of the operation
+         */
+        public String getName() {
+
+            return m_name;
+        }
+
+        /**
+         * Returns the weight of the operation in the mix.<p>
+         *
+         * @return the weight
+         */
+        public int getWeight() {
+
+            return m_weight;
+        }
+    }
+
+    /**
+     * The result of a load run.<p>
+     */
+    public static class Result {
+
+        /** The measured duration in nanoseconds. */
+        private long m_duration;
+
+        /** The operations. */
+        private List<Operation> m_operations;
+
+        /** The rate, 0 for closed loop. */
+        private double m_rate;
+
+        /** The number of threads. */
+        private int m_threads;
+
+        /**
+         * Creates a new result.<p>
+         *
+         * @param operations the operations
+         * @param threads the number of threads
+         * @param rate the rate, 0 for closed loop
+         * @param duration the measured duration in nanoseconds
+         */
+        Result(List<Operation> operations, int threads, double rate, long duration) {
+
+            m_operations = operations;
+            m_threads = threads;
+            m_rate = rate;
+            m_duration = duration;
+        }
+
+        /**
+         * Returns the measured duration.<p>
+         *
+         * @return the measured duration in milliseconds
+         */
+        public long getDuration() {
+
+            return m_duration / 1000000;
+        }
+
+        /**
+         * Returns an operation by name.<p>
+         *
+         * @param name the name of the operation
+         * @return the operation, or <code>null</code> if not found
+         */
+        public Operation getOperation(String name) {
+
+            for (Operation operation : m_operations) {
+                if (operation.m_name.equals(name)) {
+                    return operation;
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Returns the operations.<p>
+         *
+         * @return the operations
+         */
+        public List<Operation> getOperations() {
+
+            return Collections.unmodifiableList(m_operations);
+        }
+
+        /**
+         * Returns the throughput of an operation.<p>
+         *
+         * @param operation the operation
+         * @return the successful executions per second
+         */
+        public double getThroughput(Operation operation) {
+
+            return m_duration == 0 ? 0 : (operation.m_latencies.getCount() * 1000000000.0) / m_duration;
+        }
+
+        /**
+         * Returns the latencies and the throughput per operation.<p>
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            StringBuffer result = new StringBuffer();
+            result.append("----- Load ").append(m_threads).append(" threads, ");
+            result.append(m_rate > 0 ? String.format(Locale.ENGLISH, "%.1f ops/s", Double.valueOf(m_rate)) : "closed loop");
+            result.append(", ").append(getDuration()).append(" ms -----\n");
+            OpenCmsTestLatencyHistogram total = new OpenCmsTestLatencyHistogram();
+            long errors = 0;
+            for (Operation operation : m_operations) {
+                result.append(String.format(
+                    Locale.ENGLISH,
+                    "%-16s %9.1f ops/s %6d errors  %s%n",
+                    operation.m_name,
+                    Double.valueOf(getThroughput(operation)),
+                    Long.valueOf(operation.getErrorCount()),
+                    operation.m_latencies));
+                if (operation.getFirstError() != null) {
+                    result.append("                 first error: ").append(operation.getFirstError()).append('\n');
+                }
+                total.add(operation.m_latencies);
+                errors += operation.getErrorCount();
+            }
+            result.append(String.format(
+                Locale.ENGLISH,
+                "%-16s %9.1f ops/s %6d errors  %s%n",
+                "total",
+                Double.valueOf(m_duration == 0 ? 0 : (total.getCount() * 1000000000.0) / m_duration),
+                Long.valueOf(errors),
+                total));
+            return result.toString();
+        }
+    }
+
+    /** The default number of threads. */
+    public static final int DEFAULT_THREADS = 4;
+
+    /** The index of the current thread and the number of threads of the running load. */
+    private static final ThreadLocal<int[]> m_threadPartition = new ThreadLocal<int[]>();
+
+    /** The operations of the mix. */
+    private List<Operation> m_operations;
+
+    /** The password of the user. */
+    private String m_password;
+
+    /** The name of the project. */
+    private String m_project;
+
+    /** The total rate in operations per second, 0 for closed loop. */
+    private double m_rate;
+
+    /** The seed of the random generators. */
+    private long m_seed;
+
+    /** The site root. */
+    private String m_siteRoot;
+
+    /** The think time in milliseconds between the operations of a thread in closed loop mode. */
+    private long m_thinkTime;
+
+    /** The number of threads. */
+    private int m_threads;
+
+    /** The name of the user. */
+    private String m_user;
+
+    /**
+     * Creates a new load driver for the Admin user in the "Offline" project of the default site.<p>
+     */
+    public OpenCmsTestLoadDriver() {
+
+        m_operations = new ArrayList<Operation>();
+        m_threads = DEFAULT_THREADS;
+        m_user = "Admin";
+        m_password = "admin";
+        m_project = "Offline";
+        m_siteRoot = "/sites/default/";
+        m_seed = 42;
+    }
+
+    /**
+     * Returns an action locking and unlocking a random resource.<p>
+     *
+     * All threads log in as the same user, so a thread unlocking a resource would also drop the
+     * lock of another thread on it. Each thread therefore picks from its own share of the
+     * resources, which requires at least as many resources as threads.<p>
+     *
+     * @param paths the site paths of the resources
+     * @return the action
+     */
+    public static Action lockResource(final List<String> paths) {
+
+        return new Action() {
+
+            public void run(CmsObject cms, Random random) throws Exception {
+
+                String path = pickOwn(paths, random);
+                cms.lockResource(path);
+                cms.unlockResource(path);
+            }
+        };
+    }
+
+    /**
+     * Returns an action publishing a random resource and waiting for its own publish job.<p>
+     *
+     * @param paths the site paths of the resources
+     * @return the action
+     */
+    public static Action publishResource(final List<String> paths) {
+
+        return new Action() {
+
+            public void run(CmsObject cms, Random random) throws Exception {
+
+                CmsUUID publishId = OpenCms.getPublishManager().publishResource(cms, pick(paths, random));
+                OpenCmsTestBase.m_publishWaiter.waitForJob(publishId);
+            }
+        };
+    }
+
+    /**
+     * Returns an action reading all properties of a random resource.<p>
+     *
+     * @param paths the site paths of the resources
+     * @return the action
+     */
+    public static Action readProperties(final List<String> paths) {
+
+        return new Action() {
+
+            public void run(CmsObject cms, Random random) throws Exception {
+
+                cms.readPropertyObjects(pick(paths, random), true);
+            }
+        };
+    }
+
+    /**
+     * Returns an action reading a random resource.<p>
+     *
+     * @param paths the site paths of the resources
+     * @return the action
+     */
+    public static Action readResource(final List<String> paths) {
+
+        return new Action() {
+
+            public void run(CmsObject cms, Random random) throws Exception {
+
+                cms.readResource(pick(paths, random), CmsResourceFilter.ALL);
+            }
+        };
+    }
+
+    /**
+     * Returns an action writing a random value to a property of a random resource.<p>
+     *
+     * The resource is locked for the write and unlocked afterwards. Like for
+     * {@link #lockResource(List)}, each thread picks from its own share of the resources.<p>
+     *
+     * @param paths the site paths of the resources
+     * @param property the name of the property
+     * @return the action
+     */
+    public static Action writeProperty(final List<String> paths, final String property) {
+
+        return new Action() {
+
+            public void run(CmsObject cms, Random random) throws Exception {
+
+                String path = pickOwn(paths, random);
+                cms.lockResource(path);
+                try {
+                    cms.writePropertyObject(path, new CmsProperty(property, Long.toHexString(random.nextLong()), null));
+                } finally {
+                    cms.unlockResource(path);
+                }
+            }
+        };
+    }
+
+    /**
+     * Returns a random path.<p>
+     *
+     * @param paths the paths
+     * @param random the random generator
+     * @return the path
+     */
+    static String pick(List<String> paths, Random random) {
+
+        return paths.get(random.nextInt(paths.size()));
+    }
+
+    /**
+     * Returns a random path of the share of the current thread.<p>
+     *
+     * The paths are split among the threads of the running load by their index, outside of a
+     * load run all paths are picked from.<p>
+     *
+     * @param paths the paths
+     * @param random the random generator
+     * @return the path
+     */
+    static String pickOwn(List<String> paths, Random random) {
+
+        int[] partition = m_threadPartition.get();
+        if (partition == null) {
+            return pick(paths, random);
+        }
+        int index = partition[0];
+        int threads = partition[1];
+        int count = ((paths.size() - index) + threads - 1) / threads;
+        if (count <= 0) {
+            throw new IllegalStateException("Thread "
+                + index
+                + " has no resources of its own, at least "
+                + threads
+                + " paths are required but only "
+                + paths.size()
+                + " were given");
+        }
+        return paths.get(index + (random.nextInt(count) * threads));
+    }
+
+    /**
+     * Adds an operation to the mix.<p>
+     *
+     * @param name the name of the operation in the result
+     * @param weight the weight of the operation in the mix
+     * @param action the action
+     * @return this driver
+     */
+    public OpenCmsTestLoadDriver addOperation(String name, int weight, Action action) {
+
+        if (weight <= 0) {
+            throw new IllegalArgumentException("The weight must be positive: " + weight);
+        }
+        m_operations.add(new Operation(name, weight, action));
+        return this;
+    }
+
+    /**
+     * Runs the mix.<p>
+     *
+     * The latencies of the warmup are discarded. The method returns when all threads have
+     * finished their last operation.<p>
+     *
+     * @param warmup the warmup in milliseconds
+     * @param duration the measured duration in milliseconds
+     * @return the result
+     * @throws Exception if a thread cannot log in
+     */
+    public Result run(long warmup, long duration) throws Exception {
+
+        if (m_operations.isEmpty()) {
+            throw new IllegalStateException("No operations added");
+        }
+        final List<Operation> operations = new ArrayList<Operation>();
+        int totalWeight = 0;
+        for (Operation operation : m_operations) {
+            operations.add(new Operation(operation.m_name, operation.m_weight, operation.m_action));
+            totalWeight += operation.m_weight;
+        }
+        final int[] cumulativeWeights = new int[operations.size()];
+        int sum = 0;
+        for (int i = 0; i < operations.size(); i++) {
+            sum += operations.get(i).m_weight;
+            cumulativeWeights[i] = sum;
+        }
+        final CmsObject[] cmsObjects = new CmsObject[m_threads];
+        for (int i = 0; i < m_threads; i++) {
+            cmsObjects[i] = login();
+        }
+        final CountDownLatch done = new CountDownLatch(m_threads);
+        final long start = System.nanoTime() + 100000000L;
+        final long measureStart = start + (warmup * 1000000L);
+        final long end = measureStart + (duration * 1000000L);
+        final long interval = m_rate > 0 ? (long)((1000000000.0 * m_threads) / m_rate) : 0;
+        final int weights = totalWeight;
+        final int threads = m_threads;
+        final long[][] windows = new long[m_threads][];
+        for (int i = 0; i < m_threads; i++) {
+            final int index = i;
+            Thread thread = new Thread(new Runnable() {
+
+                public void run() {
+
+                    m_threadPartition.set(new int[] {index, threads});
+                    try {
+                        windows[index] = runThread(
+                            cmsObjects[index],
+                            new Random(m_seed + index),
+                            operations,
+                            cumulativeWeights,
+                            weights,
+                            start + ((interval * index) / m_threads),
+                            interval,
+                            measureStart,
+                            end);
+                    } finally {
+                        m_threadPartition.remove();
+                        done.countDown();
+                    }
+                }
+            }, "OpenCmsTestLoadDriver-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+        long first = Long.MAX_VALUE;
+        long last = Long.MIN_VALUE;
+        for (long[] window : windows) {
+            if ((window != null) && (window[0] <= window[1])) {
+                first = Math.min(first, window[0]);
+                last = Math.max(last, window[1]);
+            }
+        }
+        // the operations running at the end of the duration are measured until they finish
+        long measured = first <= last ? last - first : end - measureStart;
+        return new Result(operations, m_threads, m_rate, measured);
+    }
+
+    /**
+     * Sets the total rate of the operations of all threads.<p>
+     *
+     * @param rate the operations per second, 0 for closed loop mode
+     * @return this driver
+     */
+    public OpenCmsTestLoadDriver setRate(double rate) {
+
+        m_rate = Math.max(0, rate);
+        return this;
+    }
+
+    /**
+     * Sets the seed of the random generators, each thread uses the seed plus its index.<p>
+     *
+     * @param seed the seed
+     * @return this driver
+     */
+    public OpenCmsTestLoadDriver setSeed(long seed) {
+
+        m_seed = seed;
+        return this;
+    }
+
+    /**
+     * Sets the site root of the threads.<p>
+     *
+     * @param siteRoot the site root
+     * @return this driver
+     */
+    public OpenCmsTestLoadDriver setSiteRoot(String siteRoot) {
+
+        m_siteRoot = siteRoot;
+        return this;
+    }
+
+    /**
+     * Sets the think time between the operations of a thread in closed loop mode.<p>
+     *
+     * @param thinkTime the think time in milliseconds
+     * @return this driver
+     */
+    public OpenCmsTestLoadDriver setThinkTime(long thinkTime) {
+
+        m_thinkTime = Math.max(0, thinkTime);
+        return this;
+    }
+
+    /**
+     * Sets the number of threads.<p>
+     *
+     * @param threads the number of threads
+     * @return this driver
+     */
+    public OpenCmsTestLoadDriver setThreads(int threads) {
+
+        if (threads < 1) {
+            throw new IllegalArgumentException("At least one thread is required");
+        }
+        m_threads = threads;
+        return this;
+    }
+
+    /**
+     * Sets the user and project of the threads.<p>
+     *
+     * @param user the name of the user
+     * @param password the password of the user
+     * @param project the name of the project
+     * @return this driver
+     */
+    public OpenCmsTestLoadDriver setUser(String user, String password, String project) {
+
+        m_user = user;
+        m_password = password;
+        m_project = project;
+        return this;
+    }
+
+    /**
+     * Returns a new logged in <code>CmsObject</code> for a thread.<p>
+     *
+     * @return the <code>CmsObject</code>
+     * @throws Exception if the login fails
+     */
+    private CmsObject login() throws Exception {
+
+        CmsObject cms = OpenCms.initCmsObject(OpenCms.getDefaultUsers().getUserGuest());
+        cms.loginUser(m_user, m_password);
+        cms.getRequestContext().setCurrentProject(cms.readProject(m_project));
+        cms.getRequestContext().setSiteRoot(m_siteRoot);
+        return cms;
+    }
+
+    /**
+     * Runs the operations of a thread.<p>
+     *
+     * @param cms the <code>CmsObject</code> of the thread
+     * @param random the random generator of the thread
+     * @param operations the operations
+     * @param cumulativeWeights the cumulative weights of the operations
+     * @param totalWeight the total weight
+     * @param start the start of the first operation
+     * @param interval the interval between the operations in nanoseconds, 0 for closed loop
+     * @param measureStart the start of the measurement
+     * @param end the end of the run
+     * @return the start of the first and the end of the last measured operation, the start is
+     *      after the end if no operation was measured
+     */
+    private long[] runThread(
+        CmsObject cms,
+        Random random,
+        List<Operation> operations,
+        int[] cumulativeWeights,
+        int totalWeight,
+        long start,
+        long interval,
+        long measureStart,
+        long end) {
+
+        long[] window = new long[] {Long.MAX_VALUE, Long.MIN_VALUE};
+        long scheduled = start;
+        while (scheduled < end) {
+            long now = System.nanoTime();
+            if (scheduled > now) {
+                LockSupport.parkNanos(scheduled - now);
+                continue;
+            }
+            if (now >= end) {
+                break;
+            }
+            int pick = random.nextInt(totalWeight);
+            int index = 0;
+            while (cumulativeWeights[index] <= pick) {
+                index++;
+            }
+            Operation operation = operations.get(index);
+            // in fixed rate mode the latency includes the delay behind the schedule
+            long operationStart = interval > 0 ? scheduled : now;
+            boolean success = true;
+            try {
+                operation.m_action.run(cms, random);
+            } catch (Throwable t) {
+                success = false;
+                if (operationStart >= measureStart) {
+                    operation.m_errors.incrementAndGet();
+                    operation.m_firstError.compareAndSet(null, t);
+                }
+            }
+            long finished = System.nanoTime();
+            if (operationStart >= measureStart) {
+                window[0] = Math.min(window[0], operationStart);
+                window[1] = finished;
+                if (success) {
+                    operation.m_latencies.record(finished - operationStart);
+                }
+            }
+            scheduled = interval > 0 ? scheduled + interval : finished + (m_thinkTime * 1000000L);
+        }
+        return window;
+    }
+}
@@ -28,42 +28,306 @@
 package net.componio.opencms.junit.base;
 
 import org.apache.log4j.ConsoleAppender;
+import org.apache.log4j.Level;
 import org.apache.log4j.Priority;
+import org.apache.log4j.spi.Filter;
 import org.apache.log4j.spi.LoggingEvent;
 
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+
 /**
  * Simple extension of the log4j console appender that throws a
  * <code>RuntimeException</code> if an error (or fatal) event is logged,
  * causing the running test to fail.<p> 
  * 
+ * In asynchronous mode the events are put into a bounded ring buffer and written to the 
+ * console by a single writer thread, so the logging threads do not wait for console I/O. 
+ * The log handler and the "break on error" check still run on the logging thread. If the 
+ * buffer is full, events are dropped and counted, except error and fatal events, which are 
+ * written directly. The mode is enabled with the appender option <code>Async</code> or the 
+ * system property {@link #PROP_ASYNC}. The writer thread is a daemon thread, a shutdown hook 
+ * writes the queued events when the JVM exits without the appender being closed.<p>
+ * 
  * @since 6.0.0
  */
 public class OpenCmsTestLogAppender extends ConsoleAppender {
 
-    // indicates if a logged error / fatal message should cause a test to fail
-    private static boolean m_breakOnError;
+    /**
+     * Bounded lock-free ring buffer for many producers and a single consumer.<p>
+     */
+    private static class RingBuffer {
+
+        /** The events. */
+        private final AtomicReferenceArray<LoggingEvent> m_events;
+
+        /** The mask for the slot index. */
+        private final int m_mask;
+
+        /** The position of the next event to take, only used by the consumer. */
+        private long m_readPosition;
+
+        /** The sequence number of each slot. */
+        private final AtomicLongArray m_sequences;
+
+        /** The position of the next event to put. */
+        private final AtomicLong m_writePosition;
+
+        /**
+         * Creates a new ring buffer.<p>
+         * 
+         * @param capacity the capacity, rounded up to a power of two
+         */
+        RingBuffer(int capacity) {
+
+            int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+            m_events = new AtomicReferenceArray<LoggingEvent>(size);
+            m_sequences = new AtomicLongArray(size);
+            for (int i = 0; i < size; i++) {
+                m_sequences.set(i, i);
+            }
+            m_mask = size - 1;
+            m_writePosition = new AtomicLong();
+        }
+
+        /**
+         * Puts an event into the buffer.<p>
+         * 
+         * @param event the event
+         * @return <code>false</code> if the buffer is full
+         */
+        boolean offer(LoggingEvent event) {
+
+            while (true) {
+                long position = m_writePosition.get();
+                int index = (int)position & m_mask;
+                long difference = m_sequences.get(index) - position;
+                if (difference == 0) {
+                    if (m_writePosition.compareAndSet(position, position + 1)) {
+                        m_events.set(index, event);
+                        m_sequences.lazySet(index, position + 1);
+                        return true;
+                    }
+                } else if (difference < 0) {
+                    return false;
+                }
+            }
+        }
+
+        /**
+         * Takes the next event from the buffer, only called by the consumer.<p>
+         * 
+         * @return the next event, or <code>null</code> if the buffer is empty
+         */
+        LoggingEvent poll() {
+
+            int index = (int)m_readPosition & m_mask;
+            if (m_sequences.get(index) != (m_readPosition + 1)) {
+                return null;
+            }
+            LoggingEvent event = m_events.get(index);
+            m_events.set(index, null);
+            m_sequences.lazySet(index, m_readPosition + m_mask + 1);
+            m_readPosition++;
+            return event;
+        }
+
+        /**
+         * Returns the number of events in the buffer.<p>
+         * 
+         * @return the number of events in the buffer
+         */
+        int size() {
+
+            long size = m_writePosition.get() - m_readPosition;
+            return (int)Math.max(0, Math.min(size, m_mask + 1));
+        }
+    }
+
+    /** Name of the system property to enable the asynchronous mode. */
+    public static final String PROP_ASYNC = "test.log.async";
+
+    /** The default capacity of the ring buffer. */
+    public static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    /** The time the writer thread sleeps if the buffer is empty. */
+    private static final long WRITER_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /** The appender running in asynchronous mode. */
+    private static volatile OpenCmsTestLogAppender m_asyncAppender;
+
+    /** The registry of the log handlers and settings per scope. */
+    private static final OpenCmsTestLogHandlerRegistry m_registry = new OpenCmsTestLogHandlerRegistry();
+
+    public static volatile I_CmsLogHandler m_handler;
+
+    /** The lock serializing the calls of the single global handler. */
+    private static final Object m_handlerLock = new Object();
+
+    /** Indicates if the asynchronous mode is enabled. */
+    private boolean m_async;
+
+    /** Indicates if the appender was closed, read without holding the appender lock. */
+    private volatile boolean m_closed;
+
+    /** The ring buffer of the asynchronous mode. */
+    private volatile RingBuffer m_buffer;
 
-    public static I_CmsLogHandler m_handler;
+    /** The capacity of the ring buffer. */
+    private int m_bufferSize = DEFAULT_BUFFER_SIZE;
+
+    /** The number of dropped events. */
+    private final AtomicLong m_dropped = new AtomicLong();
+
+    /** Indicates if the location information is captured for asynchronous events. */
+    private boolean m_locationInfo;
+
+    /** The shutdown hook writing the queued events if the JVM exits before the appender is closed. */
+    private Thread m_shutdownHook;
+
+    /** Lock for writing to the console, shared by the writer thread and direct writes. */
+    private final Object m_writeLock = new Object();
+
+    /** The writer thread of the asynchronous mode. */
+    private volatile Thread m_writer;
+
+    /**
+     * Returns the number of events dropped because the buffer was full.<p>
+     * 
+     * @return the number of dropped events, 0 if no appender runs in asynchronous mode
+     */
+    public static long getDroppedEventCount() {
+
+        OpenCmsTestLogAppender appender = m_asyncAppender;
+        return appender == null ? 0 : appender.m_dropped.get();
+    }
+
+    /**
+     * Returns the number of events waiting to be written.<p>
+     * 
+     * @return the number of queued events, 0 if no appender runs in asynchronous mode
+     */
+    public static int getQueuedEventCount() {
+
+        OpenCmsTestLogAppender appender = m_asyncAppender;
+        RingBuffer buffer = appender == null ? null : appender.m_buffer;
+        return buffer == null ? 0 : buffer.size();
+    }
+
+    /**
+     * Returns the registry of the log handlers and settings per scope.<p>
+     * 
+     * @return the registry of the log handlers
+     */
+    public static OpenCmsTestLogHandlerRegistry getHandlerRegistry() {
+
+        return m_registry;
+    }
 
     /**
      * Sets the "break on error" status.<p>
      * 
+     * The status is set for the log scope of the current thread, or globally if the thread 
+     * has no scope.<p>
+     * 
      * @param value the "break on error" status to set
+     * 
+     * @see OpenCmsTestLogHandlerRegistry#setScope(String)
      */
     public static void setBreakOnError(boolean value) {
 
-        m_breakOnError = value;
+        m_registry.setBreakOnError(value);
+    }
+
+    /**
+     * Enables or disables writing events to the console.<p>
+     * 
+     * The log handler and the "break on error" check are applied even if the console output 
+     * is disabled, e.g. while the events are captured by a {@link OpenCmsTestLogBuffer}. 
+     * The setting applies to the log scope of the current thread, or globally if the thread 
+     * has no scope. Background threads of OpenCms follow the scope of the test as described 
+     * for the {@link OpenCmsTestLogHandlerRegistry}.<p>
+     * 
+     * @param consoleOutput <code>true</code> to write events to the console
+     */
+    public static void setConsoleOutput(boolean consoleOutput) {
+
+        m_registry.setConsoleOutput(consoleOutput);
     }
 
     /**
+     * Returns if events of the current thread are written to the console.<p>
+     * 
+     * @return <code>true</code> if events are written to the console
+     */
+    public static boolean isConsoleOutput() {
+
+        return m_registry.isConsoleOutput();
+    }
+
+    /**
+     * Sets the single global handler.<p>
+     * 
+     * Further handlers, also for single threads or tests, are registered with the 
+     * {@link #getHandlerRegistry() handler registry}.<p>
      *
-     * @param handler
+     * @param handler the handler, or <code>null</code> to remove it
      */
     public static void setHandler(I_CmsLogHandler handler) {
 
         m_handler = handler;
     }
 
+    /**
+     * @see org.apache.log4j.ConsoleAppender#activateOptions()
+     */
+    @Override
+    public void activateOptions() {
+
+        super.activateOptions();
+        if (Boolean.getBoolean(PROP_ASYNC)) {
+            m_async = true;
+        }
+        if (m_async && (m_writer == null)) {
+            startWriter();
+        }
+    }
+
+    /**
+     * Appends an event without locking the appender.<p>
+     * 
+     * Unlike the default implementation this method is not synchronized, so logging threads 
+     * do not wait for each other. Writes to the console are serialized separately, and so are 
+     * the calls of the handler set with {@link #setHandler(I_CmsLogHandler)}. The handlers of the 
+     * {@link #getHandlerRegistry() handler registry} are called concurrently.<p>
+     * 
+     * The closed state is checked with a volatile flag set before {@link #close()} stops the 
+     * writer. An event that passed the check while the appender is closed is written directly 
+     * to the console. The threshold and the filters are read without a lock, a concurrent change 
+     * may not apply to the events appended at the same time.<p>
+     * 
+     * @see org.apache.log4j.AppenderSkeleton#doAppend(org.apache.log4j.spi.LoggingEvent)
+     */
+    @Override
+    public void doAppend(LoggingEvent event) {
+
+        if (m_closed || !isAsSevereAsThreshold(event.getLevel())) {
+            return;
+        }
+        Filter filter = getFirstFilter();
+        while (filter != null) {
+            int decision = filter.decide(event);
+            if (decision == Filter.DENY) {
+                return;
+            }
+            filter = decision == Filter.ACCEPT ? null : filter.getNext();
+        }
+        append(event);
+    }
+
     /**
      * @see org.apache.log4j.WriterAppender#append(org.apache.log4j.spi.LoggingEvent)
      */
@@ -71,12 +335,24 @@ public class OpenCmsTestLogAppender extends ConsoleAppender {
     public void append(LoggingEvent logEvent) {
 
         // first log the event as usual
-        super.append(logEvent);
-        if (m_handler != null) {
-            m_handler.handleLogEvent(logEvent);
+        if (m_registry.isConsoleOutput()) {
+            RingBuffer buffer = m_buffer;
+            if (buffer == null) {
+                super.append(logEvent);
+            } else {
+                enqueue(buffer, logEvent);
+            }
+        }
+        I_CmsLogHandler handler = m_handler;
+        if (handler != null) {
+            // the handler was called under the appender lock before, keep it single threaded
+            synchronized (m_handlerLock) {
+                handler.handleLogEvent(logEvent);
+            }
         }
+        m_registry.dispatch(logEvent);
 
-        if (m_breakOnError) {
+        if (m_registry.isBreakOnError()) {
             int logLevel = logEvent.getLevel().toInt();
             switch (logLevel) {
                 case Priority.ERROR_INT:
@@ -94,4 +370,211 @@ public class OpenCmsTestLogAppender extends ConsoleAppender {
             }
         }
     }
+
+    /**
+     * Stops the writer thread after writing all queued events, then closes the appender.<p>
+     * 
+     * @see org.apache.log4j.WriterAppender#close()
+     */
+    @Override
+    public synchronized void close() {
+
+        m_closed = true;
+        stopWriter();
+        if (m_shutdownHook != null) {
+            try {
+                Runtime.getRuntime().removeShutdownHook(m_shutdownHook);
+            } catch (IllegalStateException e) {
+                // the JVM shuts down, the hook already runs
+            }
+            m_shutdownHook = null;
+        }
+        super.close();
+    }
+
+    /**
+     * Waits until all queued events are written.<p>
+     * 
+     * @param timeout the maximum time to wait in milliseconds
+     * @return <code>true</code> if all events were written
+     */
+    public boolean flush(long timeout) {
+
+        long end = System.currentTimeMillis() + timeout;
+        RingBuffer buffer = m_buffer;
+        while ((buffer != null) && (buffer.size() > 0) && (m_writer != null)) {
+            if (System.currentTimeMillis() >= end) {
+                return false;
+            }
+            LockSupport.parkNanos(WRITER_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Returns if the asynchronous mode is enabled.<p>
+     * 
+     * @return <code>true</code> if the asynchronous mode is enabled
+     */
+    public boolean getAsync() {
+
+        return m_async;
+    }
+
+    /**
+     * Returns the capacity of the ring buffer.<p>
+     * 
+     * @return the capacity of the ring buffer
+     */
+    public int getBufferSize() {
+
+        return m_bufferSize;
+    }
+
+    /**
+     * Returns if the location information is captured for asynchronous events.<p>
+     * 
+     * @return <code>true</code> if the location information is captured
+     */
+    public boolean getLocationInfo() {
+
+        return m_locationInfo;
+    }
+
+    /**
+     * Enables the asynchronous mode, effective when the options are activated.<p>
+     * 
+     * @param async <code>true</code> to enable the asynchronous mode
+     */
+    public void setAsync(boolean async) {
+
+        m_async = async;
+    }
+
+    /**
+     * Sets the capacity of the ring buffer, effective when the options are activated.<p>
+     * 
+     * @param bufferSize the capacity of the ring buffer
+     */
+    public void setBufferSize(int bufferSize) {
+
+        m_bufferSize = bufferSize;
+    }
+
+    /**
+     * Sets if the location information is captured for asynchronous events.<p>
+     * 
+     * The location can only be determined on the logging thread, which is expensive. 
+     * Enable this if the layout prints the location.<p>
+     * 
+     * @param locationInfo <code>true</code> to capture the location information
+     */
+    public void setLocationInfo(boolean locationInfo) {
+
+        m_locationInfo = locationInfo;
+    }
+
+    /**
+     * @see org.apache.log4j.WriterAppender#subAppend(org.apache.log4j.spi.LoggingEvent)
+     */
+    @Override
+    protected void subAppend(LoggingEvent event) {
+
+        synchronized (m_writeLock) {
+            super.subAppend(event);
+        }
+    }
+
+    /**
+     * Puts an event into the ring buffer.<p>
+     * 
+     * @param buffer the ring buffer
+     * @param event the event
+     */
+    private void enqueue(RingBuffer buffer, LoggingEvent event) {
+
+        // fix the values that depend on the logging thread
+        event.getNDC();
+        event.getThreadName();
+        event.getMDCCopy();
+        event.getRenderedMessage();
+        event.getThrowableStrRep();
+        if (m_locationInfo) {
+            event.getLocationInformation();
+        }
+        if (!buffer.offer(event)) {
+            if (event.getLevel().isGreaterOrEqual(Level.ERROR)) {
+                super.append(event);
+            } else {
+                m_dropped.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Starts the writer thread of the asynchronous mode.<p>
+     */
+    private void startWriter() {
+
+        final RingBuffer buffer = new RingBuffer(m_bufferSize);
+        Thread writer = new Thread("OpenCmsTestLogAppender-writer") {
+
+            @Override
+            public void run() {
+
+                while (true) {
+                    LoggingEvent event = buffer.poll();
+                    if (event != null) {
+                        OpenCmsTestLogAppender.super.append(event);
+                    } else if (m_writer != this) {
+                        // closed and drained
+                        return;
+                    } else {
+                        LockSupport.parkNanos(WRITER_PARK_NANOS);
+                    }
+                }
+            }
+        };
+        writer.setDaemon(true);
+        m_buffer = buffer;
+        m_writer = writer;
+        m_asyncAppender = this;
+        writer.start();
+        if (m_shutdownHook == null) {
+            m_shutdownHook = new Thread("OpenCmsTestLogAppender-shutdown") {
+
+                @Override
+                public void run() {
+
+                    stopWriter();
+                }
+            };
+            Runtime.getRuntime().addShutdownHook(m_shutdownHook);
+        }
+    }
+
+    /**
+     * Stops the writer thread of the asynchronous mode after it has written all queued events.<p>
+     * 
+     * Events appended afterwards are written directly. Called by {@link #close()} and by the 
+     * shutdown hook, without holding the appender lock in the latter case.<p>
+     */
+    private void stopWriter() {
+
+        Thread writer = m_writer;
+        if (writer == null) {
+            return;
+        }
+        m_writer = null;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        m_buffer = null;
+        if (m_asyncAppender == this) {
+            m_asyncAppender = null;
+        }
+    }
 }
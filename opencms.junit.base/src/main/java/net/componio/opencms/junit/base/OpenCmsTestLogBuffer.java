@@ -0,0 +1,311 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.main.CmsLog;
+
+import org.apache.log4j.Layout;
+import org.apache.log4j.PatternLayout;
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.logging.Log;
+import org.junit.rules.TestWatcher;
+import org.junit.runner.Description;
+
+/**
+ * Captures the log events of a test in memory and writes them to a file only if the test fails.<p>
+ *
+ * While a test runs, the test thread works in a log scope named after the display name of the
+ * test. The buffer is registered as log handler and the console output of the
+ * {@link OpenCmsTestLogAppender} is disabled in this scope only, so parallel tests capture their
+ * events separately and the console output of the other tests is not affected. The publish and
+ * indexing threads started during the test inherit its scope, and the other background threads of
+ * OpenCms log to the scope while it is the only one set up, so their events are captured as well.
+ * When the test has finished the scope is cleared and the previous scope is restored. The buffer
+ * keeps the latest events up to its capacity. If the test succeeds the events are discarded, if
+ * it fails they are written to
+ * <code>&lt;folder&gt;/&lt;test class&gt;.&lt;test method&gt;.log</code>. Use it as
+ * <code>@Rule</code> for the test methods, or as <code>@ClassRule</code> to include the setup
+ * in <code>@BeforeClass</code> methods:
+ * <pre>
+ * &#64;Rule
+ * public OpenCmsTestLogBuffer m_log = new OpenCmsTestLogBuffer();
+ * </pre>
+ *
+ * The folder defaults to <code>target/test-logs</code> and can be set with the system property
+ * {@link #PROP_FOLDER}.<p>
+ */
+public class OpenCmsTestLogBuffer extends TestWatcher implements I_CmsLogHandler {
+
+    /** The default maximum number of buffered events. */
+    public static final int DEFAULT_CAPACITY = 20000;
+
+    /** The default layout of the written events. */
+    public static final String DEFAULT_PATTERN = "%d{ISO8601} %-5p [%t] %c - %m%n";
+
+    /** Name of the system property to set the folder of the log files. */
+    public static final String PROP_FOLDER = "test.log.folder";
+
+    /** The log object for this class. */
+    private static final Log LOG = CmsLog.getLog(OpenCmsTestLogBuffer.class);
+
+    /** The maximum number of buffered events. */
+    private int m_capacity;
+
+    /** The number of events dropped because the buffer was full. */
+    private long m_dropped;
+
+    /** The buffered events. */
+    private ArrayDeque<LoggingEvent> m_events;
+
+    /** The folder of the log files. */
+    private File m_folder;
+
+    /** The layout of the written events. */
+    private Layout m_layout;
+
+    /** The message about the written log file, reported when the test has finished. */
+    private String m_failureMessage;
+
+    /** The exception writing the log file failed with. */
+    private IOException m_failureException;
+
+    /** The log scope of the test thread before the test. */
+    private String m_previousScope;
+
+    /** The log scope of the running test. */
+    private String m_scope;
+
+    /**
+     * Creates a new log buffer with the default capacity.<p>
+     */
+    public OpenCmsTestLogBuffer() {
+
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a new log buffer.<p>
+     *
+     * @param capacity the maximum number of buffered events, older events are dropped
+     */
+    public OpenCmsTestLogBuffer(int capacity) {
+
+        m_capacity = capacity;
+        m_events = new ArrayDeque<LoggingEvent>();
+        m_folder = new File(System.getProperty(PROP_FOLDER, "target" + File.separator + "test-logs"));
+        m_layout = new PatternLayout(DEFAULT_PATTERN);
+    }
+
+    /**
+     * Returns the buffered events.<p>
+     *
+     * @return a copy of the buffered events, oldest first
+     */
+    public synchronized List<LoggingEvent> getEvents() {
+
+        return new ArrayList<LoggingEvent>(m_events);
+    }
+
+    /**
+     * Returns the number of events dropped because the buffer was full.<p>
+     *
+     * @return the number of dropped events
+     */
+    public synchronized long getDroppedCount() {
+
+        return m_dropped;
+    }
+
+    /**
+     * Returns the folder of the log files.<p>
+     *
+     * @return the folder of the log files
+     */
+    public File getFolder() {
+
+        return m_folder;
+    }
+
+    /**
+     * @see net.componio.opencms.junit.base.I_CmsLogHandler#handleLogEvent(org.apache.log4j.spi.LoggingEvent)
+     */
+    public void handleLogEvent(LoggingEvent event) {
+
+        // fix the values that depend on the logging thread
+        event.getThreadName();
+        event.getNDC();
+        event.getRenderedMessage();
+        event.getThrowableStrRep();
+        synchronized (this) {
+            if (m_events.size() >= m_capacity) {
+                m_events.removeFirst();
+                m_dropped++;
+            }
+            m_events.addLast(event);
+        }
+    }
+
+    /**
+     * Sets the folder of the log files.<p>
+     *
+     * @param folder the folder of the log files
+     */
+    public void setFolder(File folder) {
+
+        m_folder = folder;
+    }
+
+    /**
+     * Sets the layout of the written events.<p>
+     *
+     * @param layout the layout of the written events
+     */
+    public void setLayout(Layout layout) {
+
+        m_layout = layout;
+    }
+
+    /**
+     * Writes the buffered events to a file.<p>
+     *
+     * @param file the file
+     * @throws IOException if writing the file fails
+     */
+    public void write(File file) throws IOException {
+
+        List<LoggingEvent> events;
+        long dropped;
+        synchronized (this) {
+            events = new ArrayList<LoggingEvent>(m_events);
+            dropped = m_dropped;
+        }
+        file.getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            if (dropped > 0) {
+                out.write("[" + dropped + " earlier events dropped]\n");
+            }
+            for (LoggingEvent event : events) {
+                out.write(m_layout.format(event));
+                if (m_layout.ignoresThrowable() && (event.getThrowableStrRep() != null)) {
+                    for (String line : event.getThrowableStrRep()) {
+                        out.write(line);
+                        out.write('\n');
+                    }
+                }
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * @see org.junit.rules.TestWatcher#failed(java.lang.Throwable, org.junit.runner.Description)
+     */
+    @Override
+    protected void failed(Throwable e, Description description) {
+
+        File file = new File(m_folder, getFileName(description));
+        try {
+            write(file);
+            m_failureMessage = "Log of failed test "
+                + description.getDisplayName()
+                + " written to "
+                + file.getAbsolutePath();
+        } catch (IOException ioe) {
+            m_failureMessage = "Writing the log of the failed test to " + file.getAbsolutePath() + " failed";
+            m_failureException = ioe;
+        }
+    }
+
+    /**
+     * @see org.junit.rules.TestWatcher#finished(org.junit.runner.Description)
+     */
+    @Override
+    protected void finished(Description description) {
+
+        OpenCmsTestLogHandlerRegistry registry = OpenCmsTestLogAppender.getHandlerRegistry();
+        registry.removeHandler(this);
+        registry.clearScope(m_scope);
+        registry.setScope(m_previousScope);
+        synchronized (this) {
+            m_events.clear();
+            m_dropped = 0;
+        }
+        // reported after the console output of the test thread was restored
+        if (m_failureMessage != null) {
+            // not logged as error, which would break the test with "break on error" set
+            LOG.warn(m_failureMessage, m_failureException);
+            m_failureMessage = null;
+            m_failureException = null;
+        }
+    }
+
+    /**
+     * @see org.junit.rules.TestWatcher#starting(org.junit.runner.Description)
+     */
+    @Override
+    protected void starting(Description description) {
+
+        synchronized (this) {
+            m_events.clear();
+            m_dropped = 0;
+        }
+        OpenCmsTestLogHandlerRegistry registry = OpenCmsTestLogAppender.getHandlerRegistry();
+        m_previousScope = registry.getScope();
+        m_scope = description.getDisplayName();
+        registry.setScope(m_scope);
+        registry.addHandler(this);
+        registry.setConsoleOutput(false);
+    }
+
+    /**
+     * Returns the name of the log file of a test.<p>
+     *
+     * @param description the description of the test
+     * @return the name of the log file
+     */
+    private String getFileName(Description description) {
+
+        String name = description.getClassName();
+        if (description.getMethodName() != null) {
+            name += "." + description.getMethodName();
+        }
+        return name.replaceAll("[^A-Za-z0-9._-]", "_") + ".log";
+    }
+}
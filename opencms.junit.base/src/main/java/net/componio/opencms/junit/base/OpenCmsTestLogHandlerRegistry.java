@@ -0,0 +1,280 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Registry of the log handlers and log settings used by the {@link OpenCmsTestLogAppender}.<p>
+ *
+ * Handlers and the "break on error" and console output settings are kept per scope. A thread
+ * works in the global scope unless a scope was set for it with {@link #setScope(String)}, e.g.
+ * the name of the running test. Threads inherit the scope of the thread that started them, so
+ * the publish and indexing threads OpenCms starts for a test log to the scope of the test. Once
+ * the scope was cleared these threads work in the global scope again. Threads without a scope,
+ * like the scheduler threads started with OpenCms, work in the only scope set up with handlers
+ * or settings while there is exactly one, so the background output of a single running test is
+ * captured as well. Parallel tests each set up their own scope, their background threads without
+ * a scope then work in the global scope. An event is passed to the global handlers and to the
+ * handlers of the scope of the logging thread. The settings of a scope apply to the threads of the scope, unset settings
+ * fall back to the global settings. Parallel tests with their own scopes therefore do not
+ * change each other's settings. Reading settings or dispatching events never creates a scope,
+ * so a cleared scope stays removed.<p>
+ *
+ * The handler lists are copied on write, so dispatching an event takes no lock. Handlers are
+ * called concurrently by all logging threads and must be thread safe.<p>
+ */
+public class OpenCmsTestLogHandlerRegistry {
+
+    /**
+     * The handlers and settings of a scope.<p>
+     */
+    private static class Scope {
+
+        /** The "break on error" setting, or <code>null</code> if not set. */
+        volatile Boolean m_breakOnError;
+
+        /** The console output setting, or <code>null</code> if not set. */
+        volatile Boolean m_consoleOutput;
+
+        /** The handlers. */
+        final List<I_CmsLogHandler> m_handlers = new CopyOnWriteArrayList<I_CmsLogHandler>();
+    }
+
+    /** The global scope. */
+    private final Scope m_global;
+
+    /** The scope name of the current thread. */
+    private final InheritableThreadLocal<String> m_scope;
+
+    /** The scopes by name. */
+    private final ConcurrentMap<String, Scope> m_scopes;
+
+    /**
+     * Creates a new registry without handlers.<p>
+     *
+     * Errors do not break and events are written to the console by default.<p>
+     */
+    public OpenCmsTestLogHandlerRegistry() {
+
+        m_global = new Scope();
+        m_global.m_breakOnError = Boolean.FALSE;
+        m_global.m_consoleOutput = Boolean.TRUE;
+        m_scope = new InheritableThreadLocal<String>();
+        m_scopes = new ConcurrentHashMap<String, Scope>();
+    }
+
+    /**
+     * Adds a handler to the global scope, it receives the events of all threads.<p>
+     *
+     * @param handler the handler
+     */
+    public void addGlobalHandler(I_CmsLogHandler handler) {
+
+        m_global.m_handlers.add(handler);
+    }
+
+    /**
+     * Adds a handler to the scope of the current thread.<p>
+     *
+     * @param handler the handler
+     */
+    public void addHandler(I_CmsLogHandler handler) {
+
+        getCurrentScope(true).m_handlers.add(handler);
+    }
+
+    /**
+     * Removes the handlers and settings of a scope.<p>
+     *
+     * @param scope the name of the scope
+     */
+    public void clearScope(String scope) {
+
+        m_scopes.remove(scope);
+    }
+
+    /**
+     * Passes an event to the global handlers and the handlers of the scope of the current thread.<p>
+     *
+     * @param event the event
+     */
+    public void dispatch(LoggingEvent event) {
+
+        for (I_CmsLogHandler handler : m_global.m_handlers) {
+            handler.handleLogEvent(event);
+        }
+        Scope scope = getCurrentScope(false);
+        if (scope != null) {
+            for (I_CmsLogHandler handler : scope.m_handlers) {
+                handler.handleLogEvent(event);
+            }
+        }
+    }
+
+    /**
+     * Returns the scope name of the current thread.<p>
+     *
+     * @return the scope name, or <code>null</code> for the global scope
+     */
+    public String getScope() {
+
+        return m_scope.get();
+    }
+
+    /**
+     * Returns if logged errors break the running test for the current thread.<p>
+     *
+     * @return <code>true</code> if logged errors break the running test
+     */
+    public boolean isBreakOnError() {
+
+        Scope scope = getCurrentScope(false);
+        Boolean value = scope == null ? null : scope.m_breakOnError;
+        return (value == null ? m_global.m_breakOnError : value).booleanValue();
+    }
+
+    /**
+     * Returns if events of the current thread are written to the console.<p>
+     *
+     * @return <code>true</code> if events are written to the console
+     */
+    public boolean isConsoleOutput() {
+
+        Scope scope = getCurrentScope(false);
+        Boolean value = scope == null ? null : scope.m_consoleOutput;
+        return (value == null ? m_global.m_consoleOutput : value).booleanValue();
+    }
+
+    /**
+     * Removes a handler from the global scope.<p>
+     *
+     * @param handler the handler
+     */
+    public void removeGlobalHandler(I_CmsLogHandler handler) {
+
+        m_global.m_handlers.remove(handler);
+    }
+
+    /**
+     * Removes a handler from the scope of the current thread.<p>
+     *
+     * @param handler the handler
+     */
+    public void removeHandler(I_CmsLogHandler handler) {
+
+        String name = m_scope.get();
+        Scope scope = name == null ? null : m_scopes.get(name);
+        (scope == null ? m_global : scope).m_handlers.remove(handler);
+    }
+
+    /**
+     * Sets if logged errors break the running test, for the scope of the current thread.<p>
+     *
+     * @param breakOnError <code>true</code> if logged errors break the running test
+     */
+    public void setBreakOnError(boolean breakOnError) {
+
+        getCurrentScope(true).m_breakOnError = Boolean.valueOf(breakOnError);
+    }
+
+    /**
+     * Sets if events are written to the console, for the scope of the current thread.<p>
+     *
+     * @param consoleOutput <code>true</code> if events are written to the console
+     */
+    public void setConsoleOutput(boolean consoleOutput) {
+
+        getCurrentScope(true).m_consoleOutput = Boolean.valueOf(consoleOutput);
+    }
+
+    /**
+     * Sets the scope of the current thread.<p>
+     *
+     * @param scope the name of the scope, or <code>null</code> for the global scope
+     */
+    public void setScope(String scope) {
+
+        if (scope == null) {
+            m_scope.remove();
+        } else {
+            m_scope.set(scope);
+        }
+    }
+
+    /**
+     * Returns the only scope set up with handlers or settings.<p>
+     *
+     * @return the only scope, or <code>null</code> if there is none or more than one
+     */
+    private Scope getActiveScope() {
+
+        Iterator<Scope> i = m_scopes.values().iterator();
+        if (!i.hasNext()) {
+            return null;
+        }
+        Scope scope = i.next();
+        return i.hasNext() ? null : scope;
+    }
+
+    /**
+     * Returns the scope of the current thread.<p>
+     *
+     * A thread without a scope, or with an inherited scope that was cleared meanwhile, works in the
+     * only scope set up while there is exactly one.<p>
+     *
+     * @param create <code>true</code> to create the scope if required and to return the global scope
+     *      instead of <code>null</code> for threads without a scope
+     * @return the scope of the current thread
+     */
+    private Scope getCurrentScope(boolean create) {
+
+        String name = m_scope.get();
+        if (name == null) {
+            return create ? m_global : getActiveScope();
+        }
+        Scope scope = m_scopes.get(name);
+        if ((scope == null) && !create) {
+            return getActiveScope();
+        }
+        if (scope == null) {
+            scope = new Scope();
+            Scope existing = m_scopes.putIfAbsent(name, scope);
+            if (existing != null) {
+                scope = existing;
+            }
+        }
+        return scope;
+    }
+}
@@ -0,0 +1,250 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.LogManager;
+import org.apache.log4j.Logger;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Sets the log levels of the test harness phases and restores the configured levels for the tests.<p>
+ *
+ * Setup, import, publish and teardown log every INFO line of the OpenCms engines, which costs
+ * time and is rarely of interest. For each phase the governor holds log levels per logger
+ * category. Entering a phase raises the level of these loggers to the level of the phase,
+ * leaving it restores the levels the loggers had before, so the test bodies run with the
+ * configured levels. A logger configured quieter than the phase level keeps its level, the
+ * governor never makes a logger more verbose.<p>
+ *
+ * By default <code>org.opencms</code> logs at WARN in all phases, except
+ * <code>org.opencms.init</code>, which stays at INFO for the {@link OpenCmsTestStartupProfiler}.
+ * The levels can be configured with properties
+ * <code>test.log.level.&lt;phase&gt;.&lt;category&gt;=&lt;level&gt;</code>, e.g.
+ * <code>test.log.level.import.org.opencms.importexport=INFO</code>, where the category
+ * <code>root</code> is the root logger. The governor is disabled with
+ * <code>test.log.level.governor=false</code>.<p>
+ *
+ * Log levels are global, so the phases of tests running in parallel affect each other.<p>
+ */
+public class OpenCmsTestLogLevelGovernor {
+
+    /**
+     * The phases of the test harness.<p>
+     */
+    public static enum Phase {
+
+        /** Import of the test data. */
+        IMPORT,
+
+        /** Publishing of the test data. */
+        PUBLISH,
+
+        /** Setup of the OpenCms instance. */
+        SETUP,
+
+        /** Removal of the OpenCms instance. */
+        TEARDOWN
+    }
+
+    /** The prefix of the configuration properties. */
+    public static final String PROP_PREFIX = "test.log.level.";
+
+    /** The property to enable or disable the governor. */
+    public static final String PROP_ENABLED = PROP_PREFIX + "governor";
+
+    /** The category name of the root logger. */
+    public static final String ROOT_CATEGORY = "root";
+
+    /** Indicates if the governor is enabled. */
+    private boolean m_enabled;
+
+    /** The levels per phase and category. */
+    private Map<Phase, Map<String, Level>> m_levels;
+
+    /** The current phase, or <code>null</code> outside of all phases. */
+    private Phase m_phase;
+
+    /** The levels of the changed loggers before the current phase, may contain <code>null</code> levels. */
+    private Map<Logger, Level> m_saved;
+
+    /**
+     * Creates a new governor with the default levels.<p>
+     */
+    public OpenCmsTestLogLevelGovernor() {
+
+        m_enabled = true;
+        m_levels = new EnumMap<Phase, Map<String, Level>>(Phase.class);
+        m_saved = new LinkedHashMap<Logger, Level>();
+        for (Phase phase : Phase.values()) {
+            setLevel(phase, "org.opencms", Level.WARN);
+            setLevel(phase, OpenCmsTestStartupProfiler.INIT_CATEGORY, Level.INFO);
+        }
+    }
+
+    /**
+     * Reads the levels from configuration properties.<p>
+     *
+     * Each configured category replaces the level of this category only, the levels of the other
+     * categories of the phase, e.g. the defaults, are kept.<p>
+     *
+     * @param configuration the configuration, e.g. the test properties
+     */
+    public synchronized void configure(Map<String, String> configuration) {
+
+        if (configuration.containsKey(PROP_ENABLED)) {
+            m_enabled = Boolean.valueOf(configuration.get(PROP_ENABLED).trim()).booleanValue();
+        }
+        for (Map.Entry<String, String> entry : configuration.entrySet()) {
+            String key = entry.getKey();
+            if (!key.startsWith(PROP_PREFIX) || key.equals(PROP_ENABLED)) {
+                continue;
+            }
+            String rest = key.substring(PROP_PREFIX.length());
+            int pos = rest.indexOf('.');
+            if (pos <= 0) {
+                continue;
+            }
+            Phase phase;
+            try {
+                phase = Phase.valueOf(rest.substring(0, pos).toUpperCase());
+            } catch (IllegalArgumentException e) {
+                continue;
+            }
+            setLevel(phase, rest.substring(pos + 1), Level.toLevel(entry.getValue().trim(), Level.WARN));
+        }
+    }
+
+    /**
+     * Enters a phase, replacing the current phase.<p>
+     *
+     * The levels of the loggers are first restored. Then each logger of the phase is set to the 
+     * higher of its effective level and the level of the phase, the effective levels are all 
+     * taken before the first logger is changed.<p>
+     *
+     * @param phase the phase, or <code>null</code> to leave the current phase
+     * @return the previous phase, to be entered again when the phase is done
+     */
+    public synchronized Phase enter(Phase phase) {
+
+        Phase previous = m_phase;
+        restore();
+        m_phase = phase;
+        if ((phase == null) || !m_enabled) {
+            return previous;
+        }
+        Map<Logger, Level> levels = new LinkedHashMap<Logger, Level>();
+        for (Map.Entry<String, Level> entry : m_levels.get(phase).entrySet()) {
+            Logger logger = ROOT_CATEGORY.equals(entry.getKey())
+            ? LogManager.getRootLogger()
+            : LogManager.getLogger(entry.getKey());
+            Level effective = logger.getEffectiveLevel();
+            // only raise the threshold, a category configured quieter stays quiet
+            levels.put(logger, effective.isGreaterOrEqual(entry.getValue()) ? effective : entry.getValue());
+        }
+        for (Map.Entry<Logger, Level> entry : levels.entrySet()) {
+            // the level is set even if it is unchanged, so it does not follow a raised parent
+            m_saved.put(entry.getKey(), entry.getKey().getLevel());
+            entry.getKey().setLevel(entry.getValue());
+        }
+        return previous;
+    }
+
+    /**
+     * Returns the current phase.<p>
+     *
+     * @return the current phase, or <code>null</code> outside of all phases
+     */
+    public synchronized Phase getPhase() {
+
+        return m_phase;
+    }
+
+    /**
+     * Returns if the governor is enabled.<p>
+     *
+     * @return <code>true</code> if the governor is enabled
+     */
+    public synchronized boolean isEnabled() {
+
+        return m_enabled;
+    }
+
+    /**
+     * Leaves the current phase and restores the levels of the loggers.<p>
+     */
+    public void leave() {
+
+        enter(null);
+    }
+
+    /**
+     * Enables or disables the governor.<p>
+     *
+     * @param enabled <code>true</code> to enable the governor
+     */
+    public synchronized void setEnabled(boolean enabled) {
+
+        m_enabled = enabled;
+    }
+
+    /**
+     * Sets the level of a logger category for a phase.<p>
+     *
+     * @param phase the phase
+     * @param category the logger category, or {@link #ROOT_CATEGORY} for the root logger
+     * @param level the level, or <code>null</code> to not change the category in this phase
+     */
+    public synchronized void setLevel(Phase phase, String category, Level level) {
+
+        Map<String, Level> levels = m_levels.get(phase);
+        if (levels == null) {
+            levels = new LinkedHashMap<String, Level>();
+            m_levels.put(phase, levels);
+        }
+        if (level == null) {
+            levels.remove(category);
+        } else {
+            levels.put(category, level);
+        }
+    }
+
+    /**
+     * Restores the levels of the loggers changed by the current phase.<p>
+     */
+    private void restore() {
+
+        for (Map.Entry<Logger, Level> entry : m_saved.entrySet()) {
+            entry.getKey().setLevel(entry.getValue());
+        }
+        m_saved.clear();
+    }
+}
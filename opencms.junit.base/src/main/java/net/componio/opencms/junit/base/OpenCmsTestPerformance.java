@@ -0,0 +1,492 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+/**
+ * Measures the wall time, the allocated memory and the JDBC statements of an operation against a budget.<p>
+ *
+ * The operation is first run for the warmup iterations, then measured for the measured
+ * iterations. The wall time is reported as percentiles, the allocated bytes and statements as
+ * average per iteration. The allocated bytes of the running thread are read from the
+ * <code>com.sun.management.ThreadMXBean</code> and are not available on every JVM, allocations
+ * of other threads are not counted. The statements are counted by the
+ * {@link OpenCmsTestJdbcMonitor}, so a statement budget requires
+ * <code>test.jdbc.monitor=true</code>. For example:
+ * <pre>
+ * OpenCmsTestPerformance.Budget budget = new OpenCmsTestPerformance.Budget();
+ * budget.setMaxTime(90, 50).setMaxAllocatedBytes(8 * 1024 * 1024).setMaxStatements(20);
+ * assertPerformance("navigation", budget, new OpenCmsTestJdbcMonitor.Operation() {
+ *
+ *     public void run() throws Exception {
+ *
+ *         new CmsJspNavBuilder(cms).getNavigationTreeForFolder("/", 0, 3);
+ *     }
+ * });
+ * </pre>
+ */
+public class OpenCmsTestPerformance {
+
+    /**
+     * The iterations and limits of a measurement.<p>
+     */
+    public static class Budget {
+
+        /** The default number of measured iterations. */
+        public static final int DEFAULT_ITERATIONS = 20;
+
+        /** The default number of warmup iterations. */
+        public static final int DEFAULT_WARMUP = 5;
+
+        /** The number of measured iterations. */
+        private int m_iterations;
+
+        /** The maximum allocated bytes per iteration, -1 for no limit. */
+        private long m_maxAllocatedBytes;
+
+        /** The maximum statements per iteration, -1 for no limit. */
+        private double m_maxStatements;
+
+        /** The maximum wall time in milliseconds by percentile. */
+        private Map<Double, Double> m_maxTimes;
+
+        /** The number of warmup iterations. */
+        private int m_warmup;
+
+        /**
+         * Creates a new budget with the default iterations and no limits.<p>
+         */
+        public Budget() {
+
+            m_iterations = DEFAULT_ITERATIONS;
+            m_warmup = DEFAULT_WARMUP;
+            m_maxAllocatedBytes = -1;
+            m_maxStatements = -1;
+            m_maxTimes = new TreeMap<Double, Double>();
+        }
+
+        /**
+         * Returns the number of measured iterations.<p>
+         *
+         * @return the number of measured iterations
+         */
+        public int getIterations() {
+
+            return m_iterations;
+        }
+
+        /**
+         * Returns the maximum allocated bytes per iteration.<p>
+         *
+         * @return the maximum allocated bytes, -1 for no limit
+         */
+        public long getMaxAllocatedBytes() {
+
+            return m_maxAllocatedBytes;
+        }
+
+        /**
+         * Returns the maximum statements per iteration.<p>
+         *
+         * @return the maximum statements, -1 for no limit
+         */
+        public double getMaxStatements() {
+
+            return m_maxStatements;
+        }
+
+        /**
+         * Returns the maximum wall times.<p>
+         *
+         * @return the maximum wall time in milliseconds by percentile
+         */
+        public Map<Double, Double> getMaxTimes() {
+
+            return Collections.unmodifiableMap(m_maxTimes);
+        }
+
+        /**
+         * Returns the number of warmup iterations.<p>
+         *
+         * @return the number of warmup iterations
+         */
+        public int getWarmup() {
+
+            return m_warmup;
+        }
+
+        /**
+         * Sets the number of measured iterations.<p>
+         *
+         * @param iterations the number of measured iterations, at least 1
+         * @return this budget
+         */
+        public Budget setIterations(int iterations) {
+
+            if (iterations < 1) {
+                throw new IllegalArgumentException("At least one iteration is required");
+            }
+            m_iterations = iterations;
+            return this;
+        }
+
+        /**
+         * Sets the maximum allocated bytes per iteration.<p>
+         *
+         * @param maxAllocatedBytes the maximum allocated bytes, -1 for no limit
+         * @return this budget
+         */
+        public Budget setMaxAllocatedBytes(long maxAllocatedBytes) {
+
+            m_maxAllocatedBytes = maxAllocatedBytes;
+            return this;
+        }
+
+        /**
+         * Sets the maximum statements per iteration.<p>
+         *
+         * @param maxStatements the maximum statements, -1 for no limit
+         * @return this budget
+         */
+        public Budget setMaxStatements(double maxStatements) {
+
+            m_maxStatements = maxStatements;
+            return this;
+        }
+
+        /**
+         * Sets the maximum wall time of a percentile.<p>
+         *
+         * @param percentile the percentile, e.g. 50 for the median
+         * @param maxTime the maximum wall time in milliseconds
+         * @return this budget
+         */
+        public Budget setMaxTime(double percentile, double maxTime) {
+
+            if ((percentile <= 0) || (percentile > 100)) {
+                throw new IllegalArgumentException("Invalid percentile: " + percentile);
+            }
+            m_maxTimes.put(Double.valueOf(percentile), Double.valueOf(maxTime));
+            return this;
+        }
+
+        /**
+         * Sets the number of warmup iterations.<p>
+         *
+         * @param warmup the number of warmup iterations
+         * @return this budget
+         */
+        public Budget setWarmup(int warmup) {
+
+            m_warmup = Math.max(0, warmup);
+            return this;
+        }
+    }
+
+    /**
+     * The measured values of an operation.<p>
+     */
+    public static class Result {
+
+        /** The allocated bytes of all measured iterations, -1 if not available. */
+        private long m_allocatedBytes;
+
+        /** The budget. */
+        private Budget m_budget;
+
+        /** The sorted wall times of the measured iterations in nanoseconds. */
+        private long[] m_durations;
+
+        /** The name of the operation. */
+        private String m_name;
+
+        /** The statements of all measured iterations, -1 if not counted. */
+        private long m_statements;
+
+        /** The exceeded limits. */
+        private List<String> m_violations;
+
+        /**
+         * Creates a new result.<p>
+         *
+         * @param name the name of the operation
+         * @param budget the budget
+         * @param durations the wall times of the measured iterations in nanoseconds
+         * @param allocatedBytes the allocated bytes of all measured iterations, -1 if not available
+         * @param statements the statements of all measured iterations, -1 if not counted
+         */
+        Result(String name, Budget budget, long[] durations, long allocatedBytes, long statements) {
+
+            m_name = name;
+            m_budget = budget;
+            m_durations = durations.clone();
+            Arrays.sort(m_durations);
+            m_allocatedBytes = allocatedBytes;
+            m_statements = statements;
+            m_violations = new ArrayList<String>();
+            for (Map.Entry<Double, Double> entry : budget.m_maxTimes.entrySet()) {
+                double time = getPercentile(entry.getKey().doubleValue());
+                if (time > entry.getValue().doubleValue()) {
+                    m_violations.add(String.format(
+                        Locale.ENGLISH,
+                        "p%s wall time %.2f ms exceeds %.2f ms",
+                        formatPercentile(entry.getKey().doubleValue()),
+                        Double.valueOf(time),
+                        entry.getValue()));
+                }
+            }
+            if (budget.m_maxAllocatedBytes >= 0) {
+                if (allocatedBytes < 0) {
+                    m_violations.add("allocated bytes are not available on this JVM");
+                } else if (getAllocatedBytes() > budget.m_maxAllocatedBytes) {
+                    m_violations.add(String.format(
+                        Locale.ENGLISH,
+                        "allocated %d bytes per iteration exceed %d bytes",
+                        Long.valueOf(getAllocatedBytes()),
+                        Long.valueOf(budget.m_maxAllocatedBytes)));
+                }
+            }
+            if (budget.m_maxStatements >= 0) {
+                if (statements < 0) {
+                    m_violations.add("statements are not counted, set " + OpenCmsTestJdbcMonitor.PROP_ENABLED + "=true");
+                } else if (getStatements() > budget.m_maxStatements) {
+                    m_violations.add(String.format(
+                        Locale.ENGLISH,
+                        "%.1f statements per iteration exceed %.1f",
+                        Double.valueOf(getStatements()),
+                        Double.valueOf(budget.m_maxStatements)));
+                }
+            }
+        }
+
+        /**
+         * Returns the average allocated bytes per iteration.<p>
+         *
+         * @return the allocated bytes, -1 if not available
+         */
+        public long getAllocatedBytes() {
+
+            return m_allocatedBytes < 0 ? -1 : m_allocatedBytes / m_durations.length;
+        }
+
+        /**
+         * Returns the budget of the measurement.<p>
+         *
+         * @return the budget
+         */
+        public Budget getBudget() {
+
+            return m_budget;
+        }
+
+        /**
+         * Returns the name of the operation.<p>
+         *
+         * @return the name of the operation
+         */
+        public String getName() {
+
+            return m_name;
+        }
+
+        /**
+         * Returns a percentile of the wall times, using the nearest rank.<p>
+         *
+         * @param percentile the percentile, e.g. 50 for the median
+         * @return the wall time in milliseconds
+         */
+        public double getPercentile(double percentile) {
+
+            int rank = (int)Math.ceil((percentile / 100.0) * m_durations.length);
+            return m_durations[Math.min(m_durations.length, Math.max(1, rank)) - 1] / 1000000.0;
+        }
+
+        /**
+         * Returns the average statements per iteration.<p>
+         *
+         * @return the statements, -1 if not counted
+         */
+        public double getStatements() {
+
+            return m_statements < 0 ? -1 : (double)m_statements / m_durations.length;
+        }
+
+        /**
+         * Returns the exceeded limits of the budget.<p>
+         *
+         * @return the exceeded limits, empty if the budget is met
+         */
+        public List<String> getViolations() {
+
+            return Collections.unmodifiableList(m_violations);
+        }
+
+        /**
+         * Returns if the budget is met.<p>
+         *
+         * @return <code>true</code> if no limit is exceeded
+         */
+        public boolean isWithinBudget() {
+
+            return m_violations.isEmpty();
+        }
+
+        /**
+         * Returns the report of the measurement.<p>
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            StringBuffer result = new StringBuffer();
+            result.append("----- Performance ").append(m_name).append(": ");
+            result.append(m_durations.length).append(" iterations after ");
+            result.append(m_budget.m_warmup).append(" warmup -----\n");
+            result.append(String.format(
+                Locale.ENGLISH,
+                "wall time      min %.2f  p50 %.2f  p90 %.2f  p99 %.2f  max %.2f ms%n",
+                Double.valueOf(m_durations[0] / 1000000.0),
+                Double.valueOf(getPercentile(50)),
+                Double.valueOf(getPercentile(90)),
+                Double.valueOf(getPercentile(99)),
+                Double.valueOf(m_durations[m_durations.length - 1] / 1000000.0)));
+            result.append("allocated      ").append(
+                m_allocatedBytes < 0 ? "n/a" : getAllocatedBytes() + " bytes per iteration").append('\n');
+            result.append("statements     ").append(
+                m_statements < 0
+                ? "n/a"
+                : String.format(Locale.ENGLISH, "%.1f per iteration", Double.valueOf(getStatements()))).append('\n');
+            for (String violation : m_violations) {
+                result.append("EXCEEDED: ").append(violation).append('\n');
+            }
+            return result.toString();
+        }
+
+        /**
+         * Formats a percentile without needless decimals.<p>
+         *
+         * @param percentile the percentile
+         * @return the formatted percentile
+         */
+        private String formatPercentile(double percentile) {
+
+            return percentile == Math.rint(percentile)
+            ? String.valueOf((long)percentile)
+            : String.valueOf(percentile);
+        }
+    }
+
+    /**
+     * Hides the constructor.<p>
+     */
+    private OpenCmsTestPerformance() {
+
+        // only static methods
+    }
+
+    /**
+     * Measures an operation and fails with the report if it exceeds the budget.<p>
+     *
+     * @param name the name of the operation
+     * @param budget the budget
+     * @param operation the operation
+     * @return the measured values
+     * @throws Exception if the operation fails
+     */
+    public static Result assertWithinBudget(String name, Budget budget, OpenCmsTestJdbcMonitor.Operation operation)
+    throws Exception {
+
+        Result result = measure(name, budget, operation);
+        System.out.print(result);
+        if (!result.isWithinBudget()) {
+            TestCase.fail("Performance budget of " + name + " exceeded\n" + result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread.<p>
+     *
+     * @return the allocated bytes, -1 if not available
+     */
+    public static long getAllocatedBytes() {
+
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (bean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean sunBean = (com.sun.management.ThreadMXBean)bean;
+            if (sunBean.isThreadAllocatedMemorySupported() && sunBean.isThreadAllocatedMemoryEnabled()) {
+                return sunBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Measures an operation.<p>
+     *
+     * @param name the name of the operation
+     * @param budget the iterations of the measurement
+     * @param operation the operation
+     * @return the measured values
+     * @throws Exception if the operation fails
+     */
+    public static Result measure(String name, Budget budget, OpenCmsTestJdbcMonitor.Operation operation)
+    throws Exception {
+
+        for (int i = 0; i < budget.m_warmup; i++) {
+            operation.run();
+        }
+        long[] durations = new long[budget.m_iterations];
+        long statements = OpenCmsTestJdbcMonitor.getStatistics().getStatementCount();
+        long allocatedBytes = getAllocatedBytes();
+        for (int i = 0; i < durations.length; i++) {
+            long start = System.nanoTime();
+            operation.run();
+            durations[i] = System.nanoTime() - start;
+        }
+        if (allocatedBytes >= 0) {
+            allocatedBytes = getAllocatedBytes() - allocatedBytes;
+        }
+        statements = OpenCmsTestJdbcMonitor.isActive()
+        ? OpenCmsTestJdbcMonitor.getStatistics().getStatementCount() - statements
+        : -1;
+        return new Result(name, budget, durations, allocatedBytes, statements);
+    }
+}
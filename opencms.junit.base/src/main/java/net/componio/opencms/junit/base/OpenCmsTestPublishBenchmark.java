@@ -0,0 +1,653 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.file.CmsFile;
+import org.opencms.file.CmsObject;
+import org.opencms.file.CmsProperty;
+import org.opencms.file.CmsResource;
+import org.opencms.file.CmsResourceFilter;
+import org.opencms.file.types.CmsResourceTypeFolder;
+import org.opencms.file.types.CmsResourceTypePlain;
+import org.opencms.main.CmsException;
+import org.opencms.main.OpenCms;
+import org.opencms.publish.CmsPublishJobBase;
+import org.opencms.publish.CmsPublishJobEnqueued;
+import org.opencms.publish.CmsPublishJobFinished;
+import org.opencms.publish.CmsPublishJobRunning;
+import org.opencms.publish.I_CmsPublishEventListener;
+import org.opencms.report.CmsLogReport;
+import org.opencms.util.CmsUUID;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Benchmark fixture measuring the publish engine with a parameterized change set.<p>
+ *
+ * Each run creates a new folder below the benchmark folder with the files to change and to
+ * delete and publishes it. Then it creates the change set: new files with siblings and
+ * relations, changed files and deleted files, and publishes the project. For this publish
+ * the fixture measures the time from the enqueue to the start and to the finish of the job,
+ * the published resources per second and, if the {@link OpenCmsTestJdbcMonitor} is active,
+ * the statements per published resource. The statements of all threads are counted, so no
+ * other work should run during the benchmark.<p>
+ *
+ * The results are printed and appended to <code>publish-benchmark.csv</code> in the folder
+ * of the lifecycle timings, with a label to compare module versions. The label is set with
+ * {@link #setLabel(String)} or the property <code>test.publish.benchmark.label</code> and
+ * defaults to the OpenCms version. For example:
+ * <pre>
+ * OpenCmsTestPublishBenchmark benchmark = new OpenCmsTestPublishBenchmark(200, 100, 50);
+ * benchmark.setSiblings(1).setRelations(2);
+ * for (int i = 0; i &lt; 5; i++) {
+ *     benchmark.run(getCmsObject());
+ * }
+ * </pre>
+ */
+public class OpenCmsTestPublishBenchmark {
+
+    /**
+     * The measured values of a publish.<p>
+     */
+    public static class Result {
+
+        /** The changed files. */
+        int m_changed;
+
+        /** The deleted files. */
+        int m_deleted;
+
+        /** The time from the enqueue to the finish of the job in nanoseconds. */
+        long m_enqueueToFinish;
+
+        /** The time from the enqueue to the start of the job in nanoseconds, -1 if unknown. */
+        long m_enqueueToStart;
+
+        /** The label of the run. */
+        String m_label;
+
+        /** The new files. */
+        int m_new;
+
+        /** The relations per new file. */
+        int m_relations;
+
+        /** The published resources. */
+        int m_resources;
+
+        /** The round of the run. */
+        int m_round;
+
+        /** The siblings per new file. */
+        int m_siblings;
+
+        /** The executed statements, -1 if not counted. */
+        long m_statements;
+
+        /**
+         * Returns the time from the enqueue to the finish of the job.<p>
+         *
+         * @return the time in milliseconds
+         */
+        public double getEnqueueToFinish() {
+
+            return m_enqueueToFinish / 1000000.0;
+        }
+
+        /**
+         * Returns the time from the enqueue to the start of the job.<p>
+         *
+         * @return the time in milliseconds, -1 if unknown
+         */
+        public double getEnqueueToStart() {
+
+            return m_enqueueToStart < 0 ? -1 : m_enqueueToStart / 1000000.0;
+        }
+
+        /**
+         * Returns the label of the run.<p>
+         *
+         * @return the label
+         */
+        public String getLabel() {
+
+            return m_label;
+        }
+
+        /**
+         * Returns the number of published resources.<p>
+         *
+         * @return the number of published resources
+         */
+        public int getResourceCount() {
+
+            return m_resources;
+        }
+
+        /**
+         * Returns the published resources per second.<p>
+         *
+         * @return the throughput
+         */
+        public double getResourcesPerSecond() {
+
+            return m_enqueueToFinish == 0 ? 0 : (m_resources * 1000000000.0) / m_enqueueToFinish;
+        }
+
+        /**
+         * Returns the executed statements.<p>
+         *
+         * @return the statements, -1 if not counted
+         */
+        public long getStatementCount() {
+
+            return m_statements;
+        }
+
+        /**
+         * Returns the executed statements per published resource.<p>
+         *
+         * @return the statements per resource, -1 if not counted
+         */
+        public double getStatementsPerResource() {
+
+            return (m_statements < 0) || (m_resources == 0) ? -1 : (double)m_statements / m_resources;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            return String.format(
+                Locale.ENGLISH,
+                "----- Publish benchmark %s #%d: %d new, %d changed, %d deleted, %d siblings, %d relations -----%n"
+                    + "%d resources, enqueue to start %.1f ms, enqueue to finish %.1f ms, %.1f resources/s, %s statements/resource%n",
+                m_label,
+                Integer.valueOf(m_round),
+                Integer.valueOf(m_new),
+                Integer.valueOf(m_changed),
+                Integer.valueOf(m_deleted),
+                Integer.valueOf(m_siblings),
+                Integer.valueOf(m_relations),
+                Integer.valueOf(m_resources),
+                Double.valueOf(getEnqueueToStart()),
+                Double.valueOf(getEnqueueToFinish()),
+                Double.valueOf(getResourcesPerSecond()),
+                m_statements < 0 ? "n/a" : String.format(Locale.ENGLISH, "%.1f", Double.valueOf(getStatementsPerResource())));
+        }
+    }
+
+    /**
+     * Records the start and finish times of the publish jobs.<p>
+     */
+    private static class JobListener implements I_CmsPublishEventListener {
+
+        /** The finished jobs by publish history id, with the finish time and the size. */
+        final Map<CmsUUID, long[]> m_finished = new ConcurrentHashMap<CmsUUID, long[]>();
+
+        /** The start times by publish history id. */
+        final Map<CmsUUID, Long> m_started = new ConcurrentHashMap<CmsUUID, Long>();
+
+        /**
+         * @see org.opencms.publish.I_CmsPublishEventListener#onAbort(org.opencms.util.CmsUUID, org.opencms.publish.CmsPublishJobEnqueued)
+         */
+        public void onAbort(CmsUUID userId, CmsPublishJobEnqueued publishJob) {
+
+            // not measured
+        }
+
+        /**
+         * @see org.opencms.publish.I_CmsPublishEventListener#onEnqueue(org.opencms.publish.CmsPublishJobBase)
+         */
+        public void onEnqueue(CmsPublishJobBase publishJob) {
+
+            // the enqueue is measured by the caller
+        }
+
+        /**
+         * @see org.opencms.publish.I_CmsPublishEventListener#onFinish(org.opencms.publish.CmsPublishJobRunning)
+         */
+        public void onFinish(CmsPublishJobRunning publishJob) {
+
+            m_finished.put(publishJob.getPublishHistoryId(), new long[] {System.nanoTime(), publishJob.getSize()});
+        }
+
+        /**
+         * @see org.opencms.publish.I_CmsPublishEventListener#onRemove(org.opencms.publish.CmsPublishJobFinished)
+         */
+        public void onRemove(CmsPublishJobFinished publishJob) {
+
+            // not measured
+        }
+
+        /**
+         * @see org.opencms.publish.I_CmsPublishEventListener#onStart(org.opencms.publish.CmsPublishJobEnqueued)
+         */
+        public void onStart(CmsPublishJobEnqueued publishJob) {
+
+            m_started.put(publishJob.getPublishHistoryId(), Long.valueOf(System.nanoTime()));
+        }
+    }
+
+    /** The default benchmark folder. */
+    public static final String DEFAULT_FOLDER = "/publish-benchmark/";
+
+    /** The default relation type. */
+    public static final String DEFAULT_RELATION_TYPE = "CATEGORY";
+
+    /** Name of the property to set the label of the results. */
+    public static final String PROP_LABEL = "test.publish.benchmark.label";
+
+    /** The name of the result file. */
+    public static final String RESULT_FILE = "publish-benchmark.csv";
+
+    /** The number of changed files. */
+    private int m_changed;
+
+    /** The content size of the files in bytes. */
+    private int m_contentSize;
+
+    /** The number of deleted files. */
+    private int m_deleted;
+
+    /** The site path of the benchmark folder. */
+    private String m_folder;
+
+    /** The label of the results. */
+    private String m_label;
+
+    /** The number of new files. */
+    private int m_new;
+
+    /** The random generator for the content. */
+    private Random m_random;
+
+    /** The relations per new file. */
+    private int m_relations;
+
+    /** The relation type. */
+    private String m_relationType;
+
+    /** The results of the runs. */
+    private List<Result> m_results;
+
+    /** The run id used when no lifecycle run is active. */
+    private String m_run;
+
+    /** The siblings per new file. */
+    private int m_siblings;
+
+    /**
+     * Creates a new benchmark without siblings and relations.<p>
+     *
+     * @param newFiles the number of new files
+     * @param changedFiles the number of changed files
+     * @param deletedFiles the number of deleted files
+     */
+    public OpenCmsTestPublishBenchmark(int newFiles, int changedFiles, int deletedFiles) {
+
+        m_new = newFiles;
+        m_changed = changedFiles;
+        m_deleted = deletedFiles;
+        m_contentSize = 1024;
+        m_folder = DEFAULT_FOLDER;
+        m_relationType = DEFAULT_RELATION_TYPE;
+        m_random = new Random(42);
+        m_results = new ArrayList<Result>();
+        m_run = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        m_label = System.getProperty(PROP_LABEL);
+        if (m_label == null) {
+            try {
+                m_label = OpenCmsTestProperties.getInstance().getConfiguration().get(PROP_LABEL);
+            } catch (RuntimeException e) {
+                // test properties not initialized
+            }
+        }
+    }
+
+    /**
+     * Returns the results of the runs.<p>
+     *
+     * @return the results in order
+     */
+    public List<Result> getResults() {
+
+        return new ArrayList<Result>(m_results);
+    }
+
+    /**
+     * Runs the benchmark once, in a new folder below the benchmark folder.<p>
+     *
+     * The result is printed and appended to the result file.<p>
+     *
+     * @param cms the <code>CmsObject</code>, in an offline project
+     * @return the result
+     * @throws Exception if creating the change set or publishing fails
+     */
+    public Result run(CmsObject cms) throws Exception {
+
+        int round = m_results.size() + 1;
+        String folder = m_folder + "round-" + round + "-" + System.currentTimeMillis() + "/";
+        if (round == 1) {
+            ensureFolder(cms, m_folder);
+        }
+        cms.createResource(folder, CmsResourceTypeFolder.RESOURCE_TYPE_ID, null, new ArrayList<CmsProperty>());
+        for (int i = 0; i < m_changed; i++) {
+            createFile(cms, folder + "changed-" + i + ".txt");
+        }
+        for (int i = 0; i < m_deleted; i++) {
+            createFile(cms, folder + "deleted-" + i + ".txt");
+        }
+        cms.unlockResource(folder);
+        publish(cms, null);
+
+        cms.lockResource(folder);
+        List<String> newFiles = new ArrayList<String>();
+        for (int i = 0; i < m_new; i++) {
+            String path = folder + "new-" + i + ".txt";
+            createFile(cms, path);
+            newFiles.add(path);
+            for (int j = 0; j < m_siblings; j++) {
+                cms.createSibling(path, folder + "new-" + i + "-sibling-" + j + ".txt", new ArrayList<CmsProperty>());
+            }
+        }
+        if (m_changed > 0) {
+            for (int i = 0; (i < m_new) && (m_relations > 0); i++) {
+                for (int j = 0; j < m_relations; j++) {
+                    String target = folder + "changed-" + ((i + j) % m_changed) + ".txt";
+                    cms.addRelationToResource(newFiles.get(i), target, m_relationType);
+                }
+            }
+        }
+        for (int i = 0; i < m_changed; i++) {
+            CmsFile file = cms.readFile(folder + "changed-" + i + ".txt", CmsResourceFilter.ALL);
+            file.setContents(createContent());
+            cms.writeFile(file);
+        }
+        for (int i = 0; i < m_deleted; i++) {
+            cms.deleteResource(folder + "deleted-" + i + ".txt", CmsResource.DELETE_PRESERVE_SIBLINGS);
+        }
+        cms.unlockResource(folder);
+
+        Result result = new Result();
+        result.m_label = getLabel();
+        result.m_round = round;
+        result.m_new = m_new;
+        result.m_changed = m_changed;
+        result.m_deleted = m_deleted;
+        result.m_siblings = m_siblings;
+        result.m_relations = m_relations;
+        publish(cms, result);
+        m_results.add(result);
+        System.out.print(result);
+        try {
+            write(result, new File(OpenCmsTestBase.m_lifecycleTimer.getFolder(), RESULT_FILE));
+        } catch (IOException e) {
+            System.err.println("Writing the publish benchmark result failed: " + e);
+        }
+        return result;
+    }
+
+    /**
+     * Sets the content size of the new and changed files.<p>
+     *
+     * @param contentSize the content size in bytes
+     * @return this benchmark
+     */
+    public OpenCmsTestPublishBenchmark setContentSize(int contentSize) {
+
+        m_contentSize = Math.max(0, contentSize);
+        return this;
+    }
+
+    /**
+     * Sets the benchmark folder.<p>
+     *
+     * @param folder the site path of the benchmark folder
+     * @return this benchmark
+     */
+    public OpenCmsTestPublishBenchmark setFolder(String folder) {
+
+        m_folder = folder.endsWith("/") ? folder : folder + "/";
+        return this;
+    }
+
+    /**
+     * Sets the label of the results, e.g. the version of the tested module.<p>
+     *
+     * @param label the label
+     * @return this benchmark
+     */
+    public OpenCmsTestPublishBenchmark setLabel(String label) {
+
+        m_label = label;
+        return this;
+    }
+
+    /**
+     * Sets the number of relations from each new file to the changed files.<p>
+     *
+     * @param relations the relations per new file
+     * @return this benchmark
+     */
+    public OpenCmsTestPublishBenchmark setRelations(int relations) {
+
+        m_relations = Math.max(0, relations);
+        return this;
+    }
+
+    /**
+     * Sets the type of the relations.<p>
+     *
+     * @param relationType the name of a relation type not defined in content
+     * @return this benchmark
+     */
+    public OpenCmsTestPublishBenchmark setRelationType(String relationType) {
+
+        m_relationType = relationType;
+        return this;
+    }
+
+    /**
+     * Sets the number of siblings of each new file.<p>
+     *
+     * @param siblings the siblings per new file
+     * @return this benchmark
+     */
+    public OpenCmsTestPublishBenchmark setSiblings(int siblings) {
+
+        m_siblings = Math.max(0, siblings);
+        return this;
+    }
+
+    /**
+     * Writes a result to a CSV file, appending to existing results.<p>
+     *
+     * @param result the result
+     * @param file the CSV file
+     * @throws IOException if writing the file fails
+     */
+    public void write(Result result, File file) throws IOException {
+
+        boolean header = !file.exists();
+        file.getAbsoluteFile().getParentFile().mkdirs();
+        Writer out = new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8");
+        try {
+            if (header) {
+                out.write("run,label,round,new,changed,deleted,siblings,relations,resources,"
+                    + "enqueueToStartMs,enqueueToFinishMs,resourcesPerSecond,statements,statementsPerResource\n");
+            }
+            out.write(String.format(
+                Locale.ENGLISH,
+                "%s,%s,%d,%d,%d,%d,%d,%d,%d,%.3f,%.3f,%.1f,%d,%.2f%n",
+                getRun(),
+                result.m_label.replace(',', ' '),
+                Integer.valueOf(result.m_round),
+                Integer.valueOf(result.m_new),
+                Integer.valueOf(result.m_changed),
+                Integer.valueOf(result.m_deleted),
+                Integer.valueOf(result.m_siblings),
+                Integer.valueOf(result.m_relations),
+                Integer.valueOf(result.m_resources),
+                Double.valueOf(result.getEnqueueToStart()),
+                Double.valueOf(result.getEnqueueToFinish()),
+                Double.valueOf(result.getResourcesPerSecond()),
+                Long.valueOf(result.m_statements),
+                Double.valueOf(result.getStatementsPerResource())));
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Returns random content of the configured size.<p>
+     *
+     * @return the content
+     */
+    private byte[] createContent() {
+
+        byte[] content = new byte[m_contentSize];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte)('a' + m_random.nextInt(26));
+        }
+        return content;
+    }
+
+    /**
+     * Creates a plain file with random content.<p>
+     *
+     * @param cms the <code>CmsObject</code>
+     * @param path the site path of the file
+     * @throws Exception if creating the file fails
+     */
+    private void createFile(CmsObject cms, String path) throws Exception {
+
+        cms.createResource(path, CmsResourceTypePlain.getStaticTypeId(), createContent(), new ArrayList<CmsProperty>());
+    }
+
+    /**
+     * Creates the benchmark folder and its parent folders if they do not exist.<p>
+     *
+     * @param cms the <code>CmsObject</code>
+     * @param folder the site path of the folder
+     * @throws Exception if creating a folder fails
+     */
+    private void ensureFolder(CmsObject cms, String folder) throws Exception {
+
+        StringBuffer path = new StringBuffer("/");
+        for (String name : folder.split("/")) {
+            if (name.length() == 0) {
+                continue;
+            }
+            path.append(name).append('/');
+            try {
+                cms.readResource(path.toString());
+            } catch (CmsException e) {
+                cms.createResource(
+                    path.toString(),
+                    CmsResourceTypeFolder.RESOURCE_TYPE_ID,
+                    null,
+                    new ArrayList<CmsProperty>());
+                cms.unlockResource(path.toString());
+            }
+        }
+    }
+
+    /**
+     * Returns the label of the results.<p>
+     *
+     * @return the label
+     */
+    private String getLabel() {
+
+        if (m_label != null) {
+            return m_label;
+        }
+        return "OpenCms " + OpenCms.getSystemInfo().getVersionNumber();
+    }
+
+    /**
+     * Returns the run id of the results.<p>
+     *
+     * @return the id of the active lifecycle run, or a run id generated for this benchmark if no run is active
+     */
+    private String getRun() {
+
+        String run = OpenCmsTestBase.m_lifecycleTimer.getRun();
+        return run != null ? run : m_run;
+    }
+
+    /**
+     * Publishes the current project and waits for the publish job.<p>
+     *
+     * @param cms the <code>CmsObject</code>
+     * @param result the result to record the measured values in, or <code>null</code> to not measure
+     * @throws Exception if publishing fails
+     */
+    private void publish(CmsObject cms, Result result) throws Exception {
+
+        JobListener listener = new JobListener();
+        OpenCms.getPublishManager().addPublishListener(listener);
+        try {
+            long statements = OpenCmsTestJdbcMonitor.getStatistics().getStatementCount();
+            long enqueue = System.nanoTime();
+            CmsUUID publishId = OpenCms.getPublishManager().publishProject(
+                cms,
+                new CmsLogReport(cms.getRequestContext().getLocale(), OpenCmsTestPublishBenchmark.class));
+            OpenCmsTestBase.m_publishWaiter.waitForJob(publishId);
+            long done = System.nanoTime();
+            if (result == null) {
+                return;
+            }
+            long[] finished = listener.m_finished.get(publishId);
+            Long started = listener.m_started.get(publishId);
+            result.m_enqueueToFinish = (finished != null ? finished[0] : done) - enqueue;
+            result.m_enqueueToStart = started != null ? started.longValue() - enqueue : -1;
+            result.m_resources = finished != null ? (int)finished[1] : 0;
+            result.m_statements = OpenCmsTestJdbcMonitor.isActive()
+            ? OpenCmsTestJdbcMonitor.getStatistics().getStatementCount() - statements
+            : -1;
+        } finally {
+            OpenCms.getPublishManager().removePublishListener(listener);
+        }
+    }
+}
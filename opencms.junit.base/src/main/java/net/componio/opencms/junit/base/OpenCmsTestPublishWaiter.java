@@ -0,0 +1,554 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.db.CmsPublishList;
+import org.opencms.main.CmsEvent;
+import org.opencms.main.I_CmsEventListener;
+import org.opencms.main.OpenCms;
+import org.opencms.publish.CmsPublishJobBase;
+import org.opencms.publish.CmsPublishJobEnqueued;
+import org.opencms.publish.CmsPublishJobFinished;
+import org.opencms.publish.CmsPublishJobRunning;
+import org.opencms.publish.CmsPublishManager;
+import org.opencms.publish.I_CmsPublishEventListener;
+import org.opencms.util.CmsUUID;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * Waits for the publish queue of the OpenCms test instance, driven by the publish events.<p>
+ *
+ * The waiter registers as event listener for <code>EVENT_PUBLISH_PROJECT</code> and as publish
+ * listener of the publish manager. A waiting thread sleeps until a publish job finishes, is
+ * aborted or removed, and returns as soon as the queue is empty, instead of polling the
+ * publish manager. If the queue is not empty within the timeout, the wait fails with a dump of
+ * the running and queued jobs and the stacks of the publish threads.<p>
+ *
+ * For each publish job the waiter records the enqueue, start and finish times and the number
+ * of published resources. A finished job is recorded until a wait returns it, so the recorded
+ * jobs do not grow with the number of publish jobs. The timeout defaults to 10 minutes and can be set in milliseconds
+ * with <code>test.publish.timeout</code> in the test properties or as system property.<p>
+ */
+public class OpenCmsTestPublishWaiter implements I_CmsEventListener, I_CmsPublishEventListener {
+
+    /**
+     * The times and size of a single publish job.<p>
+     */
+    public static class Job {
+
+        /** The enqueue time. */
+        long m_enqueue;
+
+        /** The finish time, 0 while the job is not finished. */
+        long m_finish;
+
+        /** The publish history id. */
+        CmsUUID m_publishId;
+
+        /** The name of the published project. */
+        String m_project;
+
+        /** The number of published resources. */
+        int m_resources;
+
+        /** The start time, 0 while the job is queued. */
+        long m_start;
+
+        /**
+         * Returns the time from the enqueue to the finish of the job.<p>
+         *
+         * @return the latency in milliseconds, -1 while the job is not finished
+         */
+        public long getLatency() {
+
+            return m_finish == 0 ? -1 : m_finish - m_enqueue;
+        }
+
+        /**
+         * Returns the name of the published project.<p>
+         *
+         * @return the name of the project
+         */
+        public String getProject() {
+
+            return m_project;
+        }
+
+        /**
+         * Returns the publish history id of the job.<p>
+         *
+         * @return the publish history id
+         */
+        public CmsUUID getPublishId() {
+
+            return m_publishId;
+        }
+
+        /**
+         * Returns the time from the enqueue to the start of the job.<p>
+         *
+         * @return the queue time in milliseconds, -1 while the job is queued
+         */
+        public long getQueueTime() {
+
+            return m_start == 0 ? -1 : m_start - m_enqueue;
+        }
+
+        /**
+         * Returns the number of published resources.<p>
+         *
+         * @return the number of published resources
+         */
+        public int getResourceCount() {
+
+            return m_resources;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            return String.format(
+                Locale.ENGLISH,
+                "publish job %s (%s): %d resources, queued %d ms, total %d ms",
+                m_publishId,
+                m_project,
+                Integer.valueOf(m_resources),
+                Long.valueOf(getQueueTime()),
+                Long.valueOf(getLatency()));
+        }
+    }
+
+    /** The default timeout in milliseconds. */
+    public static final long DEFAULT_TIMEOUT = 600000;
+
+    /** The maximum time to sleep without an event, in case the state changes after the last event. */
+    public static final long MAX_SLEEP = 100;
+
+    /** Name of the property to set the timeout in milliseconds. */
+    public static final String PROP_TIMEOUT = "test.publish.timeout";
+
+    /** The number of events that may end a wait. */
+    private long m_events;
+
+    /** The publish manager the waiter is registered with. */
+    private CmsPublishManager m_installed;
+
+    /** The jobs by publish history id, in enqueue order. */
+    private Map<CmsUUID, Job> m_jobs;
+
+    /** The timeout in milliseconds. */
+    private long m_timeout;
+
+    /**
+     * Creates a new waiter with the timeout set by the system property {@link #PROP_TIMEOUT} or the default timeout.<p>
+     */
+    public OpenCmsTestPublishWaiter() {
+
+        m_jobs = new LinkedHashMap<CmsUUID, Job>();
+        m_timeout = Long.getLong(PROP_TIMEOUT, DEFAULT_TIMEOUT).longValue();
+    }
+
+    /**
+     * Removes the recorded publish jobs.<p>
+     */
+    public synchronized void clear() {
+
+        m_jobs.clear();
+    }
+
+    /**
+     * @see org.opencms.main.I_CmsEventListener#cmsEvent(org.opencms.main.CmsEvent)
+     */
+    public void cmsEvent(CmsEvent event) {
+
+        if (event.getType() != EVENT_PUBLISH_PROJECT) {
+            return;
+        }
+        Object id = event.getData().get(KEY_PUBLISHID);
+        Object list = event.getData().get(KEY_PUBLISHLIST);
+        synchronized (this) {
+            if (id != null) {
+                Job job = getJob(id instanceof CmsUUID ? (CmsUUID)id : new CmsUUID(id.toString()), null);
+                if (list instanceof CmsPublishList) {
+                    job.m_resources = ((CmsPublishList)list).size();
+                }
+                if (job.m_finish == 0) {
+                    job.m_finish = System.currentTimeMillis();
+                }
+            }
+            signal();
+        }
+    }
+
+    /**
+     * Reads the timeout from the test properties, unless it is set as system property.<p>
+     *
+     * @param configuration the test properties
+     */
+    public synchronized void configure(Map<String, String> configuration) {
+
+        String value = configuration.get(PROP_TIMEOUT);
+        if ((System.getProperty(PROP_TIMEOUT) == null) && (value != null)) {
+            m_timeout = Long.parseLong(value.trim());
+        }
+    }
+
+    /**
+     * Returns a dump of the running and queued publish jobs and the stacks of the publish threads.<p>
+     *
+     * @return the dump
+     */
+    public String dumpQueue() {
+
+        StringBuffer result = new StringBuffer();
+        CmsPublishManager manager = OpenCms.getPublishManager();
+        CmsPublishJobRunning running = manager.getCurrentPublishJob();
+        result.append("Running: ").append(running == null ? "none" : describe(running, running.getEnqueueTime())).append('\n');
+        List<CmsPublishJobBase> queue = manager.getPublishQueue();
+        result.append("Queued: ").append(queue.size()).append('\n');
+        for (CmsPublishJobBase job : queue) {
+            long enqueued = job instanceof CmsPublishJobEnqueued ? ((CmsPublishJobEnqueued)job).getEnqueueTime() : 0;
+            result.append("  ").append(describe(job, enqueued)).append('\n');
+        }
+        for (Map.Entry<Thread, StackTraceElement[]> entry : Thread.getAllStackTraces().entrySet()) {
+            if (!entry.getKey().getName().toLowerCase(Locale.ENGLISH).contains("publish")) {
+                continue;
+            }
+            result.append("Thread \"").append(entry.getKey().getName()).append("\" ");
+            result.append(entry.getKey().getState()).append('\n');
+            for (StackTraceElement element : entry.getValue()) {
+                result.append("\tat ").append(element).append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the recorded publish jobs.<p>
+     *
+     * @return the recorded jobs in enqueue order
+     */
+    public synchronized List<Job> getJobs() {
+
+        return new ArrayList<Job>(m_jobs.values());
+    }
+
+    /**
+     * Returns the timeout.<p>
+     *
+     * @return the timeout in milliseconds
+     */
+    public synchronized long getTimeout() {
+
+        return m_timeout;
+    }
+
+    /**
+     * Registers the waiter with the running OpenCms instance, unless it is registered already.<p>
+     *
+     * A new OpenCms instance started by a new shell requires a new registration.<p>
+     */
+    public void install() {
+
+        CmsPublishManager manager = OpenCms.getPublishManager();
+        synchronized (this) {
+            if ((manager == null) || (manager == m_installed)) {
+                return;
+            }
+            m_installed = manager;
+        }
+        // registered without holding the lock of the listener methods
+        OpenCms.addCmsEventListener(this, new int[] {EVENT_PUBLISH_PROJECT});
+        manager.addPublishListener(this);
+    }
+
+    /**
+     * @see org.opencms.publish.I_CmsPublishEventListener#onAbort(org.opencms.util.CmsUUID, org.opencms.publish.CmsPublishJobEnqueued)
+     */
+    public synchronized void onAbort(CmsUUID userId, CmsPublishJobEnqueued publishJob) {
+
+        m_jobs.remove(publishJob.getPublishHistoryId());
+        signal();
+    }
+
+    /**
+     * @see org.opencms.publish.I_CmsPublishEventListener#onEnqueue(org.opencms.publish.CmsPublishJobBase)
+     */
+    public synchronized void onEnqueue(CmsPublishJobBase publishJob) {
+
+        Job job = getJob(publishJob.getPublishHistoryId(), publishJob);
+        job.m_enqueue = System.currentTimeMillis();
+    }
+
+    /**
+     * @see org.opencms.publish.I_CmsPublishEventListener#onFinish(org.opencms.publish.CmsPublishJobRunning)
+     */
+    public synchronized void onFinish(CmsPublishJobRunning publishJob) {
+
+        Job job = getJob(publishJob.getPublishHistoryId(), publishJob);
+        if (job.m_finish == 0) {
+            job.m_finish = System.currentTimeMillis();
+        }
+        signal();
+    }
+
+    /**
+     * @see org.opencms.publish.I_CmsPublishEventListener#onRemove(org.opencms.publish.CmsPublishJobFinished)
+     */
+    public synchronized void onRemove(CmsPublishJobFinished publishJob) {
+
+        signal();
+    }
+
+    /**
+     * @see org.opencms.publish.I_CmsPublishEventListener#onStart(org.opencms.publish.CmsPublishJobEnqueued)
+     */
+    public synchronized void onStart(CmsPublishJobEnqueued publishJob) {
+
+        Job job = getJob(publishJob.getPublishHistoryId(), publishJob);
+        job.m_start = System.currentTimeMillis();
+        if (job.m_enqueue == 0) {
+            job.m_enqueue = publishJob.getEnqueueTime();
+        }
+    }
+
+    /**
+     * Sets the timeout.<p>
+     *
+     * @param timeout the timeout in milliseconds
+     */
+    public synchronized void setTimeout(long timeout) {
+
+        m_timeout = timeout;
+    }
+
+    /**
+     * Waits with the configured timeout until the given publish job has finished.<p>
+     *
+     * @param publishId the publish history id of the job, as returned by the publish manager
+     * @return the finished job
+     * @throws TimeoutException if the job has not finished within the timeout, with the dump of the queue
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public Job waitForJob(CmsUUID publishId) throws TimeoutException, InterruptedException {
+
+        return waitForJob(publishId, getTimeout());
+    }
+
+    /**
+     * Waits until the given publish job has finished.<p>
+     *
+     * Unlike {@link #waitWhileRunning(long)} this does not wait for the jobs of other threads. A job
+     * that is neither running nor queued any more, e.g. because it was aborted, ends the wait as well.
+     * The returned job is removed from the recorded jobs.<p>
+     *
+     * @param publishId the publish history id of the job, as returned by the publish manager
+     * @param timeout the timeout in milliseconds
+     * @return the finished job
+     * @throws TimeoutException if the job has not finished within the timeout, with the dump of the queue
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public Job waitForJob(CmsUUID publishId, long timeout) throws TimeoutException, InterruptedException {
+
+        install();
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long events;
+            synchronized (this) {
+                events = m_events;
+                Job job = m_jobs.get(publishId);
+                if ((job != null) && (job.m_finish != 0)) {
+                    m_jobs.remove(publishId);
+                    return job;
+                }
+            }
+            // the publish manager is asked without holding the lock of the listener methods
+            if (!isQueued(publishId)) {
+                synchronized (this) {
+                    Job job = getJob(publishId, null);
+                    m_jobs.remove(publishId);
+                    return job;
+                }
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException(
+                    "Publish job " + publishId + " not finished after " + timeout + " ms\n" + dumpQueue());
+            }
+            synchronized (this) {
+                if (events == m_events) {
+                    wait(Math.min(remaining, MAX_SLEEP));
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits with the configured timeout until the publish queue is empty.<p>
+     *
+     * @return the jobs finished since the previous wait or {@link #clear()}
+     * @throws TimeoutException if the queue is not empty within the timeout, with the dump of the queue
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public List<Job> waitWhileRunning() throws TimeoutException, InterruptedException {
+
+        return waitWhileRunning(getTimeout());
+    }
+
+    /**
+     * Waits until the publish queue is empty.<p>
+     *
+     * Returns all jobs finished since the previous wait or {@link #clear()}, including the jobs
+     * that finished before the wait started, e.g. the jobs of a script that publishes and waits
+     * itself. The returned jobs are removed from the recorded jobs.<p>
+     *
+     * @param timeout the timeout in milliseconds
+     * @return the jobs finished since the previous wait or {@link #clear()}
+     * @throws TimeoutException if the queue is not empty within the timeout, with the dump of the queue
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public List<Job> waitWhileRunning(long timeout) throws TimeoutException, InterruptedException {
+
+        install();
+        long deadline = System.currentTimeMillis() + timeout;
+        while (true) {
+            long events;
+            synchronized (this) {
+                events = m_events;
+            }
+            // the publish manager is asked without holding the lock of the listener methods
+            if (!OpenCms.getPublishManager().isRunning()) {
+                break;
+            }
+            long remaining = deadline - System.currentTimeMillis();
+            if (remaining <= 0) {
+                throw new TimeoutException("Publish queue not finished after " + timeout + " ms\n" + dumpQueue());
+            }
+            synchronized (this) {
+                if (events == m_events) {
+                    wait(Math.min(remaining, MAX_SLEEP));
+                }
+            }
+        }
+        synchronized (this) {
+            List<Job> result = new ArrayList<Job>();
+            Iterator<Job> jobs = m_jobs.values().iterator();
+            while (jobs.hasNext()) {
+                Job job = jobs.next();
+                if (job.m_finish != 0) {
+                    result.add(job);
+                    jobs.remove();
+                }
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Describes a publish job for the queue dump.<p>
+     *
+     * @param job the job
+     * @param enqueued the enqueue time, 0 if unknown
+     * @return the description
+     */
+    private String describe(CmsPublishJobBase job, long enqueued) {
+
+        return String.format(
+            Locale.ENGLISH,
+            "%s project %s, %d resources%s",
+            job.getPublishHistoryId(),
+            job.getProjectName(),
+            Integer.valueOf(job.getSize()),
+            enqueued == 0 ? "" : ", enqueued " + (System.currentTimeMillis() - enqueued) + " ms ago");
+    }
+
+    /**
+     * Checks if a publish job is running or waiting in the publish queue.<p>
+     *
+     * @param publishId the publish history id of the job
+     * @return <code>true</code> if the job is running or queued
+     */
+    private boolean isQueued(CmsUUID publishId) {
+
+        CmsPublishManager manager = OpenCms.getPublishManager();
+        CmsPublishJobRunning running = manager.getCurrentPublishJob();
+        if ((running != null) && publishId.equals(running.getPublishHistoryId())) {
+            return true;
+        }
+        for (CmsPublishJobBase job : manager.getPublishQueue()) {
+            if (publishId.equals(job.getPublishHistoryId())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Wakes up the waiting threads after an event that may end a wait.<p>
+     */
+    private void signal() {
+
+        m_events++;
+        notifyAll();
+    }
+
+    /**
+     * Returns the recorded job of a publish history id, creating it if required.<p>
+     *
+     * @param publishId the publish history id
+     * @param publishJob the publish job to read the project and size from, may be <code>null</code>
+     * @return the recorded job
+     */
+    private Job getJob(CmsUUID publishId, CmsPublishJobBase publishJob) {
+
+        Job job = m_jobs.get(publishId);
+        if (job == null) {
+            job = new Job();
+            job.m_publishId = publishId;
+            job.m_enqueue = System.currentTimeMillis();
+            m_jobs.put(publishId, job);
+        }
+        if (publishJob != null) {
+            job.m_project = publishJob.getProjectName();
+            if (job.m_resources == 0) {
+                job.m_resources = publishJob.getSize();
+            }
+        }
+        return job;
+    }
+}
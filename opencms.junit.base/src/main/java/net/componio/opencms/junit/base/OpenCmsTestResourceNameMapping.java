@@ -0,0 +1,244 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of prefix rules for mapping resource names, backed by a trie of path segments.<p>
+ *
+ * A rule replaces the source prefix of a resource name with the target prefix. Prefixes are
+ * matched on segment boundaries, so <code>/folder1</code> matches <code>/folder1/page.html</code>
+ * but not <code>/folder10/</code>. If several rules match, the rule with the longest source wins.
+ * A lookup walks the segments of the resource name once, independent of the number of rules.<p>
+ * 
+ * Lookups do not lock and may run concurrently with a single thread adding rules.<p>
+ */
+public class OpenCmsTestResourceNameMapping {
+
+    /**
+     * A node of the segment trie.<p>
+     */
+    private static class Node {
+
+        /** The child nodes by segment name. */
+        volatile Map<String, Node> m_children;
+
+        /** The rule for a source without trailing slash ending at this node. */
+        volatile String[] m_rule;
+
+        /** The rule for a source with trailing slash ending at this node. */
+        volatile String[] m_folderRule;
+    }
+
+    /** The root node of the trie. */
+    private volatile Node m_root;
+
+    /** The number of rules. */
+    private volatile int m_size;
+
+    /**
+     * Creates a new, empty mapping.<p>
+     */
+    public OpenCmsTestResourceNameMapping() {
+
+        m_root = new Node();
+    }
+
+    /**
+     * Adds a rule for a resource moved or copied after earlier rules were added.<p>
+     *
+     * The target is the VFS name at the time the rule is added, so it is first mapped through
+     * the existing rules. This way a resource moved from <code>/a/</code> to <code>/b/</code> and
+     * then to <code>/c/</code> still maps back to the stored name below <code>/a/</code>.<p>
+     *
+     * @param source the prefix of the current resource names
+     * @param target the prefix of the resource names before the operation
+     */
+    public void addChainedRule(String source, String target) {
+
+        addRule(source, map(target));
+    }
+
+    /**
+     * Adds a rule, replacing an existing rule with the same source.<p>
+     *
+     * @param source the prefix of the resource names to map
+     * @param target the prefix to replace the source prefix with
+     */
+    public void addRule(String source, String target) {
+
+        Node node = m_root;
+        int start = 0;
+        int end;
+        while ((end = nextSegmentEnd(source, start)) >= 0) {
+            String segment = source.substring(start, end);
+            if (segment.length() > 0) {
+                if (node.m_children == null) {
+                    node.m_children = new ConcurrentHashMap<String, Node>();
+                }
+                Node child = node.m_children.get(segment);
+                if (child == null) {
+                    child = new Node();
+                    node.m_children.put(segment, child);
+                }
+                node = child;
+            }
+            start = end + 1;
+        }
+        String[] rule = new String[] {source, target};
+        if (source.endsWith("/")) {
+            if (node.m_folderRule == null) {
+                m_size++;
+            }
+            node.m_folderRule = rule;
+        } else {
+            if (node.m_rule == null) {
+                m_size++;
+            }
+            node.m_rule = rule;
+        }
+    }
+
+    /**
+     * Removes all rules.<p>
+     */
+    public void clear() {
+
+        m_root = new Node();
+        m_size = 0;
+    }
+
+    /**
+     * Returns <code>true</code> if no rules are defined.<p>
+     *
+     * @return <code>true</code> if no rules are defined
+     */
+    public boolean isEmpty() {
+
+        return m_size == 0;
+    }
+
+    /**
+     * Maps a resource name with the rule having the longest matching source.<p>
+     *
+     * @param resourceName the resource name to map
+     * @return the mapped resource name, or the unchanged name if no rule matches
+     */
+    public String map(String resourceName) {
+
+        if ((m_size == 0) || (resourceName == null)) {
+            return resourceName;
+        }
+        Node node = m_root;
+        String[] best = matchingRule(node, resourceName, null);
+        int start = 0;
+        int end;
+        while ((end = nextSegmentEnd(resourceName, start)) >= 0) {
+            if (end > start) {
+                Map<String, Node> children = node.m_children;
+                node = children == null ? null : children.get(resourceName.substring(start, end));
+                if (node == null) {
+                    break;
+                }
+                best = matchingRule(node, resourceName, best);
+            }
+            start = end + 1;
+        }
+        if (best == null) {
+            return resourceName;
+        }
+        return best[1] + resourceName.substring(best[0].length());
+    }
+
+    /**
+     * Returns the number of rules.<p>
+     *
+     * @return the number of rules
+     */
+    public int size() {
+
+        return m_size;
+    }
+
+    /**
+     * Returns the rule of the node that matches the resource name, if it is longer than the best rule so far.<p>
+     *
+     * @param node the node
+     * @param resourceName the resource name
+     * @param best the best rule so far
+     * @return the best matching rule
+     */
+    private String[] matchingRule(Node node, String resourceName, String[] best) {
+
+        String[] result = best;
+        if ((node.m_rule != null) && matches(node.m_rule[0], resourceName)) {
+            result = node.m_rule;
+        }
+        if ((node.m_folderRule != null) && matches(node.m_folderRule[0], resourceName)) {
+            if ((result == null) || (result[0].length() < node.m_folderRule[0].length())) {
+                result = node.m_folderRule;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Checks if the source is a prefix of the resource name ending on a segment boundary.<p>
+     *
+     * The storage uses the same check to select the resources of a subtree.<p>
+     *
+     * @param source the source prefix
+     * @param resourceName the resource name
+     * @return <code>true</code> if the source matches
+     */
+    static boolean matches(String source, String resourceName) {
+
+        return resourceName.startsWith(source)
+            && ((resourceName.length() == source.length())
+                || source.endsWith("/")
+                || (resourceName.charAt(source.length()) == '/'));
+    }
+
+    /**
+     * Returns the end index of the path segment starting at the given index.<p>
+     *
+     * @param path the path
+     * @param start the start index of the segment
+     * @return the end index, or -1 if there are no more segments
+     */
+    private int nextSegmentEnd(String path, int start) {
+
+        if (start >= path.length()) {
+            return -1;
+        }
+        int end = path.indexOf('/', start);
+        return end < 0 ? path.length() : end;
+    }
+}
@@ -30,37 +30,110 @@ package net.componio.opencms.junit.base;
 import org.opencms.db.CmsResourceState;
 import org.opencms.file.CmsObject;
 import org.opencms.file.CmsResource;
+import org.opencms.file.CmsResourceFilter;
 import org.opencms.main.CmsException;
+import org.opencms.main.OpenCms;
 
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * Storage object for storing all attributes of vfs resources.<p>
  * 
+ * Entries can be added and read concurrently.<p>
  */
 public class OpenCmsTestResourceStorage {
 
+    /**
+     * The VFS operations resource states can be precalculated for.<p>
+     */
+    public static enum Operation {
+
+        /** Copy as new resource, applied to the copied resources. */
+        COPY_AS_NEW,
+
+        /** Copy as sibling, applied to the created siblings. */
+        COPY_AS_SIBLING,
+
+        /** Delete, new resources are removed. */
+        DELETE,
+
+        /** Any modification of content, properties or attributes. */
+        MODIFY,
+
+        /** Move, applied to the moved resources. */
+        MOVE,
+
+        /** Publish, deleted resources are removed. */
+        PUBLISH,
+
+        /** Touch. */
+        TOUCH,
+
+        /** Undelete. */
+        UNDELETE
+    }
+
     /** the name of the default storage. */
     public static String DEFAULT_STORAGE = "default";
 
     /** the name of the default storage. */
     public static String GLOBAL_STORAGE = "global";
 
+    /** the maximum number of resource names suggested when a resource is not found. */
+    private static final int MAX_SUGGESTIONS = 10;
+
+    /** the mode used to capture the content of files. */
+    private volatile OpenCmsTestResourceStorageEntry.ContentMode m_contentMode;
+
+    /** the folder spilled content is written to. */
+    private volatile File m_contentSpillFolder;
+
+    /** the blob store holding the content of the entries. */
+    private OpenCmsTestBlobStore m_blobStore;
+
+    /** the secondary indexes over the entries. */
+    private OpenCmsTestResourceStorageIndex m_index;
+
+    /** the timer recording the captures, or null. */
+    private volatile OpenCmsTestLifecycleTimer m_lifecycleTimer;
+
+    /** the interner sharing equal values between the entries. */
+    private OpenCmsTestResourceStorageInterner m_interner;
+
+    /** the index of the name mapping rules. */
+    private OpenCmsTestResourceNameMapping m_mapping;
+
     /** the name of the storage. */
     private String m_name;
 
     /** storeage for precalculation of states. **/
     private Map<String, CmsResourceState> m_precalcState;
 
+    /** names of the resources that will not exist after the precalculated operation. **/
+    private Set<String> m_precalcRemoved;
+
     /** Strings for mapping the filename. */
-    private String m_sourceNameMapping;
+    private volatile String m_sourceNameMapping;
 
     /** internal storage. */
     private Map<String, OpenCmsTestResourceStorageEntry> m_storage;
 
     /** Prefix mapping for target name. */
-    private String m_targetNameMapping;
+    private volatile String m_targetNameMapping;
 
     /**
      * Creates a new OpenCmsTestResourceStorage.<p>
@@ -69,10 +142,42 @@ public class OpenCmsTestResourceStorage {
      */
     public OpenCmsTestResourceStorage(String name) {
 
-        m_storage = new HashMap<String, OpenCmsTestResourceStorageEntry>();
-        m_precalcState = new HashMap<String, CmsResourceState>();
+        this(name, new OpenCmsTestResourceStorageInterner());
+    }
+
+    /**
+     * Creates a new OpenCmsTestResourceStorage sharing equal values with other storages.<p>
+     * 
+     * @param name the name of the storage
+     * @param interner the interner shared with the other storages
+     */
+    public OpenCmsTestResourceStorage(String name, OpenCmsTestResourceStorageInterner interner) {
+
+        this(name, interner, new OpenCmsTestBlobStore());
+    }
+
+    /**
+     * Creates a new OpenCmsTestResourceStorage sharing equal values and contents with other storages.<p>
+     * 
+     * @param name the name of the storage
+     * @param interner the interner shared with the other storages
+     * @param blobStore the blob store shared with the other storages
+     */
+    public OpenCmsTestResourceStorage(
+        String name,
+        OpenCmsTestResourceStorageInterner interner,
+        OpenCmsTestBlobStore blobStore) {
+
+        m_storage = new ConcurrentHashMap<String, OpenCmsTestResourceStorageEntry>();
+        m_index = new OpenCmsTestResourceStorageIndex();
+        m_precalcState = new ConcurrentHashMap<String, CmsResourceState>();
+        m_precalcRemoved = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
         m_sourceNameMapping = null;
         m_targetNameMapping = null;
+        m_mapping = new OpenCmsTestResourceNameMapping();
+        m_interner = interner;
+        m_blobStore = blobStore;
+        m_contentMode = OpenCmsTestResourceStorageEntry.ContentMode.FULL;
         m_name = name;
     }
 
@@ -86,8 +191,246 @@ public class OpenCmsTestResourceStorage {
      */
     public void add(CmsObject cms, String resourceName, CmsResource resource) throws CmsException {
 
-        m_storage.put(resourceName, new OpenCmsTestResourceStorageEntry(cms, resourceName, resource));
-        m_precalcState.put(resourceName, preCalculateState(resource));
+        add(resourceName, new OpenCmsTestResourceStorageEntry(
+            cms,
+            resourceName,
+            resource,
+            m_contentMode,
+            m_contentSpillFolder));
+    }
+
+    /** 
+     * Adds an already captured entry to the resource storage.<p>
+     * 
+     * @param resourceName the resource name to add
+     * @param entry the entry to add
+     */
+    public void add(String resourceName, OpenCmsTestResourceStorageEntry entry) {
+
+        entry.intern(m_interner);
+        entry.share(m_blobStore);
+        OpenCmsTestResourceStorageEntry replaced = m_storage.put(resourceName, entry);
+        if (replaced == entry) {
+            // the entry is already held under this name, give back the reference added above
+            entry.release();
+        } else if (replaced != null) {
+            m_index.remove(resourceName, replaced);
+            replaced.release();
+        }
+        m_index.add(resourceName, entry);
+        m_precalcState.put(resourceName, preCalculateState(Operation.MODIFY, entry.getState()));
+        m_precalcRemoved.remove(resourceName);
+    }
+
+    /**
+     * Removes all entries from the resource storage.<p>
+     * 
+     * The references of the entries to the shared content are given back, so content 
+     * not used by other storages is dropped from the blob store.<p>
+     */
+    public void clear() {
+
+        Iterator<OpenCmsTestResourceStorageEntry> i = m_storage.values().iterator();
+        while (i.hasNext()) {
+            OpenCmsTestResourceStorageEntry entry = i.next();
+            i.remove();
+            entry.release();
+        }
+        m_index.clear();
+        m_precalcState.clear();
+        m_precalcRemoved.clear();
+    }
+
+    /**
+     * Adds a complete subtree to the resource storage.<p>
+     * 
+     * Uses as many capture threads as processors are available.<p>
+     * 
+     * @param cms the CmsObject 
+     * @param rootPath the site path of the subtree root folder
+     * @param filter the filter for the resources to add
+     * @return the number of added resources
+     * @throws CmsException if something goes wrong
+     * 
+     * @see #addSubtree(CmsObject, String, CmsResourceFilter, int)
+     */
+    public int addSubtree(CmsObject cms, String rootPath, CmsResourceFilter filter) throws CmsException {
+
+        return addSubtree(cms, rootPath, filter, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Adds a complete subtree to the resource storage.<p>
+     * 
+     * The subtree is read with a single <code>readResources</code> call. The resources read 
+     * are reused for reading contents and properties, which are read in parallel by the 
+     * given number of threads, each working with its own copy of the CmsObject.<p>
+     * 
+     * @param cms the CmsObject 
+     * @param rootPath the site path of the subtree root folder
+     * @param filter the filter for the resources to add
+     * @param threads the number of capture threads
+     * @return the number of added resources
+     * @throws CmsException if something goes wrong
+     */
+    public int addSubtree(CmsObject cms, String rootPath, CmsResourceFilter filter, int threads)
+    throws CmsException {
+
+        return addResources(cms, readSubtree(cms, rootPath, filter), threads);
+    }
+
+    /**
+     * Adds a sample of a subtree to the resource storage.<p>
+     * 
+     * The resources of the subtree are read with a single <code>readResources</code> call, 
+     * but only the resources selected by the sampler are captured.<p>
+     * 
+     * @param cms the CmsObject 
+     * @param rootPath the site path of the subtree root folder
+     * @param filter the filter for the resources to add
+     * @param sampler the sampler selecting the resources to add
+     * @return the number of added resources
+     * @throws CmsException if something goes wrong
+     */
+    public int addSubtree(
+        CmsObject cms,
+        String rootPath,
+        CmsResourceFilter filter,
+        OpenCmsTestResourceStorageSampler sampler)
+    throws CmsException {
+
+        Map<String, CmsResource> resources = new HashMap<String, CmsResource>();
+        for (CmsResource resource : readSubtree(cms, rootPath, filter)) {
+            resources.put(cms.getSitePath(resource), resource);
+        }
+        List<CmsResource> selected = new ArrayList<CmsResource>();
+        for (String name : sampler.select(cms, resources)) {
+            selected.add(resources.get(name));
+        }
+        return addResources(cms, selected, Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Adds already read resources to the resource storage.<p>
+     * 
+     * Contents and properties are read in parallel by the given number of threads, each 
+     * working with its own copy of the CmsObject.<p>
+     * 
+     * @param cms the CmsObject 
+     * @param resources the resources to add
+     * @param threads the number of capture threads
+     * @return the number of added resources
+     * @throws CmsException if something goes wrong
+     */
+    public int addResources(CmsObject cms, List<CmsResource> resources, int threads) throws CmsException {
+
+        final CmsObject baseCms = cms;
+        final ThreadLocal<CmsObject> threadCms = new ThreadLocal<CmsObject>();
+        List<Future<Void>> futures = new ArrayList<Future<Void>>(resources.size());
+        ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, threads));
+        OpenCmsTestLifecycleTimer timer = m_lifecycleTimer;
+        OpenCmsTestLifecycleTimer.Timing timing = null;
+        if (timer != null) {
+            timing = timer.start(OpenCmsTestLifecycleTimer.STEP_STORAGE_CAPTURE, m_name);
+            timing.setAttribute(OpenCmsTestLifecycleTimer.ATTR_STORAGE, m_name);
+            timing.setAttribute(OpenCmsTestLifecycleTimer.ATTR_RESOURCE_COUNT, Integer.valueOf(resources.size()));
+        }
+        try {
+            for (final CmsResource resource : resources) {
+                final String resourceName = cms.getSitePath(resource);
+                futures.add(executor.submit(new Callable<Void>() {
+
+                    public Void call() throws Exception {
+
+                        CmsObject workerCms = threadCms.get();
+                        if (workerCms == null) {
+                            workerCms = OpenCms.initCmsObject(baseCms);
+                            threadCms.set(workerCms);
+                        }
+                        add(resourceName, new OpenCmsTestResourceStorageEntry(
+                            workerCms,
+                            resourceName,
+                            resource,
+                            m_contentMode,
+                            m_contentSpillFolder));
+                        return null;
+                    }
+                }));
+            }
+            for (Future<Void> future : futures) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof CmsException) {
+                throw (CmsException)e.getCause();
+            }
+            throw new RuntimeException(e.getCause());
+        } finally {
+            executor.shutdownNow();
+            if (timing != null) {
+                timer.stop(timing);
+            }
+        }
+        return resources.size();
+    }
+
+    /**
+     * Returns the stored names of all entries matching a query.<p>
+     * 
+     * The query is answered from the indexes of the storage, the name mapping is applied to 
+     * the prefix of the query.<p>
+     * 
+     * @param query the query
+     * @return the sorted stored names of the matching entries
+     */
+    public List<String> find(OpenCmsTestResourceStorageQuery query) {
+
+        String prefix = query.getPrefix() == null ? null : mapResourcename(query.getPrefix());
+        Collection<String> candidates = null;
+        if (query.getStructureId() != null) {
+            String name = m_index.getByStructureId(query.getStructureId());
+            candidates = name == null ? Collections.<String> emptySet() : Collections.singleton(name);
+        }
+        if (query.getResourceId() != null) {
+            candidates = smaller(candidates, m_index.getByResourceId(query.getResourceId()));
+        }
+        if (query.getType() >= 0) {
+            candidates = smaller(candidates, m_index.getByType(query.getType()));
+        }
+        if (query.getState() != null) {
+            candidates = smaller(candidates, m_index.getByState(query.getState().getState()));
+        }
+        if (query.getUserLastModified() != null) {
+            candidates = smaller(candidates, m_index.getByUserLastModified(query.getUserLastModified()));
+        }
+        if ((query.getDateLastModifiedFrom() != Long.MIN_VALUE) || (query.getDateLastModifiedTo() != Long.MAX_VALUE)) {
+            candidates = smaller(candidates, m_index.getByDateLastModified(
+                query.getDateLastModifiedFrom(),
+                query.getDateLastModifiedTo()));
+        }
+        boolean sorted = false;
+        if (candidates == null) {
+            // the names below the prefix are already sorted
+            candidates = m_index.getByPrefix(prefix);
+            sorted = true;
+        }
+        List<String> result = new ArrayList<String>();
+        for (String name : candidates) {
+            if ((prefix != null) && !OpenCmsTestResourceNameMapping.matches(prefix, name)) {
+                continue;
+            }
+            OpenCmsTestResourceStorageEntry entry = m_storage.get(name);
+            if ((entry != null) && query.matches(entry)) {
+                result.add(name);
+            }
+        }
+        if (!sorted) {
+            Collections.sort(result);
+        }
+        return result;
     }
 
     /**
@@ -110,12 +453,100 @@ public class OpenCmsTestResourceStorage {
                 + " -> "
                 + mappedResourceName
                 + " not found in storage "
-                + m_storage.keySet().toString());
+                + m_name
+                + " with "
+                + m_storage.size()
+                + " resources, nearest matches: "
+                + m_index.getSuggestions(mappedResourceName, MAX_SUGGESTIONS));
         }
 
         return entry;
     }
 
+    /**
+     * Checks if an entry for the given resource name exists in the storage.<p>
+     * 
+     * The name mapping is applied to the resource name.<p>
+     * 
+     * @param resourceName the name of the resource to check
+     * @return <code>true</code> if an entry for the resource exists
+     */
+    public boolean contains(String resourceName) {
+
+        return m_storage.containsKey(mapResourcename(resourceName));
+    }
+
+    /**
+     * Gets an entry from the storage without applying the name mapping.<p>
+     * 
+     * @param storedName the name the resource was stored with
+     * @return the entry, or <code>null</code> if no entry was stored with this name
+     */
+    public OpenCmsTestResourceStorageEntry getEntry(String storedName) {
+
+        return m_storage.get(storedName);
+    }
+
+    /**
+     * Returns the names of all resources in the storage.<p>
+     * 
+     * @return an unmodifiable set of the names of all resources in the storage
+     */
+    public Set<String> getResourceNames() {
+
+        return Collections.unmodifiableSet(m_storage.keySet());
+    }
+
+    /**
+     * Returns the mode used to capture the content of files.<p>
+     * 
+     * @return the mode used to capture the content of files
+     */
+    public OpenCmsTestResourceStorageEntry.ContentMode getContentMode() {
+
+        return m_contentMode;
+    }
+
+    /**
+     * Returns the folder spilled content is written to.<p>
+     * 
+     * @return the folder spilled content is written to, or <code>null</code> for the default folder
+     */
+    public File getContentSpillFolder() {
+
+        return m_contentSpillFolder;
+    }
+
+    /**
+     * Returns the blob store holding the content of the entries.<p>
+     * 
+     * @return the blob store
+     */
+    public OpenCmsTestBlobStore getBlobStore() {
+
+        return m_blobStore;
+    }
+
+    /**
+     * Returns the timer recording the captures of this storage.<p>
+     * 
+     * @return the timer, or <code>null</code> if captures are not timed
+     */
+    public OpenCmsTestLifecycleTimer getLifecycleTimer() {
+
+        return m_lifecycleTimer;
+    }
+
+    /**
+     * Returns the interner sharing equal values between the entries.<p>
+     * 
+     * @return the interner
+     */
+    public OpenCmsTestResourceStorageInterner getInterner() {
+
+        return m_interner;
+    }
+
     /**
      * Gets the name of the storage.<p>
      * 
@@ -151,13 +582,88 @@ public class OpenCmsTestResourceStorage {
 
         CmsResourceState state = m_precalcState.get(mappedResourceName);
         if (state == null) {
+            if (m_precalcRemoved.contains(mappedResourceName)) {
+                throw new Exception("Resource "
+                    + resourceName
+                    + " -> "
+                    + mappedResourceName
+                    + " does not exist after the precalculated operation");
+            }
             throw new Exception("Not found in storage " + resourceName + " -> " + mappedResourceName);
         }
         return state;
     }
 
     /**
-     * Returns the source name mapping.<p>
+     * Gets an precalculate resource state from the storage without applying the name mapping.<p>
+     * 
+     * @param storedName the name the resource was stored with
+     * 
+     * @return precalculated resource state, or <code>null</code> if there is none
+     */
+    public CmsResourceState getStoredPreCalculatedState(String storedName) {
+
+        return m_precalcState.get(storedName);
+    }
+
+    /**
+     * Checks if a resource will not exist any more after the precalculated operation, 
+     * e.g. a new resource after a delete operation.<p>
+     * 
+     * @param resourceName the name of the resource
+     * 
+     * @return <code>true</code> if the resource will not exist after the operation
+     */
+    public boolean isPreCalculatedRemoved(String resourceName) {
+
+        return m_precalcRemoved.contains(mapResourcename(resourceName));
+    }
+
+    /**
+     * Precalculates the states of all resources in the storage for an operation.<p>
+     * 
+     * The states are calculated from the captured states in a single pass and replace
+     * the states precalculated before.<p>
+     * 
+     * @param operation the operation 
+     */
+    public void preCalculateStates(Operation operation) {
+
+        preCalculateStates(operation, null);
+    }
+
+    /**
+     * Precalculates the states of all resources of a subtree for an operation.<p>
+     * 
+     * The states are calculated from the captured states in a single pass and replace
+     * the states precalculated before.<p>
+     * 
+     * @param operation the operation 
+     * @param resourceNamePrefix the name of the subtree root, the name mapping is applied to it
+     */
+    public void preCalculateStates(Operation operation, String resourceNamePrefix) {
+
+        String prefix = resourceNamePrefix == null ? null : mapResourcename(resourceNamePrefix);
+        Iterator<Map.Entry<String, OpenCmsTestResourceStorageEntry>> i = m_storage.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<String, OpenCmsTestResourceStorageEntry> entry = i.next();
+            String name = entry.getKey();
+            if ((prefix != null) && !OpenCmsTestResourceNameMapping.matches(prefix, name)) {
+                continue;
+            }
+            CmsResourceState state = preCalculateState(operation, entry.getValue().getState());
+            if (state == null) {
+                m_precalcState.remove(name);
+                m_precalcRemoved.add(name);
+            } else {
+                m_precalcState.put(name, state);
+                m_precalcRemoved.remove(name);
+            }
+        }
+    }
+
+    /**
+     * Returns the source of the last added name mapping.<p>
      * 
      * @return the source name mapping
      */
@@ -167,7 +673,7 @@ public class OpenCmsTestResourceStorage {
     }
 
     /**
-     * Returns the target name mapping.<p>
+     * Returns the target of the last added name mapping.<p>
      * 
      * @return the the target name mapping
      */
@@ -177,13 +683,68 @@ public class OpenCmsTestResourceStorage {
     }
 
     /**
-     * Sets the mapping for resourcenames.<p>
+     * Sets the mode used to capture the content of files added after this call.<p>
+     * 
+     * Use {@link OpenCmsTestResourceStorageEntry.ContentMode#HASH} or 
+     * {@link OpenCmsTestResourceStorageEntry.ContentMode#HASH_SPILL} for large subtrees 
+     * to avoid keeping all content on the heap.<p>
+     *
+     * @param contentMode the content capture mode
+     */
+    public void setContentMode(OpenCmsTestResourceStorageEntry.ContentMode contentMode) {
+
+        m_contentMode = contentMode;
+    }
+
+    /**
+     * Sets the timer recording the captures of this storage.<p>
+     * 
+     * @param lifecycleTimer the timer, or <code>null</code> to not time the captures
+     */
+    public void setLifecycleTimer(OpenCmsTestLifecycleTimer lifecycleTimer) {
+
+        m_lifecycleTimer = lifecycleTimer;
+    }
+
+    /**
+     * Sets the folder spilled content is written to.<p>
+     *
+     * @param spillFolder the folder, or <code>null</code> to use a folder below <code>java.io.tmpdir</code>
+     */
+    public void setContentSpillFolder(File spillFolder) {
+
+        m_contentSpillFolder = spillFolder;
+    }
+
+    /**
+     * Sets the mapping for resourcenames, replacing all existing mappings.<p>
+     *
+     * @param source the source resource name
+     * @param target the target resource name
+     */
+    public synchronized void setMapping(String source, String target) {
+
+        m_mapping.clear();
+        m_mapping.addRule(source, target);
+        m_sourceNameMapping = source;
+        m_targetNameMapping = target;
+    }
+
+    /**
+     * Adds a mapping for resourcenames, keeping the existing mappings.<p>
+     * 
+     * If several mappings match a resource name, the mapping with the longest source wins.
+     * The target is mapped through the existing mappings first, so a sequence of moves 
+     * can be described by adding one mapping per move.<p>
      *
      * @param source the source resource name
      * @param target the target resource name
+     * 
+     * @see OpenCmsTestResourceNameMapping#addChainedRule(String, String)
      */
-    public void setMapping(String source, String target) {
+    public synchronized void addMapping(String source, String target) {
 
+        m_mapping.addChainedRule(source, target);
         m_sourceNameMapping = source;
         m_targetNameMapping = target;
     }
@@ -191,8 +752,9 @@ public class OpenCmsTestResourceStorage {
     /**
      * Resets the mapping for resourcenames.<p>
      */
-    public void resetMapping() {
+    public synchronized void resetMapping() {
 
+        m_mapping.clear();
         m_sourceNameMapping = null;
         m_targetNameMapping = null;
     }
@@ -202,41 +764,56 @@ public class OpenCmsTestResourceStorage {
      * 
      * This is required to find resources in the resource storage afer their path in the vfs
      * has changed (e.g. after a copy operation).<p>
+     * 
+     * Source prefixes are matched on path segment boundaries.<p>
      *
      * @param resourceName the resource name to map
      * @return mapped resource name
      */
     public String mapResourcename(String resourceName) {
 
-        // only modify the name if we have set some kind of mapping
-        if ((m_sourceNameMapping != null) && (m_targetNameMapping != null)) {
-            // check if the resourcename starts with the source map name
-            if (resourceName.startsWith(m_sourceNameMapping)) {
-                // exchange the prefix with the target map name
-                resourceName = m_targetNameMapping + resourceName.substring(m_sourceNameMapping.length());
-            }
-        }
-        return resourceName;
+        return m_mapping.map(resourceName);
     }
 
     /**
      * Precalculates the state of a resource after an operation based on its state before 
      * the operation is excecuted.<p>
      * 
-     * The following states are precalculated:
+     * The following states are precalculated for a modification, a touch or a move:
      * <ul>
      * <li>Unchanged -> Changed</li>
      * <li>Changed -> Changed</li>
      * <li>New -> New</li>
      * <li>Deleted -> Deleted</li>
      * </ul>
-     * @param res the resource 
-     * @return new precalculated state
+     * 
+     * Copies are always new. A delete marks all resources as deleted, except new resources, 
+     * which are removed. An undelete makes deleted resources changed. A publish makes all 
+     * resources unchanged, except deleted resources, which are removed.<p>
+     * 
+     * @param operation the operation
+     * @param state the state of the resource
+     * @return new precalculated state, or <code>null</code> if the resource is removed by the operation
      */
-    private CmsResourceState preCalculateState(CmsResource res) {
-
+    private CmsResourceState preCalculateState(Operation operation, CmsResourceState state) {
+
+        switch (operation) {
+            case COPY_AS_NEW:
+            case COPY_AS_SIBLING:
+                return CmsResource.STATE_NEW;
+            case DELETE:
+                return state.isNew() ? null : CmsResource.STATE_DELETED;
+            case UNDELETE:
+                return state.isDeleted() ? CmsResource.STATE_CHANGED : state;
+            case PUBLISH:
+                return state.isDeleted() ? null : CmsResource.STATE_UNCHANGED;
+            case MODIFY:
+            case MOVE:
+            case TOUCH:
+            default:
+                // continue below
+        }
         CmsResourceState newState = CmsResource.STATE_UNCHANGED;
-        CmsResourceState state = res.getState();
         if (state.isUnchanged()) {
             newState = CmsResource.STATE_CHANGED;
         } else if (state.isChanged()) {
@@ -250,4 +827,39 @@ public class OpenCmsTestResourceStorage {
         }
         return newState;
     }
-}
\ No newline at end of file
+
+    /**
+     * Returns the smaller of two candidate sets.<p>
+     * 
+     * @param candidates the current candidates, or <code>null</code> if there are none yet
+     * @param other the other candidates
+     * @return the smaller candidate set
+     */
+    private Collection<String> smaller(Collection<String> candidates, Collection<String> other) {
+
+        if ((candidates == null) || (other.size() < candidates.size())) {
+            return other;
+        }
+        return candidates;
+    }
+
+    /**
+     * Reads a subtree with a single <code>readResources</code> call.<p>
+     * 
+     * @param cms the CmsObject 
+     * @param rootPath the site path of the subtree root folder
+     * @param filter the filter for the resources to read
+     * @return the subtree root followed by all resources below it
+     * @throws CmsException if something goes wrong
+     */
+    static List<CmsResource> readSubtree(CmsObject cms, String rootPath, CmsResourceFilter filter)
+    throws CmsException {
+
+        List<CmsResource> resources = new ArrayList<CmsResource>();
+        resources.add(cms.readResource(rootPath, filter));
+        if (resources.get(0).isFolder()) {
+            resources.addAll(cms.readResources(rootPath, filter, true));
+        }
+        return resources;
+    }
+}
@@ -0,0 +1,635 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.db.CmsResourceState;
+import org.opencms.file.CmsObject;
+import org.opencms.file.CmsProperty;
+import org.opencms.file.CmsResource;
+import org.opencms.file.CmsResourceFilter;
+import org.opencms.lock.CmsLock;
+import org.opencms.main.CmsException;
+import org.opencms.security.CmsAccessControlEntry;
+import org.opencms.security.CmsAccessControlList;
+import org.opencms.security.CmsPermissionSetCustom;
+import org.opencms.util.CmsUUID;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares a resource storage attribute by attribute with the current VFS or with another storage.<p>
+ *
+ * Resource names are mapped to the names in the expected storage with
+ * {@link OpenCmsTestResourceStorage#mapResourcename(String)}. Attributes can be ignored globally
+ * or for all resources below a path prefix. The entries are compared in parallel.<p>
+ *
+ * @see OpenCmsTestResourceStorageDiff
+ */
+public class OpenCmsTestResourceStorageComparator {
+
+    /**
+     * The attributes of a storage entry that are compared.<p>
+     */
+    public static enum Attribute {
+
+        /** The access control entries. */
+        ACCESS_CONTROL_ENTRIES,
+
+        /** The access control list. */
+        ACCESS_CONTROL_LIST,
+
+        /** The content. */
+        CONTENTS,
+
+        /** The content date. */
+        DATE_CONTENT,
+
+        /** The creation date. */
+        DATE_CREATED,
+
+        /** The expiration date. */
+        DATE_EXPIRED,
+
+        /** The date of the last modification. */
+        DATE_LAST_MODIFIED,
+
+        /** The release date. */
+        DATE_RELEASED,
+
+        /** The flags. */
+        FLAGS,
+
+        /** The length of the content. */
+        LENGTH,
+
+        /** The lock state. */
+        LOCK,
+
+        /** The name. */
+        NAME,
+
+        /** The project of the last modification. */
+        PROJECT_LAST_MODIFIED,
+
+        /** The properties. */
+        PROPERTIES,
+
+        /** The resource id. */
+        RESOURCE_ID,
+
+        /** The number of siblings. */
+        SIBLING_COUNT,
+
+        /** The state. */
+        STATE,
+
+        /** The structure id. */
+        STRUCTURE_ID,
+
+        /** The touched flag. */
+        TOUCHED,
+
+        /** The type id. */
+        TYPE,
+
+        /** The user who created the resource. */
+        USER_CREATED,
+
+        /** The user who modified the resource last. */
+        USER_LAST_MODIFIED
+    }
+
+    /** The minimum number of entries per compare task. */
+    private static final int MIN_ENTRIES_PER_TASK = 256;
+
+    /** The ignored path prefixes per attribute, an empty prefix ignores the attribute for all resources. */
+    private Map<Attribute, List<String>> m_ignored;
+
+    /** The sampler selecting the resources to compare, or null to compare all resources. */
+    private OpenCmsTestResourceStorageSampler m_sampler;
+
+    /** The number of compare threads. */
+    private int m_threads;
+
+    /** Indicates if states are compared with the precalculated states of the expected storage. */
+    private boolean m_usePreCalculatedStates;
+
+    /**
+     * Creates a new comparator that compares all attributes.<p>
+     */
+    public OpenCmsTestResourceStorageComparator() {
+
+        m_ignored = new EnumMap<Attribute, List<String>>(Attribute.class);
+        m_threads = Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Compares the entries of two storages.<p>
+     *
+     * Each resource name of the actual storage is mapped to the expected storage with
+     * {@link OpenCmsTestResourceStorage#mapResourcename(String)}.<p>
+     *
+     * @param expected the expected storage
+     * @param actual the actual storage
+     * @return the diff report
+     */
+    public OpenCmsTestResourceStorageDiff compare(
+        OpenCmsTestResourceStorage expected,
+        OpenCmsTestResourceStorage actual) {
+
+        return compare(expected, actual, null);
+    }
+
+    /**
+     * Compares a subtree of the current VFS with the entries of a storage.<p>
+     *
+     * The subtree is captured into a temporary storage keeping only content hashes.
+     * Only stored resources below the mapped root path are reported as missing.<p>
+     *
+     * @param cms the CmsObject
+     * @param rootPath the site path of the subtree root folder
+     * @param filter the filter for the resources to compare
+     * @param expected the expected storage
+     * @return the diff report
+     * @throws CmsException if reading the VFS fails
+     */
+    public OpenCmsTestResourceStorageDiff compare(
+        CmsObject cms,
+        String rootPath,
+        CmsResourceFilter filter,
+        OpenCmsTestResourceStorage expected)
+    throws CmsException {
+
+        OpenCmsTestResourceStorage actual = new OpenCmsTestResourceStorage(
+            expected.getName() + ".vfs",
+            expected.getInterner(),
+            expected.getBlobStore());
+        actual.setContentMode(OpenCmsTestResourceStorageEntry.ContentMode.HASH);
+        actual.setLifecycleTimer(expected.getLifecycleTimer());
+        try {
+            if (m_sampler == null) {
+                actual.addSubtree(cms, rootPath, filter, m_threads);
+            } else {
+                actual.addResources(cms, selectSample(cms, rootPath, filter, expected), m_threads);
+            }
+            return compare(expected, actual, expected.mapResourcename(rootPath));
+        } finally {
+            actual.clear();
+        }
+    }
+
+    /**
+     * Returns the sampler selecting the resources to compare.<p>
+     *
+     * @return the sampler, or <code>null</code> if all resources are compared
+     */
+    public OpenCmsTestResourceStorageSampler getSampler() {
+
+        return m_sampler;
+    }
+
+    /**
+     * Sets the sampler selecting the resources to compare when comparing the VFS with a storage.<p>
+     *
+     * Use the sampler the expected storage was captured with. All resources of the expected
+     * storage are compared, resources not in the expected storage are only reported as added
+     * if they are selected by the sample. The coverage of the comparison is available from
+     * the sampler afterwards.<p>
+     *
+     * @param sampler the sampler, or <code>null</code> to compare all resources
+     */
+    public void setSampler(OpenCmsTestResourceStorageSampler sampler) {
+
+        m_sampler = sampler;
+    }
+
+    /**
+     * Returns if states are compared with the precalculated states of the expected storage.<p>
+     *
+     * @return <code>true</code> if states are compared with the precalculated states
+     */
+    public boolean isUsePreCalculatedStates() {
+
+        return m_usePreCalculatedStates;
+    }
+
+    /**
+     * Sets if states are compared with the precalculated states of the expected storage.<p>
+     *
+     * Resources removed by the precalculated operation are then not reported as missing, but
+     * as added if they still exist.<p>
+     *
+     * @param usePreCalculatedStates <code>true</code> to compare with the precalculated states
+     *
+     * @see OpenCmsTestResourceStorage#preCalculateStates(OpenCmsTestResourceStorage.Operation)
+     */
+    public void setUsePreCalculatedStates(boolean usePreCalculatedStates) {
+
+        m_usePreCalculatedStates = usePreCalculatedStates;
+    }
+
+    /**
+     * Returns the number of compare threads.<p>
+     *
+     * @return the number of compare threads
+     */
+    public int getThreads() {
+
+        return m_threads;
+    }
+
+    /**
+     * Ignores an attribute for all resources.<p>
+     *
+     * @param attribute the attribute to ignore
+     */
+    public void ignore(Attribute attribute) {
+
+        ignore(attribute, "");
+    }
+
+    /**
+     * Ignores an attribute for all resources with a name starting with the given prefix.<p>
+     *
+     * @param attribute the attribute to ignore
+     * @param resourceNamePrefix the prefix of the (actual) resource names
+     */
+    public void ignore(Attribute attribute, String resourceNamePrefix) {
+
+        List<String> prefixes = m_ignored.get(attribute);
+        if (prefixes == null) {
+            prefixes = new ArrayList<String>();
+            m_ignored.put(attribute, prefixes);
+        }
+        prefixes.add(resourceNamePrefix);
+    }
+
+    /**
+     * Checks if an attribute is ignored for a resource.<p>
+     *
+     * @param attribute the attribute
+     * @param resourceName the (actual) resource name
+     * @return <code>true</code> if the attribute is ignored for the resource
+     */
+    public boolean isIgnored(Attribute attribute, String resourceName) {
+
+        List<String> prefixes = m_ignored.get(attribute);
+        if (prefixes != null) {
+            for (String prefix : prefixes) {
+                if (resourceName.startsWith(prefix)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sets the number of compare threads.<p>
+     *
+     * @param threads the number of compare threads
+     */
+    public void setThreads(int threads) {
+
+        m_threads = Math.max(1, threads);
+    }
+
+    /**
+     * Compares a single entry attribute by attribute.<p>
+     *
+     * @param resourceName the (actual) resource name
+     * @param storedName the name in the expected storage
+     * @param expected the expected entry
+     * @param actual the actual entry
+     * @param expectedState the expected state if it differs from the state of the expected entry, or <code>null</code>
+     * @param result the list to add the differences to
+     */
+    protected void compareEntry(
+        String resourceName,
+        String storedName,
+        OpenCmsTestResourceStorageEntry expected,
+        OpenCmsTestResourceStorageEntry actual,
+        CmsResourceState expectedState,
+        List<OpenCmsTestResourceStorageDiff.Difference> result) {
+
+        for (Attribute attribute : Attribute.values()) {
+            if (isIgnored(attribute, resourceName)) {
+                continue;
+            }
+            if (attribute == Attribute.CONTENTS) {
+                // content hashes are always available, so the content itself is never compared
+                byte[] expectedHash = expected.getContentHash();
+                byte[] actualHash = actual.getContentHash();
+                if (!Arrays.equals(expectedHash, actualHash)) {
+                    result.add(new OpenCmsTestResourceStorageDiff.Difference(
+                        resourceName,
+                        storedName,
+                        attribute,
+                        expectedHash == null ? null : OpenCmsTestResourceStorageEntry.toHexString(expectedHash),
+                        actualHash == null ? null : OpenCmsTestResourceStorageEntry.toHexString(actualHash)));
+                }
+                continue;
+            }
+            Object expectedValue = getValue(expected, attribute);
+            if ((attribute == Attribute.STATE) && (expectedState != null)) {
+                expectedValue = expectedState;
+            }
+            Object actualValue = getValue(actual, attribute);
+            if ((expectedValue == null) ? (actualValue != null) : !expectedValue.equals(actualValue)) {
+                result.add(new OpenCmsTestResourceStorageDiff.Difference(
+                    resourceName,
+                    storedName,
+                    attribute,
+                    expectedValue,
+                    actualValue));
+            }
+        }
+    }
+
+    /**
+     * Returns the comparable value of an attribute of an entry.<p>
+     *
+     * Complex attributes like properties or access control entries are converted into sorted
+     * collections of strings, so that they can be compared with <code>equals</code>.<p>
+     *
+     * @param entry the entry
+     * @param attribute the attribute
+     * @return the comparable value
+     */
+    protected Object getValue(OpenCmsTestResourceStorageEntry entry, Attribute attribute) {
+
+        switch (attribute) {
+            case ACCESS_CONTROL_ENTRIES:
+                if (entry.getAccessControlEntries() == null) {
+                    return null;
+                }
+                Set<String> aces = new TreeSet<String>();
+                for (CmsAccessControlEntry ace : entry.getAccessControlEntries()) {
+                    // the resource id is left out, it changes when a resource is copied
+                    aces.add(ace.getPrincipal()
+                        + ":"
+                        + ace.getAllowedPermissions()
+                        + ":"
+                        + ace.getDeniedPermissions()
+                        + ":"
+                        + ace.getFlags());
+                }
+                return aces;
+            case ACCESS_CONTROL_LIST:
+                CmsAccessControlList acl = entry.getAccessControlList();
+                if (acl == null) {
+                    return null;
+                }
+                Map<String, String> permissions = new TreeMap<String, String>();
+                for (Map.Entry<CmsUUID, CmsPermissionSetCustom> e : acl.getPermissionMap().entrySet()) {
+                    permissions.put(String.valueOf(e.getKey()), e.getValue().getPermissionString());
+                }
+                return permissions;
+            case DATE_CONTENT:
+                return Long.valueOf(entry.getDateContent());
+            case DATE_CREATED:
+                return Long.valueOf(entry.getDateCreated());
+            case DATE_EXPIRED:
+                return Long.valueOf(entry.getDateExpired());
+            case DATE_LAST_MODIFIED:
+                return Long.valueOf(entry.getDateLastModified());
+            case DATE_RELEASED:
+                return Long.valueOf(entry.getDateReleased());
+            case FLAGS:
+                return Integer.valueOf(entry.getFlags());
+            case LENGTH:
+                return Integer.valueOf(entry.getLength());
+            case LOCK:
+                CmsLock lock = entry.getLock();
+                if (lock == null) {
+                    return null;
+                }
+                return lock.getType() + ":" + lock.getUserId() + ":" + lock.getProjectId();
+            case NAME:
+                return entry.getName();
+            case PROJECT_LAST_MODIFIED:
+                return entry.getProjectLastModified();
+            case PROPERTIES:
+                if (entry.getProperties() == null) {
+                    return null;
+                }
+                Map<String, String> properties = new TreeMap<String, String>();
+                for (CmsProperty property : entry.getProperties()) {
+                    properties.put(
+                        property.getName(),
+                        property.getStructureValue() + "|" + property.getResourceValue());
+                }
+                return properties;
+            case RESOURCE_ID:
+                return entry.getResourceId();
+            case SIBLING_COUNT:
+                return Integer.valueOf(entry.getSiblingCount());
+            case STATE:
+                return entry.getState();
+            case STRUCTURE_ID:
+                return entry.getStructureId();
+            case TOUCHED:
+                return Boolean.valueOf(entry.isTouched());
+            case TYPE:
+                return Integer.valueOf(entry.getType());
+            case USER_CREATED:
+                return entry.getUserCreated();
+            case USER_LAST_MODIFIED:
+                return entry.getUserLastModified();
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * Compares the entries of two storages.<p>
+     *
+     * @param expected the expected storage
+     * @param actual the actual storage
+     * @param missingPrefix if not <code>null</code>, only stored names with this prefix are reported as missing
+     * @return the diff report
+     */
+    private OpenCmsTestResourceStorageDiff compare(
+        final OpenCmsTestResourceStorage expected,
+        final OpenCmsTestResourceStorage actual,
+        String missingPrefix) {
+
+        List<String> names = new ArrayList<String>(actual.getResourceNames());
+        List<OpenCmsTestResourceStorageDiff.Difference> differences = new ArrayList<OpenCmsTestResourceStorageDiff.Difference>();
+        List<String> added = new ArrayList<String>();
+        Set<String> matched = new HashSet<String>(names.size());
+        for (String name : names) {
+            String storedName = expected.mapResourcename(name);
+            if (expected.getEntry(storedName) == null) {
+                added.add(name);
+            } else if (m_usePreCalculatedStates && expected.isPreCalculatedRemoved(name)) {
+                // the resource must not exist any more after the precalculated operation
+                added.add(name);
+                matched.add(storedName);
+            } else {
+                matched.add(storedName);
+            }
+        }
+        names.removeAll(added);
+
+        int tasks = Math.min(m_threads, (names.size() / MIN_ENTRIES_PER_TASK) + 1);
+        if (tasks <= 1) {
+            compareEntries(expected, actual, names, differences);
+        } else {
+            int chunk = (names.size() + tasks - 1) / tasks;
+            ExecutorService executor = Executors.newFixedThreadPool(tasks);
+            try {
+                List<Future<List<OpenCmsTestResourceStorageDiff.Difference>>> futures = new ArrayList<Future<List<OpenCmsTestResourceStorageDiff.Difference>>>();
+                for (int i = 0; i < names.size(); i += chunk) {
+                    final List<String> part = names.subList(i, Math.min(i + chunk, names.size()));
+                    futures.add(executor.submit(new Callable<List<OpenCmsTestResourceStorageDiff.Difference>>() {
+
+                        public List<OpenCmsTestResourceStorageDiff.Difference> call() {
+
+                            List<OpenCmsTestResourceStorageDiff.Difference> result = new ArrayList<OpenCmsTestResourceStorageDiff.Difference>();
+                            compareEntries(expected, actual, part, result);
+                            return result;
+                        }
+                    }));
+                }
+                for (Future<List<OpenCmsTestResourceStorageDiff.Difference>> future : futures) {
+                    differences.addAll(future.get());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RuntimeException(e);
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e.getCause());
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        List<String> missing = new ArrayList<String>();
+        for (String storedName : new TreeSet<String>(expected.getResourceNames())) {
+            if (matched.contains(storedName) || ((missingPrefix != null) && !storedName.startsWith(missingPrefix))) {
+                continue;
+            }
+            if (m_usePreCalculatedStates && (expected.getStoredPreCalculatedState(storedName) == null)) {
+                // the resource was removed by the precalculated operation
+                continue;
+            }
+            missing.add(storedName);
+        }
+        // the entries were compared in map order and in parallel, a stable sort keeps the attribute order
+        Collections.sort(differences, new Comparator<OpenCmsTestResourceStorageDiff.Difference>() {
+
+            public int compare(
+                OpenCmsTestResourceStorageDiff.Difference d1,
+                OpenCmsTestResourceStorageDiff.Difference d2) {
+
+                return d1.getResourceName().compareTo(d2.getResourceName());
+            }
+        });
+        Collections.sort(added);
+        return new OpenCmsTestResourceStorageDiff(differences, missing, added, names.size());
+    }
+
+    /**
+     * Compares the entries with the given names.<p>
+     *
+     * Entries with equal entry hashes are skipped, unless a precalculated state is expected.<p>
+     *
+     * @param expected the expected storage
+     * @param actual the actual storage
+     * @param names the (actual) names of the entries to compare
+     * @param result the list to add the differences to
+     */
+    private void compareEntries(
+        OpenCmsTestResourceStorage expected,
+        OpenCmsTestResourceStorage actual,
+        List<String> names,
+        List<OpenCmsTestResourceStorageDiff.Difference> result) {
+
+        for (String name : names) {
+            String storedName = expected.mapResourcename(name);
+            CmsResourceState expectedState = m_usePreCalculatedStates
+            ? expected.getStoredPreCalculatedState(storedName)
+            : null;
+            OpenCmsTestResourceStorageEntry expectedEntry = expected.getEntry(storedName);
+            OpenCmsTestResourceStorageEntry actualEntry = actual.getEntry(name);
+            if (((expectedState == null) || expectedState.equals(expectedEntry.getState()))
+                && Arrays.equals(expectedEntry.getEntryHash(), actualEntry.getEntryHash())) {
+                continue;
+            }
+            compareEntry(name, storedName, expectedEntry, actualEntry, expectedState, result);
+        }
+    }
+
+    /**
+     * Selects the resources of a subtree to compare in sampled mode.<p>
+     *
+     * @param cms the CmsObject
+     * @param rootPath the site path of the subtree root folder
+     * @param filter the filter for the resources to compare
+     * @param expected the expected storage
+     * @return the resources stored in the expected storage or selected by the sampler
+     * @throws CmsException if reading the VFS fails
+     */
+    private List<CmsResource> selectSample(
+        CmsObject cms,
+        String rootPath,
+        CmsResourceFilter filter,
+        OpenCmsTestResourceStorage expected)
+    throws CmsException {
+
+        Map<String, CmsResource> resources = new HashMap<String, CmsResource>();
+        for (CmsResource resource : OpenCmsTestResourceStorage.readSubtree(cms, rootPath, filter)) {
+            resources.put(expected.mapResourcename(cms.getSitePath(resource)), resource);
+        }
+        Set<String> selected = new HashSet<String>(m_sampler.select(cms, resources));
+        List<CmsResource> result = new ArrayList<CmsResource>(selected.size());
+        for (Map.Entry<String, CmsResource> entry : resources.entrySet()) {
+            if (selected.contains(entry.getKey()) || expected.getEntry(entry.getKey()) != null) {
+                result.add(entry.getValue());
+            }
+        }
+        return result;
+    }
+}
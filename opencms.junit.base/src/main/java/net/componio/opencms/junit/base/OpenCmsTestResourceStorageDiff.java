@@ -0,0 +1,291 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The result of comparing a resource storage with the VFS or with another storage.<p>
+ *
+ * @see OpenCmsTestResourceStorageComparator
+ */
+public class OpenCmsTestResourceStorageDiff {
+
+    /**
+     * A single attribute difference of a resource.<p>
+     */
+    public static class Difference {
+
+        /** The compared attribute. */
+        private OpenCmsTestResourceStorageComparator.Attribute m_attribute;
+
+        /** The actual value. */
+        private Object m_actual;
+
+        /** The expected value. */
+        private Object m_expected;
+
+        /** The name of the resource. */
+        private String m_resourceName;
+
+        /** The name of the resource in the expected storage. */
+        private String m_storedName;
+
+        /**
+         * Creates a new difference.<p>
+         *
+         * @param resourceName the name of the resource
+         * @param storedName the name of the resource in the expected storage
+         * @param attribute the compared attribute
+         * @param expected the expected value
+         * @param actual the actual value
+         */
+        public Difference(
+            String resourceName,
+            String storedName,
+            OpenCmsTestResourceStorageComparator.Attribute attribute,
+            Object expected,
+            Object actual) {
+
+            m_resourceName = resourceName;
+            m_storedName = storedName;
+            m_attribute = attribute;
+            m_expected = expected;
+            m_actual = actual;
+        }
+
+        /**
+         * Returns the actual value.<p>
+         *
+         * @return the actual value
+         */
+        public Object getActual() {
+
+            return m_actual;
+        }
+
+        /**
+         * Returns the compared attribute.<p>
+         *
+         * @return the compared attribute
+         */
+        public OpenCmsTestResourceStorageComparator.Attribute getAttribute() {
+
+            return m_attribute;
+        }
+
+        /**
+         * Returns the expected value.<p>
+         *
+         * @return the expected value
+         */
+        public Object getExpected() {
+
+            return m_expected;
+        }
+
+        /**
+         * Returns the name of the resource.<p>
+         *
+         * @return the name of the resource
+         */
+        public String getResourceName() {
+
+            return m_resourceName;
+        }
+
+        /**
+         * Returns the name of the resource in the expected storage.<p>
+         *
+         * @return the name of the resource in the expected storage
+         */
+        public String getStoredName() {
+
+            return m_storedName;
+        }
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            StringBuffer result = new StringBuffer();
+            result.append(m_resourceName);
+            if (!m_resourceName.equals(m_storedName)) {
+                result.append(" (").append(m_storedName).append(")");
+            }
+            result.append(": ").append(m_attribute);
+            result.append(" expected <").append(m_expected).append(">");
+            result.append(" but was <").append(m_actual).append(">");
+            return result.toString();
+        }
+    }
+
+    /** The maximum number of lines written by {@link #toString()}. */
+    private static final int MAX_REPORT_LINES = 100;
+
+    /** The resources only found in the actual storage. */
+    private List<String> m_added;
+
+    /** The number of compared resources. */
+    private int m_compared;
+
+    /** The attribute differences. */
+    private List<Difference> m_differences;
+
+    /** The resources only found in the expected storage. */
+    private List<String> m_missing;
+
+    /**
+     * Creates a new diff report.<p>
+     *
+     * @param differences the attribute differences
+     * @param missing the resources only found in the expected storage
+     * @param added the resources only found in the actual storage
+     * @param compared the number of compared resources
+     */
+    public OpenCmsTestResourceStorageDiff(
+        List<Difference> differences,
+        List<String> missing,
+        List<String> added,
+        int compared) {
+
+        m_differences = Collections.unmodifiableList(differences);
+        m_missing = Collections.unmodifiableList(missing);
+        m_added = Collections.unmodifiableList(added);
+        m_compared = compared;
+    }
+
+    /**
+     * Returns the names of the resources only found in the actual storage or VFS.<p>
+     *
+     * @return the names of the resources only found in the actual storage or VFS
+     */
+    public List<String> getAdded() {
+
+        return m_added;
+    }
+
+    /**
+     * Returns the number of compared resources.<p>
+     *
+     * @return the number of compared resources
+     */
+    public int getComparedCount() {
+
+        return m_compared;
+    }
+
+    /**
+     * Returns all attribute differences.<p>
+     *
+     * @return all attribute differences
+     */
+    public List<Difference> getDifferences() {
+
+        return m_differences;
+    }
+
+    /**
+     * Returns the attribute differences of a single resource.<p>
+     *
+     * @param resourceName the name of the resource
+     * @return the attribute differences of the resource
+     */
+    public List<Difference> getDifferences(String resourceName) {
+
+        List<Difference> result = new ArrayList<Difference>();
+        for (Difference difference : m_differences) {
+            if (difference.getResourceName().equals(resourceName)) {
+                result.add(difference);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the names of the resources only found in the expected storage.<p>
+     *
+     * @return the names of the resources only found in the expected storage
+     */
+    public List<String> getMissing() {
+
+        return m_missing;
+    }
+
+    /**
+     * Returns <code>true</code> if no differences were found.<p>
+     *
+     * @return <code>true</code> if no differences were found
+     */
+    public boolean isEmpty() {
+
+        return m_differences.isEmpty() && m_missing.isEmpty() && m_added.isEmpty();
+    }
+
+    /**
+     * Returns a report of the differences, limited to the first lines.<p>
+     *
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+
+        StringBuffer result = new StringBuffer();
+        result.append("Compared ").append(m_compared).append(" resources: ");
+        result.append(m_differences.size()).append(" differences, ");
+        result.append(m_missing.size()).append(" missing, ");
+        result.append(m_added.size()).append(" added");
+        int lines = 0;
+        for (String name : m_missing) {
+            if (lines++ >= MAX_REPORT_LINES) {
+                break;
+            }
+            result.append("\n  missing: ").append(name);
+        }
+        for (String name : m_added) {
+            if (lines++ >= MAX_REPORT_LINES) {
+                break;
+            }
+            result.append("\n  added: ").append(name);
+        }
+        for (Difference difference : m_differences) {
+            if (lines++ >= MAX_REPORT_LINES) {
+                break;
+            }
+            result.append("\n  ").append(difference);
+        }
+        if (lines > MAX_REPORT_LINES) {
+            result.append("\n  ...");
+        }
+        return result.toString();
+    }
+}
@@ -29,18 +29,33 @@ package net.componio.opencms.junit.base;
 
 import org.opencms.db.CmsResourceState;
 import org.opencms.file.CmsObject;
+import org.opencms.file.CmsProject;
 import org.opencms.file.CmsProperty;
 import org.opencms.file.CmsResource;
-import org.opencms.file.CmsResourceFilter;
 import org.opencms.lock.CmsLock;
+import org.opencms.lock.CmsLockType;
 import org.opencms.main.CmsException;
 import org.opencms.security.CmsAccessControlEntry;
 import org.opencms.security.CmsAccessControlList;
+import org.opencms.security.CmsPermissionSetCustom;
+import org.opencms.util.CmsFileUtil;
 import org.opencms.util.CmsUUID;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 
 /**
  * A single entry of the OpenCmsTestResourceStorage.<p>
@@ -48,6 +63,24 @@ import java.util.List;
  */
 public class OpenCmsTestResourceStorageEntry {
 
+    /**
+     * The modes for capturing the content of a file resource.<p>
+     */
+    public static enum ContentMode {
+
+        /** The full content is kept on the heap. */
+        FULL,
+
+        /** Only the length and the content hash are kept, the content is not retained. */
+        HASH,
+
+        /** The length and the content hash are kept, the content is written to the spill folder. */
+        HASH_SPILL
+    }
+
+    /** The digest algorithm used for content hashes. */
+    public static final String CONTENT_HASH_ALGORITHM = "SHA-256";
+
     /** The size of the content. */
     protected int m_length;
 
@@ -57,8 +90,20 @@ public class OpenCmsTestResourceStorageEntry {
     /** The access control list. */
     private CmsAccessControlList m_accessControlList;
 
-    /** The content of the resource. If the resource is a folder, the content is null. */
-    private byte[] m_contents;
+    /** The blob store holding the content once the entry was added to a storage. */
+    private volatile OpenCmsTestBlobStore m_blobStore;
+
+    /** The content of the resource, until it is shared. If the resource is a folder, the content is null. */
+    private volatile byte[] m_contents;
+
+    /** The hash of the content, calculated on first use in FULL mode. If the resource is a folder, the hash is null. */
+    private volatile byte[] m_contentHash;
+
+    /** The mode the content was captured with. */
+    private ContentMode m_contentMode;
+
+    /** The file the content was spilled to, or null if the content was not spilled. */
+    private File m_contentFile;
 
     /** The content date of this resource. */
     private long m_dateContent;
@@ -75,6 +120,9 @@ public class OpenCmsTestResourceStorageEntry {
     /** The release date of this resource. */
     private long m_dateReleased;
 
+    /** The hash over all attributes of this entry, calculated on first use. */
+    private volatile byte[] m_entryHash;
+
     /** The flags of this resource ( not used yet; the Accessflags are stored in m_accessFlags). */
     private int m_flags;
 
@@ -105,6 +153,9 @@ public class OpenCmsTestResourceStorageEntry {
     /** The state of this resource. */
     private CmsResourceState m_state;
 
+    /** The number of storages holding this entry. */
+    private int m_storageReferences;
+
     /** The ID of the structure database record. */
     private CmsUUID m_structureId;
 
@@ -136,6 +187,27 @@ public class OpenCmsTestResourceStorageEntry {
     public OpenCmsTestResourceStorageEntry(CmsObject cms, String resourceName, CmsResource res)
     throws CmsException {
 
+        this(cms, resourceName, res, ContentMode.FULL, null);
+    }
+
+    /**
+     * Creates a new OpenCmsTestResourceStorageEntry with the given content capture mode.<p>
+     * 
+     * @param cms current CmsObject
+     * @param resourceName the complete name of the resource
+     * @param res the CmsResource to store.
+     * @param contentMode the mode used to capture the content of files
+     * @param spillFolder the folder to write the content to in {@link ContentMode#HASH_SPILL} mode
+     * @throws CmsException if something goes wrong 
+     */
+    public OpenCmsTestResourceStorageEntry(
+        CmsObject cms,
+        String resourceName,
+        CmsResource res,
+        ContentMode contentMode,
+        File spillFolder)
+    throws CmsException {
+
         m_dateContent = res.getDateContent();
         m_dateCreated = res.getDateCreated();
         m_dateLastModified = res.getDateLastModified();
@@ -154,14 +226,23 @@ public class OpenCmsTestResourceStorageEntry {
         m_userCreated = res.getUserCreated();
         m_userLastModified = res.getUserLastModified();
         m_lockstate = cms.getLock(res);
+        m_contentMode = contentMode;
         if (res.isFile()) {
-            m_contents = cms.readFile(resourceName, CmsResourceFilter.ALL).getContents();
+            byte[] contents = cms.readFile(res).getContents();
+            if (contentMode == ContentMode.FULL) {
+                m_contents = contents;
+            } else {
+                m_contentHash = calculateContentHash(contents);
+                if (contentMode == ContentMode.HASH_SPILL) {
+                    m_contentFile = spillContents(spillFolder, m_contentHash, contents);
+                }
+            }
         } else {
             m_contents = null;
         }
 
         m_properties = new ArrayList<CmsProperty>();
-        List<CmsProperty> properties = cms.readPropertyObjects(resourceName, false);
+        List<CmsProperty> properties = cms.readPropertyObjects(res, false);
         Iterator<CmsProperty> i = properties.iterator();
         while (i.hasNext()) {
             CmsProperty prop = i.next();
@@ -174,6 +255,8 @@ public class OpenCmsTestResourceStorageEntry {
 
     /**
      * Returns the access control entries of the resource.<p>
+     * 
+     * Entries added to a storage share equal lists, which are unmodifiable.<p>
      *
      * @return  the access control entries of the resource
      */
@@ -184,6 +267,8 @@ public class OpenCmsTestResourceStorageEntry {
 
     /**
      * Returns the access control list of the resource.<p>
+     * 
+     * Entries added to a storage share equal access control lists, which must not be modified.<p>
      *
      * @return  the access control list of the resource
      */
@@ -193,13 +278,537 @@ public class OpenCmsTestResourceStorageEntry {
     }
 
     /**
-     * Returns the date of the creation of this resource.<p>
+     * Creates a new OpenCmsTestResourceStorageEntry from a serialized record.<p>
+     * 
+     * @param in the reader for the record
+     * @throws IOException if reading the record fails
+     * 
+     * @see #write(OpenCmsTestResourceStorageSerializer.RecordWriter)
+     */
+    OpenCmsTestResourceStorageEntry(OpenCmsTestResourceStorageSerializer.RecordReader in)
+    throws IOException {
+
+        m_name = in.readString();
+        m_type = in.readInt();
+        m_flags = in.readInt();
+        m_state = CmsResourceState.valueOf(in.readVarInt());
+        m_siblingCount = in.readVarInt();
+        m_length = in.readInt();
+        m_loaderId = in.readInt();
+        m_isTouched = in.readBoolean();
+        m_dateContent = in.readLong();
+        m_dateCreated = in.readLong();
+        m_dateLastModified = in.readLong();
+        m_dateReleased = in.readLong();
+        m_dateExpired = in.readLong();
+        m_structureId = in.readUUID();
+        m_resourceId = in.readUUID();
+        m_projectLastModified = in.readUUID();
+        m_userCreated = in.readUUID();
+        m_userLastModified = in.readUUID();
+
+        if (in.readBoolean()) {
+            String lockedName = in.readString();
+            CmsLockType lockType = CmsLockType.valueOf(in.readVarInt());
+            CmsUUID lockUser = in.readUUID();
+            CmsUUID lockProject = in.readUUID();
+            if (lockType.isUnlocked()) {
+                m_lockstate = CmsLock.getNullLock();
+            } else {
+                // only the project id of the lock is known, which is all a lock compares
+                m_lockstate = new CmsLock(lockedName, lockUser, new CmsProject(
+                    lockProject,
+                    "",
+                    "",
+                    null,
+                    null,
+                    null,
+                    0,
+                    0,
+                    CmsProject.PROJECT_TYPE_NORMAL), lockType);
+            }
+        }
+
+        int mode = in.readVarInt() - 1;
+        m_contentMode = mode < 0 ? null : ContentMode.values()[mode];
+        m_contentHash = in.readBytes();
+        // spilled content is embedded, so the storage can be loaded on any machine
+        m_contents = in.readBytes();
+        String contentFile = in.readString();
+        m_contentFile = (m_contents != null) || (contentFile == null) ? null : new File(contentFile);
+
+        int count = in.readVarInt() - 1;
+        if (count >= 0) {
+            m_properties = new ArrayList<CmsProperty>(count);
+            for (int i = 0; i < count; i++) {
+                m_properties.add(new CmsProperty(in.readString(), in.readString(), in.readString()));
+            }
+        }
+        count = in.readVarInt() - 1;
+        if (count >= 0) {
+            m_accessControlList = new CmsAccessControlList();
+            for (int i = 0; i < count; i++) {
+                CmsUUID principal = in.readUUID();
+                int allowed = in.readInt();
+                int denied = in.readInt();
+                m_accessControlList.add(new CmsAccessControlEntry(null, principal, allowed, denied, 0));
+            }
+        }
+        count = in.readVarInt() - 1;
+        if (count >= 0) {
+            m_accessControlEntries = new ArrayList<CmsAccessControlEntry>(count);
+            for (int i = 0; i < count; i++) {
+                m_accessControlEntries.add(new CmsAccessControlEntry(
+                    in.readUUID(),
+                    in.readUUID(),
+                    in.readInt(),
+                    in.readInt(),
+                    in.readInt()));
+            }
+        }
+    }
+
+    /**
+     * Calculates the hash of the given content.<p>
+     * 
+     * @param contents the content to calculate the hash for
+     * @return the hash of the content
+     */
+    public static byte[] calculateContentHash(byte[] contents) {
+
+        try {
+            return MessageDigest.getInstance(CONTENT_HASH_ALGORITHM).digest(contents);
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Writes a byte array which may be <code>null</code> to the entry hash input.<p>
+     * 
+     * @param out the entry hash input
+     * @param value the value to write
+     * @throws IOException if writing fails
+     */
+    private static void writeHashInput(DataOutputStream out, byte[] value) throws IOException {
+
+        out.writeInt(value == null ? -1 : value.length);
+        if (value != null) {
+            out.write(value);
+        }
+    }
+
+    /**
+     * Writes a string which may be <code>null</code> to the entry hash input.<p>
+     * 
+     * @param out the entry hash input
+     * @param value the value to write
+     * @throws IOException if writing fails
+     */
+    private static void writeHashInput(DataOutputStream out, String value) throws IOException {
+
+        writeHashInput(out, value == null ? null : value.getBytes("UTF-8"));
+    }
+
+    /**
+     * Writes a UUID which may be <code>null</code> to the entry hash input.<p>
+     * 
+     * @param out the entry hash input
+     * @param value the value to write
+     * @throws IOException if writing fails
+     */
+    private static void writeHashInput(DataOutputStream out, CmsUUID value) throws IOException {
+
+        writeHashInput(out, value == null ? null : value.toByteArray());
+    }
+
+    /**
+     * Returns a hash over all compared attributes of this entry, calculated on first use.<p>
+     * 
+     * Entries with equal hashes have equal attributes, so a comparison can skip them.
+     * The resource ids of the access control entries are left out like in the comparison.<p>
+     * 
+     * @return the hash over all attributes of this entry
+     */
+    byte[] getEntryHash() {
+
+        byte[] hash = m_entryHash;
+        if (hash != null) {
+            return hash;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            writeHashInput(out, m_name);
+            out.writeInt(m_type);
+            out.writeInt(m_flags);
+            out.writeInt(m_state == null ? -1 : m_state.getState());
+            out.writeInt(m_siblingCount);
+            out.writeInt(m_length);
+            out.writeInt(m_loaderId);
+            out.writeBoolean(m_isTouched);
+            out.writeLong(m_dateContent);
+            out.writeLong(m_dateCreated);
+            out.writeLong(m_dateLastModified);
+            out.writeLong(m_dateReleased);
+            out.writeLong(m_dateExpired);
+            writeHashInput(out, m_structureId);
+            writeHashInput(out, m_resourceId);
+            writeHashInput(out, m_projectLastModified);
+            writeHashInput(out, m_userCreated);
+            writeHashInput(out, m_userLastModified);
+            out.writeBoolean(m_lockstate != null);
+            if (m_lockstate != null) {
+                out.writeInt(m_lockstate.getType().getMode());
+                writeHashInput(out, m_lockstate.getUserId());
+                writeHashInput(out, m_lockstate.getProjectId());
+            }
+            writeHashInput(out, getContentHash());
+            out.writeInt(m_properties == null ? -1 : m_properties.size());
+            if (m_properties != null) {
+                for (CmsProperty property : m_properties) {
+                    writeHashInput(out, property.getName());
+                    writeHashInput(out, property.getStructureValue());
+                    writeHashInput(out, property.getResourceValue());
+                }
+            }
+            out.writeInt(m_accessControlList == null ? -1 : m_accessControlList.getPermissionMap().size());
+            if (m_accessControlList != null) {
+                // the permission map has no defined order
+                Map<String, CmsPermissionSetCustom> permissions = new TreeMap<String, CmsPermissionSetCustom>();
+                Map<CmsUUID, CmsPermissionSetCustom> permissionMap = m_accessControlList.getPermissionMap();
+                for (Map.Entry<CmsUUID, CmsPermissionSetCustom> entry : permissionMap.entrySet()) {
+                    permissions.put(String.valueOf(entry.getKey()), entry.getValue());
+                }
+                for (Map.Entry<String, CmsPermissionSetCustom> entry : permissions.entrySet()) {
+                    writeHashInput(out, entry.getKey());
+                    out.writeInt(entry.getValue().getAllowedPermissions());
+                    out.writeInt(entry.getValue().getDeniedPermissions());
+                }
+            }
+            out.writeInt(m_accessControlEntries == null ? -1 : m_accessControlEntries.size());
+            if (m_accessControlEntries != null) {
+                for (CmsAccessControlEntry ace : m_accessControlEntries) {
+                    writeHashInput(out, ace.getPrincipal());
+                    out.writeInt(ace.getAllowedPermissions());
+                    out.writeInt(ace.getDeniedPermissions());
+                    out.writeInt(ace.getFlags());
+                }
+            }
+            out.flush();
+        } catch (IOException e) {
+            // writing to a byte array does not fail
+            throw new RuntimeException(e);
+        }
+        hash = calculateContentHash(bytes.toByteArray());
+        m_entryHash = hash;
+        return hash;
+    }
+
+    /**
+     * Gives back the reference of a storage to this entry.<p>
+     * 
+     * Called when the entry is removed from a storage. When the last storage holding the entry 
+     * removed it, the reference to the shared content is given back.<p>
+     */
+    synchronized void release() {
+
+        if (m_storageReferences > 0) {
+            m_storageReferences--;
+        }
+        if ((m_storageReferences == 0) && (m_blobStore != null)) {
+            m_blobStore.release(m_contentHash);
+            m_blobStore = null;
+        }
+    }
+
+    /**
+     * Adds the reference of a storage to this entry, moving the content into the blob store shared by all storages.<p>
+     * 
+     * Called when the entry is added to a storage, each call must be matched by a call to {@link #release()}.<p>
+     * 
+     * @param blobStore the blob store
+     */
+    synchronized void share(OpenCmsTestBlobStore blobStore) {
+
+        m_storageReferences++;
+        if ((m_contents != null) && (m_blobStore == null)) {
+            blobStore.acquire(getContentHash(), m_contents);
+            m_blobStore = blobStore;
+            m_contents = null;
+        }
+    }
+
+    /**
+     * Replaces the values of this entry with the canonical instances of the interner.<p>
+     * 
+     * @param interner the interner to use
+     */
+    void intern(OpenCmsTestResourceStorageInterner interner) {
+
+        m_name = interner.intern(m_name);
+        m_resourceId = interner.intern(m_resourceId);
+        m_projectLastModified = interner.intern(m_projectLastModified);
+        m_userCreated = interner.intern(m_userCreated);
+        m_userLastModified = interner.intern(m_userLastModified);
+        m_properties = interner.internProperties(m_properties);
+        m_accessControlList = interner.internAccessControlList(m_accessControlList);
+        m_accessControlEntries = interner.internAccessControlEntries(m_accessControlEntries);
+    }
+
+    /**
+     * Writes this entry as serialized record.<p>
+     * 
+     * @param out the writer for the record
+     * @throws IOException if writing the record fails
+     */
+    void write(OpenCmsTestResourceStorageSerializer.RecordWriter out) throws IOException {
+
+        out.writeString(m_name);
+        out.writeInt(m_type);
+        out.writeInt(m_flags);
+        out.writeVarInt(m_state.getState());
+        out.writeVarInt(m_siblingCount);
+        out.writeInt(m_length);
+        out.writeInt(m_loaderId);
+        out.writeBoolean(m_isTouched);
+        out.writeLong(m_dateContent);
+        out.writeLong(m_dateCreated);
+        out.writeLong(m_dateLastModified);
+        out.writeLong(m_dateReleased);
+        out.writeLong(m_dateExpired);
+        out.writeUUID(m_structureId);
+        out.writeUUID(m_resourceId);
+        out.writeUUID(m_projectLastModified);
+        out.writeUUID(m_userCreated);
+        out.writeUUID(m_userLastModified);
+
+        out.writeBoolean(m_lockstate != null);
+        if (m_lockstate != null) {
+            out.writeString(m_lockstate.getResourceName());
+            out.writeVarInt(m_lockstate.getType().getMode());
+            out.writeUUID(m_lockstate.getUserId());
+            out.writeUUID(m_lockstate.getProjectId());
+        }
+
+        out.writeVarInt(m_contentMode == null ? 0 : m_contentMode.ordinal() + 1);
+        out.writeBytes(getContentHash());
+        // the spill file is local to this machine, the content is embedded instead
+        out.writeBytes(m_contentMode == ContentMode.HASH ? null : getContentView());
+        // the path of the spill file, only read from files written by earlier versions
+        out.writeString(null);
+
+        if (m_properties == null) {
+            out.writeVarInt(0);
+        } else {
+            out.writeVarInt(m_properties.size() + 1);
+            for (CmsProperty property : m_properties) {
+                out.writeString(property.getName());
+                out.writeString(property.getStructureValue());
+                out.writeString(property.getResourceValue());
+            }
+        }
+        if (m_accessControlList == null) {
+            out.writeVarInt(0);
+        } else {
+            Map<CmsUUID, CmsPermissionSetCustom> permissions = m_accessControlList.getPermissionMap();
+            out.writeVarInt(permissions.size() + 1);
+            for (Map.Entry<CmsUUID, CmsPermissionSetCustom> entry : permissions.entrySet()) {
+                out.writeUUID(entry.getKey());
+                out.writeInt(entry.getValue().getAllowedPermissions());
+                out.writeInt(entry.getValue().getDeniedPermissions());
+            }
+        }
+        if (m_accessControlEntries == null) {
+            out.writeVarInt(0);
+        } else {
+            out.writeVarInt(m_accessControlEntries.size() + 1);
+            for (CmsAccessControlEntry ace : m_accessControlEntries) {
+                out.writeUUID(ace.getResource());
+                out.writeUUID(ace.getPrincipal());
+                out.writeInt(ace.getAllowedPermissions());
+                out.writeInt(ace.getDeniedPermissions());
+                out.writeInt(ace.getFlags());
+            }
+        }
+    }
+
+    /**
+     * Returns the given content hash as hex string.<p>
+     * 
+     * @param hash the hash to convert
+     * @return the hex string
+     */
+    public static String toHexString(byte[] hash) {
+
+        StringBuffer result = new StringBuffer(hash.length * 2);
+        for (int i = 0; i < hash.length; i++) {
+            int value = hash[i] & 0xFF;
+            if (value < 0x10) {
+                result.append('0');
+            }
+            result.append(Integer.toHexString(value));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Writes the content to a file in the spill folder named after its hash.<p>
+     * 
+     * Files with the same content share the same spill file.<p>
+     * 
+     * @param spillFolder the folder to write the content to
+     * @param hash the hash of the content
+     * @param contents the content to write
+     * @return the file the content was written to
+     */
+    private static File spillContents(File spillFolder, byte[] hash, byte[] contents) {
+
+        if (spillFolder == null) {
+            spillFolder = new File(System.getProperty("java.io.tmpdir"), "opencms-test-contents");
+        }
+        File file = new File(spillFolder, toHexString(hash));
+        if (file.exists() && (file.length() == contents.length)) {
+            return file;
+        }
+        OutputStream out = null;
+        try {
+            spillFolder.mkdirs();
+            File tmp = File.createTempFile(file.getName(), ".tmp", spillFolder);
+            out = new FileOutputStream(tmp);
+            out.write(contents);
+            out.close();
+            out = null;
+            if (!tmp.renameTo(file) && !file.exists()) {
+                throw new IOException("Unable to write content file " + file.getAbsolutePath());
+            }
+            tmp.delete();
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            if (out != null) {
+                try {
+                    out.close();
+                } catch (IOException e) {
+                    // ignore
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Returns a copy of the content of this resource, or <code>null</code> if the resource is a folder.<p>
+     * 
+     * Use {@link #getContentView()} to read the content without copying it.<p>
      *
-     * @return the date of the creation of this resource
+     * @return the content of this resource
+     * 
+     * @throws IllegalStateException if the content was not retained or was released
      */
     public byte[] getContents() {
 
-        return m_contents;
+        ByteBuffer view = getContentView();
+        if (view == null) {
+            return null;
+        }
+        byte[] result = new byte[view.remaining()];
+        view.get(result);
+        return result;
+    }
+
+    /**
+     * Returns a read-only view of the content of this resource, or <code>null</code> if the resource is a folder.<p>
+     * 
+     * In {@link ContentMode#FULL} mode the content is read from the shared blob store, which may have 
+     * evicted it to disk. In {@link ContentMode#HASH_SPILL} mode the content is read from the spill 
+     * file on each call. In {@link ContentMode#HASH} mode the content is not retained, only the 
+     * content hash can be compared.<p>
+     * 
+     * The storages holding this entry can not release the content while it is looked up, and 
+     * the returned view stays valid after the content was released.<p>
+     *
+     * @return the content of this resource
+     * 
+     * @throws IllegalStateException if the content was not retained or was released
+     */
+    public ByteBuffer getContentView() {
+
+        byte[] contents;
+        synchronized (this) {
+            if (m_blobStore != null) {
+                return m_blobStore.get(m_contentHash);
+            }
+            contents = m_contents;
+        }
+        if ((contents != null) || (m_contentHash == null)) {
+            return contents == null ? null : ByteBuffer.wrap(contents).asReadOnlyBuffer();
+        }
+        if (m_contentFile != null) {
+            try {
+                return ByteBuffer.wrap(CmsFileUtil.readFile(m_contentFile.getAbsolutePath())).asReadOnlyBuffer();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        }
+        if (m_contentMode == ContentMode.FULL) {
+            throw new IllegalStateException("Content of resource "
+                + m_name
+                + " was released, the entry was removed from all storages");
+        }
+        throw new IllegalStateException("Content of resource "
+            + m_name
+            + " not retained, it was captured in mode "
+            + m_contentMode
+            + " and only the content hash is available");
+    }
+
+    /**
+     * Returns the hash of the content of this resource, or <code>null</code> if the resource is a folder.<p>
+     * 
+     * In {@link ContentMode#FULL} mode the hash is calculated on the first call.<p>
+     *
+     * @return the hash of the content of this resource
+     * 
+     * @see #CONTENT_HASH_ALGORITHM
+     */
+    public byte[] getContentHash() {
+
+        byte[] hash = m_contentHash;
+        if ((hash == null) && (m_contents != null)) {
+            hash = calculateContentHash(m_contents);
+            m_contentHash = hash;
+        }
+        return hash;
+    }
+
+    /**
+     * Returns the mode the content of this resource was captured with.<p>
+     *
+     * @return the mode the content of this resource was captured with
+     */
+    public ContentMode getContentMode() {
+
+        return m_contentMode;
+    }
+
+    /**
+     * Checks if the given content is equal to the stored content of this resource.<p>
+     * 
+     * If the content is not kept by this entry only the hashes are compared.<p>
+     *
+     * @param contents the content to compare
+     * @return <code>true</code> if the content is equal to the stored content
+     */
+    public boolean isContentEqual(byte[] contents) {
+
+        if ((contents == null) || !isFile()) {
+            return (contents == null) && !isFile();
+        }
+        if (m_contents != null) {
+            return Arrays.equals(m_contents, contents);
+        }
+        return Arrays.equals(m_contentHash, calculateContentHash(contents));
     }
 
     /**
@@ -335,6 +944,8 @@ public class OpenCmsTestResourceStorageEntry {
 
     /**
      * Returns the properties of the resource.<p>
+     * 
+     * Entries added to a storage share equal lists, which are unmodifiable and contain frozen properties.<p>
      *
      * @return  the properties of the resource
      */
@@ -415,6 +1026,16 @@ public class OpenCmsTestResourceStorageEntry {
         return m_userLastModified;
     }
 
+    /**
+     * Returns true if this resource is a file, i.e. has a content.<p>
+     * 
+     * @return true if this resource is a file
+     */
+    public boolean isFile() {
+
+        return (m_contents != null) || (m_contentHash != null);
+    }
+
     /**
      * Returns true if this resource was touched.<p>
      * 
@@ -0,0 +1,329 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.util.CmsUUID;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+
+/**
+ * Secondary indexes over the entries of a resource storage.<p>
+ *
+ * The indexes are keyed by the stored resource names and maintained by the storage whenever
+ * entries are added, replaced or removed. They are thread safe.<p>
+ *
+ * @see OpenCmsTestResourceStorageQuery
+ */
+class OpenCmsTestResourceStorageIndex {
+
+    /** The stored names by date of last modification. */
+    private ConcurrentNavigableMap<Long, Set<String>> m_byDateLastModified;
+
+    /** The stored names by resource id. */
+    private ConcurrentMap<CmsUUID, Set<String>> m_byResourceId;
+
+    /** The stored names by state. */
+    private ConcurrentMap<Integer, Set<String>> m_byState;
+
+    /** The stored name by structure id. */
+    private ConcurrentMap<CmsUUID, String> m_byStructureId;
+
+    /** The stored names by type. */
+    private ConcurrentMap<Integer, Set<String>> m_byType;
+
+    /** The stored names by user last modified. */
+    private ConcurrentMap<CmsUUID, Set<String>> m_byUserLastModified;
+
+    /** The sorted stored names. */
+    private NavigableSet<String> m_names;
+
+    /**
+     * Creates a new, empty index.<p>
+     */
+    OpenCmsTestResourceStorageIndex() {
+
+        m_byDateLastModified = new ConcurrentSkipListMap<Long, Set<String>>();
+        m_byResourceId = new ConcurrentHashMap<CmsUUID, Set<String>>();
+        m_byState = new ConcurrentHashMap<Integer, Set<String>>();
+        m_byStructureId = new ConcurrentHashMap<CmsUUID, String>();
+        m_byType = new ConcurrentHashMap<Integer, Set<String>>();
+        m_byUserLastModified = new ConcurrentHashMap<CmsUUID, Set<String>>();
+        m_names = new ConcurrentSkipListSet<String>();
+    }
+
+    /**
+     * Adds an entry to the indexes.<p>
+     *
+     * @param name the stored name
+     * @param entry the entry
+     */
+    void add(String name, OpenCmsTestResourceStorageEntry entry) {
+
+        m_names.add(name);
+        addTo(m_byType, Integer.valueOf(entry.getType()), name);
+        if (entry.getState() != null) {
+            addTo(m_byState, Integer.valueOf(entry.getState().getState()), name);
+        }
+        if (entry.getStructureId() != null) {
+            m_byStructureId.put(entry.getStructureId(), name);
+        }
+        addTo(m_byResourceId, entry.getResourceId(), name);
+        addTo(m_byUserLastModified, entry.getUserLastModified(), name);
+        addTo(m_byDateLastModified, Long.valueOf(entry.getDateLastModified()), name);
+    }
+
+    /**
+     * Removes all entries from the indexes.<p>
+     */
+    void clear() {
+
+        m_byDateLastModified.clear();
+        m_byResourceId.clear();
+        m_byState.clear();
+        m_byStructureId.clear();
+        m_byType.clear();
+        m_byUserLastModified.clear();
+        m_names.clear();
+    }
+
+    /**
+     * Returns the stored names with a date of last modification in the given range.<p>
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @return the stored names
+     */
+    Set<String> getByDateLastModified(long from, long to) {
+
+        if (from > to) {
+            return Collections.emptySet();
+        }
+        Collection<Set<String>> sets = m_byDateLastModified.subMap(
+            Long.valueOf(from),
+            true,
+            Long.valueOf(to),
+            true).values();
+        if (sets.size() == 1) {
+            return sets.iterator().next();
+        }
+        Set<String> result = new HashSet<String>();
+        for (Set<String> set : sets) {
+            result.addAll(set);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the stored names of the siblings with the given resource id.<p>
+     *
+     * @param resourceId the resource id
+     * @return the stored names
+     */
+    Set<String> getByResourceId(CmsUUID resourceId) {
+
+        return get(m_byResourceId, resourceId);
+    }
+
+    /**
+     * Returns the stored names with the given state.<p>
+     *
+     * @param state the state
+     * @return the stored names
+     */
+    Set<String> getByState(int state) {
+
+        return get(m_byState, Integer.valueOf(state));
+    }
+
+    /**
+     * Returns the stored name of the resource with the given structure id.<p>
+     *
+     * @param structureId the structure id
+     * @return the stored name, or <code>null</code> if no resource has this structure id
+     */
+    String getByStructureId(CmsUUID structureId) {
+
+        return m_byStructureId.get(structureId);
+    }
+
+    /**
+     * Returns the stored names with the given type.<p>
+     *
+     * @param type the type id
+     * @return the stored names
+     */
+    Set<String> getByType(int type) {
+
+        return get(m_byType, Integer.valueOf(type));
+    }
+
+    /**
+     * Returns the stored names with the given user last modified.<p>
+     *
+     * @param user the user id
+     * @return the stored names
+     */
+    Set<String> getByUserLastModified(CmsUUID user) {
+
+        return get(m_byUserLastModified, user);
+    }
+
+    /**
+     * Returns the stored names starting with the given prefix.<p>
+     *
+     * @param prefix the prefix
+     * @return the sorted stored names
+     */
+    NavigableSet<String> getByPrefix(String prefix) {
+
+        if ((prefix == null) || (prefix.length() == 0)) {
+            return m_names;
+        }
+        // the next string after all strings starting with the prefix
+        String end = prefix.substring(0, prefix.length() - 1) + (char)(prefix.charAt(prefix.length() - 1) + 1);
+        return m_names.subSet(prefix, true, end, false);
+    }
+
+    /**
+     * Returns the stored names nearest to a name that was not found.<p>
+     *
+     * The suggestions are the stored names in the nearest existing parent folder of the name,
+     * followed by the names in the folders above.<p>
+     *
+     * @param name the name that was not found
+     * @param max the maximum number of suggestions
+     * @return the suggestions
+     */
+    List<String> getSuggestions(String name, int max) {
+
+        List<String> result = new ArrayList<String>(max);
+        String folder = name;
+        int pos;
+        while ((result.size() < max) && ((pos = folder.lastIndexOf('/', folder.length() - 2)) >= 0)) {
+            folder = folder.substring(0, pos + 1);
+            for (String candidate : getByPrefix(folder)) {
+                if (result.size() >= max) {
+                    break;
+                }
+                if (!result.contains(candidate)) {
+                    result.add(candidate);
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Removes an entry from the indexes.<p>
+     *
+     * @param name the stored name
+     * @param entry the entry
+     */
+    void remove(String name, OpenCmsTestResourceStorageEntry entry) {
+
+        m_names.remove(name);
+        removeFrom(m_byType, Integer.valueOf(entry.getType()), name);
+        if (entry.getState() != null) {
+            removeFrom(m_byState, Integer.valueOf(entry.getState().getState()), name);
+        }
+        if (entry.getStructureId() != null) {
+            m_byStructureId.remove(entry.getStructureId(), name);
+        }
+        removeFrom(m_byResourceId, entry.getResourceId(), name);
+        removeFrom(m_byUserLastModified, entry.getUserLastModified(), name);
+        removeFrom(m_byDateLastModified, Long.valueOf(entry.getDateLastModified()), name);
+    }
+
+    /**
+     * Adds a name to the set of an index key.<p>
+     *
+     * @param index the index
+     * @param key the key, ignored if <code>null</code>
+     * @param name the stored name
+     */
+    private <K> void addTo(ConcurrentMap<K, Set<String>> index, K key, String name) {
+
+        if (key == null) {
+            return;
+        }
+        Set<String> names = index.get(key);
+        if (names == null) {
+            names = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+            Set<String> existing = index.putIfAbsent(key, names);
+            if (existing != null) {
+                names = existing;
+            }
+        }
+        names.add(name);
+    }
+
+    /**
+     * Returns the set of an index key.<p>
+     *
+     * @param index the index
+     * @param key the key
+     * @return the set, empty if the key is not indexed
+     */
+    private <K> Set<String> get(Map<K, Set<String>> index, K key) {
+
+        Set<String> names = key == null ? null : index.get(key);
+        if (names == null) {
+            return Collections.emptySet();
+        }
+        return names;
+    }
+
+    /**
+     * Removes a name from the set of an index key.<p>
+     *
+     * Empty sets are left in place, so concurrent adds for the same key are not lost.<p>
+     *
+     * @param index the index
+     * @param key the key, ignored if <code>null</code>
+     * @param name the stored name
+     */
+    private <K> void removeFrom(ConcurrentMap<K, Set<String>> index, K key, String name) {
+
+        Set<String> names = key == null ? null : index.get(key);
+        if (names != null) {
+            names.remove(name);
+        }
+    }
+}
@@ -0,0 +1,496 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.file.CmsProperty;
+import org.opencms.security.CmsAccessControlEntry;
+import org.opencms.security.CmsAccessControlList;
+import org.opencms.security.CmsPermissionSetCustom;
+import org.opencms.util.CmsUUID;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Shares equal values between the entries of resource storages.<p>
+ *
+ * Most attributes of the entries in a large storage repeat: the same users, projects,
+ * property values and inherited access control lists. The interner returns one canonical
+ * instance for each distinct value, so the entries only hold references to shared objects.
+ * The canonical instances are copies owned by the interner: shared lists are unmodifiable,
+ * shared properties are frozen, and shared access control entries and lists must not be modified.<p>
+ *
+ * The interner holds the canonical instances weakly, a value is dropped when no entry refers to
+ * it any more. Values are looked up by a hash of their content and compared field by field, no
+ * key is retained besides the canonical instance itself.<p>
+ *
+ * The interner is thread safe and can be shared by several storages, the storages created by
+ * a {@link OpenCmsTestResourceStorageRegistry} share the interner of the registry.<p>
+ */
+public class OpenCmsTestResourceStorageInterner {
+
+    /**
+     * Compares a value with a canonical instance.<p>
+     *
+     * @param <T> the type of the values
+     */
+    private interface I_Matcher<T> {
+
+        /**
+         * Returns if a value is equal to a canonical instance.<p>
+         *
+         * @param value the value
+         * @param canonical the canonical instance
+         * @return <code>true</code> if the value is equal to the canonical instance
+         */
+        boolean matches(T value, T canonical);
+    }
+
+    /**
+     * Weak reference to a canonical instance, remembering the hash of its content.<p>
+     *
+     * @param <T> the type of the values
+     */
+    private static final class HashedReference<T> extends WeakReference<T> {
+
+        /** The hash of the content. */
+        final int m_hash;
+
+        /**
+         * Creates a new reference.<p>
+         *
+         * @param value the canonical instance
+         * @param hash the hash of the content
+         * @param queue the queue the reference is enqueued to when the instance was collected
+         */
+        HashedReference(T value, int hash, ReferenceQueue<T> queue) {
+
+            super(value, queue);
+            m_hash = hash;
+        }
+    }
+
+    /**
+     * Weakly referenced canonical instances of one type, grouped by the hash of their content.<p>
+     *
+     * @param <T> the type of the values
+     */
+    private static final class WeakPool<T> {
+
+        /** The references by hash. */
+        private Map<Integer, List<HashedReference<T>>> m_buckets;
+
+        /** The matcher comparing a value with a canonical instance. */
+        private I_Matcher<T> m_matcher;
+
+        /** The queue of the references of collected instances. */
+        private ReferenceQueue<T> m_queue;
+
+        /** The number of references. */
+        private int m_size;
+
+        /**
+         * Creates a new pool.<p>
+         *
+         * @param matcher the matcher comparing a value with a canonical instance
+         */
+        WeakPool(I_Matcher<T> matcher) {
+
+            m_buckets = new HashMap<Integer, List<HashedReference<T>>>();
+            m_matcher = matcher;
+            m_queue = new ReferenceQueue<T>();
+        }
+
+        /**
+         * Returns the canonical instance equal to a value.<p>
+         *
+         * @param hash the hash of the content of the value
+         * @param value the value
+         * @return the canonical instance, or <code>null</code> if there is none
+         */
+        synchronized T get(int hash, T value) {
+
+            purge();
+            List<HashedReference<T>> bucket = m_buckets.get(Integer.valueOf(hash));
+            if (bucket != null) {
+                for (HashedReference<T> reference : bucket) {
+                    T canonical = reference.get();
+                    if ((canonical != null) && m_matcher.matches(value, canonical)) {
+                        return canonical;
+                    }
+                }
+            }
+            return null;
+        }
+
+        /**
+         * Adds a canonical instance unless an equal instance was added before.<p>
+         *
+         * @param hash the hash of the content of the value
+         * @param canonical the new canonical instance
+         * @return the canonical instance added before, or the given instance
+         */
+        synchronized T putIfAbsent(int hash, T canonical) {
+
+            T existing = get(hash, canonical);
+            if (existing != null) {
+                return existing;
+            }
+            List<HashedReference<T>> bucket = m_buckets.get(Integer.valueOf(hash));
+            if (bucket == null) {
+                bucket = new ArrayList<HashedReference<T>>(1);
+                m_buckets.put(Integer.valueOf(hash), bucket);
+            }
+            bucket.add(new HashedReference<T>(canonical, hash, m_queue));
+            m_size++;
+            return canonical;
+        }
+
+        /**
+         * Returns the number of canonical instances not collected yet.<p>
+         *
+         * @return the number of canonical instances
+         */
+        synchronized int size() {
+
+            purge();
+            return m_size;
+        }
+
+        /**
+         * Removes the references of the collected instances.<p>
+         */
+        private void purge() {
+
+            Reference<? extends T> reference;
+            while ((reference = m_queue.poll()) != null) {
+                Integer hash = Integer.valueOf(((HashedReference<?>)reference).m_hash);
+                List<HashedReference<T>> bucket = m_buckets.get(hash);
+                if (bucket == null) {
+                    continue;
+                }
+                Iterator<HashedReference<T>> i = bucket.iterator();
+                while (i.hasNext()) {
+                    if (i.next() == reference) {
+                        i.remove();
+                        m_size--;
+                        break;
+                    }
+                }
+                if (bucket.isEmpty()) {
+                    m_buckets.remove(hash);
+                }
+            }
+        }
+    }
+
+    /** The canonical access control entry lists. */
+    private WeakPool<List<CmsAccessControlEntry>> m_accessControlEntries;
+
+    /** The canonical access control lists. */
+    private WeakPool<CmsAccessControlList> m_accessControlLists;
+
+    /** The canonical property lists. */
+    private WeakPool<List<CmsProperty>> m_properties;
+
+    /** The canonical strings. */
+    private WeakPool<String> m_strings;
+
+    /** The canonical UUIDs. */
+    private WeakPool<CmsUUID> m_uuids;
+
+    /**
+     * Creates a new, empty interner.<p>
+     */
+    public OpenCmsTestResourceStorageInterner() {
+
+        m_accessControlEntries = new WeakPool<List<CmsAccessControlEntry>>(
+            new I_Matcher<List<CmsAccessControlEntry>>() {
+
+                public boolean matches(List<CmsAccessControlEntry> value, List<CmsAccessControlEntry> canonical) {
+
+                    if (value.size() != canonical.size()) {
+                        return false;
+                    }
+                    for (int i = 0; i < value.size(); i++) {
+                        CmsAccessControlEntry ace = value.get(i);
+                        CmsAccessControlEntry other = canonical.get(i);
+                        if (!isEqual(ace.getResource(), other.getResource())
+                            || !isEqual(ace.getPrincipal(), other.getPrincipal())
+                            || (ace.getAllowedPermissions() != other.getAllowedPermissions())
+                            || (ace.getDeniedPermissions() != other.getDeniedPermissions())
+                            || (ace.getFlags() != other.getFlags())) {
+                            return false;
+                        }
+                    }
+                    return true;
+                }
+            });
+        m_accessControlLists = new WeakPool<CmsAccessControlList>(new I_Matcher<CmsAccessControlList>() {
+
+            public boolean matches(CmsAccessControlList value, CmsAccessControlList canonical) {
+
+                Map<CmsUUID, CmsPermissionSetCustom> permissions = value.getPermissionMap();
+                Map<CmsUUID, CmsPermissionSetCustom> other = canonical.getPermissionMap();
+                if (permissions.size() != other.size()) {
+                    return false;
+                }
+                for (Map.Entry<CmsUUID, CmsPermissionSetCustom> entry : permissions.entrySet()) {
+                    CmsPermissionSetCustom set = other.get(entry.getKey());
+                    if ((set == null)
+                        || (set.getAllowedPermissions() != entry.getValue().getAllowedPermissions())
+                        || (set.getDeniedPermissions() != entry.getValue().getDeniedPermissions())) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+        m_properties = new WeakPool<List<CmsProperty>>(new I_Matcher<List<CmsProperty>>() {
+
+            public boolean matches(List<CmsProperty> value, List<CmsProperty> canonical) {
+
+                if (value.size() != canonical.size()) {
+                    return false;
+                }
+                for (int i = 0; i < value.size(); i++) {
+                    CmsProperty property = value.get(i);
+                    CmsProperty other = canonical.get(i);
+                    if (!isEqual(property.getName(), other.getName())
+                        || !isEqual(property.getStructureValue(), other.getStructureValue())
+                        || !isEqual(property.getResourceValue(), other.getResourceValue())) {
+                        return false;
+                    }
+                }
+                return true;
+            }
+        });
+        I_Matcher<Object> equals = new I_Matcher<Object>() {
+
+            public boolean matches(Object value, Object canonical) {
+
+                return value.equals(canonical);
+            }
+        };
+        m_strings = new WeakPool<String>(OpenCmsTestResourceStorageInterner.<String> cast(equals));
+        m_uuids = new WeakPool<CmsUUID>(OpenCmsTestResourceStorageInterner.<CmsUUID> cast(equals));
+    }
+
+    /**
+     * Returns the canonical instance of a string.<p>
+     *
+     * @param value the string, may be <code>null</code>
+     * @return the canonical instance
+     */
+    public String intern(String value) {
+
+        if (value == null) {
+            return null;
+        }
+        return m_strings.putIfAbsent(value.hashCode(), value);
+    }
+
+    /**
+     * Returns the canonical instance of a UUID.<p>
+     *
+     * @param value the UUID, may be <code>null</code>
+     * @return the canonical instance
+     */
+    public CmsUUID intern(CmsUUID value) {
+
+        if (value == null) {
+            return null;
+        }
+        return m_uuids.putIfAbsent(value.hashCode(), value);
+    }
+
+    /**
+     * Returns the canonical instance of a list of access control entries.<p>
+     *
+     * @param entries the access control entries, may be <code>null</code>
+     * @return the canonical, unmodifiable list
+     */
+    public List<CmsAccessControlEntry> internAccessControlEntries(List<CmsAccessControlEntry> entries) {
+
+        if (entries == null) {
+            return null;
+        }
+        int hash = 1;
+        for (CmsAccessControlEntry ace : entries) {
+            hash = hash(hash, ace.getResource());
+            hash = hash(hash, ace.getPrincipal());
+            hash = (31 * hash) + ace.getAllowedPermissions();
+            hash = (31 * hash) + ace.getDeniedPermissions();
+            hash = (31 * hash) + ace.getFlags();
+        }
+        List<CmsAccessControlEntry> result = m_accessControlEntries.get(hash, entries);
+        if (result == null) {
+            List<CmsAccessControlEntry> shared = new ArrayList<CmsAccessControlEntry>(entries.size());
+            for (CmsAccessControlEntry ace : entries) {
+                shared.add(new CmsAccessControlEntry(
+                    intern(ace.getResource()),
+                    intern(ace.getPrincipal()),
+                    ace.getAllowedPermissions(),
+                    ace.getDeniedPermissions(),
+                    ace.getFlags()));
+            }
+            result = m_accessControlEntries.putIfAbsent(hash, Collections.unmodifiableList(shared));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the canonical instance of an access control list.<p>
+     *
+     * @param acl the access control list, may be <code>null</code>
+     * @return the canonical instance, which must not be modified
+     */
+    public CmsAccessControlList internAccessControlList(CmsAccessControlList acl) {
+
+        if (acl == null) {
+            return null;
+        }
+        // the permission map has no defined order
+        Map<CmsUUID, CmsPermissionSetCustom> permissions = new TreeMap<CmsUUID, CmsPermissionSetCustom>(
+            acl.getPermissionMap());
+        int hash = 1;
+        for (Map.Entry<CmsUUID, CmsPermissionSetCustom> entry : permissions.entrySet()) {
+            hash = hash(hash, entry.getKey());
+            hash = (31 * hash) + entry.getValue().getAllowedPermissions();
+            hash = (31 * hash) + entry.getValue().getDeniedPermissions();
+        }
+        CmsAccessControlList result = m_accessControlLists.get(hash, acl);
+        if (result == null) {
+            result = new CmsAccessControlList();
+            for (Map.Entry<CmsUUID, CmsPermissionSetCustom> entry : permissions.entrySet()) {
+                result.add(new CmsAccessControlEntry(
+                    null,
+                    intern(entry.getKey()),
+                    entry.getValue().getAllowedPermissions(),
+                    entry.getValue().getDeniedPermissions(),
+                    0));
+            }
+            result = m_accessControlLists.putIfAbsent(hash, result);
+        }
+        return result;
+    }
+
+    /**
+     * Returns the canonical instance of a list of properties.<p>
+     *
+     * @param properties the properties, may be <code>null</code>
+     * @return the canonical, unmodifiable list of frozen properties
+     */
+    public List<CmsProperty> internProperties(List<CmsProperty> properties) {
+
+        if (properties == null) {
+            return null;
+        }
+        int hash = 1;
+        for (CmsProperty property : properties) {
+            hash = hash(hash, property.getName());
+            hash = hash(hash, property.getStructureValue());
+            hash = hash(hash, property.getResourceValue());
+        }
+        List<CmsProperty> result = m_properties.get(hash, properties);
+        if (result == null) {
+            List<CmsProperty> shared = new ArrayList<CmsProperty>(properties.size());
+            for (CmsProperty property : properties) {
+                CmsProperty copy = new CmsProperty(
+                    intern(property.getName()),
+                    intern(property.getStructureValue()),
+                    intern(property.getResourceValue()));
+                copy.setFrozen(true);
+                shared.add(copy);
+            }
+            result = m_properties.putIfAbsent(hash, Collections.unmodifiableList(shared));
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of distinct values held by this interner.<p>
+     *
+     * Values no longer referenced are only counted until they are garbage collected.<p>
+     *
+     * @return the number of distinct values
+     */
+    public int size() {
+
+        return m_accessControlEntries.size()
+            + m_accessControlLists.size()
+            + m_properties.size()
+            + m_strings.size()
+            + m_uuids.size();
+    }
+
+    /**
+     * Returns a matcher of any type comparing the values with <code>equals</code>.<p>
+     *
+     * @param <T> the type of the values
+     * @param matcher the matcher comparing with <code>equals</code>
+     * @return the matcher
+     */
+    @SuppressWarnings({"rawtypes", "unchecked"})
+    private static <T> I_Matcher<T> cast(I_Matcher<Object> matcher) {
+
+        return (I_Matcher)matcher;
+    }
+
+    /**
+     * Adds a value to the hash of a composite value.<p>
+     *
+     * @param hash the hash so far
+     * @param value the value to add, may be <code>null</code>
+     * @return the new hash
+     */
+    private static int hash(int hash, Object value) {
+
+        return (31 * hash) + (value == null ? 0 : value.hashCode());
+    }
+
+    /**
+     * Returns if two values are equal.<p>
+     *
+     * @param value the first value, may be <code>null</code>
+     * @param other the second value, may be <code>null</code>
+     * @return <code>true</code> if both values are <code>null</code> or equal
+     */
+    private static boolean isEqual(Object value, Object other) {
+
+        return value == null ? other == null : value.equals(other);
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.db.CmsResourceState;
+import org.opencms.util.CmsUUID;
+
+/**
+ * Query for the entries of a resource storage.<p>
+ *
+ * All conditions set on a query must match. The storage answers a query from its indexes:
+ * it starts with the smallest set of candidates of the indexed conditions and only checks
+ * the remaining conditions on these candidates.<p>
+ *
+ * Example, all changed files below <code>/folder1/</code>:
+ * <pre>
+ * storage.find(new OpenCmsTestResourceStorageQuery()
+ *     .setPrefix("/folder1/")
+ *     .setState(CmsResource.STATE_CHANGED)
+ *     .setFilesOnly(true));
+ * </pre>
+ *
+ * @see OpenCmsTestResourceStorage#find(OpenCmsTestResourceStorageQuery)
+ */
+public class OpenCmsTestResourceStorageQuery {
+
+    /** The start of the date of last modification range. */
+    private long m_dateLastModifiedFrom = Long.MIN_VALUE;
+
+    /** The end of the date of last modification range. */
+    private long m_dateLastModifiedTo = Long.MAX_VALUE;
+
+    /** Indicates that only files match. */
+    private boolean m_filesOnly;
+
+    /** Indicates that only folders match. */
+    private boolean m_foldersOnly;
+
+    /** The resource name prefix. */
+    private String m_prefix;
+
+    /** The resource id. */
+    private CmsUUID m_resourceId;
+
+    /** The state. */
+    private CmsResourceState m_state;
+
+    /** The structure id. */
+    private CmsUUID m_structureId;
+
+    /** The type id, or -1 for all types. */
+    private int m_type = -1;
+
+    /** The user last modified. */
+    private CmsUUID m_userLastModified;
+
+    /**
+     * Returns the start of the date of last modification range.<p>
+     *
+     * @return the start of the range, inclusive
+     */
+    public long getDateLastModifiedFrom() {
+
+        return m_dateLastModifiedFrom;
+    }
+
+    /**
+     * Returns the end of the date of last modification range.<p>
+     *
+     * @return the end of the range, inclusive
+     */
+    public long getDateLastModifiedTo() {
+
+        return m_dateLastModifiedTo;
+    }
+
+    /**
+     * Returns the resource name prefix.<p>
+     *
+     * @return the resource name prefix, or <code>null</code>
+     */
+    public String getPrefix() {
+
+        return m_prefix;
+    }
+
+    /**
+     * Returns the resource id.<p>
+     *
+     * @return the resource id, or <code>null</code>
+     */
+    public CmsUUID getResourceId() {
+
+        return m_resourceId;
+    }
+
+    /**
+     * Returns the state.<p>
+     *
+     * @return the state, or <code>null</code>
+     */
+    public CmsResourceState getState() {
+
+        return m_state;
+    }
+
+    /**
+     * Returns the structure id.<p>
+     *
+     * @return the structure id, or <code>null</code>
+     */
+    public CmsUUID getStructureId() {
+
+        return m_structureId;
+    }
+
+    /**
+     * Returns the type id.<p>
+     *
+     * @return the type id, or -1 for all types
+     */
+    public int getType() {
+
+        return m_type;
+    }
+
+    /**
+     * Returns the user last modified.<p>
+     *
+     * @return the user last modified, or <code>null</code>
+     */
+    public CmsUUID getUserLastModified() {
+
+        return m_userLastModified;
+    }
+
+    /**
+     * Returns if only files match.<p>
+     *
+     * @return <code>true</code> if only files match
+     */
+    public boolean isFilesOnly() {
+
+        return m_filesOnly;
+    }
+
+    /**
+     * Returns if only folders match.<p>
+     *
+     * @return <code>true</code> if only folders match
+     */
+    public boolean isFoldersOnly() {
+
+        return m_foldersOnly;
+    }
+
+    /**
+     * Checks if an entry matches the conditions of this query on the entry attributes.<p>
+     *
+     * The prefix is checked by the storage, as it is subject to the name mapping.<p>
+     *
+     * @param entry the entry
+     * @return <code>true</code> if the entry matches
+     */
+    public boolean matches(OpenCmsTestResourceStorageEntry entry) {
+
+        if ((m_type >= 0) && (entry.getType() != m_type)) {
+            return false;
+        }
+        if ((m_state != null) && !m_state.equals(entry.getState())) {
+            return false;
+        }
+        if ((m_structureId != null) && !m_structureId.equals(entry.getStructureId())) {
+            return false;
+        }
+        if ((m_resourceId != null) && !m_resourceId.equals(entry.getResourceId())) {
+            return false;
+        }
+        if ((m_userLastModified != null) && !m_userLastModified.equals(entry.getUserLastModified())) {
+            return false;
+        }
+        if ((entry.getDateLastModified() < m_dateLastModifiedFrom)
+            || (entry.getDateLastModified() > m_dateLastModifiedTo)) {
+            return false;
+        }
+        boolean isFile = entry.isFile();
+        return !((m_filesOnly && !isFile) || (m_foldersOnly && isFile));
+    }
+
+    /**
+     * Restricts the query to a range of dates of last modification.<p>
+     *
+     * @param from the start of the range, inclusive
+     * @param to the end of the range, inclusive
+     * @return this query
+     */
+    public OpenCmsTestResourceStorageQuery setDateLastModified(long from, long to) {
+
+        m_dateLastModifiedFrom = from;
+        m_dateLastModifiedTo = to;
+        return this;
+    }
+
+    /**
+     * Restricts the query to files.<p>
+     *
+     * @param filesOnly <code>true</code> if only files match
+     * @return this query
+     */
+    public OpenCmsTestResourceStorageQuery setFilesOnly(boolean filesOnly) {
+
+        m_filesOnly = filesOnly;
+        return this;
+    }
+
+    /**
+     * Restricts the query to folders.<p>
+     *
+     * @param foldersOnly <code>true</code> if only folders match
+     * @return this query
+     */
+    public OpenCmsTestResourceStorageQuery setFoldersOnly(boolean foldersOnly) {
+
+        m_foldersOnly = foldersOnly;
+        return this;
+    }
+
+    /**
+     * Restricts the query to resources with names starting with a prefix.<p>
+     *
+     * The name mapping of the storage is applied to the prefix.<p>
+     *
+     * @param prefix the resource name prefix
+     * @return this query
+     */
+    public OpenCmsTestResourceStorageQuery setPrefix(String prefix) {
+
+        m_prefix = prefix;
+        return this;
+    }
+
+    /**
+     * Restricts the query to the siblings of a resource.<p>
+     *
+     * @param resourceId the resource id
+     * @return this query
+     */
+    public OpenCmsTestResourceStorageQuery setResourceId(CmsUUID resourceId) {
+
+        m_resourceId = resourceId;
+        return this;
+    }
+
+    /**
+     * Restricts the query to resources with the given captured state.<p>
+     *
+     * @param state the state
+     * @return this query
+     */
+    public OpenCmsTestResourceStorageQuery setState(CmsResourceState state) {
+
+        m_state = state;
+        return this;
+    }
+
+    /**
+     * Restricts the query to the resource with a structure id.<p>
+     *
+     * @param structureId the structure id
+     * @return this query
+     */
+    public OpenCmsTestResourceStorageQuery setStructureId(CmsUUID structureId) {
+
+        m_structureId = structureId;
+        return this;
+    }
+
+    /**
+     * Restricts the query to resources of a type.<p>
+     *
+     * @param type the type id
+     * @return this query
+     */
+    public OpenCmsTestResourceStorageQuery setType(int type) {
+
+        m_type = type;
+        return this;
+    }
+
+    /**
+     * Restricts the query to resources last modified by a user.<p>
+     *
+     * @param userLastModified the user id
+     * @return this query
+     */
+    public OpenCmsTestResourceStorageQuery setUserLastModified(CmsUUID userLastModified) {
+
+        m_userLastModified = userLastModified;
+        return this;
+    }
+}
@@ -0,0 +1,387 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Thread safe registry of the named resource storages.<p>
+ *
+ * Storages are registered in scopes. A thread works in the shared scope unless a scope was set
+ * for it with {@link #setScope(String)}, e.g. the name of the running test. Tests running in
+ * parallel with different scopes can therefore use the same storage names without interfering.
+ * Each scope has its own current storage.<p>
+ * 
+ * The storages created by the registry share one blob store, so equal content captured into 
+ * several storages is held only once. Storages replaced or removed from the registry are 
+ * cleared, so their content is dropped from the shared blob store.<p>
+ */
+public class OpenCmsTestResourceStorageRegistry {
+
+    /**
+     * Map view of the storages in the scope of the calling thread.<p>
+     */
+    private class ScopeView extends AbstractMap<String, OpenCmsTestResourceStorage> {
+
+        /**
+         * Creates a new view.<p>
+         */
+        ScopeView() {
+
+            // noop
+        }
+
+        /**
+         * Returns the entries of the scope of the calling thread.<p>
+         *
+         * Removing entries, also through the key set, the values or {@link #clear()}, removes the
+         * storages with {@link OpenCmsTestResourceStorageRegistry#remove(String)}, setting the value
+         * of an entry registers the storage with {@link OpenCmsTestResourceStorageRegistry#add(String,
+         * OpenCmsTestResourceStorage)}.<p>
+         *
+         * @see java.util.AbstractMap#entrySet()
+         */
+        @Override
+        public Set<Map.Entry<String, OpenCmsTestResourceStorage>> entrySet() {
+
+            final ConcurrentMap<String, OpenCmsTestResourceStorage> storages = m_storages.get(getScope());
+            if (storages == null) {
+                return Collections.emptySet();
+            }
+            return new AbstractSet<Map.Entry<String, OpenCmsTestResourceStorage>>() {
+
+                @Override
+                public Iterator<Map.Entry<String, OpenCmsTestResourceStorage>> iterator() {
+
+                    final Iterator<Map.Entry<String, OpenCmsTestResourceStorage>> i = storages.entrySet().iterator();
+                    return new Iterator<Map.Entry<String, OpenCmsTestResourceStorage>>() {
+
+                        /** The key of the entry returned last. */
+                        private String m_last;
+
+                        public boolean hasNext() {
+
+                            return i.hasNext();
+                        }
+
+                        public Map.Entry<String, OpenCmsTestResourceStorage> next() {
+
+                            Map.Entry<String, OpenCmsTestResourceStorage> entry = i.next();
+                            m_last = entry.getKey();
+                            return new SimpleEntry<String, OpenCmsTestResourceStorage>(entry) {
+
+                                /** The serial version id. */
+                                private static final long serialVersionUID = -2618446133127541873L;
+
+                                @Override
+                                public OpenCmsTestResourceStorage setValue(OpenCmsTestResourceStorage value) {
+
+                                    super.setValue(value);
+                                    return OpenCmsTestResourceStorageRegistry.this.add(getKey(), value);
+                                }
+                            };
+                        }
+
+                        public void remove() {
+
+                            if (m_last == null) {
+                                throw new IllegalStateException();
+                            }
+                            OpenCmsTestResourceStorageRegistry.this.remove(m_last);
+                            m_last = null;
+                        }
+                    };
+                }
+
+                @Override
+                public int size() {
+
+                    return storages.size();
+                }
+            };
+        }
+
+        /**
+         * @see java.util.AbstractMap#get(java.lang.Object)
+         */
+        @Override
+        public OpenCmsTestResourceStorage get(Object key) {
+
+            return key instanceof String ? OpenCmsTestResourceStorageRegistry.this.get((String)key) : null;
+        }
+
+        /**
+         * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+         */
+        @Override
+        public OpenCmsTestResourceStorage put(String key, OpenCmsTestResourceStorage value) {
+
+            return add(key, value);
+        }
+
+        /**
+         * @see java.util.AbstractMap#remove(java.lang.Object)
+         */
+        @Override
+        public OpenCmsTestResourceStorage remove(Object key) {
+
+            return key instanceof String ? OpenCmsTestResourceStorageRegistry.this.remove((String)key) : null;
+        }
+    }
+
+    /** The name of the scope used by threads without an explicit scope. */
+    public static final String SHARED_SCOPE = "";
+
+    /** The blob store shared by the storages created by this registry. */
+    private OpenCmsTestBlobStore m_blobStore;
+
+    /** The current storage per scope. */
+    private ConcurrentMap<String, OpenCmsTestResourceStorage> m_current;
+
+    /** The interner shared by the storages created by this registry. */
+    private OpenCmsTestResourceStorageInterner m_interner;
+
+    /** The scope of the current thread. */
+    private ThreadLocal<String> m_scope;
+
+    /** The storages per scope. */
+    private ConcurrentMap<String, ConcurrentMap<String, OpenCmsTestResourceStorage>> m_storages;
+
+    /** The map view of the storages in the scope of the calling thread. */
+    private Map<String, OpenCmsTestResourceStorage> m_view;
+
+    /**
+     * Creates a new, empty registry.<p>
+     */
+    public OpenCmsTestResourceStorageRegistry() {
+
+        m_blobStore = new OpenCmsTestBlobStore();
+        m_current = new ConcurrentHashMap<String, OpenCmsTestResourceStorage>();
+        m_interner = new OpenCmsTestResourceStorageInterner();
+        m_scope = new ThreadLocal<String>();
+        m_storages = new ConcurrentHashMap<String, ConcurrentMap<String, OpenCmsTestResourceStorage>>();
+        m_view = new ScopeView();
+    }
+
+    /**
+     * Registers an existing storage in the scope of the current thread, replacing a storage with the same name.<p>
+     *
+     * @param name the name of the storage
+     * @param storage the storage
+     * @return the replaced storage, which was cleared, or <code>null</code>
+     */
+    public OpenCmsTestResourceStorage add(String name, OpenCmsTestResourceStorage storage) {
+
+        OpenCmsTestResourceStorage replaced = getStorages(getScope()).put(name, storage);
+        if ((replaced != null) && (replaced != storage)) {
+            replaced.clear();
+        }
+        return replaced;
+    }
+
+    /**
+     * Returns a map view of the storages in the scope of the calling thread.<p>
+     *
+     * Each call on the view works on the scope of the thread making the call. Storages put into
+     * the view are registered with {@link #add(String, OpenCmsTestResourceStorage)}, storages removed
+     * from the view, also through its entry set, key set or values, are removed with
+     * {@link #remove(String)} and cleared.<p>
+     *
+     * @return a map view of the storages in the scope of the calling thread
+     */
+    public Map<String, OpenCmsTestResourceStorage> asMap() {
+
+        return m_view;
+    }
+
+    /**
+     * Removes all storages of all scopes.<p>
+     */
+    public void clear() {
+
+        Iterator<String> i = m_storages.keySet().iterator();
+        while (i.hasNext()) {
+            clearScope(i.next());
+        }
+        m_current.clear();
+    }
+
+    /**
+     * Removes all storages of the given scope.<p>
+     *
+     * @param scope the scope to clear
+     */
+    public void clearScope(String scope) {
+
+        ConcurrentMap<String, OpenCmsTestResourceStorage> storages = m_storages.remove(scope);
+        m_current.remove(scope);
+        if (storages != null) {
+            for (OpenCmsTestResourceStorage storage : storages.values()) {
+                storage.clear();
+            }
+        }
+    }
+
+    /**
+     * Creates a new storage in the scope of the current thread, replacing an existing storage with the same name.<p>
+     *
+     * @param name the name of the storage
+     * @return the new storage
+     */
+    public OpenCmsTestResourceStorage create(String name) {
+
+        OpenCmsTestResourceStorage storage = new OpenCmsTestResourceStorage(name, m_interner, m_blobStore);
+        add(name, storage);
+        return storage;
+    }
+
+    /**
+     * Returns a storage of the scope of the current thread.<p>
+     *
+     * @param name the name of the storage
+     * @return the storage, or <code>null</code> if no storage with this name exists
+     */
+    public OpenCmsTestResourceStorage get(String name) {
+
+        ConcurrentMap<String, OpenCmsTestResourceStorage> storages = m_storages.get(getScope());
+        return storages == null ? null : storages.get(name);
+    }
+
+    /**
+     * Returns the blob store shared by the storages created by this registry.<p>
+     *
+     * @return the blob store
+     */
+    public OpenCmsTestBlobStore getBlobStore() {
+
+        return m_blobStore;
+    }
+
+    /**
+     * Returns the current storage of the scope of the current thread.<p>
+     *
+     * @return the current storage, or <code>null</code> if no storage was switched to
+     */
+    public OpenCmsTestResourceStorage getCurrent() {
+
+        return m_current.get(getScope());
+    }
+
+    /**
+     * Returns the interner shared by the storages created by this registry.<p>
+     *
+     * @return the interner
+     */
+    public OpenCmsTestResourceStorageInterner getInterner() {
+
+        return m_interner;
+    }
+
+    /**
+     * Returns the scope of the current thread.<p>
+     *
+     * @return the scope of the current thread
+     */
+    public String getScope() {
+
+        String scope = m_scope.get();
+        return scope == null ? SHARED_SCOPE : scope;
+    }
+
+    /**
+     * Removes a storage from the scope of the current thread and clears it.<p>
+     *
+     * @param name the name of the storage
+     * @return the removed storage, or <code>null</code> if no storage with this name exists
+     */
+    public OpenCmsTestResourceStorage remove(String name) {
+
+        ConcurrentMap<String, OpenCmsTestResourceStorage> storages = m_storages.get(getScope());
+        OpenCmsTestResourceStorage storage = storages == null ? null : storages.remove(name);
+        if (storage != null) {
+            m_current.remove(getScope(), storage);
+            storage.clear();
+        }
+        return storage;
+    }
+
+    /**
+     * Sets the scope of the current thread.<p>
+     *
+     * @param scope the scope, or <code>null</code> to use the shared scope
+     */
+    public void setScope(String scope) {
+
+        if (scope == null) {
+            m_scope.remove();
+        } else {
+            m_scope.set(scope);
+        }
+    }
+
+    /**
+     * Makes a storage the current storage of the scope of the current thread.<p>
+     *
+     * @param name the name of the storage
+     * @return the storage, or <code>null</code> if no storage with this name exists
+     */
+    public OpenCmsTestResourceStorage switchTo(String name) {
+
+        OpenCmsTestResourceStorage storage = get(name);
+        if (storage != null) {
+            m_current.put(getScope(), storage);
+        }
+        return storage;
+    }
+
+    /**
+     * Returns the storages of a scope, creating the scope if required.<p>
+     *
+     * @param scope the scope
+     * @return the storages of the scope
+     */
+    private ConcurrentMap<String, OpenCmsTestResourceStorage> getStorages(String scope) {
+
+        ConcurrentMap<String, OpenCmsTestResourceStorage> storages = m_storages.get(scope);
+        if (storages == null) {
+            storages = new ConcurrentHashMap<String, OpenCmsTestResourceStorage>();
+            ConcurrentMap<String, OpenCmsTestResourceStorage> existing = m_storages.putIfAbsent(scope, storages);
+            if (existing != null) {
+                storages = existing;
+            }
+        }
+        return storages;
+    }
+}
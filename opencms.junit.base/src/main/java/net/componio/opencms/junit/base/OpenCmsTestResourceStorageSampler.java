@@ -0,0 +1,496 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.file.CmsObject;
+import org.opencms.file.CmsResource;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Selects a deterministic, stratified sample of a subtree for capture and comparison.<p>
+ *
+ * Resources are grouped into strata by type and depth. Each stratum is sampled with its own
+ * rate, the sample fraction or higher if required to select the minimum number of resources
+ * per stratum on average. Whether a resource is selected depends only on the seed, the stored resource
+ * name and the rate of its stratum, so the same sampler selects the same resources when
+ * capturing a storage and when comparing the VFS with it later.<p>
+ *
+ * The rates of the strata are fixed by the first selection, usually the capture. Touched
+ * resources, i.e. the resources changed by the operation under test, are always selected.
+ * They must be registered before the capture, so their stored state is known.<p>
+ *
+ * Use the same sampler instance for capture and comparison:
+ * <pre>
+ * OpenCmsTestResourceStorageSampler sampler = new OpenCmsTestResourceStorageSampler(4711, 0.05);
+ * sampler.addTouched("/folder1/page1.html");
+ * storage.addSubtree(cms, "/", CmsResourceFilter.ALL, sampler);
+ * // ... the operation under test
+ * comparator.setSampler(sampler);
+ * OpenCmsTestResourceStorageDiff diff = comparator.compare(cms, "/", CmsResourceFilter.ALL, storage);
+ * System.out.println(sampler.getCoverageReport());
+ * </pre>
+ */
+public class OpenCmsTestResourceStorageSampler {
+
+    /**
+     * Coverage of a single stratum by the last selection.<p>
+     */
+    public static class Stratum {
+
+        /** The depth of the resources. */
+        private int m_depth;
+
+        /** The number of resources in the stratum. */
+        private int m_population;
+
+        /** The sample rate. */
+        private double m_rate;
+
+        /** The number of resources selected by the sample rate. */
+        private int m_sampled;
+
+        /** The number of selected touched resources not selected by the sample rate. */
+        private int m_touched;
+
+        /** The type id of the resources. */
+        private int m_type;
+
+        /**
+         * Creates a new stratum.<p>
+         *
+         * @param type the type id of the resources
+         * @param depth the depth of the resources
+         * @param rate the sample rate
+         */
+        Stratum(int type, int depth, double rate) {
+
+            m_type = type;
+            m_depth = depth;
+            m_rate = rate;
+        }
+
+        /**
+         * Returns the depth of the resources.<p>
+         *
+         * @return the depth of the resources, 1 for resources in the root folder
+         */
+        public int getDepth() {
+
+            return m_depth;
+        }
+
+        /**
+         * Returns the highest rate of differing resources that may remain undetected.<p>
+         *
+         * If the sampled resources of this stratum show no differences, then with the given
+         * confidence less than the returned fraction of the resources of the stratum differ.<p>
+         *
+         * @param confidence the confidence, e.g. 0.95
+         * @return the fraction of resources that may differ undetected
+         */
+        public double getUndetectedRate(double confidence) {
+
+            if (m_sampled >= m_population) {
+                return 0;
+            }
+            if (m_sampled == 0) {
+                return 1;
+            }
+            return 1 - Math.pow(1 - confidence, 1.0 / m_sampled);
+        }
+
+        /**
+         * Returns the number of resources in the stratum.<p>
+         *
+         * @return the number of resources in the stratum
+         */
+        public int getPopulation() {
+
+            return m_population;
+        }
+
+        /**
+         * Returns the sample rate.<p>
+         *
+         * @return the sample rate
+         */
+        public double getRate() {
+
+            return m_rate;
+        }
+
+        /**
+         * Returns the number of resources selected by the sample rate.<p>
+         *
+         * @return the number of resources selected by the sample rate
+         */
+        public int getSampled() {
+
+            return m_sampled;
+        }
+
+        /**
+         * Returns the number of touched resources selected in addition to the sample.<p>
+         *
+         * @return the number of touched resources selected in addition to the sample
+         */
+        public int getTouched() {
+
+            return m_touched;
+        }
+
+        /**
+         * Returns the type id of the resources.<p>
+         *
+         * @return the type id of the resources
+         */
+        public int getType() {
+
+            return m_type;
+        }
+    }
+
+    /** The default confidence of the coverage report. */
+    public static final double DEFAULT_CONFIDENCE = 0.95;
+
+    /** The default minimum number of resources selected per stratum. */
+    public static final int DEFAULT_MINIMUM_PER_STRATUM = 5;
+
+    /** The sample fraction. */
+    private double m_fraction;
+
+    /** The minimum number of resources selected per stratum. */
+    private int m_minimumPerStratum;
+
+    /** The fixed sample rates per stratum key. */
+    private ConcurrentMap<String, Double> m_rates;
+
+    /** The seed. */
+    private long m_seed;
+
+    /** The strata of the last selection, sorted by key. */
+    private volatile Map<String, Stratum> m_strata;
+
+    /** The names of the touched resources. */
+    private Set<String> m_touched;
+
+    /**
+     * Creates a new sampler.<p>
+     *
+     * @param seed the seed, the same seed selects the same resources
+     * @param fraction the fraction of resources to select, between 0 and 1
+     */
+    public OpenCmsTestResourceStorageSampler(long seed, double fraction) {
+
+        if ((fraction < 0) || (fraction > 1)) {
+            throw new IllegalArgumentException("Sample fraction must be between 0 and 1: " + fraction);
+        }
+        m_seed = seed;
+        m_fraction = fraction;
+        m_minimumPerStratum = DEFAULT_MINIMUM_PER_STRATUM;
+        m_rates = new ConcurrentHashMap<String, Double>();
+        m_strata = Collections.emptyMap();
+        m_touched = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    }
+
+    /**
+     * Registers a resource touched by the operation under test, which is always selected.<p>
+     *
+     * @param resourceName the site path of the touched resource
+     */
+    public void addTouched(String resourceName) {
+
+        m_touched.add(resourceName);
+    }
+
+    /**
+     * Returns the coverage report of the last selection with the default confidence.<p>
+     *
+     * @return the coverage report
+     */
+    public String getCoverageReport() {
+
+        return getCoverageReport(DEFAULT_CONFIDENCE);
+    }
+
+    /**
+     * Returns the coverage report of the last selection.<p>
+     *
+     * For each stratum the report shows the number of selected resources and the highest
+     * rate of differing resources that may remain undetected with the given confidence.<p>
+     *
+     * @param confidence the confidence, e.g. 0.95
+     * @return the coverage report
+     */
+    public String getCoverageReport(double confidence) {
+
+        StringBuffer result = new StringBuffer();
+        result.append("sampled ").append(getSampleSize()).append(" of ").append(getPopulation());
+        result.append(" resources, seed ").append(m_seed).append(", fraction ").append(m_fraction).append('\n');
+        for (Stratum stratum : m_strata.values()) {
+            result.append("  type ").append(stratum.getType());
+            result.append(", depth ").append(stratum.getDepth());
+            result.append(": ").append(stratum.getSampled() + stratum.getTouched());
+            result.append(" of ").append(stratum.getPopulation());
+            if (stratum.getTouched() > 0) {
+                result.append(" (").append(stratum.getTouched()).append(" touched)");
+            }
+            result.append(", undetected differences < ");
+            result.append(Math.round(stratum.getUndetectedRate(confidence) * 1000) / 10.0);
+            result.append("% at ").append(Math.round(confidence * 100)).append("% confidence\n");
+        }
+        return result.toString();
+    }
+
+    /**
+     * Returns the sample fraction.<p>
+     *
+     * @return the sample fraction
+     */
+    public double getFraction() {
+
+        return m_fraction;
+    }
+
+    /**
+     * Returns the minimum number of resources selected per stratum.<p>
+     *
+     * @return the minimum number of resources selected per stratum
+     */
+    public int getMinimumPerStratum() {
+
+        return m_minimumPerStratum;
+    }
+
+    /**
+     * Returns the number of resources the last selection was made from.<p>
+     *
+     * @return the number of resources
+     */
+    public int getPopulation() {
+
+        int result = 0;
+        for (Stratum stratum : m_strata.values()) {
+            result += stratum.getPopulation();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of resources selected by the last selection, including touched resources.<p>
+     *
+     * @return the number of selected resources
+     */
+    public int getSampleSize() {
+
+        int result = 0;
+        for (Stratum stratum : m_strata.values()) {
+            result += stratum.getSampled() + stratum.getTouched();
+        }
+        return result;
+    }
+
+    /**
+     * Returns the seed.<p>
+     *
+     * @return the seed
+     */
+    public long getSeed() {
+
+        return m_seed;
+    }
+
+    /**
+     * Returns the coverage of the strata by the last selection.<p>
+     *
+     * @return the strata, sorted by type and depth
+     */
+    public List<Stratum> getStrata() {
+
+        return new ArrayList<Stratum>(m_strata.values());
+    }
+
+    /**
+     * Checks if a resource is selected by the sample rate of its stratum.<p>
+     *
+     * Touched resources are not considered. Resources of strata not known to the sampler
+     * are checked against the sample fraction.<p>
+     *
+     * @param storedName the stored name of the resource
+     * @param resource the resource
+     * @return <code>true</code> if the resource is selected by the sample rate
+     */
+    public boolean isSampled(String storedName, CmsResource resource) {
+
+        Double rate = m_rates.get(getStratumKey(resource.getTypeId(), getDepth(storedName)));
+        return hash(storedName) < (rate == null ? m_fraction : rate.doubleValue());
+    }
+
+    /**
+     * Checks if a resource was registered as touched.<p>
+     *
+     * @param resourceName the site path of the resource
+     * @return <code>true</code> if the resource was registered as touched
+     */
+    public boolean isTouched(String resourceName) {
+
+        return m_touched.contains(resourceName);
+    }
+
+    /**
+     * Selects the sample from the resources of a subtree.<p>
+     *
+     * Strata not known yet get their sample rate fixed from the number of their resources.
+     * The coverage of this selection replaces the coverage of the last selection.<p>
+     *
+     * @param cms the CmsObject used to read the resources
+     * @param resources the resources of the subtree by stored name
+     * @return the stored names of the selected resources
+     */
+    public List<String> select(CmsObject cms, Map<String, CmsResource> resources) {
+
+        Map<String, List<String>> namesByStratum = new TreeMap<String, List<String>>();
+        Map<String, Stratum> strata = new TreeMap<String, Stratum>();
+        for (Map.Entry<String, CmsResource> entry : resources.entrySet()) {
+            int type = entry.getValue().getTypeId();
+            int depth = getDepth(entry.getKey());
+            String key = getStratumKey(type, depth);
+            List<String> names = namesByStratum.get(key);
+            if (names == null) {
+                names = new ArrayList<String>();
+                namesByStratum.put(key, names);
+                strata.put(key, new Stratum(type, depth, 0));
+            }
+            names.add(entry.getKey());
+        }
+
+        List<String> result = new ArrayList<String>();
+        for (Map.Entry<String, List<String>> entry : namesByStratum.entrySet()) {
+            String key = entry.getKey();
+            List<String> names = entry.getValue();
+            Double rate = m_rates.get(key);
+            if (rate == null) {
+                double required = names.isEmpty() ? 0 : (double)m_minimumPerStratum / names.size();
+                rate = Double.valueOf(Math.min(1, Math.max(m_fraction, required)));
+                Double existing = m_rates.putIfAbsent(key, rate);
+                if (existing != null) {
+                    rate = existing;
+                }
+            }
+            Stratum stratum = strata.get(key);
+            stratum.m_rate = rate.doubleValue();
+            stratum.m_population = names.size();
+            for (String name : names) {
+                if (hash(name) < stratum.m_rate) {
+                    stratum.m_sampled++;
+                    result.add(name);
+                } else if (!m_touched.isEmpty()
+                    && (m_touched.contains(name) || m_touched.contains(cms.getSitePath(resources.get(name))))) {
+                    stratum.m_touched++;
+                    result.add(name);
+                }
+            }
+        }
+        m_strata = Collections.unmodifiableMap(strata);
+        Collections.sort(result);
+        return result;
+    }
+
+    /**
+     * Sets the minimum number of resources selected per stratum.<p>
+     *
+     * Only affects strata whose sample rate is not fixed yet.<p>
+     *
+     * @param minimumPerStratum the minimum number of resources selected per stratum
+     */
+    public void setMinimumPerStratum(int minimumPerStratum) {
+
+        m_minimumPerStratum = minimumPerStratum;
+    }
+
+    /**
+     * Returns the depth of a resource name.<p>
+     *
+     * @param name the resource name
+     * @return the number of path segments
+     */
+    private int getDepth(String name) {
+
+        int depth = 0;
+        int length = name.endsWith("/") ? name.length() - 1 : name.length();
+        for (int i = 0; i < length; i++) {
+            if (name.charAt(i) == '/') {
+                depth++;
+            }
+        }
+        return depth;
+    }
+
+    /**
+     * Returns the key of a stratum.<p>
+     *
+     * @param type the type id
+     * @param depth the depth
+     * @return the key of the stratum
+     */
+    private String getStratumKey(int type, int depth) {
+
+        // zero padded, so the strata sort by type and depth
+        return String.format("%010d/%05d", Integer.valueOf(type), Integer.valueOf(depth));
+    }
+
+    /**
+     * Returns the seeded hash of a resource name as value between 0 and 1.<p>
+     *
+     * @param name the resource name
+     * @return the hash value, at least 0 and less than 1
+     */
+    private double hash(String name) {
+
+        // FNV-1a over the seed and the characters, finished with a 64 bit mixer
+        long h = 0xcbf29ce484222325L ^ m_seed;
+        for (int i = 0; i < name.length(); i++) {
+            h ^= name.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return (h >>> 11) * 0x1.0p-53;
+    }
+}
@@ -0,0 +1,856 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.util.CmsUUID;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Saves and loads resource storages in a compact binary format.<p>
+ *
+ * The format starts with a magic number and a format version, followed by the storage name and
+ * the entry records. Records reference strings and UUIDs by their dictionary index, so repeated
+ * values like user ids, property names or paths are written only once. A string or UUID is
+ * defined in the record that uses it first, so the records are written straight to the output
+ * while the storage is saved.<p>
+ *
+ * Each record consists of its length-prefixed fields followed by its content bytes. The fields
+ * hold the length of each content, the content itself is written from the read-only views of the
+ * entries without copying it into a buffer first.<p>
+ *
+ * Files are read through a memory mapped buffer, streams are decoded record by record. Files
+ * written with format version 1, which starts with the dictionaries, are still read.<p>
+ */
+public final class OpenCmsTestResourceStorageSerializer {
+
+    /**
+     * Reads the values of a single entry record.<p>
+     */
+    public static final class RecordReader {
+
+        /** The input to read the fields from. */
+        private DataInputStream m_in;
+
+        /** Indicates if the dictionaries are defined in the records. */
+        private boolean m_inline;
+
+        /** The input to read the content from, or <code>null</code> if the content is read with the fields. */
+        private DataInputStream m_payload;
+
+        /** The number of content bytes of the current record not read yet. */
+        private long m_payloadRemaining;
+
+        /** The string dictionary. */
+        private List<String> m_strings;
+
+        /** The UUID dictionary. */
+        private List<CmsUUID> m_uuids;
+
+        /**
+         * Creates a new record reader.<p>
+         *
+         * @param in the input to read from
+         * @param strings the string dictionary
+         * @param uuids the UUID dictionary
+         * @param inline if strings and UUIDs not in the dictionaries yet are defined in the records
+         */
+        RecordReader(DataInputStream in, List<String> strings, List<CmsUUID> uuids, boolean inline) {
+
+            m_in = in;
+            m_strings = strings;
+            m_uuids = uuids;
+            m_inline = inline;
+        }
+
+        /**
+         * Reads a boolean.<p>
+         *
+         * @return the value read
+         * @throws IOException if reading fails
+         */
+        public boolean readBoolean() throws IOException {
+
+            return m_in.readBoolean();
+        }
+
+        /**
+         * Reads a byte array written with {@link RecordWriter#writeBytes(byte[])}.<p>
+         *
+         * @return the value read
+         * @throws IOException if reading fails
+         */
+        public byte[] readBytes() throws IOException {
+
+            int length = OpenCmsTestResourceStorageSerializer.readVarInt(m_in) - 1;
+            if (length < 0) {
+                return null;
+            }
+            byte[] result = new byte[length];
+            if (m_payload == null) {
+                m_in.readFully(result);
+                return result;
+            }
+            if (length > m_payloadRemaining) {
+                throw new IOException("Content of "
+                    + length
+                    + " bytes exceeds the remaining "
+                    + m_payloadRemaining
+                    + " content bytes of the record");
+            }
+            m_payload.readFully(result);
+            m_payloadRemaining -= length;
+            return result;
+        }
+
+        /**
+         * Reads a fixed size integer.<p>
+         *
+         * @return the value read
+         * @throws IOException if reading fails
+         */
+        public int readInt() throws IOException {
+
+            return m_in.readInt();
+        }
+
+        /**
+         * Reads a long.<p>
+         *
+         * @return the value read
+         * @throws IOException if reading fails
+         */
+        public long readLong() throws IOException {
+
+            return m_in.readLong();
+        }
+
+        /**
+         * Reads a string by its dictionary index.<p>
+         *
+         * @return the value read
+         * @throws IOException if reading fails
+         */
+        public String readString() throws IOException {
+
+            int index = OpenCmsTestResourceStorageSerializer.readVarInt(m_in) - 1;
+            if (m_inline && (index == m_strings.size())) {
+                m_strings.add(OpenCmsTestResourceStorageSerializer.readUtf8(m_in));
+            }
+            if (index >= m_strings.size()) {
+                throw new IOException("Invalid string dictionary index " + index);
+            }
+            return index < 0 ? null : m_strings.get(index);
+        }
+
+        /**
+         * Reads a UUID by its dictionary index.<p>
+         *
+         * @return the value read
+         * @throws IOException if reading fails
+         */
+        public CmsUUID readUUID() throws IOException {
+
+            int index = OpenCmsTestResourceStorageSerializer.readVarInt(m_in) - 1;
+            if (m_inline && (index == m_uuids.size())) {
+                m_uuids.add(OpenCmsTestResourceStorageSerializer.readUUID(m_in));
+            }
+            if (index >= m_uuids.size()) {
+                throw new IOException("Invalid UUID dictionary index " + index);
+            }
+            return index < 0 ? null : m_uuids.get(index);
+        }
+
+        /**
+         * Reads a non negative variable length integer.<p>
+         *
+         * @return the value read
+         * @throws IOException if reading fails
+         */
+        public int readVarInt() throws IOException {
+
+            return OpenCmsTestResourceStorageSerializer.readVarInt(m_in);
+        }
+
+        /**
+         * Finishes the current record, skipping the content bytes not read.<p>
+         *
+         * @throws IOException if reading fails
+         */
+        void endRecord() throws IOException {
+
+            if (m_payload == null) {
+                return;
+            }
+            byte[] skipped = new byte[(int)Math.min(m_payloadRemaining, 8192)];
+            while (m_payloadRemaining > 0) {
+                // fails with an EOFException if the stream is truncated
+                int length = (int)Math.min(m_payloadRemaining, skipped.length);
+                m_payload.readFully(skipped, 0, length);
+                m_payloadRemaining -= length;
+            }
+        }
+
+        /**
+         * Starts a record with the fields read from a buffer and the content read from the input.<p>
+         *
+         * @param fields the fields of the record
+         * @param payload the input to read the content from
+         * @param payloadLength the number of content bytes of the record
+         */
+        void startRecord(DataInputStream fields, DataInputStream payload, long payloadLength) {
+
+            m_in = fields;
+            m_payload = payload;
+            m_payloadRemaining = payloadLength;
+        }
+    }
+
+    /**
+     * Writes the values of a single entry record.<p>
+     */
+    public static final class RecordWriter {
+
+        /** The output to write the fields to. */
+        private DataOutputStream m_out;
+
+        /** The number of content bytes of the current record. */
+        private long m_payloadLength;
+
+        /** The content of the current record, written after its fields. */
+        private List<ByteBuffer> m_payloads;
+
+        /** The string dictionary. */
+        private Map<String, Integer> m_strings;
+
+        /** The UUID dictionary. */
+        private Map<CmsUUID, Integer> m_uuids;
+
+        /**
+         * Creates a new record writer.<p>
+         *
+         * @param out the output to write the fields to
+         */
+        RecordWriter(DataOutputStream out) {
+
+            m_out = out;
+            m_payloads = new ArrayList<ByteBuffer>();
+            m_strings = new HashMap<String, Integer>();
+            m_uuids = new HashMap<CmsUUID, Integer>();
+        }
+
+        /**
+         * Writes a boolean.<p>
+         *
+         * @param value the value to write
+         * @throws IOException if writing fails
+         */
+        public void writeBoolean(boolean value) throws IOException {
+
+            m_out.writeBoolean(value);
+        }
+
+        /**
+         * Writes a length-prefixed byte array, which may be <code>null</code>.<p>
+         *
+         * @param value the value to write
+         * @throws IOException if writing fails
+         */
+        public void writeBytes(byte[] value) throws IOException {
+
+            writeBytes(value == null ? null : ByteBuffer.wrap(value));
+        }
+
+        /**
+         * Writes the remaining bytes of a buffer length-prefixed, the buffer may be <code>null</code>.<p>
+         *
+         * The bytes are written after the fields of the record, the buffer must not be modified
+         * until then. The position of the buffer is not changed.<p>
+         *
+         * @param value the value to write
+         * @throws IOException if writing fails
+         */
+        public void writeBytes(ByteBuffer value) throws IOException {
+
+            if (value == null) {
+                OpenCmsTestResourceStorageSerializer.writeVarInt(m_out, 0);
+                return;
+            }
+            ByteBuffer buffer = value.duplicate();
+            OpenCmsTestResourceStorageSerializer.writeVarInt(m_out, buffer.remaining() + 1);
+            m_payloads.add(buffer);
+            m_payloadLength += buffer.remaining();
+        }
+
+        /**
+         * Writes a fixed size integer.<p>
+         *
+         * @param value the value to write
+         * @throws IOException if writing fails
+         */
+        public void writeInt(int value) throws IOException {
+
+            m_out.writeInt(value);
+        }
+
+        /**
+         * Writes a long.<p>
+         *
+         * @param value the value to write
+         * @throws IOException if writing fails
+         */
+        public void writeLong(long value) throws IOException {
+
+            m_out.writeLong(value);
+        }
+
+        /**
+         * Writes the dictionary index of a string, which may be <code>null</code>.<p>
+         *
+         * @param value the value to write
+         * @throws IOException if writing fails
+         */
+        public void writeString(String value) throws IOException {
+
+            if (value == null) {
+                OpenCmsTestResourceStorageSerializer.writeVarInt(m_out, 0);
+                return;
+            }
+            Integer index = m_strings.get(value);
+            if (index == null) {
+                index = Integer.valueOf(m_strings.size());
+                m_strings.put(value, index);
+                OpenCmsTestResourceStorageSerializer.writeVarInt(m_out, index.intValue() + 1);
+                OpenCmsTestResourceStorageSerializer.writeUtf8(m_out, value);
+                return;
+            }
+            OpenCmsTestResourceStorageSerializer.writeVarInt(m_out, index.intValue() + 1);
+        }
+
+        /**
+         * Writes the dictionary index of a UUID, which may be <code>null</code>.<p>
+         *
+         * @param value the value to write
+         * @throws IOException if writing fails
+         */
+        public void writeUUID(CmsUUID value) throws IOException {
+
+            if (value == null) {
+                OpenCmsTestResourceStorageSerializer.writeVarInt(m_out, 0);
+                return;
+            }
+            Integer index = m_uuids.get(value);
+            if (index == null) {
+                index = Integer.valueOf(m_uuids.size());
+                m_uuids.put(value, index);
+                OpenCmsTestResourceStorageSerializer.writeVarInt(m_out, index.intValue() + 1);
+                m_out.write(value.toByteArray());
+                return;
+            }
+            OpenCmsTestResourceStorageSerializer.writeVarInt(m_out, index.intValue() + 1);
+        }
+
+        /**
+         * Writes a non negative variable length integer.<p>
+         *
+         * @param value the value to write
+         * @throws IOException if writing fails
+         */
+        public void writeVarInt(int value) throws IOException {
+
+            OpenCmsTestResourceStorageSerializer.writeVarInt(m_out, value);
+        }
+
+        /**
+         * Writes the number of content bytes of the current record followed by the content.<p>
+         *
+         * @param out the output to write to
+         * @throws IOException if writing fails
+         */
+        void writePayload(DataOutputStream out) throws IOException {
+
+            out.writeLong(m_payloadLength);
+            byte[] chunk = new byte[(int)Math.min(m_payloadLength, 8192)];
+            for (ByteBuffer buffer : m_payloads) {
+                while (buffer.hasRemaining()) {
+                    int length = Math.min(chunk.length, buffer.remaining());
+                    buffer.get(chunk, 0, length);
+                    out.write(chunk, 0, length);
+                }
+            }
+            m_payloads.clear();
+            m_payloadLength = 0;
+        }
+    }
+
+    /**
+     * Input stream counting the bytes read, used to skip unknown trailing record fields.<p>
+     */
+    private static final class CountingInputStream extends FilterInputStream {
+
+        /** The number of bytes read. */
+        private long m_count;
+
+        /**
+         * Creates a new counting input stream.<p>
+         *
+         * @param in the stream to read from
+         */
+        CountingInputStream(InputStream in) {
+
+            super(in);
+        }
+
+        /**
+         * Returns the number of bytes read.<p>
+         *
+         * @return the number of bytes read
+         */
+        long getCount() {
+
+            return m_count;
+        }
+
+        /**
+         * @see java.io.FilterInputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+
+            int result = super.read();
+            if (result >= 0) {
+                m_count++;
+            }
+            return result;
+        }
+
+        /**
+         * @see java.io.FilterInputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                m_count += result;
+            }
+            return result;
+        }
+
+        /**
+         * @see java.io.FilterInputStream#skip(long)
+         */
+        @Override
+        public long skip(long n) throws IOException {
+
+            long result = super.skip(n);
+            m_count += result;
+            return result;
+        }
+    }
+
+    /**
+     * Input stream over the fields of a single record, failing when a field is read beyond the record.<p>
+     */
+    private static final class RecordInputStream extends InputStream {
+
+        /** The fields of the record. */
+        private byte[] m_fields;
+
+        /** The message of the exception thrown when reading beyond the record. */
+        private String m_message;
+
+        /** The position of the next byte to read. */
+        private int m_position;
+
+        /**
+         * Creates a new record input stream.<p>
+         *
+         * @param fields the fields of the record
+         * @param message the message of the exception thrown when reading beyond the record
+         */
+        RecordInputStream(byte[] fields, String message) {
+
+            m_fields = fields;
+            m_message = message;
+        }
+
+        /**
+         * @see java.io.InputStream#available()
+         */
+        @Override
+        public int available() {
+
+            return m_fields.length - m_position;
+        }
+
+        /**
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+
+            if (m_position >= m_fields.length) {
+                throw new IOException(m_message);
+            }
+            return m_fields[m_position++] & 0xFF;
+        }
+
+        /**
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            if (len == 0) {
+                return 0;
+            }
+            if (m_position >= m_fields.length) {
+                throw new IOException(m_message);
+            }
+            int count = Math.min(len, m_fields.length - m_position);
+            System.arraycopy(m_fields, m_position, b, off, count);
+            m_position += count;
+            return count;
+        }
+    }
+
+    /**
+     * Input stream reading from a (memory mapped) byte buffer.<p>
+     */
+    private static final class ByteBufferInputStream extends InputStream {
+
+        /** The buffer to read from. */
+        private ByteBuffer m_buffer;
+
+        /**
+         * Creates a new input stream.<p>
+         *
+         * @param buffer the buffer to read from
+         */
+        ByteBufferInputStream(ByteBuffer buffer) {
+
+            m_buffer = buffer;
+        }
+
+        /**
+         * @see java.io.InputStream#available()
+         */
+        @Override
+        public int available() {
+
+            return m_buffer.remaining();
+        }
+
+        /**
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() {
+
+            return m_buffer.hasRemaining() ? (m_buffer.get() & 0xFF) : -1;
+        }
+
+        /**
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) {
+
+            if (!m_buffer.hasRemaining()) {
+                return -1;
+            }
+            int count = Math.min(len, m_buffer.remaining());
+            m_buffer.get(b, off, count);
+            return count;
+        }
+    }
+
+    /** The magic number at the start of each file ("OCTS"). */
+    public static final int MAGIC = 0x4F435453;
+
+    /** The current format version. */
+    public static final int VERSION = 2;
+
+    /**
+     * Hides the public constructor for this utility class.<p>
+     */
+    private OpenCmsTestResourceStorageSerializer() {
+
+        // hide the constructor
+    }
+
+    /**
+     * Loads a storage from a file using a memory mapped buffer.<p>
+     *
+     * @param file the file to load
+     * @return the loaded storage
+     * @throws IOException if reading fails or the file has an unsupported format
+     */
+    public static OpenCmsTestResourceStorage load(File file) throws IOException {
+
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return load(new ByteBufferInputStream(buffer));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Loads a storage from a stream, decoding the entries one by one.<p>
+     *
+     * @param input the stream to read from
+     * @return the loaded storage
+     * @throws IOException if reading fails or the stream has an unsupported format
+     * @throws EOFException if the stream is truncated
+     */
+    public static OpenCmsTestResourceStorage load(InputStream input) throws IOException {
+
+        CountingInputStream counter = new CountingInputStream(input instanceof ByteBufferInputStream
+        ? input
+        : new BufferedInputStream(input));
+        DataInputStream in = new DataInputStream(counter);
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a resource storage file");
+        }
+        int version = in.readInt();
+        if ((version < 1) || (version > VERSION)) {
+            throw new IOException("Unsupported resource storage format version " + version);
+        }
+        OpenCmsTestResourceStorage storage = new OpenCmsTestResourceStorage(readUtf8(in));
+        List<String> strings = new ArrayList<String>();
+        List<CmsUUID> uuids = new ArrayList<CmsUUID>();
+        if (version == 1) {
+            // version 1 starts with the dictionaries
+            for (int i = readVarInt(in); i > 0; i--) {
+                strings.add(readUtf8(in));
+            }
+            for (int i = readVarInt(in); i > 0; i--) {
+                uuids.add(readUUID(in));
+            }
+        }
+
+        RecordReader reader = new RecordReader(in, strings, uuids, version > 1);
+        int count = readVarInt(in);
+        for (int i = 0; i < count; i++) {
+            long offset = counter.getCount();
+            // the record length allows newer versions to append fields to a record
+            int length = readVarInt(in);
+            long end = counter.getCount() + length;
+            String message = "Record " + i + " at offset " + offset;
+            if (version > 1) {
+                byte[] fields = new byte[length];
+                in.readFully(fields);
+                reader.startRecord(
+                    new DataInputStream(new RecordInputStream(fields, message
+                        + " is longer than its declared length of "
+                        + length
+                        + " bytes")),
+                    in,
+                    in.readLong());
+            }
+            String resourceName = reader.readString();
+            if (resourceName == null) {
+                throw new IOException(message + " has no resource name");
+            }
+            storage.add(resourceName, new OpenCmsTestResourceStorageEntry(reader));
+            if (version > 1) {
+                reader.endRecord();
+                continue;
+            }
+            long remaining = end - counter.getCount();
+            if (remaining < 0) {
+                throw new IOException(message
+                    + " of resource "
+                    + resourceName
+                    + " is longer than its declared length of "
+                    + length
+                    + " bytes");
+            }
+            if (remaining > 0) {
+                // fails with an EOFException if the stream is truncated
+                in.readFully(new byte[(int)remaining]);
+            }
+        }
+        return storage;
+    }
+
+    /**
+     * Saves a storage to a file.<p>
+     *
+     * @param storage the storage to save
+     * @param file the file to write
+     * @throws IOException if writing fails
+     */
+    public static void save(OpenCmsTestResourceStorage storage, File file) throws IOException {
+
+        OutputStream out = new FileOutputStream(file);
+        try {
+            save(storage, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Saves a storage to a stream.<p>
+     *
+     * The records are written to the stream one by one, only the fields of the current record
+     * are buffered. The stream is flushed but not closed.<p>
+     *
+     * @param storage the storage to save
+     * @param output the stream to write to
+     * @throws IOException if writing fails
+     */
+    public static void save(OpenCmsTestResourceStorage storage, OutputStream output) throws IOException {
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(output));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        writeUtf8(out, storage.getName());
+
+        Set<String> resourceNames = new TreeSet<String>(storage.getResourceNames());
+        writeVarInt(out, resourceNames.size());
+        ByteArrayOutputStream record = new ByteArrayOutputStream();
+        DataOutputStream recordOut = new DataOutputStream(record);
+        RecordWriter writer = new RecordWriter(recordOut);
+        for (String resourceName : resourceNames) {
+            record.reset();
+            writer.writeString(resourceName);
+            storage.getEntry(resourceName).write(writer);
+            recordOut.flush();
+            writeVarInt(out, record.size());
+            record.writeTo(out);
+            writer.writePayload(out);
+        }
+        out.flush();
+    }
+
+    /**
+     * Reads a UUID.<p>
+     *
+     * @param in the input to read from
+     * @return the UUID read
+     * @throws IOException if reading fails
+     */
+    static CmsUUID readUUID(DataInputStream in) throws IOException {
+
+        byte[] uuid = new byte[16];
+        in.readFully(uuid);
+        return new CmsUUID(uuid);
+    }
+
+    /**
+     * Reads a non negative variable length integer.<p>
+     *
+     * @param in the input to read from
+     * @return the value read
+     * @throws IOException if reading fails
+     */
+    static int readVarInt(DataInputStream in) throws IOException {
+
+        int result = 0;
+        int shift = 0;
+        int b;
+        do {
+            b = in.readUnsignedByte();
+            result |= (b & 0x7F) << shift;
+            shift += 7;
+        } while ((b & 0x80) != 0);
+        return result;
+    }
+
+    /**
+     * Writes a non negative variable length integer.<p>
+     *
+     * @param out the output to write to
+     * @param value the value to write
+     * @throws IOException if writing fails
+     */
+    static void writeVarInt(DataOutputStream out, int value) throws IOException {
+
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+
+    /**
+     * Reads a length-prefixed UTF-8 string.<p>
+     *
+     * @param in the input to read from
+     * @return the string read
+     * @throws IOException if reading fails
+     */
+    static String readUtf8(DataInputStream in) throws IOException {
+
+        byte[] bytes = new byte[readVarInt(in)];
+        in.readFully(bytes);
+        return new String(bytes, "UTF-8");
+    }
+
+    /**
+     * Writes a length-prefixed UTF-8 string.<p>
+     *
+     * Unlike {@link DataOutputStream#writeUTF(String)} this is not limited to 64k.<p>
+     *
+     * @param out the output to write to
+     * @param value the string to write
+     * @throws IOException if writing fails
+     */
+    static void writeUtf8(DataOutputStream out, String value) throws IOException {
+
+        byte[] bytes = value.getBytes("UTF-8");
+        writeVarInt(out, bytes.length);
+        out.write(bytes);
+    }
+}
@@ -0,0 +1,546 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.file.CmsObject;
+import org.opencms.file.CmsResource;
+import org.opencms.file.CmsResourceFilter;
+import org.opencms.main.CmsException;
+import org.opencms.main.OpenCms;
+import org.opencms.search.CmsSearchIndex;
+import org.opencms.search.CmsSearchIndexSource;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.net.URLDecoder;
+import java.security.CodeSource;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.io.FileUtils;
+
+/**
+ * Cache of the search indexes built during the setup of the test instance, keyed by a fingerprint of their input.<p>
+ *
+ * The fingerprint is a hash of the imported files, the setup scripts, all configuration files,
+ * the module packages, the import target and the OpenCms library. If the cache holds an index
+ * folder for the fingerprint, the harness restores it before OpenCms starts and sets the
+ * rebuild mode of all indexes to manual before the first setup script runs, so the indexes are
+ * not updated again. Otherwise the index folder is archived under the fingerprint after the
+ * setup.<p>
+ *
+ * The fingerprint cannot cover the resources created by the setup, e.g. the structure ids of
+ * the folders created by the scripts. Each archive therefore stores a hash of the resources in
+ * the index sources, and {@link #verify(CmsObject)} compares it with the VFS after the setup. A
+ * restored index that does not match is discarded together with its archive, and the harness
+ * rebuilds the indexes. The cache is enabled with <code>test.searchIndex.cache=true</code> in the test
+ * properties or as system property, the folder defaults to
+ * <code>${java.io.tmpdir}/opencms-test-index-cache</code> and can be set with
+ * <code>test.searchIndex.cache.folder</code>.<p>
+ *
+ * Index updates that OpenCms has not written when the setup ends, e.g. pending offline
+ * updates, are not part of the archive.<p>
+ */
+public class OpenCmsTestSearchIndexCache {
+
+    /** The name of the configuration backup folder, which OpenCms writes during the setup. */
+    public static final String CONFIG_BACKUP_FOLDER = "backups";
+
+    /** The hash algorithm of the fingerprint. */
+    public static final String FINGERPRINT_ALGORITHM = "SHA-256";
+
+    /** The name of the index folder in an archive. */
+    public static final String INDEX_FOLDER = "index";
+
+    /** Name of the property to enable the cache. */
+    public static final String PROP_ENABLED = "test.searchIndex.cache";
+
+    /** Name of the property to set the cache folder. */
+    public static final String PROP_FOLDER = "test.searchIndex.cache.folder";
+
+    /** The file name of the search configuration. */
+    public static final String SEARCH_CONFIGURATION = "opencms-search.xml";
+
+    /** The name of the file with the hash of the indexed resources in an archive. */
+    public static final String VFS_HASH_FILE = "vfs.sha256";
+
+    /** The fingerprint of the current setup. */
+    private String m_fingerprint;
+
+    /** The cache folder. */
+    private File m_folder;
+
+    /** Indicates if the index folder of the current setup was restored from the cache. */
+    private boolean m_restored;
+
+    /** The rebuild modes of the indexes while indexing is suspended. */
+    private Map<CmsSearchIndex, String> m_suspended;
+
+    /**
+     * Creates a new cache in the folder set by the system property {@link #PROP_FOLDER} or the default folder.<p>
+     */
+    public OpenCmsTestSearchIndexCache() {
+
+        String folder = System.getProperty(PROP_FOLDER);
+        m_folder = folder != null
+        ? new File(folder)
+        : new File(System.getProperty("java.io.tmpdir"), "opencms-test-index-cache");
+        m_suspended = new LinkedHashMap<CmsSearchIndex, String>();
+    }
+
+    /**
+     * Returns if the cache is enabled by a system property or the test properties.<p>
+     *
+     * @param configuration the test properties, may be <code>null</code>
+     * @return <code>true</code> if the cache is enabled
+     */
+    public static boolean isEnabled(Map<String, String> configuration) {
+
+        String value = getProperty(configuration, PROP_ENABLED);
+        return (value != null) && Boolean.valueOf(value.trim()).booleanValue();
+    }
+
+    /**
+     * Archives the index folder and the hash of the indexed resources under the fingerprint of the current setup.<p>
+     *
+     * Nothing is archived if the index folder was restored, is empty, or an archive for the
+     * fingerprint exists already.<p>
+     *
+     * @param indexFolder the index folder of the test instance
+     * @param cms the OpenCms context to read the indexed resources with
+     * @return <code>true</code> if the index folder was archived
+     * @throws IOException if copying the index folder fails
+     * @throws CmsException if reading the indexed resources fails
+     */
+    public synchronized boolean archive(File indexFolder, CmsObject cms) throws IOException, CmsException {
+
+        if ((m_fingerprint == null) || m_restored || !indexFolder.isDirectory()) {
+            return false;
+        }
+        String[] content = indexFolder.list();
+        File target = getArchive();
+        if ((content == null) || (content.length == 0) || target.isDirectory()) {
+            return false;
+        }
+        // copy to a temporary folder first, so concurrent builds never see a partial archive
+        File tmp = new File(m_folder, m_fingerprint + ".tmp-" + System.nanoTime());
+        FileUtils.copyDirectory(indexFolder, new File(tmp, INDEX_FOLDER));
+        FileUtils.writeStringToFile(new File(tmp, VFS_HASH_FILE), hashIndexedResources(cms), "UTF-8");
+        if (!tmp.renameTo(target)) {
+            FileUtils.deleteDirectory(tmp);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Forgets the fingerprint of the previous setup.<p>
+     */
+    public synchronized void clear() {
+
+        m_fingerprint = null;
+        m_restored = false;
+    }
+
+    /**
+     * Reads the cache folder from the test properties, unless it is set as system property.<p>
+     *
+     * @param configuration the test properties
+     */
+    public synchronized void configure(Map<String, String> configuration) {
+
+        String folder = getProperty(configuration, PROP_FOLDER);
+        if (folder != null) {
+            m_folder = new File(folder);
+        }
+    }
+
+    /**
+     * Computes and sets the fingerprint of the current setup.<p>
+     *
+     * @param importFiles the imported modules and files in import order
+     * @param scripts the setup scripts
+     * @param configFolder the configuration folder OpenCms starts with, must contain <code>opencms-search.xml</code>
+     * @param moduleFolder the folder of the module packages, may be <code>null</code>
+     * @param targetFolder the VFS target folder of the import
+     * @param publish <code>true</code> if the imported content is published
+     * @return the fingerprint
+     * @throws IOException if reading an input fails, or if the search configuration is missing
+     */
+    public synchronized String fingerprint(
+        List<File> importFiles,
+        List<File> scripts,
+        File configFolder,
+        File moduleFolder,
+        String targetFolder,
+        boolean publish) throws IOException {
+
+        File searchConfig = new File(configFolder, SEARCH_CONFIGURATION);
+        if (!searchConfig.isFile()) {
+            // a fingerprint without the search configuration would match setups with any configuration
+            throw new FileNotFoundException(searchConfig.getAbsolutePath());
+        }
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+        update(digest, "target:" + targetFolder + ",publish:" + publish);
+        for (File file : importFiles) {
+            update(digest, "import:" + file.getName());
+            update(digest, file);
+        }
+        for (File script : scripts) {
+            update(digest, "script:" + script.getName());
+            update(digest, script);
+        }
+        // the resource types and field configurations of the indexes are spread over the configuration files
+        updateFolder(digest, "config:", configFolder);
+        if (moduleFolder != null) {
+            updateFolder(digest, "module:", moduleFolder);
+        }
+        // a different OpenCms library may write a different index format
+        CodeSource source = OpenCms.class.getProtectionDomain().getCodeSource();
+        URL location = source == null ? null : source.getLocation();
+        if (location != null) {
+            File library = new File(URLDecoder.decode(location.getPath(), "UTF-8"));
+            update(digest, "library:" + location + "," + library.length() + "," + library.lastModified());
+        }
+        m_fingerprint = toHex(digest.digest());
+        m_restored = false;
+        return m_fingerprint;
+    }
+
+    /**
+     * Returns the cache folder.<p>
+     *
+     * @return the cache folder
+     */
+    public synchronized File getFolder() {
+
+        return m_folder;
+    }
+
+    /**
+     * Returns the fingerprint of the current setup.<p>
+     *
+     * @return the fingerprint, or <code>null</code> if none was computed
+     */
+    public synchronized String getFingerprint() {
+
+        return m_fingerprint;
+    }
+
+    /**
+     * Returns if the index folder of the current setup was restored from the cache.<p>
+     *
+     * @return <code>true</code> if the index folder was restored
+     */
+    public synchronized boolean isRestored() {
+
+        return m_restored;
+    }
+
+    /**
+     * Restores the archived index folder of the current fingerprint.<p>
+     *
+     * @param indexFolder the index folder of the test instance, replaced by the archive
+     * @return <code>true</code> if an archive was restored
+     * @throws IOException if copying the archive fails
+     */
+    public synchronized boolean restore(File indexFolder) throws IOException {
+
+        m_restored = false;
+        if (m_fingerprint == null) {
+            return false;
+        }
+        File archive = new File(getArchive(), INDEX_FOLDER);
+        if (!archive.isDirectory()) {
+            return false;
+        }
+        if (indexFolder.exists()) {
+            FileUtils.deleteDirectory(indexFolder);
+        }
+        FileUtils.copyDirectory(archive, indexFolder);
+        m_restored = true;
+        return true;
+    }
+
+    /**
+     * Restores the rebuild modes of the indexes changed by {@link #suspendIndexing()}.<p>
+     */
+    public synchronized void resumeIndexing() {
+
+        for (Map.Entry<CmsSearchIndex, String> entry : m_suspended.entrySet()) {
+            entry.getKey().setRebuildMode(entry.getValue());
+        }
+        m_suspended.clear();
+    }
+
+    /**
+     * Sets the rebuild mode of all indexes to manual, if the index folder was restored.<p>
+     *
+     * OpenCms then does not update the restored indexes while the setup scripts run and the
+     * content is imported and published. Must be called right after OpenCms started.<p>
+     */
+    public synchronized void suspendIndexing() {
+
+        if (!m_restored) {
+            return;
+        }
+        for (CmsSearchIndex index : OpenCms.getSearchManager().getSearchIndexes()) {
+            if (!m_suspended.containsKey(index)) {
+                m_suspended.put(index, index.getRebuildMode());
+                index.setRebuildMode(CmsSearchIndex.REBUILD_MODE_MANUAL);
+            }
+        }
+    }
+
+    /**
+     * Checks if the restored index folder matches the resources of the setup.<p>
+     *
+     * Compares the hash of the indexed resources stored in the archive with the VFS. If they
+     * differ, e.g. because a setup script created resources with new structure ids, the archive
+     * is deleted and the index folder no longer counts as restored, so the caller must rebuild
+     * the indexes.<p>
+     *
+     * @param cms the OpenCms context to read the indexed resources with
+     * @return <code>true</code> if the index folder was restored and matches the VFS
+     * @throws IOException if reading or deleting the archive fails
+     * @throws CmsException if reading the indexed resources fails
+     */
+    public synchronized boolean verify(CmsObject cms) throws IOException, CmsException {
+
+        if (!m_restored) {
+            return false;
+        }
+        File archive = getArchive();
+        File hashFile = new File(archive, VFS_HASH_FILE);
+        String expected = hashFile.isFile() ? FileUtils.readFileToString(hashFile, "UTF-8") : null;
+        if (hashIndexedResources(cms).equals(expected)) {
+            return true;
+        }
+        m_restored = false;
+        FileUtils.deleteDirectory(archive);
+        return false;
+    }
+
+    /**
+     * Returns a property from the system properties or the test properties.<p>
+     *
+     * @param configuration the test properties, may be <code>null</code>
+     * @param name the name of the property
+     * @return the value, or <code>null</code> if not set
+     */
+    private static String getProperty(Map<String, String> configuration, String name) {
+
+        String value = System.getProperty(name);
+        if ((value == null) && (configuration != null)) {
+            value = configuration.get(name);
+        }
+        return value;
+    }
+
+    /**
+     * Returns the archive folder of the current fingerprint.<p>
+     *
+     * @return the archive folder
+     */
+    private File getArchive() {
+
+        return new File(m_folder, m_fingerprint);
+    }
+
+    /**
+     * Returns a hash of the resources in the sources of all search indexes.<p>
+     *
+     * Covers the root path, the ids, the state, the size and the dates of each resource, read in
+     * the project of the index.<p>
+     *
+     * @param cms the OpenCms context to read the resources with
+     * @return the hash as hex string
+     * @throws CmsException if reading a project fails
+     */
+    private String hashIndexedResources(CmsObject cms) throws CmsException {
+
+        MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance(FINGERPRINT_ALGORITHM);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        List<CmsSearchIndex> indexes = new ArrayList<CmsSearchIndex>(OpenCms.getSearchManager().getSearchIndexes());
+        Collections.sort(indexes, new Comparator<CmsSearchIndex>() {
+
+            public int compare(CmsSearchIndex index1, CmsSearchIndex index2) {
+
+                return index1.getName().compareTo(index2.getName());
+            }
+        });
+        for (CmsSearchIndex index : indexes) {
+            update(digest, "index:" + index.getName() + "," + index.getProject());
+            CmsObject projectCms = OpenCms.initCmsObject(cms);
+            projectCms.getRequestContext().setCurrentProject(cms.readProject(index.getProject()));
+            projectCms.getRequestContext().setSiteRoot("/");
+            for (CmsSearchIndexSource source : index.getSources()) {
+                for (String path : source.getResourcesNames()) {
+                    List<CmsResource> resources;
+                    try {
+                        resources = new ArrayList<CmsResource>(
+                            projectCms.readResources(path, CmsResourceFilter.ALL, true));
+                    } catch (CmsException e) {
+                        update(digest, "missing:" + path);
+                        continue;
+                    }
+                    Collections.sort(resources, new Comparator<CmsResource>() {
+
+                        public int compare(CmsResource resource1, CmsResource resource2) {
+
+                            return resource1.getRootPath().compareTo(resource2.getRootPath());
+                        }
+                    });
+                    update(digest, "source:" + path);
+                    for (CmsResource resource : resources) {
+                        update(digest, resource.getRootPath()
+                            + ","
+                            + resource.getStructureId()
+                            + ","
+                            + resource.getResourceId()
+                            + ","
+                            + resource.getState()
+                            + ","
+                            + resource.getLength()
+                            + ","
+                            + resource.getDateLastModified()
+                            + ","
+                            + resource.getDateContent());
+                    }
+                }
+            }
+        }
+        return toHex(digest.digest());
+    }
+
+    /**
+     * Converts a hash to a hex string.<p>
+     *
+     * @param hash the hash
+     * @return the hex string
+     */
+    private String toHex(byte[] hash) {
+
+        StringBuffer result = new StringBuffer();
+        for (byte b : hash) {
+            result.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Adds the content of a file to a digest, a missing file adds a marker.<p>
+     *
+     * @param digest the digest
+     * @param file the file
+     * @throws IOException if reading the file fails
+     */
+    private void update(MessageDigest digest, File file) throws IOException {
+
+        if (!file.isFile()) {
+            update(digest, "missing");
+            return;
+        }
+        InputStream in = new FileInputStream(file);
+        try {
+            byte[] buffer = new byte[65536];
+            int read;
+            while ((read = in.read(buffer)) > 0) {
+                digest.update(buffer, 0, read);
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Adds a string to a digest, terminated so consecutive strings do not collide.<p>
+     *
+     * @param digest the digest
+     * @param value the string
+     */
+    private void update(MessageDigest digest, String value) {
+
+        try {
+            digest.update(value.getBytes("UTF-8"));
+        } catch (IOException e) {
+            // UTF-8 is always supported
+        }
+        digest.update((byte)0);
+    }
+
+    /**
+     * Adds the names and contents of all files in a folder tree to a digest, in name order.<p>
+     *
+     * The configuration backups OpenCms writes during the setup are skipped.<p>
+     *
+     * @param digest the digest
+     * @param prefix the prefix of the file names
+     * @param folder the folder, a missing folder adds a marker
+     * @throws IOException if reading a file fails
+     */
+    private void updateFolder(MessageDigest digest, String prefix, File folder) throws IOException {
+
+        File[] files = folder.listFiles();
+        if (files == null) {
+            update(digest, prefix + "missing");
+            return;
+        }
+        Arrays.sort(files);
+        for (File file : files) {
+            if (file.isDirectory()) {
+                if (!CONFIG_BACKUP_FOLDER.equals(file.getName())) {
+                    updateFolder(digest, prefix + file.getName() + "/", file);
+                }
+            } else {
+                update(digest, prefix + file.getName());
+                update(digest, file);
+            }
+        }
+    }
+}
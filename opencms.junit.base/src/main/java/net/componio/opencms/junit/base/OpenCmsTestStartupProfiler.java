@@ -0,0 +1,365 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.apache.log4j.spi.LoggingEvent;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Log handler measuring the phases of the OpenCms startup from the init log events.<p>
+ *
+ * OpenCms logs its startup milestones to the <code>org.opencms.init</code> category. While a
+ * boot is profiled, the profiler matches the messages of these events against an ordered list
+ * of milestones. The first message matching a later milestone ends the current phase and
+ * starts the phase of the milestone, so each phase lasts from its first message to the first
+ * message of the next phase. The init category must be logged at level INFO, otherwise only
+ * the total boot time is measured.<p>
+ *
+ * The default milestones cover reading the configuration, the database pools, the modules,
+ * the search manager and the scheduler. They are anchored to the label at the start of the
+ * init messages of each phase, e.g. <code>". Search manager : ..."</code>, so that messages
+ * only mentioning a phase, like the names of the configuration files read at the start, do not
+ * advance the profile. Add or replace milestones for other OpenCms versions with
+ * {@link #addMilestone(String, String)}.<p>
+ */
+public class OpenCmsTestStartupProfiler implements I_CmsLogHandler {
+
+    /**
+     * The measured phases of a single boot.<p>
+     */
+    public static class Boot {
+
+        /** The end time. */
+        private long m_end;
+
+        /** The label of the boot. */
+        private String m_label;
+
+        /** The phases. */
+        private List<Phase> m_phases;
+
+        /** The start time. */
+        private long m_start;
+
+        /**
+         * Creates a new boot.<p>
+         *
+         * @param label the label of the boot
+         * @param start the start time
+         */
+        Boot(String label, long start) {
+
+            m_label = label;
+            m_start = start;
+            m_phases = new ArrayList<Phase>();
+        }
+
+        /**
+         * Returns the total duration of the boot.<p>
+         *
+         * @return the total duration in milliseconds
+         */
+        public long getDuration() {
+
+            return m_end - m_start;
+        }
+
+        /**
+         * Returns the label of the boot.<p>
+         *
+         * @return the label of the boot
+         */
+        public String getLabel() {
+
+            return m_label;
+        }
+
+        /**
+         * Returns the phases of the boot in order.<p>
+         *
+         * @return the phases of the boot
+         */
+        public List<Phase> getPhases() {
+
+            return Collections.unmodifiableList(m_phases);
+        }
+
+        /**
+         * Returns the start time of the boot.<p>
+         *
+         * @return the start time
+         */
+        public long getStart() {
+
+            return m_start;
+        }
+
+        /**
+         * Returns the duration breakdown of the boot.<p>
+         *
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+
+            StringBuffer result = new StringBuffer();
+            result.append("----- OpenCms startup ").append(m_label).append(": ");
+            result.append(getDuration()).append(" ms -----\n");
+            for (Phase phase : m_phases) {
+                result.append(String.format("%-20s %8d ms %5.1f%%%n", phase.getName(), Long.valueOf(
+                    phase.getDuration()), Double.valueOf(
+                    getDuration() == 0 ? 0 : (100.0 * phase.getDuration()) / getDuration())));
+            }
+            return result.toString();
+        }
+    }
+
+    /**
+     * A single measured phase.<p>
+     */
+    public static class Phase {
+
+        /** The end time. */
+        private long m_end;
+
+        /** The first message of the phase. */
+        private String m_message;
+
+        /** The name of the phase. */
+        private String m_name;
+
+        /** The start time. */
+        private long m_start;
+
+        /**
+         * Creates a new phase.<p>
+         *
+         * @param name the name of the phase
+         * @param start the start time
+         * @param message the first message of the phase
+         */
+        Phase(String name, long start, String message) {
+
+            m_name = name;
+            m_start = start;
+            m_message = message;
+        }
+
+        /**
+         * Returns the duration of the phase.<p>
+         *
+         * @return the duration in milliseconds
+         */
+        public long getDuration() {
+
+            return m_end - m_start;
+        }
+
+        /**
+         * Returns the first message of the phase.<p>
+         *
+         * @return the first message, or <code>null</code> for the phase before the first milestone
+         */
+        public String getMessage() {
+
+            return m_message;
+        }
+
+        /**
+         * Returns the name of the phase.<p>
+         *
+         * @return the name of the phase
+         */
+        public String getName() {
+
+            return m_name;
+        }
+
+        /**
+         * Returns the start time of the phase.<p>
+         *
+         * @return the start time
+         */
+        public long getStart() {
+
+            return m_start;
+        }
+    }
+
+    /** The log category of the OpenCms init messages. */
+    public static final String INIT_CATEGORY = "org.opencms.init";
+
+    /** The name of the phase before the first milestone. */
+    public static final String PHASE_STARTUP = "startup";
+
+    /** The finished boots. */
+    private List<Boot> m_boots;
+
+    /** The boot currently profiled. */
+    private Boot m_current;
+
+    /** The index of the milestone of the current phase, -1 before the first milestone. */
+    private int m_currentMilestone;
+
+    /** The names of the milestones. */
+    private List<String> m_milestoneNames;
+
+    /** The message patterns of the milestones. */
+    private List<Pattern> m_milestonePatterns;
+
+    /**
+     * Creates a new profiler with the default milestones.<p>
+     */
+    public OpenCmsTestStartupProfiler() {
+
+        m_boots = new ArrayList<Boot>();
+        m_milestoneNames = new ArrayList<String>();
+        m_milestonePatterns = new ArrayList<Pattern>();
+        addMilestone("configuration", "^\\.?\\s*(configuration manager|config(uration)? file|loading config)");
+        addMilestone("database pool", "^\\.?\\s*(database (driver|pool)|driver manager|jdbc pool|db pool)[^:]*:");
+        addMilestone("modules", "^\\.?\\s*module manager\\s*:");
+        addMilestone("search manager", "^\\.?\\s*search manager\\s*:");
+        addMilestone("scheduler", "^\\.?\\s*scheduler( manager)?\\s*:");
+        addMilestone("running", "^\\.?\\s*opencms is running");
+    }
+
+    /**
+     * Adds a milestone after the existing milestones, or replaces the pattern of an existing milestone.<p>
+     *
+     * @param name the name of the phase started by the milestone
+     * @param regex the regular expression found in the message starting the phase, case insensitive, 
+     *      should be anchored to the start of the message
+     */
+    public synchronized void addMilestone(String name, String regex) {
+
+        Pattern pattern = Pattern.compile(regex, Pattern.CASE_INSENSITIVE);
+        int index = m_milestoneNames.indexOf(name);
+        if (index >= 0) {
+            m_milestonePatterns.set(index, pattern);
+        } else {
+            m_milestoneNames.add(name);
+            m_milestonePatterns.add(pattern);
+        }
+    }
+
+    /**
+     * Removes all milestones.<p>
+     */
+    public synchronized void clearMilestones() {
+
+        m_milestoneNames.clear();
+        m_milestonePatterns.clear();
+    }
+
+    /**
+     * Ends the profiling of the current boot.<p>
+     *
+     * @return the profiled boot, or <code>null</code> if no boot was profiled
+     */
+    public synchronized Boot endBoot() {
+
+        OpenCmsTestLogAppender.getHandlerRegistry().removeGlobalHandler(this);
+        Boot boot = m_current;
+        if (boot != null) {
+            boot.m_end = System.currentTimeMillis();
+            boot.m_phases.get(boot.m_phases.size() - 1).m_end = boot.m_end;
+            m_boots.add(boot);
+            m_current = null;
+        }
+        return boot;
+    }
+
+    /**
+     * Returns all profiled boots.<p>
+     *
+     * @return the profiled boots in order
+     */
+    public synchronized List<Boot> getBoots() {
+
+        return new ArrayList<Boot>(m_boots);
+    }
+
+    /**
+     * Returns the last profiled boot.<p>
+     *
+     * @return the last profiled boot, or <code>null</code> if no boot was profiled
+     */
+    public synchronized Boot getLastBoot() {
+
+        return m_boots.isEmpty() ? null : m_boots.get(m_boots.size() - 1);
+    }
+
+    /**
+     * @see net.componio.opencms.junit.base.I_CmsLogHandler#handleLogEvent(org.apache.log4j.spi.LoggingEvent)
+     */
+    public void handleLogEvent(LoggingEvent event) {
+
+        if (!event.getLoggerName().startsWith(INIT_CATEGORY)) {
+            return;
+        }
+        String message = event.getRenderedMessage();
+        if (message == null) {
+            return;
+        }
+        synchronized (this) {
+            if (m_current == null) {
+                return;
+            }
+            // phases only move forward, later messages may mention earlier milestones
+            for (int i = m_currentMilestone + 1; i < m_milestonePatterns.size(); i++) {
+                if (m_milestonePatterns.get(i).matcher(message).find()) {
+                    Phase phase = new Phase(m_milestoneNames.get(i), event.getTimeStamp(), message);
+                    m_current.m_phases.get(m_current.m_phases.size() - 1).m_end = phase.m_start;
+                    m_current.m_phases.add(phase);
+                    m_currentMilestone = i;
+                    break;
+                }
+            }
+        }
+    }
+
+    /**
+     * Starts profiling a boot, registering the profiler as global log handler until the boot ends.<p>
+     *
+     * @param label the label of the boot
+     */
+    public synchronized void startBoot(String label) {
+
+        if (m_current != null) {
+            endBoot();
+        }
+        m_current = new Boot(label, System.currentTimeMillis());
+        m_current.m_phases.add(new Phase(PHASE_STARTUP, m_current.m_start, null));
+        m_currentMilestone = -1;
+        OpenCmsTestLogAppender.getHandlerRegistry().addGlobalHandler(this);
+    }
+}
@@ -0,0 +1,163 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import org.opencms.db.CmsResourceState;
+import org.opencms.file.CmsFile;
+import org.opencms.file.CmsObject;
+import org.opencms.file.CmsProperty;
+import org.opencms.file.CmsResource;
+import org.opencms.lock.CmsLock;
+import org.opencms.security.CmsAccessControlEntry;
+import org.opencms.security.CmsAccessControlList;
+import org.opencms.util.CmsUUID;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CmsObject returning fixed values for the calls made when an entry is captured.<p>
+ *
+ * Lets the tests capture resource storage entries without an OpenCms instance.<p>
+ */
+final class OpenCmsTestCmsObjectStub extends CmsObject {
+
+    /** The user of the test resources. */
+    static final CmsUUID USER = new CmsUUID("c300ba5c-01e8-3727-b305-5dcc9ccae1ef");
+
+    /** The content returned for files. */
+    private byte[] m_contents;
+
+    /** The principal of the access control entry. */
+    private CmsUUID m_principal;
+
+    /**
+     * Creates a new CmsObject stub.<p>
+     *
+     * @param contents the content returned for files
+     * @param principal the principal of the access control entry
+     */
+    OpenCmsTestCmsObjectStub(byte[] contents, CmsUUID principal) {
+
+        super(null, null);
+        m_contents = contents;
+        m_principal = principal;
+    }
+
+    /**
+     * Creates a resource for a test storage.<p>
+     *
+     * @param rootPath the root path of the resource
+     * @param id the structure and resource id
+     * @param isFolder if the resource is a folder
+     * @param state the state of the resource
+     * @param length the length of the content, -1 for folders
+     * @return the resource
+     */
+    static CmsResource createResource(
+        String rootPath,
+        String id,
+        boolean isFolder,
+        CmsResourceState state,
+        int length) {
+
+        return new CmsResource(
+            new CmsUUID(id),
+            new CmsUUID(id),
+            rootPath,
+            isFolder ? 0 : 1,
+            isFolder,
+            0,
+            USER,
+            state,
+            1000L,
+            USER,
+            2000L,
+            USER,
+            CmsResource.DATE_RELEASED_DEFAULT,
+            CmsResource.DATE_EXPIRED_DEFAULT,
+            1,
+            length,
+            2000L,
+            0);
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#getAccessControlEntries(java.lang.String)
+     */
+    @Override
+    public List<CmsAccessControlEntry> getAccessControlEntries(String resourceName) {
+
+        List<CmsAccessControlEntry> result = new ArrayList<CmsAccessControlEntry>();
+        result.add(new CmsAccessControlEntry(null, m_principal, 3, 0, 0));
+        return result;
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#getAccessControlList(java.lang.String)
+     */
+    @Override
+    public CmsAccessControlList getAccessControlList(String resourceName) {
+
+        CmsAccessControlList acl = new CmsAccessControlList();
+        acl.add(new CmsAccessControlEntry(null, m_principal, 3, 0, 0));
+        return acl;
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#getLock(org.opencms.file.CmsResource)
+     */
+    @Override
+    public CmsLock getLock(CmsResource resource) {
+
+        return CmsLock.getNullLock();
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#readFile(org.opencms.file.CmsResource)
+     */
+    @Override
+    public CmsFile readFile(CmsResource resource) {
+
+        CmsFile file = new CmsFile(resource);
+        file.setContents(m_contents);
+        return file;
+    }
+
+    /**
+     * @see org.opencms.file.CmsObject#readPropertyObjects(org.opencms.file.CmsResource, boolean)
+     */
+    @Override
+    public List<CmsProperty> readPropertyObjects(CmsResource resource, boolean search) {
+
+        List<CmsProperty> result = new ArrayList<CmsProperty>();
+        result.add(new CmsProperty("Title", "structure title", null));
+        result.add(new CmsProperty("Description", null, "resource description"));
+        return result;
+    }
+}
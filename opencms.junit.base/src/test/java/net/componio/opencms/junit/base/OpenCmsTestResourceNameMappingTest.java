@@ -0,0 +1,129 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Tests the prefix rules of {@link OpenCmsTestResourceNameMapping}.<p>
+ */
+public class OpenCmsTestResourceNameMappingTest {
+
+    /**
+     * Tests that a chained rule maps back to the name before the first operation.<p>
+     */
+    @Test
+    public void testChainedRule() {
+
+        OpenCmsTestResourceNameMapping mapping = new OpenCmsTestResourceNameMapping();
+        mapping.addRule("/b/", "/a/");
+        mapping.addChainedRule("/c/", "/b/");
+
+        assertEquals("/a/page.html", mapping.map("/c/page.html"));
+        assertEquals("/a/page.html", mapping.map("/b/page.html"));
+        assertEquals(2, mapping.size());
+    }
+
+    /**
+     * Tests that a folder rule matches the folder itself and the resources below it.<p>
+     */
+    @Test
+    public void testExactFolderMatch() {
+
+        OpenCmsTestResourceNameMapping mapping = new OpenCmsTestResourceNameMapping();
+        mapping.addRule("/folder1/", "/moved/");
+
+        assertEquals("/moved/", mapping.map("/folder1/"));
+        assertEquals("/moved/sub/page.html", mapping.map("/folder1/sub/page.html"));
+        // the folder name without trailing slash is a different resource name
+        assertEquals("/folder1", mapping.map("/folder1"));
+    }
+
+    /**
+     * Tests that a rule without trailing slash matches the exact name and the resources below it.<p>
+     */
+    @Test
+    public void testExactNameMatch() {
+
+        OpenCmsTestResourceNameMapping mapping = new OpenCmsTestResourceNameMapping();
+        mapping.addRule("/folder1", "/moved");
+
+        assertEquals("/moved", mapping.map("/folder1"));
+        assertEquals("/moved/", mapping.map("/folder1/"));
+        assertEquals("/moved/page.html", mapping.map("/folder1/page.html"));
+    }
+
+    /**
+     * Tests that the rule with the longest matching source wins.<p>
+     */
+    @Test
+    public void testLongestRuleWins() {
+
+        OpenCmsTestResourceNameMapping mapping = new OpenCmsTestResourceNameMapping();
+        mapping.addRule("/folder1/", "/a/");
+        mapping.addRule("/folder1/sub/", "/b/");
+
+        assertEquals("/b/page.html", mapping.map("/folder1/sub/page.html"));
+        assertEquals("/a/subfolder/page.html", mapping.map("/folder1/subfolder/page.html"));
+        assertEquals("/a/page.html", mapping.map("/folder1/page.html"));
+    }
+
+    /**
+     * Tests the segment boundary check shared with the storage.<p>
+     */
+    @Test
+    public void testPrefixBoundary() {
+
+        assertTrue(OpenCmsTestResourceNameMapping.matches("/folder1", "/folder1"));
+        assertTrue(OpenCmsTestResourceNameMapping.matches("/folder1", "/folder1/"));
+        assertTrue(OpenCmsTestResourceNameMapping.matches("/folder1/", "/folder1/page.html"));
+        assertFalse(OpenCmsTestResourceNameMapping.matches("/folder1", "/folder10"));
+        assertFalse(OpenCmsTestResourceNameMapping.matches("/folder1", "/folder10/page.html"));
+        assertFalse(OpenCmsTestResourceNameMapping.matches("/folder1/", "/folder1"));
+    }
+
+    /**
+     * Tests that a rule does not match a sibling whose name starts with the source.<p>
+     */
+    @Test
+    public void testSiblingPrefix() {
+
+        OpenCmsTestResourceNameMapping mapping = new OpenCmsTestResourceNameMapping();
+        mapping.addRule("/folder1", "/moved");
+        mapping.addRule("/folder1/", "/moved/");
+
+        assertEquals("/folder10", mapping.map("/folder10"));
+        assertEquals("/folder10/", mapping.map("/folder10/"));
+        assertEquals("/folder10/page.html", mapping.map("/folder10/page.html"));
+        assertEquals("/moved/page.html", mapping.map("/folder1/page.html"));
+    }
+}
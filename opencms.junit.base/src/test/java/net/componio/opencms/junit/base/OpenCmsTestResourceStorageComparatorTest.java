@@ -0,0 +1,152 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.opencms.db.CmsResourceState;
+import org.opencms.file.CmsObject;
+import org.opencms.file.CmsResource;
+import org.opencms.util.CmsUUID;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Tests {@link OpenCmsTestResourceStorageComparator} with precalculated states.<p>
+ *
+ * The entries are captured from a {@link OpenCmsTestCmsObjectStub}, so no OpenCms instance is needed.<p>
+ */
+public class OpenCmsTestResourceStorageComparatorTest {
+
+    /** The content of the test files. */
+    private static final byte[] CONTENTS = "<html><body>comparator test</body></html>".getBytes();
+
+    /** The principal of the access control entries. */
+    private static final CmsUUID PRINCIPAL = new CmsUUID("c300ba5c-01e8-3727-b305-5dcc9ccae1ee");
+
+    /** The storages created by a test. */
+    private List<OpenCmsTestResourceStorage> m_storages = new ArrayList<OpenCmsTestResourceStorage>();
+
+    /**
+     * Releases the content of the storages created by the test.<p>
+     */
+    @After
+    public void clearStorages() {
+
+        for (OpenCmsTestResourceStorage storage : m_storages) {
+            storage.clear();
+        }
+    }
+
+    /**
+     * Tests the comparison with the states precalculated for a delete operation.<p>
+     *
+     * Changed resources are expected as deleted, new resources must not exist any more.<p>
+     *
+     * @throws Exception if the test fails
+     */
+    @Test(timeout = 10000)
+    public void testPreCalculatedDelete() throws Exception {
+
+        CmsObject cms = new OpenCmsTestCmsObjectStub(CONTENTS, PRINCIPAL);
+        OpenCmsTestResourceStorage expected = register(new OpenCmsTestResourceStorage("expected"));
+        add(expected, cms, "/folder/", "f0000000-0000-0000-0000-000000000001", CmsResource.STATE_UNCHANGED);
+        add(expected, cms, "/folder/old.html", "f0000000-0000-0000-0000-000000000002", CmsResource.STATE_CHANGED);
+        add(expected, cms, "/folder/new.html", "f0000000-0000-0000-0000-000000000003", CmsResource.STATE_NEW);
+        expected.preCalculateStates(OpenCmsTestResourceStorage.Operation.DELETE);
+
+        assertEquals(CmsResource.STATE_DELETED, expected.getPreCalculatedState("/folder/"));
+        assertEquals(CmsResource.STATE_DELETED, expected.getPreCalculatedState("/folder/old.html"));
+        assertTrue(expected.isPreCalculatedRemoved("/folder/new.html"));
+
+        OpenCmsTestResourceStorageComparator comparator = new OpenCmsTestResourceStorageComparator();
+        comparator.setUsePreCalculatedStates(true);
+
+        // the delete as expected: the changed resources are marked as deleted, the new resource is gone
+        OpenCmsTestResourceStorage actual = register(new OpenCmsTestResourceStorage("actual"));
+        add(actual, cms, "/folder/", "f0000000-0000-0000-0000-000000000001", CmsResource.STATE_DELETED);
+        add(actual, cms, "/folder/old.html", "f0000000-0000-0000-0000-000000000002", CmsResource.STATE_DELETED);
+        OpenCmsTestResourceStorageDiff diff = comparator.compare(expected, actual);
+        assertTrue(diff.toString(), diff.isEmpty());
+
+        // the new resource still exists
+        add(actual, cms, "/folder/new.html", "f0000000-0000-0000-0000-000000000003", CmsResource.STATE_NEW);
+        diff = comparator.compare(expected, actual);
+        assertEquals(Collections.singletonList("/folder/new.html"), diff.getAdded());
+        assertTrue(diff.toString(), diff.getMissing().isEmpty());
+
+        // a changed resource not marked as deleted
+        add(actual, cms, "/folder/old.html", "f0000000-0000-0000-0000-000000000002", CmsResource.STATE_CHANGED);
+        diff = comparator.compare(expected, actual);
+        assertEquals(1, diff.getDifferences().size());
+        assertEquals(OpenCmsTestResourceStorageComparator.Attribute.STATE, diff.getDifferences().get(0).getAttribute());
+    }
+
+    /**
+     * Adds a resource with the given state to a storage.<p>
+     *
+     * @param storage the storage
+     * @param cms the CmsObject stub
+     * @param rootPath the root path of the resource
+     * @param id the structure and resource id
+     * @param state the state of the resource
+     * @throws Exception if capturing the entry fails
+     */
+    private void add(
+        OpenCmsTestResourceStorage storage,
+        CmsObject cms,
+        String rootPath,
+        String id,
+        CmsResourceState state)
+    throws Exception {
+
+        boolean isFolder = rootPath.endsWith("/");
+        storage.add(
+            cms,
+            rootPath,
+            OpenCmsTestCmsObjectStub.createResource(rootPath, id, isFolder, state, isFolder ? -1 : CONTENTS.length));
+    }
+
+    /**
+     * Remembers a storage to release its content after the test.<p>
+     *
+     * @param storage the storage
+     * @return the storage
+     */
+    private OpenCmsTestResourceStorage register(OpenCmsTestResourceStorage storage) {
+
+        m_storages.add(storage);
+        return storage;
+    }
+}
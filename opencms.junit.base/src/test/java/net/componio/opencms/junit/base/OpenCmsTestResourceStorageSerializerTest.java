@@ -0,0 +1,391 @@
+/*
+ * This library is part of OpenCms -
+ * the Open Source Content Management System
+ *
+ * Copyright (c) Alkacon Software GmbH (http://www.alkacon.com)
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or (at your option) any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * For further information about Alkacon Software GmbH, please see the
+ * company website: http://www.alkacon.com
+ *
+ * For further information about OpenCms, please see the
+ * project website: http://www.opencms.org
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 59 Temple Place, Suite 330, Boston, MA  02111-1307  USA
+ */
+
+package net.componio.opencms.junit.base;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import org.opencms.file.CmsObject;
+import org.opencms.file.CmsProperty;
+import org.opencms.file.CmsResource;
+import org.opencms.util.CmsUUID;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Tests the binary format of {@link OpenCmsTestResourceStorageSerializer}.<p>
+ *
+ * The entries are captured from a {@link OpenCmsTestCmsObjectStub}, so no OpenCms instance is needed.<p>
+ */
+public class OpenCmsTestResourceStorageSerializerTest {
+
+    /** The content of the test file. */
+    private static final byte[] CONTENTS = "<html><body>serializer test</body></html>".getBytes();
+
+    /** The principal of the access control entries. */
+    private static final CmsUUID PRINCIPAL = new CmsUUID("c300ba5c-01e8-3727-b305-5dcc9ccae1ee");
+
+    /** The temporary folder for storage files. */
+    @Rule
+    public TemporaryFolder m_folder = new TemporaryFolder();
+
+    /** The storages created by a test. */
+    private List<OpenCmsTestResourceStorage> m_storages = new ArrayList<OpenCmsTestResourceStorage>();
+
+    /**
+     * Releases the content of the storages created by the test.<p>
+     */
+    @After
+    public void clearStorages() {
+
+        for (OpenCmsTestResourceStorage storage : m_storages) {
+            storage.clear();
+        }
+    }
+
+    /**
+     * Tests that the content of a hash mode entry is not read again from the VFS.<p>
+     *
+     * @throws Exception if the test fails
+     */
+    @Test(timeout = 10000)
+    public void testHashModeContentNotRetained() throws Exception {
+
+        OpenCmsTestResourceStorage storage = register(new OpenCmsTestResourceStorage("hash"));
+        storage.setContentMode(OpenCmsTestResourceStorageEntry.ContentMode.HASH);
+        storage.add(
+            new OpenCmsTestCmsObjectStub(CONTENTS, PRINCIPAL),
+            "/folder/index.html",
+            createResource("/folder/index.html", "f0000000-0000-0000-0000-000000000002", false));
+        OpenCmsTestResourceStorageEntry entry = storage.getEntry("/folder/index.html");
+        assertTrue(entry.isContentEqual(CONTENTS));
+        try {
+            entry.getContents();
+            fail("The content of a hash mode entry must not be available");
+        } catch (IllegalStateException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("not retained"));
+        }
+    }
+
+    /**
+     * Tests that a record reading past its declared length is rejected.<p>
+     *
+     * @throws Exception if the test fails
+     */
+    @Test(timeout = 10000)
+    public void testRecordLongerThanDeclaredLength() throws Exception {
+
+        byte[] bytes = save(createFolderStorage("record"));
+        int pos = getFirstRecordPosition(bytes);
+        int width = getVarIntWidth(bytes, pos);
+        int length = OpenCmsTestResourceStorageSerializer.readVarInt(
+            new DataInputStream(new ByteArrayInputStream(bytes, pos, width)));
+
+        // the shorter length is encoded with the same number of bytes, so the rest of the file is unchanged
+        for (int i = 0; i < width; i++) {
+            int value = ((length - 1) >>> (7 * i)) & 0x7F;
+            bytes[pos + i] = (byte)(i < (width - 1) ? value | 0x80 : value);
+        }
+        try {
+            register(OpenCmsTestResourceStorageSerializer.load(new ByteArrayInputStream(bytes)));
+            fail("A record longer than its declared length must be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("longer than its declared length"));
+        }
+    }
+
+    /**
+     * Tests that a record without a resource name is rejected with the offset of the record.<p>
+     *
+     * @throws Exception if the test fails
+     */
+    @Test(timeout = 10000)
+    public void testRecordWithoutResourceName() throws Exception {
+
+        byte[] bytes = save(createFolderStorage("noname"));
+        int pos = getFirstRecordPosition(bytes);
+
+        // the resource name is the first field of the record, index 0 is null
+        bytes[pos + getVarIntWidth(bytes, pos)] = 0;
+        try {
+            register(OpenCmsTestResourceStorageSerializer.load(new ByteArrayInputStream(bytes)));
+            fail("A record without a resource name must be rejected");
+        } catch (IOException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains("at offset " + pos));
+        }
+    }
+
+    /**
+     * Tests that a storage is the same after saving and loading it from a file and from a stream.<p>
+     *
+     * @throws Exception if the test fails
+     */
+    @Test(timeout = 10000)
+    public void testRoundTrip() throws Exception {
+
+        OpenCmsTestResourceStorage storage = createStorage();
+        byte[] bytes = save(storage);
+
+        assertStorage(storage, register(OpenCmsTestResourceStorageSerializer.load(new ByteArrayInputStream(bytes))));
+
+        File file = m_folder.newFile("storage.bin");
+        OpenCmsTestResourceStorageSerializer.save(storage, file);
+        assertStorage(storage, register(OpenCmsTestResourceStorageSerializer.load(file)));
+    }
+
+    /**
+     * Tests that spilled content is embedded in the file, so it loads without the spill folder.<p>
+     *
+     * @throws Exception if the test fails
+     */
+    @Test(timeout = 10000)
+    public void testSpilledContentEmbedded() throws Exception {
+
+        File spillFolder = m_folder.newFolder("spill");
+        OpenCmsTestResourceStorage storage = register(new OpenCmsTestResourceStorage("embedded"));
+        storage.setContentMode(OpenCmsTestResourceStorageEntry.ContentMode.HASH_SPILL);
+        storage.setContentSpillFolder(spillFolder);
+        storage.add(
+            new OpenCmsTestCmsObjectStub(CONTENTS, PRINCIPAL),
+            "/folder/index.html",
+            createResource("/folder/index.html", "f0000000-0000-0000-0000-000000000002", false));
+        byte[] bytes = save(storage);
+        assertTrue(
+            "the file must not contain the spill folder",
+            !new String(bytes, "UTF-8").contains(spillFolder.getAbsolutePath()));
+
+        for (File file : spillFolder.listFiles()) {
+            assertTrue(file.delete());
+        }
+        OpenCmsTestResourceStorageEntry entry = register(
+            OpenCmsTestResourceStorageSerializer.load(new ByteArrayInputStream(bytes))).getEntry("/folder/index.html");
+        assertArrayEquals(CONTENTS, entry.getContents());
+        assertEquals(OpenCmsTestResourceStorageEntry.ContentMode.HASH_SPILL, entry.getContentMode());
+    }
+
+    /**
+     * Tests that loading a truncated storage file fails instead of looping or returning a partial storage.<p>
+     *
+     * @throws Exception if the test fails
+     */
+    @Test(timeout = 30000)
+    public void testTruncatedFile() throws Exception {
+
+        byte[] bytes = save(createStorage());
+        File file = m_folder.newFile("truncated.bin");
+        for (int length = 0; length < bytes.length; length++) {
+            OutputStream out = new FileOutputStream(file);
+            try {
+                out.write(bytes, 0, length);
+            } finally {
+                out.close();
+            }
+            try {
+                register(OpenCmsTestResourceStorageSerializer.load(file));
+                fail("Loading a file truncated to " + length + " of " + bytes.length + " bytes must fail");
+            } catch (IOException e) {
+                // expected
+            }
+        }
+    }
+
+    /**
+     * Asserts that a loaded storage has the same entries as the saved storage.<p>
+     *
+     * @param expected the saved storage
+     * @param actual the loaded storage
+     */
+    private void assertStorage(OpenCmsTestResourceStorage expected, OpenCmsTestResourceStorage actual) {
+
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getResourceNames(), actual.getResourceNames());
+        for (String name : expected.getResourceNames()) {
+            OpenCmsTestResourceStorageEntry e = expected.getEntry(name);
+            OpenCmsTestResourceStorageEntry a = actual.getEntry(name);
+            assertEquals(name, e.getName(), a.getName());
+            assertEquals(name, e.getStructureId(), a.getStructureId());
+            assertEquals(name, e.getResourceId(), a.getResourceId());
+            assertEquals(name, e.getUserLastModified(), a.getUserLastModified());
+            assertEquals(name, e.getDateLastModified(), a.getDateLastModified());
+            assertEquals(name, e.getState(), a.getState());
+            assertEquals(name, e.getType(), a.getType());
+            assertEquals(name, e.getLength(), a.getLength());
+            assertEquals(name, e.getContentMode(), a.getContentMode());
+            assertArrayEquals(name, e.getContentHash(), a.getContentHash());
+            assertArrayEquals(name, e.getContents(), a.getContents());
+            assertEquals(name, e.getProperties().size(), a.getProperties().size());
+            for (int i = 0; i < e.getProperties().size(); i++) {
+                CmsProperty ep = e.getProperties().get(i);
+                CmsProperty ap = a.getProperties().get(i);
+                assertEquals(name, ep.getName(), ap.getName());
+                assertEquals(name, ep.getStructureValue(), ap.getStructureValue());
+                assertEquals(name, ep.getResourceValue(), ap.getResourceValue());
+            }
+            assertEquals(name, e.getAccessControlEntries().size(), a.getAccessControlEntries().size());
+            assertEquals(name, PRINCIPAL, a.getAccessControlEntries().get(0).getPrincipal());
+            assertNotNull(name, a.getAccessControlList());
+            assertEquals(name, e.getAccessControlList().getPermissionMap(), a.getAccessControlList().getPermissionMap());
+        }
+        assertNull(actual.getEntry("/folder/").getContents());
+    }
+
+    /**
+     * Creates a storage holding a single folder.<p>
+     *
+     * @param name the name of the storage
+     * @return the storage
+     * @throws Exception if creating the storage fails
+     */
+    private OpenCmsTestResourceStorage createFolderStorage(String name) throws Exception {
+
+        OpenCmsTestResourceStorage storage = register(new OpenCmsTestResourceStorage(name));
+        storage.add(
+            "/folder/",
+            new OpenCmsTestResourceStorageEntry(
+                new OpenCmsTestCmsObjectStub(null, PRINCIPAL),
+                "/folder/",
+                createResource("/folder/", "f0000000-0000-0000-0000-000000000001", true)));
+        return storage;
+    }
+
+    /**
+     * Creates a resource for the test storage.<p>
+     *
+     * @param rootPath the root path of the resource
+     * @param id the structure and resource id
+     * @param isFolder if the resource is a folder
+     * @return the resource
+     */
+    private CmsResource createResource(String rootPath, String id, boolean isFolder) {
+
+        return OpenCmsTestCmsObjectStub.createResource(
+            rootPath,
+            id,
+            isFolder,
+            CmsResource.STATE_UNCHANGED,
+            isFolder ? -1 : CONTENTS.length);
+    }
+
+    /**
+     * Creates a storage with a folder and a file.<p>
+     *
+     * @return the storage
+     * @throws Exception if capturing the entries fails
+     */
+    private OpenCmsTestResourceStorage createStorage() throws Exception {
+
+        CmsObject cms = new OpenCmsTestCmsObjectStub(CONTENTS, PRINCIPAL);
+        OpenCmsTestResourceStorage storage = register(new OpenCmsTestResourceStorage("roundtrip"));
+        storage.add(cms, "/folder/", createResource("/folder/", "f0000000-0000-0000-0000-000000000001", true));
+        storage.add(
+            cms,
+            "/folder/index.html",
+            createResource("/folder/index.html", "f0000000-0000-0000-0000-000000000002", false));
+        assertEquals(Collections.singletonList("/folder/index.html"), storage.find(
+            new OpenCmsTestResourceStorageQuery().setFilesOnly(true)));
+        return storage;
+    }
+
+    /**
+     * Returns the position of the first record of a saved storage holding a single entry.<p>
+     *
+     * @param bytes the saved storage
+     * @return the position of the length of the first record
+     * @throws IOException if reading fails
+     */
+    private int getFirstRecordPosition(byte[] bytes) throws IOException {
+
+        // skip the magic number, the version and the name to the record count
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.readInt();
+        assertEquals(OpenCmsTestResourceStorageSerializer.VERSION, in.readInt());
+        in.skipBytes(OpenCmsTestResourceStorageSerializer.readVarInt(in));
+        assertEquals(1, OpenCmsTestResourceStorageSerializer.readVarInt(in));
+        return bytes.length - in.available();
+    }
+
+    /**
+     * Returns the number of bytes of a variable length integer.<p>
+     *
+     * @param bytes the bytes holding the integer
+     * @param pos the position of the integer
+     * @return the number of bytes of the integer
+     */
+    private int getVarIntWidth(byte[] bytes, int pos) {
+
+        int width = 1;
+        while ((bytes[(pos + width) - 1] & 0x80) != 0) {
+            width++;
+        }
+        return width;
+    }
+
+    /**
+     * Remembers a storage to release its content after the test.<p>
+     *
+     * @param storage the storage
+     * @return the storage
+     */
+    private OpenCmsTestResourceStorage register(OpenCmsTestResourceStorage storage) {
+
+        m_storages.add(storage);
+        return storage;
+    }
+
+    /**
+     * Saves a storage to a byte array.<p>
+     *
+     * @param storage the storage to save
+     * @return the saved bytes
+     * @throws IOException if saving fails
+     */
+    private byte[] save(OpenCmsTestResourceStorage storage) throws IOException {
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        OpenCmsTestResourceStorageSerializer.save(storage, out);
+        return out.toByteArray();
+    }
+}